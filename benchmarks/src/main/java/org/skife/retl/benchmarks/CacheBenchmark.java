@@ -0,0 +1,86 @@
+package org.skife.retl.benchmarks;
+
+import com.github.davidmoten.rtree.geometry.Point;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.skife.retl.Airport;
+import org.skife.retl.AirportIndex;
+import org.skife.retl.CachedAirportIndex;
+import org.skife.retl.Geodetic;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Nearest airport lookups on a skewed workload: {@code hotPercent} of queries land within about 100m of one
+ * of 200 hot locations, the rest at fresh random points anywhere on the globe. Compares the index with and
+ * without the cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CacheBenchmark {
+
+    private static final int MASK = 4095;
+
+    @Param({"50", "90", "99"})
+    public int hotPercent;
+
+    @Param({"0.05", "0.5"})
+    public double cellDegrees;
+
+    private AirportIndex index;
+    private CachedAirportIndex cached;
+    private Point[] points;
+    private Random cold;
+    private int i;
+
+    @Setup
+    public void setUp() {
+        index = AirportIndex.bulkLoad(Fixtures.AIRPORTS);
+        cached = CachedAirportIndex.create(index, cellDegrees, 1_000_000);
+
+        Random random = new Random(5);
+        Point[] hot = Fixtures.randomPoints(200, 3);
+        cold = new Random(4);
+        points = new Point[MASK + 1];
+        for (int p = 0; p < points.length; p++) {
+            if (random.nextInt(100) < hotPercent) {
+                Point h = hot[random.nextInt(hot.length)];
+                points[p] = Geodetic.latLong(Math.max(-90, Math.min(90, h.y() + random.nextGaussian() * 0.001)),
+                                             Math.max(-180, Math.min(180, h.x() + random.nextGaussian() * 0.001)));
+            }
+        }
+    }
+
+    /**
+     * The next query: a precomputed hot point, or a random one where there is none.
+     */
+    private Point next() {
+        Point p = points[i++ & MASK];
+        return p != null ? p : Geodetic.latLong(cold.nextFloat() * 180f - 90f, cold.nextFloat() * 360f - 180f);
+    }
+
+    @Benchmark
+    public List<Airport> index() {
+        return index.nearest(next(), 1000, 1).toList().toBlocking().single();
+    }
+
+    @Benchmark
+    public List<Airport> cached() {
+        return cached.nearest(next(), 1000, 1).toList().toBlocking().single();
+    }
+}
@@ -0,0 +1,85 @@
+package org.skife.retl.benchmarks;
+
+import com.github.davidmoten.rtree.geometry.Point;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.skife.retl.Airport;
+import org.skife.retl.AirportIndex;
+import org.skife.retl.CorridorAirport;
+import org.skife.retl.Geodetic;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Diversion airports along Seattle to Bengaluru: the corridor query against the workaround it replaces,
+ * radius queries at points sampled along the route, merged. Sampling every {@code width} km with a radius of
+ * {@code width * 1.12} is about the coarsest that still covers the corridor, and it still only
+ * approximates the edge.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CorridorBenchmark {
+
+    private static final Point SEATTLE = Geodetic.latLong(47.6071, -122.3381);
+    private static final Point BENGALURU = Geodetic.latLong(12.9796, 77.7277);
+
+    @Param({"50", "200"})
+    public double width;
+
+    private AirportIndex index;
+    private Point[] samples;
+
+    @Setup
+    public void setUp() {
+        index = AirportIndex.bulkLoad(Fixtures.AIRPORTS);
+        int count = (int) Math.ceil(Geodetic.Earth.distance(SEATTLE, BENGALURU) / width) + 1;
+        samples = new Point[count];
+        for (int i = 0; i < count; i++) {
+            samples[i] = interpolate(SEATTLE, BENGALURU, (double) i / (count - 1));
+        }
+    }
+
+    @Benchmark
+    public List<CorridorAirport> corridor() {
+        return index.corridor(SEATTLE, BENGALURU, width).toList().toBlocking().single();
+    }
+
+    @Benchmark
+    public Set<Airport> sampled() {
+        Set<Airport> found = new LinkedHashSet<>();
+        for (Point p : samples) {
+            index.withinDistance(p, width * 1.12).forEach(found::add);
+        }
+        return found;
+    }
+
+    private static Point interpolate(Point from, Point to, double f) {
+        double lat1 = Math.toRadians(from.y());
+        double lon1 = Math.toRadians(from.x());
+        double lat2 = Math.toRadians(to.y());
+        double lon2 = Math.toRadians(to.x());
+        double delta = Geodetic.Earth.distance(from, to) / Geodetic.EARTH_RADIUS_KM;
+        double a = Math.sin((1 - f) * delta) / Math.sin(delta);
+        double b = Math.sin(f * delta) / Math.sin(delta);
+        double x = a * Math.cos(lat1) * Math.cos(lon1) + b * Math.cos(lat2) * Math.cos(lon2);
+        double y = a * Math.cos(lat1) * Math.sin(lon1) + b * Math.cos(lat2) * Math.sin(lon2);
+        double z = a * Math.sin(lat1) + b * Math.sin(lat2);
+        return Geodetic.latLong(Math.toDegrees(Math.atan2(z, Math.hypot(x, y))), Math.toDegrees(Math.atan2(y, x)));
+    }
+}
@@ -0,0 +1,70 @@
+package org.skife.retl.benchmarks;
+
+import com.github.davidmoten.rtree.geometry.Point;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.skife.retl.DistanceFilter;
+import org.skife.retl.Geodetic;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.skife.retl.Geodetic.Earth;
+
+/**
+ * Every bundled airport checked against a radius around random points, two phase with each metric as the
+ * filter. {@code HAVERSINE} is the single phase baseline.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DistanceFilterBenchmark {
+
+    private static final int MASK = 1023;
+
+    @Param({"HAVERSINE", "CHORD", "EQUIRECTANGULAR", "FLOAT"})
+    public Geodetic.Metric metric;
+
+    @Param({"50", "500"})
+    public double distance;
+
+    private Point[] points;
+    private double[] lats;
+    private double[] lons;
+    private int i;
+
+    @Setup
+    public void setUp() {
+        points = Fixtures.randomPoints(MASK + 1, 42);
+        lats = new double[Fixtures.AIRPORTS.size()];
+        lons = new double[Fixtures.AIRPORTS.size()];
+        for (int a = 0; a < lats.length; a++) {
+            lats[a] = Fixtures.AIRPORTS.get(a).latitude();
+            lons[a] = Fixtures.AIRPORTS.get(a).longitude();
+        }
+    }
+
+    @Benchmark
+    public int allAirports() {
+        Point from = points[i++ & MASK];
+        DistanceFilter filter = Earth.filter(metric, from.y(), from.x(), distance);
+        int found = 0;
+        for (int a = 0; a < lats.length; a++) {
+            if (filter.test(lats[a], lons[a])) {
+                found++;
+            }
+        }
+        return found;
+    }
+}
@@ -0,0 +1,114 @@
+package org.skife.retl.benchmarks;
+
+import com.github.davidmoten.rtree.geometry.Point;
+import com.google.common.collect.ImmutableList;
+import org.skife.retl.Airport;
+import org.skife.retl.Geodetic;
+import org.skife.retl.ImmutableAirport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Shared inputs: the bundled airports, and uniformly random points in the style of the tests'
+ * {@code PointProvider}.
+ */
+final class Fixtures {
+
+    static final List<Airport> AIRPORTS = ImmutableList.copyOf(Airport.loadKnownAirports()
+                                                                      .toBlocking()
+                                                                      .getIterator());
+
+    private Fixtures() {
+    }
+
+    static Point[] randomPoints(int count, long seed) {
+        Random random = new Random(seed);
+        Point[] points = new Point[count];
+        for (int i = 0; i < count; i++) {
+            points[i] = Geodetic.latLong(random.nextFloat() * 180f - 90f, random.nextFloat() * 360f - 180f);
+        }
+        return points;
+    }
+
+    /**
+     * {@code count} airports scattered within about half a degree of the real ones, so the synthetic
+     * dataset clusters the way the bundled one does. The first {@code AIRPORTS.size()} are the real airports.
+     */
+    static List<Airport> syntheticAirports(int count, long seed) {
+        Random random = new Random(seed);
+        List<Airport> airports = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Airport a = AIRPORTS.get(i % AIRPORTS.size());
+            if (i < AIRPORTS.size()) {
+                airports.add(a);
+                continue;
+            }
+            float lat = Math.max(-90f, Math.min(90f, a.latitude() + random.nextFloat() - 0.5f));
+            float lon = Math.max(-180f, Math.min(180f, a.longitude() + random.nextFloat() - 0.5f));
+            airports.add(ImmutableAirport.builder()
+                                         .from(a)
+                                         .iata("S" + i)
+                                         .latitude(lat)
+                                         .longitude(lon)
+                                         .build());
+        }
+        return airports;
+    }
+
+    /**
+     * {@code count} airports at uniformly random lat/lon, drawn as the tests' {@code PointProvider} draws
+     * points, so denser towards the poles than on the ground.
+     */
+    static List<Airport> uniformAirports(int count, long seed) {
+        Random random = new Random(seed);
+        Airport template = AIRPORTS.get(0);
+        List<Airport> airports = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            airports.add(ImmutableAirport.builder()
+                                         .from(template)
+                                         .iata("U" + i)
+                                         .latitude(random.nextFloat() * 180f - 90f)
+                                         .longitude(random.nextFloat() * 360f - 180f)
+                                         .build());
+        }
+        return airports;
+    }
+
+    /**
+     * {@code count} points scattered up to {@code degrees} around randomly chosen bundled airports, so load
+     * falls where airports are, as real queries would.
+     */
+    static List<Point> jittered(int count, double degrees, long seed) {
+        Random random = new Random(seed);
+        List<Point> points = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Airport a = AIRPORTS.get(random.nextInt(AIRPORTS.size()));
+            double lat = Math.max(-90, Math.min(90, a.latitude() + (random.nextDouble() * 2 - 1) * degrees));
+            double lon = Math.max(-180, Math.min(180, a.longitude() + (random.nextDouble() * 2 - 1) * degrees));
+            points.add(Geodetic.latLong(lat, lon));
+        }
+        return points;
+    }
+
+    /**
+     * Copies a classpath resource to a temporary file, for loaders which read files.
+     */
+    static Path resourceFile(String resource) {
+        try (InputStream in = Fixtures.class.getResourceAsStream(resource)) {
+            Path file = Files.createTempFile("retl-benchmark", resource.substring(resource.lastIndexOf('/') + 1));
+            Files.copy(in, file, StandardCopyOption.REPLACE_EXISTING);
+            file.toFile().deleteOnExit();
+            return file;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package org.skife.retl.benchmarks;
+
+import com.github.davidmoten.rtree.geometry.Point;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.skife.retl.Coordinates;
+import org.skife.retl.Geodetic;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.skife.retl.Geodetic.Earth;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GeodeticBenchmark {
+
+    private static final int MASK = 1023;
+
+    private Point[] points;
+    private double[] lats;
+    private double[] lons;
+    private Coordinates airports;
+    private double[] out;
+    private int i;
+
+    @Setup
+    public void setUp() {
+        points = Fixtures.randomPoints(MASK + 1, 42);
+        lats = new double[Fixtures.AIRPORTS.size()];
+        lons = new double[Fixtures.AIRPORTS.size()];
+        for (int a = 0; a < lats.length; a++) {
+            lats[a] = Fixtures.AIRPORTS.get(a).latitude();
+            lons[a] = Fixtures.AIRPORTS.get(a).longitude();
+        }
+        airports = Coordinates.of(lats, lons);
+        out = new double[lats.length];
+    }
+
+    @Benchmark
+    public double distance() {
+        Point from = points[i++ & MASK];
+        Point to = points[i & MASK];
+        return Earth.distance(from, to);
+    }
+
+    @Benchmark
+    public Point latLong() {
+        Point p = points[i++ & MASK];
+        return Geodetic.latLong(p.y(), p.x());
+    }
+
+    /**
+     * One origin to every bundled airport, from degree arrays.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public double[] distancesToAllAirports() {
+        Point from = points[i++ & MASK];
+        Earth.distances(from.y(), from.x(), lats, lons, out);
+        return out;
+    }
+
+    /**
+     * One origin to every bundled airport, from prepared unit vector columns.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public double[] preparedDistancesToAllAirports() {
+        Point from = points[i++ & MASK];
+        Earth.distances(from.y(), from.x(), airports, out);
+        return out;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public double minDistanceToAllAirports() {
+        Point from = points[i++ & MASK];
+        return Earth.minDistance(from.y(), from.x(), airports);
+    }
+}
@@ -0,0 +1,108 @@
+package org.skife.retl.benchmarks;
+
+import com.github.davidmoten.rtree.geometry.Point;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.skife.retl.Heatmap;
+import org.skife.retl.HeatmapAccumulator;
+import rx.Observable;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counting and summing a value over grid cells for a stream of random positions, scored in points per
+ * second: the primitive heatmap against the boxed map of cell to totals it replaces, straight, through Rx,
+ * and through the accumulator a parallel sink would use, here from one thread.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@OperationsPerInvocation(HeatmapBenchmark.POINTS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HeatmapBenchmark {
+
+    static final int POINTS = 1_000_000;
+
+    @Param({"0.5", "5"})
+    public double cellDegrees;
+
+    private Point[] points;
+    private List<List<Point>> batches;
+
+    @Setup
+    public void setUp() {
+        points = Fixtures.randomPoints(POINTS, 24);
+        batches = Observable.from(points).buffer(1024).toList().toBlocking().single();
+    }
+
+    @Benchmark
+    public Heatmap heatmap() {
+        Heatmap heatmap = Heatmap.create(cellDegrees);
+        for (Point p : points) {
+            heatmap.add(p, p.y());
+        }
+        return heatmap;
+    }
+
+    @Benchmark
+    public Heatmap rxAggregate() {
+        return Heatmap.aggregate(Observable.from(points), cellDegrees, p -> p, Point::y).toBlocking().single();
+    }
+
+    @Benchmark
+    public Heatmap accumulator() {
+        HeatmapAccumulator<Point> accumulator = new HeatmapAccumulator<>(cellDegrees, p -> p, Point::y);
+        batches.forEach(accumulator);
+        return accumulator.result();
+    }
+
+    @Benchmark
+    public Map<Long, double[]> boxedMap() {
+        Map<Long, double[]> cells = new HashMap<>();
+        for (Point p : points) {
+            long cell = (long) Math.floor((p.y() + 90) / cellDegrees) << 32 | (long) Math.floor((p.x() + 180) / cellDegrees);
+            double[] totals = cells.computeIfAbsent(cell, c -> new double[2]);
+            totals[0]++;
+            totals[1] += p.y();
+        }
+        return cells;
+    }
+
+    /**
+     * Folding one partial into another, the cost each extra worker adds at the end.
+     */
+    @Benchmark
+    @OperationsPerInvocation(1)
+    public Heatmap merge(MergeState state) {
+        return state.into.merge(state.from);
+    }
+
+    @State(Scope.Benchmark)
+    public static class MergeState {
+        private Heatmap into;
+        private Heatmap from;
+
+        @Setup
+        public void setUp(HeatmapBenchmark benchmark) {
+            into = Heatmap.create(benchmark.cellDegrees);
+            from = Heatmap.create(benchmark.cellDegrees);
+            Arrays.stream(benchmark.points).forEach(p -> from.add(p, 1));
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package org.skife.retl.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.skife.retl.Airport;
+import org.skife.retl.IataIndex;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Resolving IATA codes, a quarter of which are unknown, per code: the linear scan the tests use, a
+ * {@code HashMap<String, Airport>}, and {@link IataIndex} by string and in packed batches. The same code
+ * strings are looked up every time, so the map is flattered by each string caching its hash code.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@OperationsPerInvocation(IataBenchmark.CODES)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IataBenchmark {
+
+    static final int CODES = 1024;
+
+    private String[] codes;
+    private int[] packed;
+    private int[] resolved;
+    private Map<String, Airport> map;
+    private IataIndex index;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(9);
+        codes = new String[CODES];
+        for (int i = 0; i < CODES; i++) {
+            codes[i] = random.nextInt(4) == 0
+                       ? "Q" + (char) ('A' + random.nextInt(26)) + (char) ('A' + random.nextInt(26))
+                       : Fixtures.AIRPORTS.get(random.nextInt(Fixtures.AIRPORTS.size())).iata();
+        }
+        map = Fixtures.AIRPORTS.stream().collect(Collectors.toMap(Airport::iata, Function.identity()));
+        index = IataIndex.of(Fixtures.AIRPORTS);
+        packed = new int[CODES];
+        for (int i = 0; i < CODES; i++) {
+            packed[i] = IataIndex.pack(codes[i]);
+        }
+        resolved = new int[CODES];
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CODES / 64)
+    public int linearScan() {
+        int found = 0;
+        for (int i = 0; i < CODES; i += 64) {
+            String code = codes[i];
+            if (Fixtures.AIRPORTS.stream().anyMatch(a -> a.iata().equals(code))) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    @Benchmark
+    public int hashMap() {
+        int found = 0;
+        for (String code : codes) {
+            if (map.get(code) != null) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    @Benchmark
+    public int indexByString() {
+        int found = 0;
+        for (String code : codes) {
+            if (index.get(code) != null) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    @Benchmark
+    public int[] indexBatch() {
+        index.resolve(packed, resolved);
+        return resolved;
+    }
+}
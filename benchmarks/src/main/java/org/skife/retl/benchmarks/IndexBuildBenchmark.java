@@ -0,0 +1,72 @@
+package org.skife.retl.benchmarks;
+
+import com.github.davidmoten.rtree.Entry;
+import com.github.davidmoten.rtree.RTree;
+import com.github.davidmoten.rtree.geometry.Point;
+import com.github.davidmoten.rtree.internal.EntryDefault;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.skife.retl.Airport;
+import org.skife.retl.AirportIndex;
+import org.skife.retl.AirportSnapshot;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Building an index over the 5,652 bundled airports, and over a synthetic dataset clustered around them:
+ * incremental insertion against bulk Sort-Tile-Recursive loading of the same {@link RTree}, and the Hilbert
+ * packed tree behind {@link AirportSnapshot}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IndexBuildBenchmark {
+
+    @Param({"5652", "250000"})
+    public int size;
+
+    private List<Airport> airports;
+    private List<Entry<Airport, Point>> entries;
+
+    @Setup
+    public void setUp() {
+        airports = Fixtures.syntheticAirports(size, 1234);
+        entries = airports.stream()
+                                   .map(a -> EntryDefault.<Airport, Point>entry(a, a.point()))
+                                   .collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public RTree<Airport, Point> rtreeIncremental() {
+        return RTree.<Airport, Point>create().add(entries);
+    }
+
+    @Benchmark
+    public AirportIndex airportIndex() {
+        return AirportIndex.create(airports);
+    }
+
+    @Benchmark
+    public AirportIndex airportIndexBulkLoad() {
+        return AirportIndex.bulkLoad(airports);
+    }
+
+    @Benchmark
+    public AirportSnapshot packedSnapshot() {
+        return AirportSnapshot.of(airports);
+    }
+}
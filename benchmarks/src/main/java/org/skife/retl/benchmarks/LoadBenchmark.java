@@ -0,0 +1,66 @@
+package org.skife.retl.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.skife.retl.Airport;
+import org.skife.retl.AirportSnapshot;
+import org.skife.retl.ParallelAirportCsv;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Getting from reference data at rest to airports in memory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoadBenchmark {
+
+    private Path csv;
+    private Path snapshot;
+
+    @Setup
+    public void setUp() throws IOException {
+        csv = Fixtures.resourceFile("/airports.csv");
+        snapshot = Files.createTempFile("retl-benchmark", ".snapshot");
+        snapshot.toFile().deleteOnExit();
+        AirportSnapshot.write(Fixtures.AIRPORTS, snapshot);
+    }
+
+    @Benchmark
+    public int loadKnownAirports() {
+        return Airport.loadKnownAirports().count().toBlocking().single();
+    }
+
+    @Benchmark
+    public int parallelCsvOrdered() {
+        return ParallelAirportCsv.load(csv, true).count().toBlocking().single();
+    }
+
+    @Benchmark
+    public int parallelCsvUnordered() {
+        return ParallelAirportCsv.load(csv, false).count().toBlocking().single();
+    }
+
+    /**
+     * Mapping a snapshot and materializing every airport from it.
+     */
+    @Benchmark
+    public int snapshotAirports() throws IOException {
+        return AirportSnapshot.open(snapshot).airports().count().toBlocking().single();
+    }
+}
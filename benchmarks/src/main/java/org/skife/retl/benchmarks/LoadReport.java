@@ -0,0 +1,47 @@
+package org.skife.retl.benchmarks;
+
+import org.immutables.value.Value;
+
+import java.time.Duration;
+
+/**
+ * What a {@link NearestServerLoad} run saw from the client side. Latencies are of answered requests only, as
+ * shed ones return at once and would flatter them.
+ */
+@Value.Immutable
+public interface LoadReport {
+
+    int connections();
+
+    Duration elapsed();
+
+    /**
+     * Requests answered, 200 or 404.
+     */
+    long answered();
+
+    /**
+     * Requests turned away with 503.
+     */
+    long shed();
+
+    /**
+     * Requests which failed any other way, connection errors included.
+     */
+    long errors();
+
+    Duration p50();
+
+    Duration p99();
+
+    Duration p999();
+
+    Duration max();
+
+    /**
+     * Answered requests a second.
+     */
+    default double throughput() {
+        return elapsed().isZero() ? 0 : answered() * 1e9 / elapsed().toNanos();
+    }
+}
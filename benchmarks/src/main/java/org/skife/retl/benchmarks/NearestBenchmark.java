@@ -0,0 +1,119 @@
+package org.skife.retl.benchmarks;
+
+import com.github.davidmoten.rtree.Entry;
+import com.github.davidmoten.rtree.RTree;
+import com.github.davidmoten.rtree.geometry.Point;
+import com.github.davidmoten.rtree.internal.EntryDefault;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.skife.retl.Airport;
+import org.skife.retl.AirportIndex;
+import org.skife.retl.AirportSnapshot;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.skife.retl.Geodetic.Earth;
+
+/**
+ * Nearest neighbour queries from uniformly random points. The raw {@link RTree} measures in degrees, so
+ * it is given {@code maxDistance / 111.2}, roughly the same radius at the equator.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NearestBenchmark {
+
+    private static final int MASK = 1023;
+
+    @Param({"1", "10", "50"})
+    public int k;
+
+    @Param({"100", "1000", "20000"})
+    public double maxDistance;
+
+    private Point[] points;
+    private RTree<Airport, Point> rtree;
+    private AirportIndex index;
+    private AirportIndex bulkIndex;
+    private AirportSnapshot packed;
+    private List<Airport> airports;
+    private double[] distances;
+    private int i;
+
+    @Setup
+    public void setUp() {
+        points = Fixtures.randomPoints(MASK + 1, 7);
+        airports = Fixtures.AIRPORTS;
+        rtree = RTree.<Airport, Point>create().add(airports.stream()
+                                                           .map(a -> EntryDefault.<Airport, Point>entry(a, a.point()))
+                                                           .collect(Collectors.toList()));
+        index = AirportIndex.create(airports);
+        bulkIndex = AirportIndex.bulkLoad(airports);
+        packed = AirportSnapshot.of(airports);
+        distances = new double[airports.size()];
+    }
+
+    @Benchmark
+    public List<Entry<Airport, Point>> rtreeNearest() {
+        return rtree.nearest(points[i++ & MASK], maxDistance / 111.2, k)
+                    .toList()
+                    .toBlocking()
+                    .single();
+    }
+
+    @Benchmark
+    public List<Airport> airportIndexNearest() {
+        return index.nearest(points[i++ & MASK], maxDistance, k)
+                    .toList()
+                    .toBlocking()
+                    .single();
+    }
+
+    @Benchmark
+    public List<Airport> bulkIndexNearest() {
+        return bulkIndex.nearest(points[i++ & MASK], maxDistance, k)
+                        .toList()
+                        .toBlocking()
+                        .single();
+    }
+
+    @Benchmark
+    public List<Airport> packedNearest() {
+        return packed.nearest(points[i++ & MASK], maxDistance, k)
+                     .toList()
+                     .toBlocking()
+                     .single();
+    }
+
+    /**
+     * Haversine to every airport, then the k smallest within range.
+     */
+    @Benchmark
+    public double[] bruteForceHaversine() {
+        Point p = points[i++ & MASK];
+        int n = 0;
+        for (Airport a : airports) {
+            double d = Earth.distance(p, a.point());
+            if (d < maxDistance) {
+                distances[n++] = d;
+            }
+        }
+        Arrays.sort(distances, 0, n);
+        return Arrays.copyOf(distances, Math.min(k, n));
+    }
+}
@@ -0,0 +1,86 @@
+package org.skife.retl.benchmarks;
+
+import com.github.davidmoten.rtree.geometry.Point;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.skife.retl.Airport;
+import org.skife.retl.AirportIndex;
+import org.skife.retl.NearestAirport;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The nearest airport in a different country from the nearest airport to random points: pulled lazily
+ * until found, against guessing a count and doubling it until the answer is in the results.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NearestFirstBenchmark {
+
+    private static final int MASK = 1023;
+
+    private AirportIndex index;
+    private Point[] points;
+    private int i;
+
+    @Setup
+    public void setUp() {
+        index = AirportIndex.bulkLoad(Fixtures.AIRPORTS);
+        points = Fixtures.randomPoints(MASK + 1, 17);
+    }
+
+    @Benchmark
+    public NearestAirport nearestFirst() {
+        Point p = points[i++ & MASK];
+        String[] country = new String[1];
+        return index.nearestFirst(p, Double.POSITIVE_INFINITY)
+                    .filter(n -> {
+                        if (country[0] == null) {
+                            country[0] = n.airport().country();
+                        }
+                        return !n.airport().country().equals(country[0]);
+                    })
+                    .toBlocking()
+                    .first();
+    }
+
+    @Benchmark
+    public NearestAirport nearestFirstIterator() {
+        Iterator<NearestAirport> nearest = index.nearestFirstIterator(points[i++ & MASK], Double.POSITIVE_INFINITY);
+        String country = nearest.next().airport().country();
+        while (true) {
+            NearestAirport n = nearest.next();
+            if (!n.airport().country().equals(country)) {
+                return n;
+            }
+        }
+    }
+
+    @Benchmark
+    public Airport requery() {
+        Point p = points[i++ & MASK];
+        for (int count = 4; ; count *= 2) {
+            List<Airport> nearest = index.nearest(p, Double.POSITIVE_INFINITY, count).toList().toBlocking().single();
+            String country = nearest.get(0).country();
+            for (Airport a : nearest) {
+                if (!a.country().equals(country)) {
+                    return a;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package org.skife.retl.benchmarks;
+
+import com.github.davidmoten.rtree.geometry.Point;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.skife.retl.Airport;
+import org.skife.retl.AirportIndex;
+import org.skife.retl.NearestAirport;
+import rx.Observable;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Snapping a stream of random positions to their nearest airport, scored in points per second: one Rx
+ * query per point, against the batch array and observable joins.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@OperationsPerInvocation(NearestJoinBenchmark.POINTS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NearestJoinBenchmark {
+
+    static final int POINTS = 100_000;
+
+    @Param({"500", "20000"})
+    public double maxDistance;
+
+    private AirportIndex index;
+    private Point[] points;
+    private double[] lats;
+    private double[] lons;
+    private double[] distances;
+
+    @Setup
+    public void setUp() {
+        index = AirportIndex.bulkLoad(Fixtures.AIRPORTS);
+        points = Fixtures.randomPoints(POINTS, 11);
+        lats = new double[POINTS];
+        lons = new double[POINTS];
+        for (int i = 0; i < POINTS; i++) {
+            lats[i] = points[i].y();
+            lons[i] = points[i].x();
+        }
+        distances = new double[POINTS];
+    }
+
+    @Benchmark
+    public int perCallRx() {
+        int found = 0;
+        for (Point p : points) {
+            if (index.nearest(p, maxDistance, 1).toBlocking().firstOrDefault(null) != null) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    @Benchmark
+    public Airport[] batchArrays() {
+        return index.nearest(lats, lons, maxDistance, distances);
+    }
+
+    @Benchmark
+    public List<NearestAirport> observableJoin() {
+        return index.nearestJoin(Observable.from(points), maxDistance)
+                    .toList()
+                    .toBlocking()
+                    .single();
+    }
+}
@@ -0,0 +1,231 @@
+package org.skife.retl.benchmarks;
+
+import com.github.davidmoten.rtree.geometry.Point;
+import com.google.common.base.Preconditions;
+import org.skife.retl.Airport;
+import org.skife.retl.AirportIndex;
+import org.skife.retl.ImmutableNearestServerConfig;
+import org.skife.retl.NearestAirportServer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A closed loop load generator for {@link NearestAirportServer}: each connection sends a request for a random
+ * point, waits for the answer and sends the next, for a fixed time. Connections are plain sockets speaking
+ * keep-alive HTTP/1.1, so the client costs little and the numbers are mostly the server's.
+ * <p>
+ * Not a JMH benchmark, as it measures a server under concurrent load rather than a method. Run it from the
+ * benchmarks jar:
+ * <pre>
+ *   java -cp benchmarks/target/benchmarks.jar org.skife.retl.benchmarks.NearestServerLoad \
+ *        [connections [seconds [host:port]]]
+ * </pre>
+ * Without an address it starts a server over the bundled airports in the same JVM and reports the batch sizes
+ * it saw too.
+ */
+public final class NearestServerLoad {
+
+    private NearestServerLoad() {
+    }
+
+    /**
+     * Drives {@code server} from {@code connections} threads for {@code duration}, each request for one of
+     * {@code points} picked at random.
+     */
+    public static LoadReport run(InetSocketAddress server, List<Point> points, int connections, Duration duration) {
+        Preconditions.checkArgument(connections > 0, "connections must be positive");
+        Preconditions.checkArgument(!points.isEmpty(), "points must not be empty");
+        LongAdder shed = new LongAdder();
+        LongAdder errors = new LongAdder();
+        long start = System.nanoTime();
+        long deadline = start + duration.toNanos();
+
+        List<Thread> threads = new ArrayList<>();
+        List<Samples> latencies = new ArrayList<>();
+        for (int c = 0; c < connections; c++) {
+            Samples latency = new Samples();
+            Thread t = new Thread(() -> drive(server, points, deadline, latency, shed, errors),
+                                  "nearest-load-" + c);
+            t.start();
+            threads.add(t);
+            latencies.add(latency);
+        }
+        for (Thread t : threads) {
+            try {
+                t.join();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        long[] sorted = Samples.sorted(latencies);
+        return ImmutableLoadReport.builder()
+                                  .connections(connections)
+                                  .elapsed(Duration.ofNanos(System.nanoTime() - start))
+                                  .answered(sorted.length)
+                                  .shed(shed.sum())
+                                  .errors(errors.sum())
+                                  .p50(quantile(sorted, 0.5))
+                                  .p99(quantile(sorted, 0.99))
+                                  .p999(quantile(sorted, 0.999))
+                                  .max(quantile(sorted, 1))
+                                  .build();
+    }
+
+    public static void main(String[] args) throws IOException {
+        // see NearestAirportServer; must be set before the embedded server is created
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        Duration duration = Duration.ofSeconds(args.length > 1 ? Long.parseLong(args[1]) : 10);
+        List<Airport> airports = Fixtures.AIRPORTS;
+        List<Point> points = Fixtures.jittered(100_000, 1.0, 20);
+
+        NearestAirportServer embedded = null;
+        InetSocketAddress address;
+        if (args.length > 2) {
+            String[] hostPort = args[2].split(":");
+            address = new InetSocketAddress(hostPort[0], Integer.parseInt(hostPort[1]));
+        }
+        else {
+            embedded = NearestAirportServer.start(AirportIndex.bulkLoad(airports),
+                                                  ImmutableNearestServerConfig.builder().build());
+            address = new InetSocketAddress("127.0.0.1", embedded.port());
+        }
+
+        LoadReport report = run(address, points, connections, duration);
+        System.out.printf("%d connections for %s: %.0f requests/s answered, %d shed, %d errors%n",
+                          report.connections(), report.elapsed(), report.throughput(), report.shed(),
+                          report.errors());
+        System.out.printf("latency p50 %s, p99 %s, p99.9 %s, max %s%n",
+                          report.p50(), report.p99(), report.p999(), report.max());
+        if (embedded != null) {
+            System.out.printf("%d batches, %.1f requests each%n",
+                              embedded.batches(), (double) embedded.served() / Math.max(1, embedded.batches()));
+            embedded.close();
+        }
+    }
+
+    private static Duration quantile(long[] sorted, double quantile) {
+        if (sorted.length == 0) {
+            return Duration.ZERO;
+        }
+        int rank = (int) Math.ceil(quantile * sorted.length);
+        return Duration.ofNanos(sorted[Math.max(0, rank - 1)]);
+    }
+
+    private static void drive(InetSocketAddress server, List<Point> points, long deadline, Samples latency,
+                              LongAdder shed, LongAdder errors) {
+        byte[] host = ("Host: " + server.getHostString() + ":" + server.getPort() + "\r\n\r\n")
+                .getBytes(StandardCharsets.US_ASCII);
+        while (System.nanoTime() < deadline) {
+            try (Socket socket = new Socket(server.getAddress(), server.getPort())) {
+                socket.setTcpNoDelay(true);
+                InputStream in = new BufferedInputStream(socket.getInputStream());
+                OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+                while (System.nanoTime() < deadline) {
+                    Point p = points.get(ThreadLocalRandom.current().nextInt(points.size()));
+                    long start = System.nanoTime();
+                    out.write(("GET /nearest?lat=" + p.y() + "&lon=" + p.x() + " HTTP/1.1\r\n")
+                                      .getBytes(StandardCharsets.US_ASCII));
+                    out.write(host);
+                    out.flush();
+                    int status = readResponse(in);
+                    if (status == 200 || status == 404) {
+                        latency.add(System.nanoTime() - start);
+                    }
+                    else if (status == 503) {
+                        shed.increment();
+                    }
+                    else {
+                        errors.increment();
+                    }
+                }
+            }
+            catch (IOException e) {
+                // count it and reconnect
+                errors.increment();
+            }
+        }
+    }
+
+    /**
+     * Reads one response, skipping its body, and returns its status.
+     */
+    private static int readResponse(InputStream in) throws IOException {
+        String status = readLine(in);
+        int contentLength = 0;
+        for (String header = readLine(in); !header.isEmpty(); header = readLine(in)) {
+            int colon = header.indexOf(':');
+            if (colon > 0 && header.substring(0, colon).trim().equalsIgnoreCase("Content-Length")) {
+                contentLength = Integer.parseInt(header.substring(colon + 1).trim());
+            }
+        }
+        for (int i = 0; i < contentLength; i++) {
+            if (in.read() < 0) {
+                throw new EOFException();
+            }
+        }
+        String[] parts = status.split(" ");
+        if (parts.length < 2) {
+            throw new IOException("bad status line: " + status);
+        }
+        return Integer.parseInt(parts[1]);
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        for (int b = in.read(); b != '\n'; b = in.read()) {
+            if (b < 0) {
+                throw new EOFException();
+            }
+            if (b != '\r') {
+                line.append((char) b);
+            }
+        }
+        return line.toString();
+    }
+
+    /**
+     * One connection's latencies, kept whole so quantiles are exact; a run of a few minutes holds a few
+     * million of them.
+     */
+    private static final class Samples {
+        private long[] values = new long[4096];
+        private int size;
+
+        private void add(long nanos) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = nanos;
+        }
+
+        private static long[] sorted(List<Samples> all) {
+            long[] merged = new long[all.stream().mapToInt(s -> s.size).sum()];
+            int at = 0;
+            for (Samples s : all) {
+                System.arraycopy(s.values, 0, merged, at, s.size);
+                at += s.size;
+            }
+            Arrays.parallelSort(merged);
+            return merged;
+        }
+    }
+}
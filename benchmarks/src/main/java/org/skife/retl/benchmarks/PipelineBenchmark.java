@@ -0,0 +1,99 @@
+package org.skife.retl.benchmarks;
+
+import com.github.davidmoten.rtree.geometry.Point;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.skife.retl.Airport;
+import org.skife.retl.AirportIndex;
+import org.skife.retl.ImmutableNearestAirport;
+import org.skife.retl.NearestAirport;
+import org.skife.retl.Pipeline;
+import org.skife.retl.StageStats;
+import rx.Observable;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Snapping random positions to their nearest airport and writing them out in batches of 500, scored in
+ * points per second. The sink stands in for a database insert, blocking for {@code writeMicros} per row and
+ * using no CPU. Sequential Rx enriches and writes in turn; the pipeline overlaps the two, and with a
+ * parallel sink overlaps the writes with each other.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@OperationsPerInvocation(PipelineBenchmark.POINTS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PipelineBenchmark {
+
+    static final int POINTS = 20_000;
+
+    private static final int BATCH = 500;
+    private static final double MAX_DISTANCE = 20_000;
+
+    @Param({"5", "25", "100"})
+    public long writeMicros;
+
+    private AirportIndex index;
+    private Point[] points;
+
+    @Setup
+    public void setUp() {
+        index = AirportIndex.bulkLoad(Fixtures.AIRPORTS);
+        points = Fixtures.randomPoints(POINTS, 23);
+    }
+
+    @Benchmark
+    public int sequentialRx() {
+        return Observable.from(points)
+                         .map(this::enrich)
+                         .filter(n -> n != null)
+                         .buffer(BATCH)
+                         .map(this::write)
+                         .reduce(0, Integer::sum)
+                         .toBlocking()
+                         .single();
+    }
+
+    @Benchmark
+    public long pipeline() throws InterruptedException {
+        return run(1);
+    }
+
+    @Benchmark
+    public long pipelineParallelSink() throws InterruptedException {
+        return run(4);
+    }
+
+    private long run(int sinks) throws InterruptedException {
+        List<StageStats> stats = Pipeline.from("points", Observable.from(points))
+                                         .map("enrich", 1, true, this::enrich)
+                                         .sink("write", sinks, BATCH, this::write)
+                                         .run();
+        return stats.get(2).items();
+    }
+
+    private NearestAirport enrich(Point p) {
+        Airport a = index.nearest(p, MAX_DISTANCE, 1).toBlocking().firstOrDefault(null);
+        return a == null ? null : ImmutableNearestAirport.of(p, a, 0);
+    }
+
+    private int write(List<NearestAirport> batch) {
+        LockSupport.parkNanos(batch.size() * writeMicros * 1000);
+        return batch.size();
+    }
+}
@@ -0,0 +1,114 @@
+package org.skife.retl.benchmarks;
+
+import com.github.davidmoten.rtree.geometry.Point;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.skife.retl.Airport;
+import org.skife.retl.AirportIndex;
+import org.skife.retl.Geodetic;
+import org.skife.retl.Polygon;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Airports inside a jagged, country sized polygon over Europe: a scan of every airport ray casting against
+ * every edge, as before; the index's bounding box search with the same ray cast; and the index with the
+ * prepared polygon. {@code prepare} is the one off cost of preparing the polygon.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PolygonBenchmark {
+
+    @Param({"1000", "10000"})
+    public int vertices;
+
+    private AirportIndex index;
+    private List<Point> ring;
+    private double[] lats;
+    private double[] lons;
+    private double minLat;
+    private double maxLat;
+    private double minLon;
+    private double maxLon;
+    private Polygon polygon;
+
+    @Setup
+    public void setUp() {
+        index = AirportIndex.bulkLoad(Fixtures.AIRPORTS);
+        Random random = new Random(25);
+        ring = new ArrayList<>(vertices);
+        lats = new double[vertices];
+        lons = new double[vertices];
+        minLat = minLon = Double.POSITIVE_INFINITY;
+        maxLat = maxLon = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < vertices; i++) {
+            double angle = 2 * Math.PI * i / vertices;
+            double r = 12 * (0.6 + 0.3 * Math.sin(5 * angle) + 0.1 * random.nextDouble());
+            lats[i] = 50 + r * Math.sin(angle);
+            lons[i] = 10 + r * Math.cos(angle);
+            ring.add(Geodetic.latLong(lats[i], lons[i]));
+            minLat = Math.min(minLat, lats[i]);
+            maxLat = Math.max(maxLat, lats[i]);
+            minLon = Math.min(minLon, lons[i]);
+            maxLon = Math.max(maxLon, lons[i]);
+        }
+        polygon = Polygon.of(ring);
+    }
+
+    @Benchmark
+    public List<Airport> scanRayCast() {
+        List<Airport> found = new ArrayList<>();
+        for (Airport a : Fixtures.AIRPORTS) {
+            if (rayCast(a.latitude(), a.longitude())) {
+                found.add(a);
+            }
+        }
+        return found;
+    }
+
+    @Benchmark
+    public List<Airport> indexRayCast() {
+        return index.withinBox(minLat, minLon, maxLat, maxLon)
+                    .filter(a -> rayCast(a.latitude(), a.longitude()))
+                    .toList()
+                    .toBlocking()
+                    .single();
+    }
+
+    @Benchmark
+    public List<Airport> indexPrepared() {
+        return index.withinPolygon(polygon).toList().toBlocking().single();
+    }
+
+    @Benchmark
+    public Polygon prepare() {
+        return Polygon.of(ring);
+    }
+
+    private boolean rayCast(double lat, double lon) {
+        boolean inside = false;
+        for (int i = 0, j = vertices - 1; i < vertices; j = i++) {
+            if ((lats[i] > lat) != (lats[j] > lat)
+                && lon < lons[i] + (lat - lats[i]) * (lons[j] - lons[i]) / (lats[j] - lats[i])) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+}
@@ -0,0 +1,58 @@
+package org.skife.retl.benchmarks;
+
+import com.github.davidmoten.rtree.geometry.Point;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.skife.retl.Airport;
+import org.skife.retl.AirportIndex;
+import org.skife.retl.QueryMetrics;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What recording query metrics costs, against the same index with them disabled.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryMetricsBenchmark {
+
+    private static final int MASK = 1023;
+
+    @Param({"false", "true"})
+    public boolean enabled;
+
+    private AirportIndex index;
+    private Point[] points;
+    private int i;
+
+    @Setup
+    public void setUp() {
+        AirportIndex plain = AirportIndex.bulkLoad(Fixtures.AIRPORTS);
+        index = enabled ? plain.withMetrics(QueryMetrics.create()) : plain;
+        points = Fixtures.randomPoints(MASK + 1, 16);
+    }
+
+    @Benchmark
+    public Airport nearest() {
+        return index.nearest(points[i++ & MASK], 2000, 1).toBlocking().firstOrDefault(null);
+    }
+
+    @Benchmark
+    public List<Airport> withinDistance() {
+        return index.withinDistance(points[i++ & MASK], 500).toList().toBlocking().single();
+    }
+}
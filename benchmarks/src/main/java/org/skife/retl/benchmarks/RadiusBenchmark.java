@@ -0,0 +1,57 @@
+package org.skife.retl.benchmarks;
+
+import com.github.davidmoten.rtree.geometry.Point;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.skife.retl.Airport;
+import org.skife.retl.AirportIndex;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * All airports within a radius of random points: {@code withinDistance} against asking {@code nearest} for
+ * every airport in range, the workaround before there was a radius query.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RadiusBenchmark {
+
+    private static final int MASK = 1023;
+
+    @Param({"50", "500"})
+    public double distance;
+
+    private AirportIndex index;
+    private Point[] points;
+    private int i;
+
+    @Setup
+    public void setUp() {
+        index = AirportIndex.bulkLoad(Fixtures.AIRPORTS);
+        points = Fixtures.randomPoints(MASK + 1, 13);
+    }
+
+    @Benchmark
+    public List<Airport> withinDistance() {
+        return index.withinDistance(points[i++ & MASK], distance).toList().toBlocking().single();
+    }
+
+    @Benchmark
+    public List<Airport> nearestOverscan() {
+        return index.nearest(points[i++ & MASK], distance, Integer.MAX_VALUE).toList().toBlocking().single();
+    }
+}
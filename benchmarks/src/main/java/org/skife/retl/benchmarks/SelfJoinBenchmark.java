@@ -0,0 +1,75 @@
+package org.skife.retl.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.skife.retl.Airport;
+import org.skife.retl.AirportPair;
+import org.skife.retl.AirportSelfJoin;
+import org.skife.retl.Geodetic;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Every pair of airports within 50km: the tiled self join against comparing every pair.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Fork(1)
+public class SelfJoinBenchmark {
+
+    private static final double DISTANCE = 50;
+
+    @Param({"5652", "20000"})
+    public int size;
+
+    private List<Airport> airports;
+    private double[] lats;
+    private double[] lons;
+
+    @Setup
+    public void setUp() {
+        airports = Fixtures.syntheticAirports(size, 21);
+        lats = new double[size];
+        lons = new double[size];
+        for (int i = 0; i < size; i++) {
+            lats[i] = airports.get(i).latitude();
+            lons[i] = airports.get(i).longitude();
+        }
+    }
+
+    @Benchmark
+    public List<AirportPair> tiledJoin() {
+        return AirportSelfJoin.withinDistance(airports, DISTANCE).toList().toBlocking().single();
+    }
+
+    /**
+     * Batch haversine from each airport to every later one.
+     */
+    @Benchmark
+    public int bruteForce() {
+        double[] distances = new double[size];
+        int pairs = 0;
+        for (int i = 0; i < size; i++) {
+            Geodetic.Earth.distances(lats[i], lons[i], lats, lons, distances);
+            for (int j = i + 1; j < size; j++) {
+                if (distances[j] <= DISTANCE) {
+                    pairs++;
+                }
+            }
+        }
+        return pairs;
+    }
+}
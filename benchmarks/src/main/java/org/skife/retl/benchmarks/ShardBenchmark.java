@@ -0,0 +1,94 @@
+package org.skife.retl.benchmarks;
+
+import com.github.davidmoten.rtree.geometry.Point;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.skife.retl.Airport;
+import org.skife.retl.AirportIndex;
+import org.skife.retl.RemoteShard;
+import org.skife.retl.ShardServer;
+import org.skife.retl.ShardedAirportIndex;
+import org.skife.retl.SpatialIndex;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One index against the same airports in shards, either in this JVM or behind a {@link ShardServer} on
+ * loopback, which measures what scatter-gather and the socket round trip cost a single query. Query points
+ * are drawn from the dataset.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShardBenchmark {
+
+    private static final int MASK = 1023;
+
+    @Param({"single", "local", "remote"})
+    public String layout;
+
+    @Param({"8"})
+    public int shards;
+
+    private ShardServer server;
+    private SpatialIndex index;
+    private Point[] points;
+    private int i;
+
+    @Setup
+    public void setUp() throws IOException {
+        List<Airport> airports = Fixtures.syntheticAirports(50_000, 19);
+        switch (layout) {
+            case "local":
+                index = ShardedAirportIndex.create(airports, shards);
+                break;
+            case "remote":
+                server = ShardServer.start(0);
+                index = ShardedAirportIndex.create(airports, shards, RemoteShard.roundRobin(server.port()),
+                                                   ForkJoinPool.commonPool());
+                break;
+            default:
+                index = AirportIndex.bulkLoad(airports);
+        }
+        points = new Point[MASK + 1];
+        for (int p = 0; p < points.length; p++) {
+            points[p] = airports.get((p * 7919) % airports.size()).point();
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        if (index instanceof ShardedAirportIndex) {
+            ((ShardedAirportIndex) index).close();
+        }
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    @Benchmark
+    public List<Airport> nearest10() {
+        return index.nearest(points[i++ & MASK], 2000, 10).toList().toBlocking().single();
+    }
+
+    @Benchmark
+    public List<Airport> within500() {
+        return index.withinDistance(points[i++ & MASK], 500).toList().toBlocking().single();
+    }
+}
@@ -0,0 +1,83 @@
+package org.skife.retl.benchmarks;
+
+import com.github.davidmoten.rtree.geometry.Point;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.skife.retl.Airport;
+import org.skife.retl.AirportIndex;
+import org.skife.retl.GridAirportIndex;
+import org.skife.retl.SpatialIndex;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The R-tree and grid engines side by side, on the bundled airports and on 50,000 synthetic ones, either
+ * uniformly random or clustered around the real airports. Query points are drawn from the dataset, so
+ * queries land where the data is, as they would in production.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SpatialIndexBenchmark {
+
+    private static final int MASK = 1023;
+    private static final int SYNTHETIC = 50_000;
+
+    @Param({"tree", "grid"})
+    public String engine;
+
+    @Param({"bundled", "uniform", "clustered"})
+    public String dataset;
+
+    private SpatialIndex index;
+    private Point[] points;
+    private int i;
+
+    @Setup
+    public void setUp() {
+        List<Airport> airports;
+        switch (dataset) {
+            case "uniform":
+                airports = Fixtures.uniformAirports(SYNTHETIC, 18);
+                break;
+            case "clustered":
+                airports = Fixtures.syntheticAirports(SYNTHETIC, 18);
+                break;
+            default:
+                airports = Fixtures.AIRPORTS;
+        }
+        index = engine.equals("grid") ? GridAirportIndex.create(airports) : AirportIndex.bulkLoad(airports);
+        points = new Point[MASK + 1];
+        for (int p = 0; p < points.length; p++) {
+            points[p] = airports.get((p * 7919) % airports.size()).point();
+        }
+    }
+
+    @Benchmark
+    public List<Airport> nearest1() {
+        return index.nearest(points[i++ & MASK], 2000, 1).toList().toBlocking().single();
+    }
+
+    @Benchmark
+    public List<Airport> nearest10() {
+        return index.nearest(points[i++ & MASK], 2000, 10).toList().toBlocking().single();
+    }
+
+    @Benchmark
+    public List<Airport> within100() {
+        return index.withinDistance(points[i++ & MASK], 100).toList().toBlocking().single();
+    }
+}
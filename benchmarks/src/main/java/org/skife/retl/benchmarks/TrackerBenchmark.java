@@ -0,0 +1,109 @@
+package org.skife.retl.benchmarks;
+
+import com.github.davidmoten.rtree.geometry.Point;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.skife.retl.Airport;
+import org.skife.retl.AirportIndex;
+import org.skife.retl.Geodetic;
+import org.skife.retl.NearestTracker;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Snapping aircraft-like tracks to their nearest airport, scored in points per second: a tracker per track
+ * against a full query per point and the batch array join. {@code step} is kilometres between fixes, 0.25
+ * being a jet reporting every second and 25 one reporting every 100 seconds.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@OperationsPerInvocation(TrackerBenchmark.POINTS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TrackerBenchmark {
+
+    static final int TRACKS = 100;
+    static final int FIXES = 1000;
+    static final int POINTS = TRACKS * FIXES;
+
+    private static final double MAX_DISTANCE = 500;
+
+    @Param({"0.25", "2.5", "25"})
+    public double step;
+
+    private AirportIndex index;
+    private Point[] points;
+    private double[] lats;
+    private double[] lons;
+    private double[] distances;
+
+    @Setup
+    public void setUp() {
+        index = AirportIndex.bulkLoad(Fixtures.AIRPORTS);
+        Random random = new Random(22);
+        points = new Point[POINTS];
+        lats = new double[POINTS];
+        lons = new double[POINTS];
+        for (int t = 0; t < TRACKS; t++) {
+            // a straight track on a constant heading, starting over land more often than not
+            Airport origin = Fixtures.AIRPORTS.get(random.nextInt(Fixtures.AIRPORTS.size()));
+            double lat = origin.point().y();
+            double lon = origin.point().x();
+            double heading = random.nextDouble() * 2 * Math.PI;
+            double degrees = Math.toDegrees(step / Geodetic.EARTH_RADIUS_KM);
+            for (int i = 0; i < FIXES; i++) {
+                int n = t * FIXES + i;
+                lats[n] = lat;
+                lons[n] = lon;
+                points[n] = Geodetic.latLong(lat, lon);
+                lat = Math.max(-89, Math.min(89, lat + degrees * Math.cos(heading)));
+                lon += degrees * Math.sin(heading) / Math.cos(Math.toRadians(lat));
+                lon = lon > 180 ? lon - 360 : lon < -180 ? lon + 360 : lon;
+            }
+        }
+        distances = new double[POINTS];
+    }
+
+    @Benchmark
+    public int tracker() {
+        int found = 0;
+        for (int t = 0; t < TRACKS; t++) {
+            NearestTracker tracker = index.tracker(MAX_DISTANCE);
+            for (int i = t * FIXES; i < (t + 1) * FIXES; i++) {
+                if (tracker.nearest(points[i]) != null) {
+                    found++;
+                }
+            }
+        }
+        return found;
+    }
+
+    @Benchmark
+    public int perPoint() {
+        int found = 0;
+        for (Point p : points) {
+            if (index.nearest(p, MAX_DISTANCE, 1).toBlocking().firstOrDefault(null) != null) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    @Benchmark
+    public Airport[] batchArrays() {
+        return index.nearest(lats, lons, MAX_DISTANCE, distances);
+    }
+}
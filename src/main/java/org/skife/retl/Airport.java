@@ -1,22 +1,16 @@
 package org.skife.retl;
 
-import com.fasterxml.jackson.databind.ObjectReader;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
-import com.fasterxml.jackson.dataformat.csv.CsvMapper;
-import com.fasterxml.jackson.dataformat.csv.CsvSchema;
 import com.github.davidmoten.rtree.geometry.Point;
-import io.vavr.Tuple2;
 import org.immutables.value.Value;
 import rx.Observable;
-import rx.Observer;
-import rx.observables.SyncOnSubscribe;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Iterator;
-
-import static com.fasterxml.jackson.databind.DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
 @Value.Immutable
 @JsonSerialize(as = ImmutableAirport.class)
@@ -39,49 +33,33 @@ public interface Airport {
         return Geodetic.latLong(latitude(), longitude());
     }
 
+    /**
+     * Loads {@code /airports.csv} from the classpath, or {@code /airports.csv.xz} when only the compressed
+     * form is shipped.
+     */
     static Observable<Airport> loadKnownAirports() {
-        return Observable.create(new SyncOnSubscribe<Tuple2<AutoCloseable, Iterator<Airport>>, Airport>() {
-            @Override
-            protected Tuple2<AutoCloseable, Iterator<Airport>> generateState() {
-                try {
-                    CsvSchema schema = CsvSchema.builder()
-                                                .setUseHeader(true)
-                                                .build();
-
-                    ObjectReader mapper = new CsvMapper().disable(FAIL_ON_UNKNOWN_PROPERTIES)
-                                                         .readerFor(Airport.class)
-                                                         .with(schema);
-
-                    InputStream in = Airport.class.getResourceAsStream("/airports.csv");
-                    Iterator<Airport> itty = mapper.readValues(in);
-                    return new Tuple2<>(in, itty);
-
+        if (Airport.class.getResource("/airports.csv") == null
+            && Airport.class.getResource("/airports.csv.xz") != null) {
+            return Observable.defer(() -> {
+                try (InputStream in = Airport.class.getResourceAsStream("/airports.csv.xz")) {
+                    return AirportXz.load(Xz.source(in), "airports.csv.xz from classpath");
                 } catch (IOException e) {
-                    throw new IllegalStateException("unable to loadKnownAirports airports.csv from classpath", e);
+                    throw new UncheckedIOException(e);
                 }
-            }
-
-            @Override
-            protected Tuple2<AutoCloseable, Iterator<Airport>> next(Tuple2<AutoCloseable, Iterator<Airport>> state,
-                                                                    Observer<? super Airport> observer) {
-                if (state._2.hasNext()) {
-                    observer.onNext(state._2.next());
-                }
-                else {
-                    observer.onCompleted();
-                }
-                return state;
-            }
+            });
+        }
+        return AirportCsv.read(() -> Airport.class.getResourceAsStream("/airports.csv"), "airports.csv from classpath");
+    }
 
-            @Override
-            protected void onUnsubscribe(Tuple2<AutoCloseable, Iterator<Airport>> state) {
-                try {
-                    state._1.close();
-                } catch (Exception e) {
-                    throw new IllegalStateException(e);
-                }
-            }
-        });
+    /**
+     * Loads airports from a CSV file with a header row, decompressing it first if its name ends in
+     * {@code .xz}.
+     */
+    static Observable<Airport> loadAirports(Path csv) {
+        if (Xz.isXz(csv)) {
+            return AirportXz.load(csv);
+        }
+        return AirportCsv.read(() -> Files.newInputStream(csv), csv.toString());
     }
 
 }
@@ -0,0 +1,77 @@
+package org.skife.retl;
+
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.dataformat.csv.CsvMapper;
+import com.fasterxml.jackson.dataformat.csv.CsvSchema;
+import io.vavr.Tuple2;
+import rx.Observable;
+import rx.Observer;
+import rx.observables.SyncOnSubscribe;
+
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+
+import static com.fasterxml.jackson.databind.DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES;
+
+/**
+ * Reads airports from CSV, with a header row, through Jackson. Backs the loaders on {@link Airport}.
+ */
+final class AirportCsv {
+
+    private AirportCsv() {
+    }
+
+    static Observable<Airport> read(Callable<InputStream> source, String description) {
+        return read(source, description, false);
+    }
+
+    /**
+     * @param comments whether lines starting with {@code #} are skipped
+     */
+    static Observable<Airport> read(Callable<InputStream> source, String description, boolean comments) {
+        return Observable.create(new SyncOnSubscribe<Tuple2<AutoCloseable, Iterator<Airport>>, Airport>() {
+            @Override
+            protected Tuple2<AutoCloseable, Iterator<Airport>> generateState() {
+                try {
+                    CsvSchema schema = CsvSchema.builder()
+                                                .setUseHeader(true)
+                                                .setAllowComments(comments)
+                                                .build();
+
+                    ObjectReader mapper = new CsvMapper().disable(FAIL_ON_UNKNOWN_PROPERTIES)
+                                                         .readerFor(Airport.class)
+                                                         .with(schema);
+
+                    InputStream in = source.call();
+                    Iterator<Airport> itty = mapper.readValues(in);
+                    return new Tuple2<>(in, itty);
+
+                } catch (Exception e) {
+                    throw new IllegalStateException("unable to load airports from " + description, e);
+                }
+            }
+
+            @Override
+            protected Tuple2<AutoCloseable, Iterator<Airport>> next(Tuple2<AutoCloseable, Iterator<Airport>> state,
+                                                                    Observer<? super Airport> observer) {
+                if (state._2.hasNext()) {
+                    observer.onNext(state._2.next());
+                }
+                else {
+                    observer.onCompleted();
+                }
+                return state;
+            }
+
+            @Override
+            protected void onUnsubscribe(Tuple2<AutoCloseable, Iterator<Airport>> state) {
+                try {
+                    state._1.close();
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,679 @@
+package org.skife.retl;
+
+import com.github.davidmoten.guavamini.Optional;
+import com.github.davidmoten.rtree.Entry;
+import com.github.davidmoten.rtree.Leaf;
+import com.github.davidmoten.rtree.Node;
+import com.github.davidmoten.rtree.NonLeaf;
+import com.github.davidmoten.rtree.RTree;
+import com.github.davidmoten.rtree.geometry.Point;
+import com.github.davidmoten.rtree.geometry.Rectangle;
+import com.github.davidmoten.rtree.internal.EntryDefault;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Iterators;
+import rx.Observable;
+import rx.schedulers.Schedulers;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+/**
+ * Spatial index over airports which answers queries by great circle distance, in kilometres, rather than
+ * by euclidean distance in degrees as the underlying {@link RTree} does. Node bounding rectangles are
+ * pruned by their geodetic lower bound, so results are exact near the poles and across the antimeridian.
+ */
+public final class AirportIndex implements SpatialIndex {
+
+    static final int BULK_MAX_CHILDREN = 16;
+    static final int JOIN_BATCH_SIZE = 1024;
+    static final double CORRIDOR_MIN_SEGMENT_KM = 200;
+    static final double CORRIDOR_MAX_SEGMENT_KM = 2000;
+    static final Geodetic.Metric FILTER_METRIC = Geodetic.Metric.EQUIRECTANGULAR;
+
+    private final RTree<Airport, Point> tree;
+    private final Geodetic geodetic;
+    private final QueryMetrics metrics;
+
+    private AirportIndex(RTree<Airport, Point> tree, Geodetic geodetic, QueryMetrics metrics) {
+        this.tree = tree;
+        this.geodetic = geodetic;
+        this.metrics = metrics;
+    }
+
+    public static AirportIndex create(Iterable<? extends Airport> airports) {
+        List<Entry<Airport, Point>> entries = StreamSupport.stream(airports.spliterator(), false)
+                                                           .map(a -> EntryDefault.<Airport, Point>entry(a, a.point()))
+                                                           .collect(Collectors.toList());
+        return new AirportIndex(RTree.<Airport, Point>create().add(entries), Geodetic.Earth, QueryMetrics.DISABLED);
+    }
+
+    /**
+     * Builds a fully packed tree in one pass with Sort-Tile-Recursive loading rather than by inserting airports
+     * one at a time. Every node is filled to {@link #BULK_MAX_CHILDREN}, so the tree is smaller and shallower
+     * and a search visits fewer nodes. Entries are created and sorted by longitude in parallel before packing;
+     * the packer's own longitude sort then runs over an already ordered list, leaving only the per slice
+     * latitude sorts to it.
+     * <p>
+     * The result is meant to be read rather than modified: adding to it splits full nodes straight away.
+     */
+    public static AirportIndex bulkLoad(Collection<? extends Airport> airports) {
+        @SuppressWarnings("unchecked")
+        Entry<Airport, Point>[] entries = airports.parallelStream()
+                                                  .map(a -> EntryDefault.<Airport, Point>entry(a, a.point()))
+                                                  .toArray(Entry[]::new);
+        Arrays.parallelSort(entries, Comparator.comparingDouble(e -> e.geometry().x()));
+        RTree<Airport, Point> tree = RTree.maxChildren(BULK_MAX_CHILDREN)
+                                          .loadingFactor(1.0)
+                                          .create(Arrays.asList(entries));
+        return new AirportIndex(tree, Geodetic.Earth, QueryMetrics.DISABLED);
+    }
+
+    /**
+     * A new index with {@code removed} taken out and {@code added} put in. The tree is persistent, so the
+     * new index shares every untouched node with this one, which is left as it was.
+     */
+    AirportIndex update(Collection<? extends Airport> removed, Collection<? extends Airport> added) {
+        RTree<Airport, Point> updated = tree;
+        for (Airport a : removed) {
+            updated = updated.delete(a, a.point());
+        }
+        for (Airport a : added) {
+            updated = updated.add(a, a.point());
+        }
+        return new AirportIndex(updated, geodetic, metrics);
+    }
+
+    /**
+     * The same index, sharing the same tree, recording every query it answers to {@code metrics}.
+     */
+    public AirportIndex withMetrics(QueryMetrics metrics) {
+        return new AirportIndex(tree, geodetic, metrics);
+    }
+
+    public QueryMetrics metrics() {
+        return metrics;
+    }
+
+    public static AirportIndex loadKnownAirports() {
+        return create(Airport.loadKnownAirports().toBlocking().toIterable());
+    }
+
+    /**
+     * Finds up to {@code count} airports within {@code maxDistance} kilometres of {@code p}, nearest first.
+     */
+    @Override
+    public Observable<Airport> nearest(Point p, double maxDistance, int count) {
+        return Observable.from(nearestEntries(p, maxDistance, count))
+                         .map(Candidate::airport);
+    }
+
+    /**
+     * Every airport within {@code maxDistance} kilometres of {@code p}, nearest first, found lazily: the
+     * search only runs as far as subscribers have requested, and stops when they unsubscribe. For consumers
+     * which want "the nearest airport such that...", without guessing a count up front.
+     */
+    public Observable<NearestAirport> nearestFirst(Point p, double maxDistance) {
+        if (!metrics.enabled()) {
+            return Observable.from(() -> nearestFirstIterator(p, maxDistance));
+        }
+        return Observable.using(() -> new NearestIterator(p, maxDistance, metrics.start()),
+                                candidates -> Observable.from(() -> candidates).map(c -> nearestAirport(p, c)),
+                                NearestIterator::record);
+    }
+
+    /**
+     * As {@link #nearestFirst(Point, double)}, as an iterator. Queries made this way are not recorded to
+     * {@link #metrics()}, as nothing tells an iterator that its consumer is done with it.
+     */
+    public Iterator<NearestAirport> nearestFirstIterator(Point p, double maxDistance) {
+        return Iterators.transform(new NearestIterator(p, maxDistance, 0), c -> nearestAirport(p, c));
+    }
+
+    /**
+     * As {@link #nearestFirstIterator(Point, double)}, for use with {@link StreamSupport}.
+     */
+    public Spliterator<NearestAirport> nearestFirstSpliterator(Point p, double maxDistance) {
+        return Spliterators.spliteratorUnknownSize(nearestFirstIterator(p, maxDistance),
+                                                   Spliterator.ORDERED | Spliterator.NONNULL);
+    }
+
+    private static NearestAirport nearestAirport(Point p, Candidate c) {
+        return ImmutableNearestAirport.of(p, c.airport(), c.distance());
+    }
+
+    /**
+     * Every airport within {@code distance} kilometres of {@code p}, in no particular order. The index is
+     * searched lazily, rectangle by rectangle, over the lat/lon bounds of the area, see
+     * {@link Geodetic#bounds(double, double, double)}, and each airport found is checked by great circle
+     * distance, behind a cheaper {@link #FILTER_METRIC} which rules out most of the corners of the bounds.
+     */
+    @Override
+    public Observable<Airport> withinDistance(Point p, double distance) {
+        Preconditions.checkArgument(distance >= 0, "distance must not be negative");
+        DistanceFilter filter = geodetic.filter(FILTER_METRIC, p.y(), p.x(), distance);
+        return search(p.y(), p.x(), geodetic.bounds(p.y(), p.x(), distance), filter::test);
+    }
+
+    /**
+     * Every airport in the lat/lon box, edges included, in no particular order. A box with
+     * {@code minLon > maxLon} crosses the antimeridian, as for {@link AirportXz#loadRegion}.
+     */
+    public Observable<Airport> withinBox(double minLat, double minLon, double maxLat, double maxLon) {
+        Preconditions.checkArgument(minLat <= maxLat, "minLat must not be greater than maxLat");
+        Preconditions.checkArgument(minLat >= -90 && maxLat <= 90, "latitude must be between -90 and 90");
+        Preconditions.checkArgument(minLon >= -180 && minLon <= 180 && maxLon >= -180 && maxLon <= 180,
+                                    "longitude must be between -180 and 180");
+        return search(minLat, minLon, Geodetic.boxes(minLat, minLon, maxLat, maxLon), null);
+    }
+
+    /**
+     * Every airport inside {@code polygon}, in no particular order. The index finds the airports in the
+     * polygon's bounding boxes, and the polygon's prepared grid tests each, see {@link Polygon}.
+     */
+    public Observable<Airport> withinPolygon(Polygon polygon) {
+        List<Rectangle> boxes = polygon.boxes();
+        return search(boxes.get(0).y1(), boxes.get(0).x1(), boxes, polygon::contains);
+    }
+
+    /**
+     * Every airport within {@code width} kilometres of the great circle route from {@code from} to
+     * {@code to}, in order along the route, for questions like "where could we divert to on the way?".
+     * <p>
+     * The route is cut into stretches about eight times {@code width} long, between
+     * {@value #CORRIDOR_MIN_SEGMENT_KM} and {@value #CORRIDOR_MAX_SEGMENT_KM} km, each searched only as the
+     * results before it are consumed, so taking the first few diversion airports of a long route searches only
+     * its start. Each stretch is a walk of the tree pruned by a conservative bound on the distance from a
+     * node's rectangle to that stretch of the arc, see {@link Corridor#lowerBound}, collecting the airports
+     * whose nearest point on the route falls within it. Distances to the route are exact.
+     */
+    public Observable<CorridorAirport> corridor(Point from, Point to, double width) {
+        Preconditions.checkArgument(width >= 0, "width must not be negative");
+        Corridor route = new Corridor(geodetic, from.y(), from.x(), to.y(), to.x());
+        double segment = Math.max(CORRIDOR_MIN_SEGMENT_KM, Math.min(CORRIDOR_MAX_SEGMENT_KM, 8 * width));
+        int segments = Math.max(1, (int) Math.ceil(route.length() / segment));
+        if (!metrics.enabled()) {
+            return Observable.range(0, segments)
+                             .concatMapIterable(s -> corridorSegment(route, width, s, segments, null));
+        }
+        return Observable.using(() -> new Tally(metrics.start()),
+                                tally -> Observable.range(0, segments)
+                                                   .concatMapIterable(s -> corridorSegment(route, width, s, segments,
+                                                                                           tally))
+                                                   .doOnNext(c -> tally.found++),
+                                tally -> metrics.record(tally.start, from.y(), from.x(), tally.nodes,
+                                                        tally.distances, tally.found));
+    }
+
+    /**
+     * Entries in any of {@code rectangles} which pass {@code filter}, when there is one. With metrics enabled
+     * the query is tallied from subscription until it completes or is unsubscribed, each filter test counted
+     * as a distance evaluation, and recorded at (lat, lon).
+     */
+    private Observable<Airport> search(double lat, double lon, List<Rectangle> rectangles, PositionFilter filter) {
+        Observable<Entry<Airport, Point>> entries = Observable.from(rectangles)
+                                                              .concatMap((Rectangle r) -> tree.search(r));
+        if (!metrics.enabled()) {
+            return filter == null
+                   ? entries.map(Entry::value)
+                   : entries.filter(e -> filter.test(e.geometry().y(), e.geometry().x())).map(Entry::value);
+        }
+        return Observable.using(() -> new Tally(metrics.start()),
+                                tally -> (filter == null ? entries : entries.filter(e -> {
+                                    tally.distances++;
+                                    return filter.test(e.geometry().y(), e.geometry().x());
+                                })).map(e -> {
+                                    tally.found++;
+                                    return e.value();
+                                }),
+                                tally -> metrics.record(tally.start, lat, lon, 0, tally.distances, tally.found));
+    }
+
+    /**
+     * Joins each point to its nearest airport within {@code maxDistance} kilometres, dropping points with no
+     * airport in range. Points are taken in batches of {@link #JOIN_BATCH_SIZE}, each batch is searched on
+     * the computation scheduler, and results come out in the order the points went in. At most one batch per
+     * processor is searched or waiting to be emitted at a time, and points are only pulled from
+     * {@code points} as results are requested, so streams of any length join in bounded memory.
+     */
+    public Observable<NearestAirport> nearestJoin(Observable<Point> points, double maxDistance) {
+        int concurrency = Runtime.getRuntime().availableProcessors();
+        return points.buffer(JOIN_BATCH_SIZE)
+                     .concatMapEager(batch -> Observable.fromCallable(() -> nearestJoin(batch, maxDistance))
+                                                        .subscribeOn(Schedulers.computation()),
+                                     concurrency,
+                                     concurrency)
+                     // ordered like concatMapIterable, but prefetching one batch rather than 128
+                     .flatMapIterable(batch -> batch, 1);
+    }
+
+    /**
+     * A {@link NearestTracker} over this index, for one trace of points at a time, answering with airports
+     * within {@code maxDistance} kilometres.
+     */
+    public NearestTracker tracker(double maxDistance) {
+        Preconditions.checkArgument(maxDistance > 0, "maxDistance must be positive");
+        return new NearestTracker(this, maxDistance);
+    }
+
+    /**
+     * Joins each point of an ordered trace to its nearest airport within {@code maxDistance} kilometres,
+     * dropping points with no airport in range, with a {@link NearestTracker} per subscription so that
+     * consecutive points near the same airport skip the tree walk.
+     */
+    public Observable<NearestAirport> snap(Observable<Point> trace, double maxDistance) {
+        return Observable.defer(() -> {
+            NearestTracker tracker = tracker(maxDistance);
+            return trace.concatMap(p -> {
+                Airport airport = tracker.nearest(p);
+                return airport == null
+                       ? Observable.<NearestAirport>empty()
+                       : Observable.<NearestAirport>just(ImmutableNearestAirport.of(p, airport, tracker.distance()));
+            });
+        });
+    }
+
+    private List<NearestAirport> nearestJoin(List<Point> batch, double maxDistance) {
+        int n = batch.size();
+        double[] lats = new double[n];
+        double[] lons = new double[n];
+        for (int i = 0; i < n; i++) {
+            lats[i] = batch.get(i).y();
+            lons[i] = batch.get(i).x();
+        }
+        Airport[] airports = new Airport[n];
+        double[] distances = new double[n];
+        nearestInOrder(lats, lons, order(lats, lons), 0, n, maxDistance, airports, distances);
+
+        List<NearestAirport> results = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            if (airports[i] != null) {
+                results.add(ImmutableNearestAirport.of(batch.get(i), airports[i], distances[i]));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Finds the nearest airport within {@code maxDistance} kilometres of every (lats[i], lons[i]) on the
+     * common fork join pool. See {@link #nearest(double[], double[], double, double[], ForkJoinPool)}.
+     */
+    public Airport[] nearest(double[] lats, double[] lons, double maxDistance, double[] distances) {
+        return nearest(lats, lons, maxDistance, distances, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Finds the nearest airport within {@code maxDistance} kilometres of every (lats[i], lons[i]). The
+     * airport for point {@code i} is returned at index {@code i}, null when none is in range, and its
+     * distance is written to {@code distances[i]}, infinity when none is in range.
+     * <p>
+     * Points are visited in Hilbert curve order, so consecutive searches touch the same nodes, and each
+     * search starts from the previous point's airport as an upper bound, which prunes most of the tree
+     * before it is walked. The ordered points are split into batches run in parallel on {@code pool}.
+     */
+    public Airport[] nearest(double[] lats, double[] lons, double maxDistance, double[] distances, ForkJoinPool pool) {
+        Preconditions.checkArgument(lats.length == lons.length, "lats and lons must be the same length");
+        Preconditions.checkArgument(distances.length >= lats.length, "distances shorter than points");
+        int n = lats.length;
+        Airport[] airports = new Airport[n];
+        int[] order = order(lats, lons);
+
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (int from = 0; from < n; from += JOIN_BATCH_SIZE) {
+            int start = from;
+            int end = Math.min(n, from + JOIN_BATCH_SIZE);
+            tasks.add(pool.submit(() -> nearestInOrder(lats, lons, order, start, end, maxDistance, airports, distances)));
+        }
+        for (ForkJoinTask<?> task : tasks) {
+            task.join();
+        }
+        return airports;
+    }
+
+    private static int[] order(double[] lats, double[] lons) {
+        float[] latitudes = new float[lats.length];
+        float[] longitudes = new float[lons.length];
+        for (int i = 0; i < lats.length; i++) {
+            latitudes[i] = (float) lats[i];
+            longitudes[i] = (float) lons[i];
+        }
+        return PackedRTree.hilbertOrder(latitudes, longitudes);
+    }
+
+    private void nearestInOrder(double[] lats, double[] lons, int[] order, int from, int to, double maxDistance,
+                                Airport[] airports, double[] distances) {
+        Optional<? extends Node<Airport, Point>> root = tree.root();
+        Nearest nearest = new Nearest();
+        Airport previous = null;
+        for (int o = from; o < to; o++) {
+            int i = order[o];
+            long start = metrics.start();
+            nearest.airport = null;
+            nearest.distance = maxDistance;
+            nearest.nodes = 0;
+            nearest.distances = 0;
+            if (previous != null) {
+                nearest.distances++;
+                double d = geodetic.distance(lats[i], lons[i], previous.latitude(), previous.longitude());
+                if (d < maxDistance) {
+                    nearest.airport = previous;
+                    nearest.distance = d;
+                }
+            }
+            if (root.isPresent()) {
+                nearest(root.get(), lats[i], lons[i], nearest);
+            }
+            airports[i] = nearest.airport;
+            distances[i] = nearest.airport == null ? Double.POSITIVE_INFINITY : nearest.distance;
+            if (nearest.airport != null) {
+                previous = nearest.airport;
+            }
+            metrics.record(start, lats[i], lons[i], nearest.nodes, nearest.distances, nearest.airport == null ? 0 : 1);
+        }
+    }
+
+    /**
+     * Depth first branch and bound: anything whose bound is no closer than the best airport found so far
+     * is skipped, so a good starting airport means very little of the tree is visited.
+     */
+    private void nearest(Node<Airport, Point> node, double lat, double lon, Nearest nearest) {
+        if (node instanceof Leaf) {
+            for (Entry<Airport, Point> e : ((Leaf<Airport, Point>) node).entries()) {
+                nearest.distances++;
+                double d = geodetic.distance(lat, lon, e.geometry().y(), e.geometry().x());
+                if (d < nearest.distance) {
+                    nearest.airport = e.value();
+                    nearest.distance = d;
+                }
+            }
+            return;
+        }
+        for (Node<Airport, Point> child : ((NonLeaf<Airport, Point>) node).children()) {
+            Rectangle r = child.geometry().mbr();
+            nearest.nodes++;
+            nearest.distances++;
+            if (geodetic.distance(lat, lon, r.y1(), r.x1(), r.y2(), r.x2()) < nearest.distance) {
+                nearest(child, lat, lon, nearest);
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        return tree.size();
+    }
+
+    /**
+     * Number of nodes in the tree, leaves included, for comparing how well different builds pack.
+     */
+    public int nodeCount() {
+        Optional<? extends Node<Airport, Point>> root = tree.root();
+        return root.isPresent() ? nodeCount(root.get()) : 0;
+    }
+
+    private static int nodeCount(Node<Airport, Point> node) {
+        if (node instanceof Leaf) {
+            return 1;
+        }
+        int count = 1;
+        for (Node<Airport, Point> child : ((NonLeaf<Airport, Point>) node).children()) {
+            count += nodeCount(child);
+        }
+        return count;
+    }
+
+    RTree<Airport, Point> tree() {
+        return tree;
+    }
+
+    Geodetic geodetic() {
+        return geodetic;
+    }
+
+    /**
+     * The {@code count} nearest entries within {@code maxDistance}, pulled from a {@link NearestIterator}.
+     */
+    List<Candidate> nearestEntries(Point p, double maxDistance, int count) {
+        Preconditions.checkArgument(count >= 0, "count must not be negative");
+        NearestIterator candidates = new NearestIterator(p, maxDistance, metrics.start());
+        List<Candidate> results = new ArrayList<>(Math.min(count, tree.size()));
+        while (results.size() < count && candidates.hasNext()) {
+            results.add(candidates.next());
+        }
+        candidates.record();
+        return results;
+    }
+
+    /**
+     * Airports within {@code width} of {@code route} whose along-track position falls in segment {@code s} of
+     * {@code segments}, sorted along the route. An airport's nearest point on the whole route lies in the
+     * segment, so it is as close to the segment as to the route, and nodes far from the segment can be skipped.
+     * Nodes examined and distances computed are added to {@code tally}, when there is one.
+     */
+    private List<CorridorAirport> corridorSegment(Corridor route, double width, int s, int segments, Tally tally) {
+        double start = route.length() * s / segments;
+        double end = route.length() * (s + 1) / segments;
+        boolean last = s == segments - 1;
+        Corridor slice = route.slice(start, end);
+        List<Rectangle> cover = slice.cover(width);
+
+        List<CorridorAirport> found = new ArrayList<>();
+        int nodes = 0;
+        int distances = 0;
+        Deque<Node<Airport, Point>> pending = new ArrayDeque<>();
+        Optional<? extends Node<Airport, Point>> root = tree.root();
+        if (root.isPresent()) {
+            pending.push(root.get());
+        }
+        while (!pending.isEmpty()) {
+            Node<Airport, Point> node = pending.pop();
+            if (node instanceof Leaf) {
+                for (Entry<Airport, Point> e : ((Leaf<Airport, Point>) node).entries()) {
+                    double lat = e.geometry().y();
+                    double lon = e.geometry().x();
+                    if (!covers(cover, lat, lon)) {
+                        continue;
+                    }
+                    distances++;
+                    double d = route.distance(lat, lon);
+                    if (d <= width) {
+                        double along = route.alongTrack(lat, lon);
+                        if (along >= start && (along < end || last)) {
+                            found.add(ImmutableCorridorAirport.of(e.value(), along, d));
+                        }
+                    }
+                }
+            }
+            else {
+                for (Node<Airport, Point> child : ((NonLeaf<Airport, Point>) node).children()) {
+                    nodes++;
+                    Rectangle mbr = child.geometry().mbr();
+                    if (intersects(cover, mbr)) {
+                        distances++;
+                        if (slice.lowerBound(mbr) <= width) {
+                            pending.push(child);
+                        }
+                    }
+                }
+            }
+        }
+        if (tally != null) {
+            tally.nodes += nodes;
+            tally.distances += distances;
+        }
+        found.sort(Comparator.comparingDouble(CorridorAirport::alongTrack));
+        return found;
+    }
+
+    private static boolean covers(List<Rectangle> cover, double lat, double lon) {
+        for (Rectangle r : cover) {
+            if (r.contains(lon, lat)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean intersects(List<Rectangle> cover, Rectangle mbr) {
+        for (Rectangle r : cover) {
+            if (r.intersects(mbr)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Best first search which yields entries one at a time. Nodes and entries share a single queue ordered by
+     * distance, nodes keyed by the lower bound of their bounding rectangle, so each entry dequeued is the
+     * nearest not yet returned. Nodes are only expanded as far as is needed to produce the next entry, so a
+     * consumer which stops pulling stops the search. Not thread safe.
+     */
+    private final class NearestIterator implements Iterator<Candidate> {
+        private final Point p;
+        private final double maxDistance;
+        private final long start;
+        private final PriorityQueue<Candidate> queue = new PriorityQueue<>();
+        private Candidate next;
+        private int nodes;
+        private int distances;
+        private int found;
+
+        private NearestIterator(Point p, double maxDistance, long start) {
+            this.p = p;
+            this.maxDistance = maxDistance;
+            this.start = start;
+            Optional<? extends Node<Airport, Point>> root = tree.root();
+            if (root.isPresent()) {
+                queue.add(new Candidate(root.get(), null, 0));
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && !queue.isEmpty()) {
+                Candidate candidate = queue.poll();
+                if (candidate.distance >= maxDistance) {
+                    queue.clear();
+                }
+                else if (candidate.node == null) {
+                    next = candidate;
+                }
+                else {
+                    expand(candidate.node);
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public Candidate next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Candidate candidate = next;
+            next = null;
+            found++;
+            return candidate;
+        }
+
+        private void expand(Node<Airport, Point> node) {
+            if (node instanceof Leaf) {
+                for (Entry<Airport, Point> e : ((Leaf<Airport, Point>) node).entries()) {
+                    distances++;
+                    double d = geodetic.distance(p, e.geometry());
+                    if (d < maxDistance) {
+                        queue.add(new Candidate(null, e.value(), d));
+                    }
+                }
+            }
+            else {
+                for (Node<Airport, Point> child : ((NonLeaf<Airport, Point>) node).children()) {
+                    nodes++;
+                    distances++;
+                    double d = geodetic.distance(p, child.geometry().mbr());
+                    if (d < maxDistance) {
+                        queue.add(new Candidate(child, null, d));
+                    }
+                }
+            }
+        }
+
+        private void record() {
+            metrics.record(start, p.y(), p.x(), nodes, distances, found);
+        }
+    }
+
+    private static final class Nearest {
+        private Airport airport;
+        private double distance;
+        private int nodes;
+        private int distances;
+    }
+
+    /**
+     * A test of an entry's position, such as a {@link DistanceFilter} or {@link Polygon#contains(double, double)}.
+     */
+    @FunctionalInterface
+    private interface PositionFilter {
+        boolean test(double lat, double lon);
+    }
+
+    /**
+     * Work done by one lazily evaluated query, for {@link QueryMetrics}.
+     */
+    private static final class Tally {
+        private final long start;
+        private int nodes;
+        private int distances;
+        private int found;
+
+        private Tally(long start) {
+            this.start = start;
+        }
+    }
+
+    static final class Candidate implements Comparable<Candidate> {
+        private final Node<Airport, Point> node;
+        private final Airport airport;
+        private final double distance;
+
+        private Candidate(Node<Airport, Point> node, Airport airport, double distance) {
+            this.node = node;
+            this.airport = airport;
+            this.distance = distance;
+        }
+
+        Airport airport() {
+            return airport;
+        }
+
+        double distance() {
+            return distance;
+        }
+
+        @Override
+        public int compareTo(Candidate o) {
+            int c = Double.compare(distance, o.distance);
+            if (c == 0) {
+                // entries before nodes at equal distance, so a node's bound never delays a found result
+                return Boolean.compare(node != null, o.node != null);
+            }
+            return c;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package org.skife.retl;
+
+import org.immutables.value.Value;
+
+/**
+ * Two airports and the great circle distance between them, as produced by {@link AirportSelfJoin}.
+ */
+@Value.Immutable
+public interface AirportPair {
+
+    @Value.Parameter
+    Airport first();
+
+    @Value.Parameter
+    Airport second();
+
+    /**
+     * Great circle distance from {@link #first()} to {@link #second()}, in kilometres.
+     */
+    @Value.Parameter
+    double distance();
+}
@@ -0,0 +1,193 @@
+package org.skife.retl;
+
+import com.github.davidmoten.rtree.geometry.Rectangle;
+import com.google.common.base.Preconditions;
+import rx.Observable;
+import rx.Scheduler;
+import rx.schedulers.Schedulers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Joins a set of airports with itself by distance, without comparing every airport with every other.
+ * <p>
+ * The airports are indexed once, then space is cut into tiles and each airport assigned to the tile it
+ * falls in, its home. Tiles are processed independently, in parallel: a tile fetches from the index every
+ * airport within the join distance of the tile, its halo, which overlaps its neighbours, and compares its
+ * home airports with that halo. A pair is emitted only by the tile which is home to its earlier member, in
+ * input order, and only when the later member is in the halo, so every pair comes out exactly once.
+ */
+public final class AirportSelfJoin {
+
+    private static final double NEIGHBOUR_TILE_DEGREES = 5;
+    private static final double MIN_TILE_DEGREES = 0.5;
+    private static final double MAX_TILE_DEGREES = 30;
+
+    private final Airport[] airports;
+    private final Map<Airport, Integer> ids;
+    private final AirportIndex index;
+
+    private AirportSelfJoin(Airport[] airports) {
+        this.airports = airports;
+        // views such as StoredAirport may compare equal while being distinct airports, so go by identity
+        this.ids = new IdentityHashMap<>(airports.length);
+        for (int i = 0; i < airports.length; i++) {
+            ids.put(airports[i], i);
+        }
+        this.index = AirportIndex.bulkLoad(Arrays.asList(airports));
+    }
+
+    /**
+     * Every pair of airports no more than {@code distance} kilometres apart, each pair once with its
+     * earlier member, in input order, first. Tiles are processed on the common fork join pool.
+     */
+    public static Observable<AirportPair> withinDistance(List<? extends Airport> airports, double distance) {
+        return withinDistance(airports, distance, ForkJoinPool.commonPool());
+    }
+
+    public static Observable<AirportPair> withinDistance(List<? extends Airport> airports, double distance,
+                                                         ForkJoinPool pool) {
+        Preconditions.checkArgument(distance >= 0, "distance must not be negative");
+        return Observable.defer(() -> {
+            AirportSelfJoin join = new AirportSelfJoin(airports.toArray(new Airport[0]));
+            double tileDegrees = tileDegrees(join.index.geodetic(), distance);
+            return join.tiles(tileDegrees, pool, home -> join.pairsWithin(home, distance));
+        });
+    }
+
+    /**
+     * Each airport's {@code k} nearest other airports, as pairs with the airport first, nearest first.
+     */
+    public static Observable<AirportPair> nearestNeighbours(List<? extends Airport> airports, int k) {
+        return nearestNeighbours(airports, k, ForkJoinPool.commonPool());
+    }
+
+    public static Observable<AirportPair> nearestNeighbours(List<? extends Airport> airports, int k, ForkJoinPool pool) {
+        Preconditions.checkArgument(k >= 0, "k must not be negative");
+        return Observable.defer(() -> {
+            AirportSelfJoin join = new AirportSelfJoin(airports.toArray(new Airport[0]));
+            return join.tiles(NEIGHBOUR_TILE_DEGREES, pool, home -> join.neighbours(home, k));
+        });
+    }
+
+    /**
+     * Tiles a few times the join distance across, so a halo is not much bigger than its tile, within
+     * limits that keep the count of tiles sensible.
+     */
+    private static double tileDegrees(Geodetic geodetic, double distance) {
+        double degrees = Math.toDegrees(distance / (geodetic.circumference() / (2 * Math.PI)));
+        return Math.max(MIN_TILE_DEGREES, Math.min(MAX_TILE_DEGREES, 4 * degrees));
+    }
+
+    private interface TileJoin {
+        List<AirportPair> join(Tile home);
+    }
+
+    private Observable<AirportPair> tiles(double tileDegrees, ForkJoinPool pool, TileJoin join) {
+        Map<Long, Tile> tiles = new LinkedHashMap<>();
+        for (int i = 0; i < airports.length; i++) {
+            int row = (int) Math.floor((airports[i].latitude() + 90) / tileDegrees);
+            int column = (int) Math.floor((airports[i].longitude() + 180) / tileDegrees);
+            tiles.computeIfAbsent(((long) row << 32) | column, key -> new Tile(row, column, tileDegrees))
+                 .add(i);
+        }
+        Scheduler scheduler = Schedulers.from(pool);
+        int concurrency = Math.max(1, pool.getParallelism());
+        return Observable.from(tiles.values())
+                         .flatMap(tile -> Observable.fromCallable(() -> join.join(tile)).subscribeOn(scheduler),
+                                  concurrency)
+                         .concatMapIterable(pairs -> pairs);
+    }
+
+    private List<AirportPair> pairsWithin(Tile home, double distance) {
+        Geodetic geodetic = index.geodetic();
+        List<Airport> found = new ArrayList<>();
+        for (Rectangle r : geodetic.bounds(home.minLat(), home.minLon(), home.maxLat(), home.maxLon(), distance)) {
+            index.withinBox(r.y1(), r.x1(), r.y2(), r.x2()).forEach(found::add);
+        }
+        int[] halo = new int[found.size()];
+        for (int i = 0; i < halo.length; i++) {
+            halo[i] = ids.get(found.get(i));
+        }
+        Arrays.sort(halo);
+
+        List<AirportPair> pairs = new ArrayList<>();
+        for (int h = 0; h < home.size; h++) {
+            int a = home.ids[h];
+            Airport first = airports[a];
+            DistanceFilter filter = geodetic.filter(AirportIndex.FILTER_METRIC,
+                                                    first.latitude(), first.longitude(), distance);
+            // halo is sorted, so the later airports are a suffix of it
+            int from = Arrays.binarySearch(halo, a + 1);
+            for (int i = from < 0 ? -from - 1 : from; i < halo.length; i++) {
+                Airport second = airports[halo[i]];
+                double d = filter.distance(second.latitude(), second.longitude());
+                if (d <= distance) {
+                    pairs.add(ImmutableAirportPair.of(first, second, d));
+                }
+            }
+        }
+        return pairs;
+    }
+
+    private List<AirportPair> neighbours(Tile home, int k) {
+        List<AirportPair> pairs = new ArrayList<>(home.size * k);
+        for (int h = 0; h < home.size; h++) {
+            Airport first = airports[home.ids[h]];
+            int found = 0;
+            for (AirportIndex.Candidate c : index.nearestEntries(first.point(), Double.POSITIVE_INFINITY, k + 1)) {
+                if (c.airport() != first && found < k) {
+                    pairs.add(ImmutableAirportPair.of(first, c.airport(), c.distance()));
+                    found++;
+                }
+            }
+        }
+        return pairs;
+    }
+
+    /**
+     * A cell of the tiling and the ids of the airports whose home it is.
+     */
+    private static final class Tile {
+        private final int row;
+        private final int column;
+        private final double degrees;
+        private int[] ids = new int[8];
+        private int size;
+
+        private Tile(int row, int column, double degrees) {
+            this.row = row;
+            this.column = column;
+            this.degrees = degrees;
+        }
+
+        private void add(int id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+        }
+
+        private double minLat() {
+            return Math.max(-90, row * degrees - 90);
+        }
+
+        private double maxLat() {
+            return Math.min(90, (row + 1) * degrees - 90);
+        }
+
+        private double minLon() {
+            return Math.max(-180, column * degrees - 180);
+        }
+
+        private double maxLon() {
+            return Math.min(180, (column + 1) * degrees - 180);
+        }
+    }
+}
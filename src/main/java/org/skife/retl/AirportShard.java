@@ -0,0 +1,35 @@
+package org.skife.retl;
+
+import com.github.davidmoten.rtree.geometry.Point;
+
+import java.io.Closeable;
+import java.util.List;
+
+/**
+ * One partition of a {@link ShardedAirportIndex}, answering queries over its own airports, whether in this
+ * JVM or in another behind a {@link ShardServer}. Results carry their great circle distances, so the
+ * coordinator can merge them without measuring again.
+ */
+public interface AirportShard extends Closeable {
+
+    /**
+     * Up to {@code count} airports within {@code maxDistance} kilometres of {@code p}, nearest first.
+     */
+    List<NearestAirport> nearest(Point p, double maxDistance, int count);
+
+    /**
+     * Every airport within {@code distance} kilometres of {@code p}, edge included, in no particular order.
+     */
+    List<NearestAirport> withinDistance(Point p, double distance);
+
+    @Override
+    default void close() {
+    }
+
+    /**
+     * A shard over {@code airports} in this JVM.
+     */
+    static AirportShard local(List<? extends Airport> airports) {
+        return new LocalAirportShard(airports);
+    }
+}
@@ -0,0 +1,343 @@
+package org.skife.retl;
+
+import com.github.davidmoten.rtree.geometry.Point;
+import com.google.common.base.Preconditions;
+import org.tukaani.xz.LZMA2Options;
+import org.tukaani.xz.XZOutputStream;
+import rx.Observable;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary form of a set of airports, designed to be memory mapped and queried in place so that
+ * startup costs page faults rather than CSV parsing and tree building.
+ * <p>
+ * Layout, little endian, every section four byte aligned:
+ * <pre>
+ *   magic "RETLSNAP", int version, int count, int nodeSize, int dictionarySize,
+ *   long sourceSize, long sourceModified
+ *   float[count] latitudes, float[count] longitudes          (records in Hilbert order)
+ *   int[count] name, iata, city, country                      (ids into the dictionary)
+ *   float[nodes * 4] node boxes                               (see {@link PackedRTree})
+ *   int[dictionarySize + 1] dictionary offsets, byte[] dictionary UTF-8
+ * </pre>
+ * The source size and modification time record which CSV the snapshot was built from, so that
+ * {@link #load(Path, Path)} can tell when it needs rebuilding. Snapshots named {@code *.xz} are written
+ * as multi-block XZ and decompressed block parallel when opened.
+ */
+public final class AirportSnapshot {
+
+    private static final byte[] MAGIC = "RETLSNAP".getBytes(StandardCharsets.US_ASCII);
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 40;
+    private static final int XZ_BLOCK_SIZE = 1 << 18;
+
+    private final ByteBuffer buffer;
+    private final int count;
+    private final long sourceSize;
+    private final long sourceModified;
+    private final PackedRTree tree;
+    private final IntBuffer names;
+    private final IntBuffer iatas;
+    private final IntBuffer cities;
+    private final IntBuffer countries;
+    private final IntBuffer dictionaryOffsets;
+    private final int dictionaryStart;
+    private final String[] dictionary;
+
+    private AirportSnapshot(ByteBuffer buffer) {
+        this.buffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer b = this.buffer;
+
+        byte[] magic = new byte[MAGIC.length];
+        b.position(0);
+        b.get(magic);
+        Preconditions.checkArgument(Arrays.equals(magic, MAGIC), "not an airport snapshot");
+        int version = b.getInt();
+        Preconditions.checkArgument(version == VERSION, "unsupported snapshot version %s", version);
+
+        this.count = b.getInt();
+        int nodeSize = b.getInt();
+        int dictionarySize = b.getInt();
+        this.sourceSize = b.getLong();
+        this.sourceModified = b.getLong();
+        int nodes = PackedRTree.nodeCount(count, nodeSize);
+
+        int at = HEADER_SIZE;
+        FloatBuffer lats = section(at, count * 4).asFloatBuffer();
+        at += count * 4;
+        FloatBuffer lons = section(at, count * 4).asFloatBuffer();
+        at += count * 4;
+        this.names = section(at, count * 4).asIntBuffer();
+        at += count * 4;
+        this.iatas = section(at, count * 4).asIntBuffer();
+        at += count * 4;
+        this.cities = section(at, count * 4).asIntBuffer();
+        at += count * 4;
+        this.countries = section(at, count * 4).asIntBuffer();
+        at += count * 4;
+        FloatBuffer boxes = section(at, nodes * 16).asFloatBuffer();
+        at += nodes * 16;
+        this.dictionaryOffsets = section(at, (dictionarySize + 1) * 4).asIntBuffer();
+        at += (dictionarySize + 1) * 4;
+        this.dictionaryStart = at;
+        this.dictionary = new String[dictionarySize];
+
+        this.tree = new PackedRTree(count, nodeSize, lats, lons, boxes);
+    }
+
+    private ByteBuffer section(int offset, int length) {
+        ByteBuffer b = buffer.duplicate();
+        b.position(offset);
+        b.limit(offset + length);
+        return b.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Reads a snapshot held in {@code buffer}, which is used in place rather than copied.
+     */
+    public static AirportSnapshot read(ByteBuffer buffer) {
+        return new AirportSnapshot(buffer);
+    }
+
+    /**
+     * Packs {@code airports} into a snapshot held on the heap, without going through a file. Ordering the
+     * records and computing node boxes both run in parallel, see {@link PackedRTree#hilbertOrder}.
+     */
+    public static AirportSnapshot of(List<? extends Airport> airports) {
+        return read(encode(airports, 0, 0));
+    }
+
+    /**
+     * Memory maps the snapshot at {@code path}. A snapshot whose name ends in {@code .xz} is instead
+     * decompressed, block parallel, onto the heap.
+     */
+    public static AirportSnapshot open(Path path) throws IOException {
+        if (Xz.isXz(path)) {
+            return read(ByteBuffer.wrap(Xz.decompress(Xz.source(path))));
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Memory maps the snapshot at {@code snapshot}, first rebuilding it from {@code csv} if it is missing,
+     * was built from a different version of the CSV, or cannot be read: truncated, corrupt, or written in
+     * another snapshot format version.
+     */
+    public static AirportSnapshot load(Path csv, Path snapshot) throws IOException {
+        long size = Files.size(csv);
+        long modified = Files.getLastModifiedTime(csv).toMillis();
+        if (Files.exists(snapshot)) {
+            AirportSnapshot existing;
+            try {
+                existing = open(snapshot);
+            }
+            catch (IllegalArgumentException | IndexOutOfBoundsException | BufferUnderflowException e) {
+                // unreadable, so rebuild it like any other stale snapshot
+                existing = null;
+            }
+            if (existing != null && existing.sourceSize == size && existing.sourceModified == modified) {
+                return existing;
+            }
+        }
+
+        List<Airport> airports = Airport.loadAirports(csv).toList().toBlocking().single();
+        write(airports, size, modified, snapshot);
+        return open(snapshot);
+    }
+
+    public static void write(List<? extends Airport> airports, Path target) throws IOException {
+        write(airports, 0, 0, target);
+    }
+
+    static void write(List<? extends Airport> airports, long sourceSize, long sourceModified, Path target)
+            throws IOException {
+        Path temp = Files.createTempFile(target.toAbsolutePath().getParent(), target.getFileName().toString(), ".tmp");
+        try {
+            ByteBuffer b = encode(airports, sourceSize, sourceModified);
+            if (Xz.isXz(target)) {
+                try (OutputStream out = Files.newOutputStream(temp)) {
+                    writeXz(b, out);
+                }
+            }
+            else {
+                try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                    while (b.hasRemaining()) {
+                        channel.write(b);
+                    }
+                }
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Compresses in independent blocks of {@value #XZ_BLOCK_SIZE} bytes so they can be decompressed in
+     * parallel.
+     */
+    private static void writeXz(ByteBuffer snapshot, OutputStream out) throws IOException {
+        XZOutputStream xz = new XZOutputStream(out, new LZMA2Options());
+        byte[] chunk = new byte[XZ_BLOCK_SIZE];
+        while (snapshot.hasRemaining()) {
+            int n = Math.min(chunk.length, snapshot.remaining());
+            snapshot.get(chunk, 0, n);
+            xz.write(chunk, 0, n);
+            xz.endBlock();
+        }
+        xz.finish();
+    }
+
+    static ByteBuffer encode(List<? extends Airport> airports, long sourceSize, long sourceModified) {
+        int count = airports.size();
+        float[] rawLats = new float[count];
+        float[] rawLons = new float[count];
+        for (int i = 0; i < count; i++) {
+            rawLats[i] = airports.get(i).latitude();
+            rawLons[i] = airports.get(i).longitude();
+        }
+        int[] order = PackedRTree.hilbertOrder(rawLats, rawLons);
+
+        float[] lats = new float[count];
+        float[] lons = new float[count];
+        int[][] strings = new int[4][count];
+        Map<String, Integer> ids = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            Airport a = airports.get(order[i]);
+            lats[i] = a.latitude();
+            lons[i] = a.longitude();
+            strings[0][i] = ids.computeIfAbsent(a.name(), s -> ids.size());
+            strings[1][i] = ids.computeIfAbsent(a.iata(), s -> ids.size());
+            strings[2][i] = ids.computeIfAbsent(a.city(), s -> ids.size());
+            strings[3][i] = ids.computeIfAbsent(a.country(), s -> ids.size());
+        }
+
+        int nodeSize = PackedRTree.DEFAULT_NODE_SIZE;
+        float[] boxes = PackedRTree.boxes(FloatBuffer.wrap(lats), FloatBuffer.wrap(lons), count, nodeSize);
+
+        List<byte[]> encoded = new ArrayList<>(ids.size());
+        int dictionaryBytes = 0;
+        for (String s : ids.keySet()) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            encoded.add(bytes);
+            dictionaryBytes += bytes.length;
+        }
+
+        int total = HEADER_SIZE + count * 4 * 6 + boxes.length * 4 + (ids.size() + 1) * 4 + dictionaryBytes;
+        ByteBuffer b = ByteBuffer.allocate(total).order(ByteOrder.LITTLE_ENDIAN);
+        b.put(MAGIC)
+         .putInt(VERSION)
+         .putInt(count)
+         .putInt(nodeSize)
+         .putInt(ids.size())
+         .putLong(sourceSize)
+         .putLong(sourceModified);
+        for (float lat : lats) {
+            b.putFloat(lat);
+        }
+        for (float lon : lons) {
+            b.putFloat(lon);
+        }
+        for (int[] column : strings) {
+            for (int id : column) {
+                b.putInt(id);
+            }
+        }
+        for (float f : boxes) {
+            b.putFloat(f);
+        }
+        int offset = 0;
+        for (byte[] bytes : encoded) {
+            b.putInt(offset);
+            offset += bytes.length;
+        }
+        b.putInt(offset);
+        for (byte[] bytes : encoded) {
+            b.put(bytes);
+        }
+        b.flip();
+        return b;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Number of nodes in the packed tree, leaves included.
+     */
+    public int nodeCount() {
+        return PackedRTree.nodeCount(count, tree.nodeSize());
+    }
+
+    /**
+     * The {@code i}th airport, in snapshot (Hilbert) order.
+     */
+    public Airport airport(int i) {
+        Preconditions.checkElementIndex(i, count);
+        return ImmutableAirport.builder()
+                               .name(string(names.get(i)))
+                               .iata(string(iatas.get(i)))
+                               .city(string(cities.get(i)))
+                               .country(string(countries.get(i)))
+                               .latitude(tree.latitude(i))
+                               .longitude(tree.longitude(i))
+                               .build();
+    }
+
+    public Observable<Airport> airports() {
+        return Observable.range(0, count).map(this::airport);
+    }
+
+    /**
+     * Finds up to {@code count} airports within {@code maxDistance} kilometres of {@code p}, nearest first,
+     * searching the packed index in place.
+     */
+    public Observable<Airport> nearest(Point p, double maxDistance, int count) {
+        int[] found = tree.nearest(Geodetic.Earth, p.y(), p.x(), maxDistance, count);
+        return Observable.range(0, found.length).map(i -> airport(found[i]));
+    }
+
+    PackedRTree tree() {
+        return tree;
+    }
+
+    /**
+     * Dictionary strings are decoded on first use; racing decodes produce equal strings, so the cache
+     * needs no synchronization.
+     */
+    private String string(int id) {
+        String s = dictionary[id];
+        if (s == null) {
+            int from = dictionaryOffsets.get(id);
+            int to = dictionaryOffsets.get(id + 1);
+            byte[] bytes = new byte[to - from];
+            ByteBuffer b = buffer.duplicate();
+            b.position(dictionaryStart + from);
+            b.get(bytes);
+            s = new String(bytes, StandardCharsets.UTF_8);
+            dictionary[id] = s;
+        }
+        return s;
+    }
+}
@@ -0,0 +1,335 @@
+package org.skife.retl;
+
+import com.github.davidmoten.rtree.geometry.Point;
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * Compact in-heap store of airports. Each airport is an int: latitude and longitude live in primitive
+ * {@code float[]} columns, city and country are ids into a shared dictionary, so each distinct city or
+ * country is held once however many airports repeat it, and its {@link Point} is built, range checked, once
+ * when the store is. Names and IATA codes are nearly all distinct, so rather than a {@code String} apiece
+ * they are packed as UTF-8 into one byte array and decoded when asked for.
+ * <p>
+ * {@link #airport(int)} hands out a {@link StoredAirport}, a two field view over the columns which can be
+ * used anywhere an {@link Airport} can.
+ */
+public final class AirportStore {
+
+    private final float[] lats;
+    private final float[] lons;
+    private final byte[] text;
+    private final int[] textOffsets;
+    private final int[] cities;
+    private final int[] countries;
+    private final String[] dictionary;
+    private final Point[] points;
+
+    private AirportStore(float[] lats, float[] lons, byte[] text, int[] textOffsets, int[] cities, int[] countries,
+                         String[] dictionary) {
+        this.lats = lats;
+        this.lons = lons;
+        this.text = text;
+        this.textOffsets = textOffsets;
+        this.cities = cities;
+        this.countries = countries;
+        this.dictionary = dictionary;
+        this.points = new Point[lats.length];
+        for (int i = 0; i < points.length; i++) {
+            points[i] = Geodetic.latLong(lats[i], lons[i]);
+        }
+    }
+
+    public static AirportStore of(Iterable<? extends Airport> airports) {
+        Builder builder = new Builder();
+        for (Airport a : airports) {
+            builder.add(a.name(), a.iata(), a.city(), a.country(), a.latitude(), a.longitude());
+        }
+        return builder.build();
+    }
+
+    public static AirportStore loadKnownAirports() {
+        return of(Airport.loadKnownAirports().toBlocking().toIterable());
+    }
+
+    public int size() {
+        return lats.length;
+    }
+
+    /**
+     * Number of distinct cities and countries.
+     */
+    public int dictionarySize() {
+        return dictionary.length;
+    }
+
+    public StoredAirport airport(int i) {
+        Preconditions.checkElementIndex(i, size());
+        return new StoredAirport(this, i);
+    }
+
+    /**
+     * Every airport in the store, as views created when each element is fetched.
+     */
+    public List<Airport> airports() {
+        return new Airports();
+    }
+
+    public float latitude(int i) {
+        return lats[i];
+    }
+
+    public float longitude(int i) {
+        return lons[i];
+    }
+
+    public Point point(int i) {
+        return points[i];
+    }
+
+    public String name(int i) {
+        return text(2 * i);
+    }
+
+    public String iata(int i) {
+        return text(2 * i + 1);
+    }
+
+    private String text(int field) {
+        int from = textOffsets[field];
+        return new String(text, from, textOffsets[field + 1] - from, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Whether a name or IATA code here holds the same UTF-8 as one in {@code other}, compared in place.
+     */
+    private boolean sameText(int field, AirportStore other, int otherField) {
+        int from = textOffsets[field];
+        int length = textOffsets[field + 1] - from;
+        int otherFrom = other.textOffsets[otherField];
+        if (other.textOffsets[otherField + 1] - otherFrom != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (text[from + i] != other.text[otherFrom + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The {@link String#hashCode()} of a name or IATA code, computed from the stored bytes while they are
+     * ASCII, as they nearly always are, and only decoded when they are not.
+     */
+    private int textHash(int field) {
+        int h = 0;
+        for (int i = textOffsets[field]; i < textOffsets[field + 1]; i++) {
+            if (text[i] < 0) {
+                return text(field).hashCode();
+            }
+            h = 31 * h + text[i];
+        }
+        return h;
+    }
+
+    public String city(int i) {
+        return dictionary[cities[i]];
+    }
+
+    public String country(int i) {
+        return dictionary[countries[i]];
+    }
+
+    /**
+     * Row id of the country column, equal for airports in the same country.
+     */
+    public int countryId(int i) {
+        return countries[i];
+    }
+
+    /**
+     * Row id of the city column, equal for airports with the same city name.
+     */
+    public int cityId(int i) {
+        return cities[i];
+    }
+
+    private final class Airports extends AbstractList<Airport> implements RandomAccess {
+        @Override
+        public Airport get(int index) {
+            return airport(index);
+        }
+
+        @Override
+        public int size() {
+            return AirportStore.this.size();
+        }
+    }
+
+    /**
+     * An airport in an {@link AirportStore}. Equal to another stored airport with the same attributes, but
+     * never to an {@link ImmutableAirport}; use {@link ImmutableAirport#copyOf(Airport)} to compare the two.
+     */
+    public static final class StoredAirport implements Airport {
+
+        private final AirportStore store;
+        private final int id;
+
+        private StoredAirport(AirportStore store, int id) {
+            this.store = store;
+            this.id = id;
+        }
+
+        public int id() {
+            return id;
+        }
+
+        @Override
+        public String name() {
+            return store.name(id);
+        }
+
+        @Override
+        public String iata() {
+            return store.iata(id);
+        }
+
+        @Override
+        public String city() {
+            return store.city(id);
+        }
+
+        @Override
+        public String country() {
+            return store.country(id);
+        }
+
+        @Override
+        public float latitude() {
+            return store.latitude(id);
+        }
+
+        @Override
+        public float longitude() {
+            return store.longitude(id);
+        }
+
+        @Override
+        public Point point() {
+            return store.point(id);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof StoredAirport)) {
+                return false;
+            }
+            StoredAirport other = (StoredAirport) o;
+            if (store == other.store) {
+                return id == other.id;
+            }
+            // names and codes are compared, and hashed, as the stored bytes, as decoding them allocates
+            return store.sameText(2 * id, other.store, 2 * other.id)
+                   && store.sameText(2 * id + 1, other.store, 2 * other.id + 1)
+                   && city().equals(other.city())
+                   && country().equals(other.country())
+                   && Float.floatToIntBits(latitude()) == Float.floatToIntBits(other.latitude())
+                   && Float.floatToIntBits(longitude()) == Float.floatToIntBits(other.longitude());
+        }
+
+        @Override
+        public int hashCode() {
+            int h = 5381;
+            h += (h << 5) + store.textHash(2 * id);
+            h += (h << 5) + store.textHash(2 * id + 1);
+            h += (h << 5) + city().hashCode();
+            h += (h << 5) + country().hashCode();
+            h += (h << 5) + Float.hashCode(latitude());
+            h += (h << 5) + Float.hashCode(longitude());
+            return h;
+        }
+
+        @Override
+        public String toString() {
+            return MoreObjects.toStringHelper("Airport")
+                              .add("name", name())
+                              .add("iata", iata())
+                              .add("city", city())
+                              .add("country", country())
+                              .add("latitude", latitude())
+                              .add("longitude", longitude())
+                              .toString();
+        }
+    }
+
+    /**
+     * Accumulates airports column by column, interning cities and countries into the dictionary as it goes.
+     */
+    public static final class Builder {
+        private float[] lats = new float[1024];
+        private float[] lons = new float[1024];
+        private int[] cities = new int[1024];
+        private int[] countries = new int[1024];
+        private byte[] text = new byte[16 * 1024];
+        private int[] textOffsets = new int[2 * 1024 + 1];
+        private int textLength;
+        private final Map<String, Integer> ids = new HashMap<>();
+        private int count;
+
+        public Builder add(String name, String iata, String city, String country, float latitude, float longitude) {
+            if (count == lats.length) {
+                int capacity = count * 2;
+                lats = Arrays.copyOf(lats, capacity);
+                lons = Arrays.copyOf(lons, capacity);
+                cities = Arrays.copyOf(cities, capacity);
+                countries = Arrays.copyOf(countries, capacity);
+                textOffsets = Arrays.copyOf(textOffsets, 2 * capacity + 1);
+            }
+            lats[count] = latitude;
+            lons[count] = longitude;
+            cities[count] = id(city);
+            countries[count] = id(country);
+            append(2 * count, name);
+            append(2 * count + 1, iata);
+            count++;
+            return this;
+        }
+
+        private int id(String s) {
+            Preconditions.checkNotNull(s, "airport strings must not be null");
+            return ids.computeIfAbsent(s, k -> ids.size());
+        }
+
+        private void append(int field, String s) {
+            Preconditions.checkNotNull(s, "airport strings must not be null");
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            if (textLength + bytes.length > text.length) {
+                text = Arrays.copyOf(text, Math.max(text.length * 2, textLength + bytes.length));
+            }
+            System.arraycopy(bytes, 0, text, textLength, bytes.length);
+            textLength += bytes.length;
+            textOffsets[field + 1] = textLength;
+        }
+
+        public AirportStore build() {
+            String[] dictionary = new String[ids.size()];
+            ids.forEach((s, id) -> dictionary[id] = s);
+            return new AirportStore(Arrays.copyOf(lats, count), Arrays.copyOf(lons, count),
+                                    Arrays.copyOf(text, textLength), Arrays.copyOf(textOffsets, 2 * count + 1),
+                                    Arrays.copyOf(cities, count), Arrays.copyOf(countries, count),
+                                    dictionary);
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package org.skife.retl;
+
+import com.google.common.base.Preconditions;
+import org.tukaani.xz.LZMA2Options;
+import org.tukaani.xz.SeekableInputStream;
+import org.tukaani.xz.XZOutputStream;
+import rx.Observable;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+
+/**
+ * Reads and writes airports as region blocked, XZ compressed CSV.
+ * <p>
+ * The first XZ block holds the CSV header, each following block holds the airports of one
+ * {@value #TILE_DEGREES} degree tile, and the last block is a manifest of {@code #block} comment lines
+ * giving the bounds of each tile's block. The whole file decompresses to ordinary CSV, but a loader which
+ * only needs one region reads the manifest and decompresses just the blocks that intersect it.
+ */
+public final class AirportXz {
+
+    static final int TILE_DEGREES = 30;
+    private static final String HEADER = "name,city,country,iata,latitude,longitude\n";
+    private static final String MANIFEST = "#manifest";
+    private static final String MANIFEST_PREFIX = "#block,";
+
+    private AirportXz() {
+    }
+
+    public static void writeCsv(List<? extends Airport> airports, Path target) throws IOException {
+        try (OutputStream out = Files.newOutputStream(target)) {
+            writeCsv(airports, out);
+        }
+    }
+
+    public static void writeCsv(List<? extends Airport> airports, OutputStream out) throws IOException {
+        Map<Integer, List<Airport>> tiles = new TreeMap<>();
+        for (Airport a : airports) {
+            tiles.computeIfAbsent(tile(a.latitude(), a.longitude()), t -> new ArrayList<>()).add(a);
+        }
+
+        XZOutputStream xz = new XZOutputStream(out, new LZMA2Options());
+        xz.write(HEADER.getBytes(StandardCharsets.UTF_8));
+        xz.endBlock();
+
+        StringBuilder manifest = new StringBuilder(MANIFEST).append('\n');
+        int block = 1;
+        for (List<Airport> tile : tiles.values()) {
+            float minLat = Float.POSITIVE_INFINITY, minLon = Float.POSITIVE_INFINITY;
+            float maxLat = Float.NEGATIVE_INFINITY, maxLon = Float.NEGATIVE_INFINITY;
+            StringBuilder rows = new StringBuilder();
+            for (Airport a : tile) {
+                rows.append(field(a.name())).append(',')
+                    .append(field(a.city())).append(',')
+                    .append(field(a.country())).append(',')
+                    .append(field(a.iata())).append(',')
+                    .append(a.latitude()).append(',')
+                    .append(a.longitude()).append('\n');
+                minLat = Math.min(minLat, a.latitude());
+                maxLat = Math.max(maxLat, a.latitude());
+                minLon = Math.min(minLon, a.longitude());
+                maxLon = Math.max(maxLon, a.longitude());
+            }
+            xz.write(rows.toString().getBytes(StandardCharsets.UTF_8));
+            xz.endBlock();
+            manifest.append(MANIFEST_PREFIX)
+                    .append(block++).append(',')
+                    .append(minLat).append(',')
+                    .append(minLon).append(',')
+                    .append(maxLat).append(',')
+                    .append(maxLon).append('\n');
+        }
+        xz.write(manifest.toString().getBytes(StandardCharsets.UTF_8));
+        xz.finish();
+    }
+
+    /**
+     * Loads every airport from a region blocked file, or from any other XZ compressed CSV with a header.
+     */
+    public static Observable<Airport> load(Path csvXz) {
+        return load(Xz.source(csvXz), csvXz.toString());
+    }
+
+    static Observable<Airport> load(Callable<SeekableInputStream> source, String description) {
+        return Observable.defer(() -> {
+            try {
+                byte[] csv = Xz.decompress(source);
+                return AirportCsv.read(() -> new ByteArrayInputStream(csv), description, true);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * Loads the airports within the lat/lon box from a region blocked file, decompressing only the header
+     * and the blocks whose bounds intersect the box. A box with {@code minLon > maxLon} crosses the
+     * antimeridian.
+     */
+    public static Observable<Airport> loadRegion(Path csvXz,
+                                                 double minLat,
+                                                 double minLon,
+                                                 double maxLat,
+                                                 double maxLon) {
+        Preconditions.checkArgument(minLat <= maxLat, "minLat must not be greater than maxLat");
+        Callable<SeekableInputStream> source = Xz.source(csvXz);
+        return Observable.defer(() -> {
+            try {
+                boolean[] wanted = regionBlocks(source, minLat, minLon, maxLat, maxLon);
+                byte[] csv = Xz.decompress(source, b -> wanted[b]);
+                return AirportCsv.read(() -> new ByteArrayInputStream(csv), csvXz.toString(), true)
+                                 .filter(a -> contains(a, minLat, minLon, maxLat, maxLon));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * Which blocks {@link #loadRegion} decompresses for the box: the header, and the tiles whose bounds
+     * intersect it. Reading the manifest to decide decompresses only the last block.
+     */
+    static boolean[] regionBlocks(Callable<SeekableInputStream> source,
+                                  double minLat,
+                                  double minLon,
+                                  double maxLat,
+                                  double maxLon) throws IOException {
+        int blocks = Xz.blockCount(source);
+        List<float[]> bounds = manifest(source, blocks);
+        boolean[] wanted = new boolean[blocks];
+        wanted[0] = true;
+        for (int b = 1; b < blocks - 1; b++) {
+            float[] box = bounds.get(b);
+            wanted[b] = box != null && intersects(box, minLat, minLon, maxLat, maxLon);
+        }
+        return wanted;
+    }
+
+    private static List<float[]> manifest(Callable<SeekableInputStream> source, int blocks) throws IOException {
+        List<float[]> bounds = new ArrayList<>();
+        for (int i = 0; i < blocks; i++) {
+            bounds.add(null);
+        }
+        byte[] last = Xz.decompress(source, b -> b == blocks - 1);
+        String[] lines = new String(last, StandardCharsets.UTF_8).split("\n");
+        if (!lines[0].equals(MANIFEST)) {
+            throw new IOException("not a region blocked airport file, last block is not a manifest");
+        }
+        for (int i = 1; i < lines.length; i++) {
+            String line = lines[i];
+            String[] parts = line.split(",");
+            bounds.set(Integer.parseInt(parts[1]), new float[]{
+                    Float.parseFloat(parts[2]),
+                    Float.parseFloat(parts[3]),
+                    Float.parseFloat(parts[4]),
+                    Float.parseFloat(parts[5])
+            });
+        }
+        return bounds;
+    }
+
+    private static boolean intersects(float[] box, double minLat, double minLon, double maxLat, double maxLon) {
+        if (box[2] < minLat || box[0] > maxLat) {
+            return false;
+        }
+        if (minLon <= maxLon) {
+            return box[3] >= minLon && box[1] <= maxLon;
+        }
+        return box[3] >= minLon || box[1] <= maxLon;
+    }
+
+    private static boolean contains(Airport a, double minLat, double minLon, double maxLat, double maxLon) {
+        if (a.latitude() < minLat || a.latitude() > maxLat) {
+            return false;
+        }
+        if (minLon <= maxLon) {
+            return a.longitude() >= minLon && a.longitude() <= maxLon;
+        }
+        return a.longitude() >= minLon || a.longitude() <= maxLon;
+    }
+
+    private static int tile(float lat, float lon) {
+        int row = Math.min(180 / TILE_DEGREES - 1, (int) ((lat + 90) / TILE_DEGREES));
+        int column = Math.min(360 / TILE_DEGREES - 1, (int) ((lon + 180) / TILE_DEGREES));
+        return row * (360 / TILE_DEGREES) + column;
+    }
+
+    /**
+     * Quotes fields which would otherwise be misread, including ones which would look like a comment.
+     */
+    private static String field(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && !value.startsWith("#")) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
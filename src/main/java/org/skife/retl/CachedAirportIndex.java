@@ -0,0 +1,263 @@
+package org.skife.retl;
+
+import com.github.davidmoten.rtree.geometry.Point;
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import rx.Observable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Caches nearest airport and radius queries against an {@link AirportIndex} by quantized location. Latitude
+ * and longitude are cut into square cells of {@code cellDegrees}, and each cell caches, per result count
+ * {@code k}, every airport which could be among the {@code k} nearest to any point in the cell, and, per
+ * radius, every airport which could be within that radius of any point in the cell.
+ * <p>
+ * If the {@code k}th nearest airport to the cell's centre is {@code d} away and every point of the cell is
+ * within {@code r} of the centre, then for any point in the cell the {@code k}th nearest airport is within
+ * {@code d + r} of the point, so within {@code d + 2r} of the centre. Caching everything within that
+ * distance of the centre means answers from the cache are exact, not approximate. Cells where that would be
+ * more than {@code maxCellCandidates} airports are remembered as uncacheable and go straight to the index.
+ * Likewise everything within {@code radius} of a point in the cell is within {@code radius + r} of the
+ * centre.
+ * <p>
+ * The cache is bounded by the total number of candidate airports held, and is safe for concurrent use.
+ */
+public final class CachedAirportIndex {
+
+    static final int DEFAULT_MAX_CELL_CANDIDATES = 256;
+
+    private static final Cell UNCACHEABLE = new Cell(new Airport[0]);
+
+    private final AirportIndex index;
+    private final double cellDegrees;
+    private final int maxCellCandidates;
+    private final Cache<Key, Cell> cells;
+
+    private CachedAirportIndex(AirportIndex index, double cellDegrees, long maxCandidates, int maxCellCandidates) {
+        this.index = index;
+        this.cellDegrees = cellDegrees;
+        this.maxCellCandidates = maxCellCandidates;
+        this.cells = CacheBuilder.newBuilder()
+                                 .maximumWeight(maxCandidates)
+                                 .weigher((Key k, Cell c) -> 1 + c.airports.length)
+                                 .recordStats()
+                                 .build();
+    }
+
+    /**
+     * Caches queries against {@code index} in cells of {@code cellDegrees} on a side, holding at most about
+     * {@code maxCandidates} airports across all cells.
+     */
+    public static CachedAirportIndex create(AirportIndex index, double cellDegrees, long maxCandidates) {
+        return create(index, cellDegrees, maxCandidates, DEFAULT_MAX_CELL_CANDIDATES);
+    }
+
+    public static CachedAirportIndex create(AirportIndex index, double cellDegrees, long maxCandidates,
+                                            int maxCellCandidates) {
+        Preconditions.checkArgument(cellDegrees > 0 && cellDegrees <= 10, "cellDegrees must be in (0, 10]");
+        Preconditions.checkArgument(maxCandidates > 0, "maxCandidates must be positive");
+        Preconditions.checkArgument(maxCellCandidates > 0, "maxCellCandidates must be positive");
+        return new CachedAirportIndex(index, cellDegrees, maxCandidates, maxCellCandidates);
+    }
+
+    /**
+     * Same results as {@link AirportIndex#nearest(Point, double, int)}, up to the order of airports at exactly
+     * the same distance.
+     */
+    public Observable<Airport> nearest(Point p, double maxDistance, int count) {
+        return Observable.from(nearestAirports(p, maxDistance, count));
+    }
+
+    List<Airport> nearestAirports(Point p, double maxDistance, int count) {
+        Preconditions.checkArgument(count >= 0, "count must not be negative");
+        if (count == 0) {
+            return new ArrayList<>();
+        }
+        Cell cell = cell(p, count);
+        if (cell == UNCACHEABLE) {
+            List<Airport> results = new ArrayList<>(count);
+            for (AirportIndex.Candidate c : index.nearestEntries(p, maxDistance, count)) {
+                results.add(c.airport());
+            }
+            return results;
+        }
+        return cell.nearest(index.geodetic(), p, maxDistance, count);
+    }
+
+    /**
+     * Same results as {@link AirportIndex#withinDistance(Point, double)}. Each distinct {@code distance}
+     * fills its own cells, so this suits a few fixed radii rather than arbitrary ones.
+     */
+    public Observable<Airport> withinDistance(Point p, double distance) {
+        Preconditions.checkArgument(distance >= 0, "distance must not be negative");
+        Cell cell = cell(p, distance);
+        if (cell == UNCACHEABLE) {
+            return index.withinDistance(p, distance);
+        }
+        return Observable.from(cell.within(index.geodetic(), p, distance));
+    }
+
+    /**
+     * Hit, miss and eviction counts since this cache was created.
+     */
+    public CacheStats stats() {
+        return cells.stats();
+    }
+
+    /**
+     * Number of cells currently cached.
+     */
+    public long size() {
+        return cells.size();
+    }
+
+    private Cell cell(Point p, int count) {
+        return cell(p, count, 0);
+    }
+
+    private Cell cell(Point p, double distance) {
+        return cell(p, 0, distance);
+    }
+
+    /**
+     * The cell holding {@code p}, for nearest queries when {@code count} is positive, or for radius queries
+     * of {@code distance} when it is zero.
+     */
+    private Cell cell(Point p, int count, double distance) {
+        int latCell = (int) Math.floor(p.y() / cellDegrees);
+        int lonCell = (int) Math.floor(p.x() / cellDegrees);
+        try {
+            return cells.get(new Key(latCell, lonCell, count, distance), () -> load(latCell, lonCell, count, distance));
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("unable to load cell", e.getCause());
+        }
+    }
+
+    private Cell load(int latCell, int lonCell, int count, double distance) {
+        double minLat = Math.max(-90, latCell * cellDegrees);
+        double maxLat = Math.min(90, (latCell + 1) * cellDegrees);
+        // unless cellDegrees divides 180 the cells at the antimeridian overhang it, so clip them like the poles
+        double minLon = Math.max(-180, lonCell * cellDegrees);
+        double maxLon = Math.min(180, (lonCell + 1) * cellDegrees);
+        double centreLat = (minLat + maxLat) / 2;
+        double centreLon = (minLon + maxLon) / 2;
+        Geodetic geodetic = index.geodetic();
+
+        // cells are at most 10 degrees across, so the furthest point from the centre is a corner
+        double radius = Math.max(Math.max(geodetic.distance(centreLat, centreLon, minLat, minLon),
+                                          geodetic.distance(centreLat, centreLon, minLat, maxLon)),
+                                 Math.max(geodetic.distance(centreLat, centreLon, maxLat, minLon),
+                                          geodetic.distance(centreLat, centreLon, maxLat, maxLon)));
+        // a little slack for rounding in the distance calculations
+        radius = radius * (1 + 1e-9) + 1e-6;
+
+        Point centre = Geodetic.latLong(centreLat, centreLon);
+        if (count == 0) {
+            List<Airport> candidates = index.withinDistance(centre, distance + radius)
+                                            .take(maxCellCandidates + 1)
+                                            .toList()
+                                            .toBlocking()
+                                            .single();
+            return candidates.size() > maxCellCandidates ? UNCACHEABLE : new Cell(candidates.toArray(new Airport[0]));
+        }
+
+        List<AirportIndex.Candidate> nearest = index.nearestEntries(centre, Double.POSITIVE_INFINITY, count);
+        double reach = nearest.size() < count
+                       ? Double.POSITIVE_INFINITY
+                       : nearest.get(nearest.size() - 1).distance() + 2 * radius;
+
+        List<AirportIndex.Candidate> candidates = index.nearestEntries(centre, reach, maxCellCandidates + 1);
+        if (candidates.size() > maxCellCandidates) {
+            return UNCACHEABLE;
+        }
+        Airport[] airports = new Airport[candidates.size()];
+        for (int i = 0; i < airports.length; i++) {
+            airports[i] = candidates.get(i).airport();
+        }
+        return new Cell(airports);
+    }
+
+    private static final class Key {
+        private final int latCell;
+        private final int lonCell;
+        private final int count;
+        private final double distance;
+
+        private Key(int latCell, int lonCell, int count, double distance) {
+            this.latCell = latCell;
+            this.lonCell = lonCell;
+            this.count = count;
+            this.distance = distance;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return latCell == key.latCell
+                   && lonCell == key.lonCell
+                   && count == key.count
+                   && Double.compare(distance, key.distance) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return ((latCell * 31 + lonCell) * 31 + count) * 31 + Double.hashCode(distance);
+        }
+    }
+
+    private static final class Cell {
+        private final Airport[] airports;
+
+        private Cell(Airport[] airports) {
+            this.airports = airports;
+        }
+
+        private List<Airport> within(Geodetic geodetic, Point p, double distance) {
+            List<Airport> results = new ArrayList<>();
+            DistanceFilter filter = geodetic.filter(AirportIndex.FILTER_METRIC, p.y(), p.x(), distance);
+            for (Airport a : airports) {
+                if (filter.test(a.point().y(), a.point().x())) {
+                    results.add(a);
+                }
+            }
+            return results;
+        }
+
+        /**
+         * The {@code count} nearest candidates within {@code maxDistance}, kept sorted by insertion.
+         */
+        private List<Airport> nearest(Geodetic geodetic, Point p, double maxDistance, int count) {
+            int k = Math.min(count, airports.length);
+            Airport[] best = new Airport[k];
+            double[] distances = new double[k];
+            int n = 0;
+            for (Airport a : airports) {
+                double d = geodetic.distance(p.y(), p.x(), a.latitude(), a.longitude());
+                if (d >= maxDistance || (n == k && d >= distances[k - 1])) {
+                    continue;
+                }
+                int i = n < k ? n++ : k - 1;
+                while (i > 0 && distances[i - 1] > d) {
+                    best[i] = best[i - 1];
+                    distances[i] = distances[i - 1];
+                    i--;
+                }
+                best[i] = a;
+                distances[i] = d;
+            }
+            return new ArrayList<>(Arrays.asList(best).subList(0, n));
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package org.skife.retl;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A dataset of lat/lon pairs held as columns of unit vectors on the sphere, so that the trigonometry
+ * is paid once when the dataset is prepared rather than on every distance calculation. The squared chord
+ * between two unit vectors is {@code 4 * sin^2(theta/2)}, which is exactly the haversine term, so distances
+ * computed from these columns match {@link Geodetic#distance(com.github.davidmoten.rtree.geometry.Point,
+ * com.github.davidmoten.rtree.geometry.Point)} without any trig calls in the inner loop.
+ */
+public final class Coordinates {
+
+    final double[] x;
+    final double[] y;
+    final double[] z;
+
+    private Coordinates(double[] x, double[] y, double[] z) {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+    }
+
+    public static Coordinates of(double[] latitudes, double[] longitudes) {
+        Preconditions.checkArgument(latitudes.length == longitudes.length,
+                                    "latitudes and longitudes must be the same length");
+        int n = latitudes.length;
+        double[] x = new double[n];
+        double[] y = new double[n];
+        double[] z = new double[n];
+        for (int i = 0; i < n; i++) {
+            double lat = Math.toRadians(latitudes[i]);
+            double lon = Math.toRadians(longitudes[i]);
+            double cosLat = Math.cos(lat);
+            x[i] = cosLat * Math.cos(lon);
+            y[i] = cosLat * Math.sin(lon);
+            z[i] = Math.sin(lat);
+        }
+        return new Coordinates(x, y, z);
+    }
+
+    public static Coordinates of(float[] latitudes, float[] longitudes) {
+        Preconditions.checkArgument(latitudes.length == longitudes.length,
+                                    "latitudes and longitudes must be the same length");
+        double[] lats = new double[latitudes.length];
+        double[] lons = new double[longitudes.length];
+        for (int i = 0; i < lats.length; i++) {
+            lats[i] = latitudes[i];
+            lons[i] = longitudes[i];
+        }
+        return of(lats, lons);
+    }
+
+    public int size() {
+        return x.length;
+    }
+
+    public double latitude(int i) {
+        return Math.toDegrees(Math.atan2(z[i], Math.sqrt(x[i] * x[i] + y[i] * y[i])));
+    }
+
+    public double longitude(int i) {
+        return Math.toDegrees(Math.atan2(y[i], x[i]));
+    }
+}
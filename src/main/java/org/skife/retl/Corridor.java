@@ -0,0 +1,182 @@
+package org.skife.retl;
+
+import com.github.davidmoten.rtree.geometry.Rectangle;
+import com.google.common.base.Preconditions;
+
+import java.util.List;
+
+/**
+ * The great circle arc from one point to another, the short way round, for corridor queries. Points are
+ * handled as unit vectors: the arc lies in the plane through the centre with normal {@code n}, starting at
+ * {@code a} and heading along {@code t}, so a point's cross-track angle is the arcsine of its component on
+ * {@code n} and its along-track angle is the direction of its components on {@code a} and {@code t}.
+ */
+final class Corridor {
+
+    /**
+     * Kilometres taken off node bounds so rounding never prunes a node holding an airport right at the edge.
+     */
+    private static final double BOUND_SLACK = 1e-6;
+
+    private final Geodetic geodetic;
+    private final double radius;
+    private final double[] a;
+    private final double[] t;
+    private final double[] n;
+    private final double[] b;
+    private final double angle;
+    private final double midLat;
+    private final double midLon;
+
+    Corridor(Geodetic geodetic, double lat1, double lon1, double lat2, double lon2) {
+        this.geodetic = geodetic;
+        this.radius = geodetic.radius();
+        this.a = unit(lat1, lon1);
+        this.b = unit(lat2, lon2);
+        this.angle = angle(a, b[0], b[1], b[2]);
+        Preconditions.checkArgument(angle < Math.PI - 1e-9, "no single great circle route between antipodes");
+        double[] normal = cross(a, b);
+        if (norm(normal) < 1e-15) {
+            // one point: any great circle through it will do, and every other point measures to the point itself
+            normal = cross(a, Math.abs(a[2]) < 0.9 ? new double[]{0, 0, 1} : new double[]{1, 0, 0});
+        }
+        this.n = scale(normal, 1 / norm(normal));
+        this.t = cross(n, a);
+        double[] mid = along(a, t, angle / 2);
+        this.midLat = Math.toDegrees(Math.asin(Math.max(-1, Math.min(1, mid[2]))));
+        this.midLon = Math.toDegrees(Math.atan2(mid[1], mid[0]));
+    }
+
+    private Corridor(Geodetic geodetic, double[] a, double[] t, double[] n, double angle) {
+        this.geodetic = geodetic;
+        this.radius = geodetic.radius();
+        this.a = a;
+        this.t = t;
+        this.n = n;
+        this.angle = angle;
+        this.b = along(a, t, angle);
+        double[] mid = along(a, t, angle / 2);
+        this.midLat = Math.toDegrees(Math.asin(Math.max(-1, Math.min(1, mid[2]))));
+        this.midLon = Math.toDegrees(Math.atan2(mid[1], mid[0]));
+    }
+
+    /**
+     * Length of the route in kilometres.
+     */
+    double length() {
+        return radius * angle;
+    }
+
+    /**
+     * The part of the route from {@code from} to {@code to} kilometres along it.
+     */
+    Corridor slice(double from, double to) {
+        double start = from / radius;
+        double[] sliceA = along(a, t, start);
+        double[] sliceT = along(t, scale(a, -1), start);
+        return new Corridor(geodetic, sliceA, sliceT, n, Math.max(0, to - from) / radius);
+    }
+
+    /**
+     * Great circle distance in kilometres from (lat, lon) to the nearest point on the route: its cross-track
+     * distance if it lies abeam of the route, otherwise its distance to the nearer end.
+     */
+    double distance(double lat, double lon) {
+        double phi = Math.toRadians(lat);
+        double lambda = Math.toRadians(lon);
+        double cosPhi = Math.cos(phi);
+        double x = cosPhi * Math.cos(lambda);
+        double y = cosPhi * Math.sin(lambda);
+        double z = Math.sin(phi);
+        double theta = Math.atan2(t[0] * x + t[1] * y + t[2] * z, a[0] * x + a[1] * y + a[2] * z);
+        if (theta >= 0 && theta <= angle) {
+            double sinCross = n[0] * x + n[1] * y + n[2] * z;
+            return radius * Math.abs(Math.asin(Math.max(-1, Math.min(1, sinCross))));
+        }
+        return radius * Math.min(angle(a, x, y, z), angle(b, x, y, z));
+    }
+
+    /**
+     * Kilometres along the route to the point on it nearest (lat, lon), from zero to {@link #length()}.
+     */
+    double alongTrack(double lat, double lon) {
+        double phi = Math.toRadians(lat);
+        double lambda = Math.toRadians(lon);
+        double cosPhi = Math.cos(phi);
+        double x = cosPhi * Math.cos(lambda);
+        double y = cosPhi * Math.sin(lambda);
+        double z = Math.sin(phi);
+        double theta = Math.atan2(t[0] * x + t[1] * y + t[2] * z, a[0] * x + a[1] * y + a[2] * z);
+        if (theta >= 0 && theta <= angle) {
+            return radius * theta;
+        }
+        return angle(a, x, y, z) <= angle(b, x, y, z) ? 0 : radius * angle;
+    }
+
+    /**
+     * Lat/lon rectangles covering everything within {@code width} of the route, from
+     * {@link Geodetic#bounds}: a cheap first test before {@link #lowerBound}, whose trigonometry costs more.
+     */
+    List<Rectangle> cover(double width) {
+        return geodetic.bounds(midLat, midLon, length() / 2 + width);
+    }
+
+    /**
+     * A lower bound in kilometres on the distance from the route to anything in the lat/lon rectangle, the
+     * better of two:
+     * <ul>
+     * <li>every point of the route is within half its length of its midpoint, so the route is no nearer the
+     * rectangle than the midpoint's exact distance to it less that, which is tight for short routes;</li>
+     * <li>any point in the rectangle is within a meridian step of half its height and a parallel step of half
+     * its width of the centre, and a parallel is never shorter than the great circle it shortcuts, so the
+     * rectangle is no nearer the route than its centre less that sum, which is tight for small rectangles.</li>
+     * </ul>
+     */
+    double lowerBound(Rectangle r) {
+        double fromMidpoint = geodetic.distance(midLat, midLon, r.y1(), r.x1(), r.y2(), r.x2()) - length() / 2;
+
+        double halfHeight = Math.toRadians(r.y2() - r.y1()) / 2;
+        double halfWidth = Math.toRadians(r.x2() - r.x1()) / 2;
+        double widestCos = r.y1() <= 0 && r.y2() >= 0
+                           ? 1
+                           : Math.cos(Math.toRadians(Math.min(Math.abs(r.y1()), Math.abs(r.y2()))));
+        double reach = radius * (halfHeight + widestCos * halfWidth);
+        double fromCentre = distance((r.y1() + r.y2()) / 2, (r.x1() + r.x2()) / 2) - reach;
+
+        return Math.max(0, Math.max(fromMidpoint, fromCentre) - BOUND_SLACK);
+    }
+
+    /**
+     * The point {@code theta} radians from {@code p} heading along {@code q}, for orthogonal unit vectors.
+     */
+    private static double[] along(double[] p, double[] q, double theta) {
+        double cos = Math.cos(theta);
+        double sin = Math.sin(theta);
+        return new double[]{p[0] * cos + q[0] * sin, p[1] * cos + q[1] * sin, p[2] * cos + q[2] * sin};
+    }
+
+    private static double[] unit(double lat, double lon) {
+        double phi = Math.toRadians(lat);
+        double lambda = Math.toRadians(lon);
+        return new double[]{Math.cos(phi) * Math.cos(lambda), Math.cos(phi) * Math.sin(lambda), Math.sin(phi)};
+    }
+
+    private static double angle(double[] p, double x, double y, double z) {
+        double cx = p[1] * z - p[2] * y;
+        double cy = p[2] * x - p[0] * z;
+        double cz = p[0] * y - p[1] * x;
+        return Math.atan2(Math.sqrt(cx * cx + cy * cy + cz * cz), p[0] * x + p[1] * y + p[2] * z);
+    }
+
+    private static double[] cross(double[] p, double[] q) {
+        return new double[]{p[1] * q[2] - p[2] * q[1], p[2] * q[0] - p[0] * q[2], p[0] * q[1] - p[1] * q[0]};
+    }
+
+    private static double norm(double[] p) {
+        return Math.sqrt(p[0] * p[0] + p[1] * p[1] + p[2] * p[2]);
+    }
+
+    private static double[] scale(double[] p, double s) {
+        return new double[]{p[0] * s, p[1] * s, p[2] * s};
+    }
+}
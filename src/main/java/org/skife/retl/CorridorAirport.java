@@ -0,0 +1,26 @@
+package org.skife.retl;
+
+import org.immutables.value.Value;
+
+/**
+ * An airport near a great circle route, as produced by {@link AirportIndex#corridor}.
+ */
+@Value.Immutable
+public interface CorridorAirport {
+
+    @Value.Parameter
+    Airport airport();
+
+    /**
+     * Kilometres from the start of the route to the point on it nearest the airport.
+     */
+    @Value.Parameter
+    double alongTrack();
+
+    /**
+     * Great circle distance from the route to the airport, in kilometres: the cross-track distance when the
+     * airport lies abeam of the route, the distance to the nearer end when it lies beyond one.
+     */
+    @Value.Parameter
+    double distance();
+}
@@ -0,0 +1,51 @@
+package org.skife.retl;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Checks candidates against a distance from one origin in two phases: a cheap {@link Geodetic.Metric}
+ * first, and exact haversine only for candidates it cannot rule out. The approximation only ever rejects,
+ * and only beyond its {@link Geodetic.Metric#reach(double, double) reach}, so the answers are exactly those
+ * of haversine alone. Everything that depends only on the origin is computed once, up front.
+ */
+public final class DistanceFilter {
+
+    private final Geodetic geodetic;
+    private final Geodetic.Metric metric;
+    private final double lat;
+    private final double lon;
+    private final double cosLat;
+    private final double distance;
+    private final double reach;
+
+    DistanceFilter(Geodetic geodetic, Geodetic.Metric metric, double lat, double lon, double distance) {
+        Preconditions.checkArgument(distance >= 0, "distance must not be negative");
+        this.geodetic = geodetic;
+        this.metric = metric;
+        this.lat = lat;
+        this.lon = lon;
+        this.cosLat = Math.cos(Math.toRadians(lat));
+        this.distance = distance;
+        this.reach = metric.reach(geodetic.radius(), distance);
+    }
+
+    /**
+     * Whether (lat, lon) is within the distance of the origin, edge included.
+     */
+    public boolean test(double lat, double lon) {
+        return distance(lat, lon) <= distance;
+    }
+
+    /**
+     * Great circle distance from the origin to (lat, lon) when it is within the distance, otherwise positive
+     * infinity.
+     */
+    public double distance(double lat, double lon) {
+        if (metric != Geodetic.Metric.HAVERSINE
+            && metric.distance(geodetic.radius(), this.lat, this.lon, cosLat, lat, lon) > reach) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double d = geodetic.distance(this.lat, this.lon, lat, lon);
+        return d <= distance ? d : Double.POSITIVE_INFINITY;
+    }
+}
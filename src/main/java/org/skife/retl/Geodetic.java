@@ -6,10 +6,17 @@ import com.github.davidmoten.rtree.geometry.Point;
 import com.github.davidmoten.rtree.geometry.Rectangle;
 import com.google.common.base.Preconditions;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 public class Geodetic {
 
     public static final int EARTH_RADIUS_KM = 6371;
     public static final double EARTH_CIRCUMFERENCE_KM = 40075;
+    private static final double BOUNDS_SLACK = 1e-9;
+    private static final double ROUNDING_SLACK = 1e-12;
+
     private final int radius;
 
     public Geodetic(int radius) {
@@ -35,12 +42,262 @@ public class Geodetic {
         return this.radius * c;
     }
 
+    /**
+     * Distance from (lat, lon) to each (lats[i], lons[i]), written to {@code out[i]}. Works directly from
+     * degrees, hoisting everything that depends only on the origin out of the loop. Allocates nothing.
+     */
+    public void distances(double lat, double lon, double[] lats, double[] lons, double[] out) {
+        Preconditions.checkArgument(lats.length == lons.length && out.length >= lats.length,
+                                    "lats and lons must be the same length, and out at least as long");
+        double startLat = Math.toRadians(lat);
+        double cosStartLat = Math.cos(startLat);
+        for (int i = 0; i < lats.length; i++) {
+            double endLat = Math.toRadians(lats[i]);
+            double sinLat = Math.sin((endLat - startLat) / 2);
+            double sinLon = Math.sin(Math.toRadians(lons[i] - lon) / 2);
+            out[i] = sinLat * sinLat + cosStartLat * Math.cos(endLat) * sinLon * sinLon;
+        }
+        toDistances(out, lats.length);
+    }
+
+    /**
+     * Distance from (lat, lon) to every point in {@code to}, written to {@code out[i]}. The first loop is
+     * straight multiply/add over primitive columns, which C2 can unroll and vectorize. Allocates nothing.
+     */
+    public void distances(double lat, double lon, Coordinates to, double[] out) {
+        Preconditions.checkArgument(out.length >= to.size(), "out must be at least as long as to");
+        double lat0 = Math.toRadians(lat);
+        double lon0 = Math.toRadians(lon);
+        double qx = Math.cos(lat0) * Math.cos(lon0);
+        double qy = Math.cos(lat0) * Math.sin(lon0);
+        double qz = Math.sin(lat0);
+
+        double[] xs = to.x;
+        double[] ys = to.y;
+        double[] zs = to.z;
+        for (int i = 0; i < xs.length; i++) {
+            double dx = xs[i] - qx;
+            double dy = ys[i] - qy;
+            double dz = zs[i] - qz;
+            out[i] = (dx * dx + dy * dy + dz * dz) * 0.25;
+        }
+        toDistances(out, xs.length);
+    }
+
+    /**
+     * Distance from (lat, lon) to the nearest point in {@code to}, or positive infinity when it is empty.
+     * Only the minimum squared chord is tracked in the loop; trig is paid once, for the answer.
+     */
+    public double minDistance(double lat, double lon, Coordinates to) {
+        double lat0 = Math.toRadians(lat);
+        double lon0 = Math.toRadians(lon);
+        double qx = Math.cos(lat0) * Math.cos(lon0);
+        double qy = Math.cos(lat0) * Math.sin(lon0);
+        double qz = Math.sin(lat0);
+
+        double[] xs = to.x;
+        double[] ys = to.y;
+        double[] zs = to.z;
+        double min = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < xs.length; i++) {
+            double dx = xs[i] - qx;
+            double dy = ys[i] - qy;
+            double dz = zs[i] - qz;
+            min = Math.min(min, dx * dx + dy * dy + dz * dz);
+        }
+        if (min == Double.POSITIVE_INFINITY) {
+            return min;
+        }
+        double a = Math.min(1, min * 0.25);
+        return this.radius * 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+    }
+
+    /**
+     * Index of the point in {@code to} nearest to (lat, lon), or -1 when it is empty. Squared chords order
+     * exactly as great circle distances do, so there is no trig at all per point.
+     */
+    public int nearest(double lat, double lon, Coordinates to) {
+        double lat0 = Math.toRadians(lat);
+        double lon0 = Math.toRadians(lon);
+        double qx = Math.cos(lat0) * Math.cos(lon0);
+        double qy = Math.cos(lat0) * Math.sin(lon0);
+        double qz = Math.sin(lat0);
+
+        double[] xs = to.x;
+        double[] ys = to.y;
+        double[] zs = to.z;
+        int best = -1;
+        double min = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < xs.length; i++) {
+            double dx = xs[i] - qx;
+            double dy = ys[i] - qy;
+            double dz = zs[i] - qz;
+            double c = dx * dx + dy * dy + dz * dz;
+            if (c < min) {
+                min = c;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Converts haversine terms, {@code sin^2(theta/2)}, to distances in place.
+     */
+    private void toDistances(double[] haversines, int length) {
+        for (int i = 0; i < length; i++) {
+            double a = Math.min(1, haversines[i]);
+            haversines[i] = this.radius * 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+        }
+    }
+
+    /**
+     * Lower bound, in the units of this geodetic's radius, on the distance from {@code p} to any point within
+     * {@code r}, where {@code r} is a geographic rectangle (x is longitude, y is latitude). Exact when {@code r}
+     * is itself a point. Correct across the antimeridian and when {@code r} touches a pole.
+     */
+    public double distance(Point p, Rectangle r) {
+        return this.radius * minAngle(p.y(), p.x(), r.y1(), r.x1(), r.y2(), r.x2());
+    }
+
+    double distance(double startLat, double startLon, double endLat, double endLon) {
+        return this.radius * angle(startLat, startLon, endLat, endLon);
+    }
+
+    double distance(double lat, double lon, double minLat, double minLon, double maxLat, double maxLon) {
+        return this.radius * minAngle(lat, lon, minLat, minLon, maxLat, maxLon);
+    }
+
+    /**
+     * Distance between two points by {@code metric}, which may be an approximation, see {@link Metric}.
+     */
+    public double distance(Metric metric, Point start, Point end) {
+        double cosLat = Math.cos(Math.toRadians(start.y()));
+        return metric.distance(this.radius, start.y(), start.x(), cosLat, end.y(), end.x());
+    }
+
+    /**
+     * A two phase check of distance from (lat, lon) against {@code distance}: {@code metric} rules candidates
+     * out cheaply and exact haversine is computed only for those it cannot.
+     */
+    public DistanceFilter filter(Metric metric, double lat, double lon, double distance) {
+        return new DistanceFilter(this, metric, lat, lon, distance);
+    }
+
+    /**
+     * Returns a point which measures distance to rectangles (and other points) geodetically, using this
+     * geodetic, rather than by euclidean distance in degrees.
+     */
+    public Point point(double latitude, double longitude) {
+        return new GeodeticPoint(this, latLong(latitude, longitude));
+    }
+
+    /**
+     * Lat/lon rectangles which together cover every point within {@code distance} of (lat, lon): one, or two
+     * when the area crosses the antimeridian. Longitude widens with latitude, by the exact bound for a
+     * spherical cap, and an area reaching over a pole covers every longitude. A hair of slack on every side
+     * keeps points on the boundary inside despite rounding.
+     */
+    List<Rectangle> bounds(double lat, double lon, double distance) {
+        return bounds(lat, lon, lat, lon, distance);
+    }
+
+    /**
+     * As {@link #bounds(double, double, double)}, for everything within {@code distance} of any point in the
+     * box from (minLat, minLon) to (maxLat, maxLon). Longitude widens by the cap bound at the box's most
+     * poleward latitude, where it is greatest.
+     */
+    List<Rectangle> bounds(double minLat, double minLon, double maxLat, double maxLon, double distance) {
+        double angle = distance / this.radius;
+        if (angle >= Math.PI) {
+            return boxes(-90, -180, 90, 180);
+        }
+        double deltaLat = Math.toDegrees(angle) + BOUNDS_SLACK;
+        double south = minLat - deltaLat;
+        double north = maxLat + deltaLat;
+        if (south <= -90 || north >= 90) {
+            return boxes(Math.max(-90, south), -180, Math.min(90, north), 180);
+        }
+        double poleward = Math.max(Math.abs(minLat), Math.abs(maxLat));
+        double deltaLon = Math.toDegrees(Math.asin(Math.sin(angle) / Math.cos(Math.toRadians(poleward)))) + BOUNDS_SLACK;
+        if (maxLon - minLon + 2 * deltaLon >= 360) {
+            return boxes(south, -180, north, 180);
+        }
+        double west = minLon - deltaLon;
+        double east = maxLon + deltaLon;
+        return boxes(south, west < -180 ? west + 360 : west, north, east > 180 ? east - 360 : east);
+    }
+
+    /**
+     * The box from (minLat, minLon) to (maxLat, maxLon) as rectangles in the index's coordinates. A box with
+     * {@code minLon > maxLon} crosses the antimeridian and is split in two.
+     */
+    static List<Rectangle> boxes(double minLat, double minLon, double maxLat, double maxLon) {
+        if (minLon <= maxLon) {
+            return Collections.singletonList(Geometries.rectangle(minLon, minLat, maxLon, maxLat));
+        }
+        return Arrays.asList(Geometries.rectangle(minLon, minLat, 180, maxLat),
+                             Geometries.rectangle(-180, minLat, maxLon, maxLat));
+    }
+
+    /**
+     * Smallest central angle, in radians, between (lat, lon) and the lat/lon box bounded by
+     * (minLat, minLon), (maxLat, maxLon). All inputs are in degrees.
+     */
+    static double minAngle(double lat, double lon, double minLat, double minLon, double maxLat, double maxLon) {
+        if (lon >= minLon && lon <= maxLon) {
+            if (lat < minLat) {
+                return Math.toRadians(minLat - lat);
+            }
+            if (lat > maxLat) {
+                return Math.toRadians(lat - maxLat);
+            }
+            return 0;
+        }
+
+        // nearest meridian edge, measured the short way round the world
+        double east = positiveModulo(minLon - lon, 360);
+        double west = positiveModulo(lon - maxLon, 360);
+        double edgeLon = east < west ? minLon : maxLon;
+        double deltaLon = Math.toRadians(Math.min(east, west));
+
+        if (deltaLon < Math.PI / 2) {
+            // the closest point on the edge's great circle, clamped to the edge
+            double phi = Math.toRadians(lat);
+            double closest = Math.toDegrees(Math.atan2(Math.sin(phi), Math.cos(phi) * Math.cos(deltaLon)));
+            double clamped = Math.max(minLat, Math.min(maxLat, closest));
+            return angle(lat, lon, clamped, edgeLon);
+        }
+
+        // the great circle's closest point lies over the pole, so along this edge distance peaks in
+        // the interior and the minimum is at one of the corners
+        return Math.min(angle(lat, lon, minLat, edgeLon), angle(lat, lon, maxLat, edgeLon));
+    }
+
+    /**
+     * Central angle, in radians, between two lat/lon pairs given in degrees.
+     */
+    static double angle(double startLatDegrees, double startLonDegrees, double endLatDegrees, double endLonDegrees) {
+        double startLat = Math.toRadians(startLatDegrees);
+        double endLat = Math.toRadians(endLatDegrees);
+
+        double sinLat = Math.sin(Math.toRadians(endLatDegrees - startLatDegrees) / 2);
+        double sinLon = Math.sin(Math.toRadians(endLonDegrees - startLonDegrees) / 2);
+
+        double a = sinLat * sinLat + Math.cos(startLat) * Math.cos(endLat) * sinLon * sinLon;
+        return 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+    }
+
+    private static double positiveModulo(double value, double modulus) {
+        double m = value % modulus;
+        return m < 0 ? m + modulus : m;
+    }
+
     public static Point latLong(double latitude, double longitude) {
         Preconditions.checkArgument(latitude >= -90 && latitude <= 90,
                                     "latitude must be between -90 and 90");
         Preconditions.checkArgument(longitude >= -180 && longitude <= 180,
                                     "longitude must be between -180 and 180");
-//        return new GeodeticPoint(Geometries.pointGeographic(longitude, latitude));
         return Geometries.pointGeographic(longitude, latitude);
     }
 
@@ -48,6 +305,117 @@ public class Geodetic {
         return 2 * Math.PI * radius;
     }
 
+    double radius() {
+        return radius;
+    }
+
+    /**
+     * Ways of measuring great circle distance, trading accuracy for cost. Each has a documented bound on how
+     * far it can stray from haversine, captured by {@link #reach(double, double)}, so that it can be used to
+     * rule candidates out without changing any answer, see {@link DistanceFilter}.
+     */
+    public enum Metric {
+
+        /**
+         * The haversine formula in double precision; the exact distance everything else is measured against.
+         */
+        HAVERSINE {
+            @Override
+            double distance(double radius, double lat1, double lon1, double cosLat1, double lat2, double lon2) {
+                return radius * angle(lat1, lon1, lat2, lon2);
+            }
+
+            @Override
+            double reach(double radius, double distance) {
+                return distance;
+            }
+        },
+
+        /**
+         * Straight line distance through the sphere, {@code 2r * sin(theta/2)}: haversine without its
+         * {@code atan2} and one of its square roots. Never more than the great circle distance and short of it
+         * by at most {@code r * theta^3 / 24}, about 0.03% at 500 km, but as it orders exactly as great circle
+         * distance does, the comparison can be made exact by converting the distance rather than the chord.
+         */
+        CHORD {
+            @Override
+            double distance(double radius, double lat1, double lon1, double cosLat1, double lat2, double lon2) {
+                double sinLat = Math.sin(Math.toRadians(lat2 - lat1) / 2);
+                double sinLon = Math.sin(Math.toRadians(lon2 - lon1) / 2);
+                double a = sinLat * sinLat + cosLat1 * Math.cos(Math.toRadians(lat2)) * sinLon * sinLon;
+                return radius * 2 * Math.sqrt(Math.min(1, a));
+            }
+
+            @Override
+            double reach(double radius, double distance) {
+                return radius * 2 * Math.sin(Math.min(distance / radius, Math.PI) / 2) + radius * ROUNDING_SLACK;
+            }
+        },
+
+        /**
+         * Pythagoras on the equirectangular projection, {@code r * sqrt(dLat^2 + cos(lat1) * cos(lat2) * dLon^2)},
+         * shrunk by {@code 1 - m^2/6}, where {@code m} is half the larger of dLat and dLon, so that it never
+         * exceeds the great circle distance: {@code sin(x) >= x * (1 - x^2/6)} applied to each haversine term.
+         * One cosine and no other trig per pair. Short by under 0.001% at 50 km and 0.07% at 500 km below 70
+         * degrees of latitude, growing looser towards the poles, where longitude differences stop meaning much.
+         */
+        EQUIRECTANGULAR {
+            @Override
+            double distance(double radius, double lat1, double lon1, double cosLat1, double lat2, double lon2) {
+                double deltaLat = Math.toRadians(Math.abs(lat2 - lat1));
+                double deltaLon = Math.abs(lon2 - lon1);
+                deltaLon = Math.toRadians(deltaLon > 180 ? 360 - deltaLon : deltaLon);
+                double cos = cosLat1 * Math.cos(Math.toRadians(lat2));
+                double m = Math.max(deltaLat, deltaLon) / 2;
+                return radius * Math.sqrt(deltaLat * deltaLat + cos * deltaLon * deltaLon) * (1 - m * m / 6);
+            }
+
+            @Override
+            double reach(double radius, double distance) {
+                return distance + radius * ROUNDING_SLACK;
+            }
+        },
+
+        /**
+         * Haversine in single precision, as for coordinates held as floats, see {@link AirportStore}. Within
+         * 10 m of haversine up to 10,000 km; past that {@code 1 - a} loses precision, and approaching the
+         * antipode it can be out by up to 2 km.
+         */
+        FLOAT {
+            private static final float RADIANS = (float) (Math.PI / 180);
+
+            @Override
+            double distance(double radius, double lat1, double lon1, double cosLat1, double lat2, double lon2) {
+                float startLat = (float) lat1;
+                float endLat = (float) lat2;
+                float sinLat = (float) Math.sin((endLat - startLat) * RADIANS * 0.5f);
+                float sinLon = (float) Math.sin(((float) lon2 - (float) lon1) * RADIANS * 0.5f);
+                float a = sinLat * sinLat + (float) cosLat1 * (float) Math.cos(endLat * RADIANS) * sinLon * sinLon;
+                a = Math.max(0f, Math.min(1f, a));
+                return (float) radius * 2f * (float) Math.atan2((float) Math.sqrt(a), (float) Math.sqrt(1f - a));
+            }
+
+            @Override
+            double reach(double radius, double distance) {
+                // 12.7 m and 3.2 km on the earth, with room to spare over the errors measured
+                return distance + radius * (distance < radius * 1.4 ? 2e-6 : 5e-4);
+            }
+        };
+
+        /**
+         * Distance from (lat1, lon1) to (lat2, lon2) on a sphere of {@code radius}, given the cosine of the
+         * first latitude, which is usually shared by many calls. Inputs are in degrees, the result in the units
+         * of {@code radius}.
+         */
+        abstract double distance(double radius, double lat1, double lon1, double cosLat1, double lat2, double lon2);
+
+        /**
+         * The most this metric can give for two points at most {@code distance} apart by haversine, rounding
+         * included.
+         */
+        abstract double reach(double radius, double distance);
+    }
+
     private static class GeodeticPoint implements Point {
 
         private final Geodetic geodetic;
@@ -115,9 +483,7 @@ public class Geodetic {
 
         @Override
         public double distance(Rectangle r) {
-            Preconditions.checkState(r instanceof Point, "only works with points so far, sorry");
-            Point p = (Point) r;
-            return this.geodetic.distance(this, p);
+            return this.geodetic.distance(this, r);
         }
 
         @Override
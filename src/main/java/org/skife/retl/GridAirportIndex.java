@@ -0,0 +1,237 @@
+package org.skife.retl;
+
+import com.github.davidmoten.rtree.geometry.Point;
+import com.github.davidmoten.rtree.geometry.Rectangle;
+import com.google.common.base.Preconditions;
+import rx.Observable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.IntConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Airports bucketed into a fixed grid of roughly square cells, an alternative to the tree in
+ * {@link AirportIndex} for dense, uniform data. Rows are bands of latitude of equal height, and each band is
+ * split into as many columns as fit at its middle latitude, so cells are about {@code cellKm} on a side
+ * everywhere rather than narrowing to slivers towards the poles.
+ * <p>
+ * Cells are numbered row by row, west to east, and airports are held in primitive columns sorted by cell with
+ * the start of each cell in an offsets array. Finding a cell is arithmetic, and every cell a row crosses is
+ * one contiguous slice of the columns: there are no nodes and no pointers to chase.
+ * <p>
+ * Radius queries scan the slice of each row under {@link Geodetic#bounds(double, double, double)}. Nearest
+ * queries scan a circle of cells, doubling its radius until it holds {@code count} airports; each round covers
+ * four times the area of the one before, so rescanning the inner cells adds about a third to the work.
+ * <p>
+ * Built once and never modified, so safe to share between threads.
+ */
+public final class GridAirportIndex implements SpatialIndex {
+
+    static final double MIN_CELL_KM = 10;
+    static final double MAX_CELL_KM = 1000;
+
+    private final Geodetic geodetic;
+    private final double cellKm;
+    private final int rows;
+    private final double rowHeight;
+    private final int[] rowOffsets;
+    private final double[] columnWidths;
+    private final int[] cellStarts;
+    private final double[] lats;
+    private final double[] lons;
+    private final Airport[] airports;
+
+    private GridAirportIndex(Geodetic geodetic, Collection<? extends Airport> airports, double cellKm) {
+        this.geodetic = geodetic;
+        this.cellKm = cellKm;
+        this.rows = (int) Math.ceil(geodetic.circumference() / 2 / cellKm);
+        this.rowHeight = 180.0 / rows;
+        this.rowOffsets = new int[rows + 1];
+        this.columnWidths = new double[rows];
+        for (int r = 0; r < rows; r++) {
+            double middle = -90 + (r + 0.5) * rowHeight;
+            int columns = Math.max(1, (int) Math.ceil(360 * Math.cos(Math.toRadians(middle)) / rowHeight));
+            columnWidths[r] = 360.0 / columns;
+            rowOffsets[r + 1] = rowOffsets[r] + columns;
+        }
+
+        // counting sort by cell
+        Airport[] input = airports.toArray(new Airport[0]);
+        int[] cells = new int[input.length];
+        this.cellStarts = new int[rowOffsets[rows] + 1];
+        for (int i = 0; i < input.length; i++) {
+            cells[i] = cell(input[i].point().y(), input[i].point().x());
+            cellStarts[cells[i] + 1]++;
+        }
+        for (int c = 0; c < rowOffsets[rows]; c++) {
+            cellStarts[c + 1] += cellStarts[c];
+        }
+        int[] next = Arrays.copyOf(cellStarts, rowOffsets[rows]);
+        this.lats = new double[input.length];
+        this.lons = new double[input.length];
+        this.airports = new Airport[input.length];
+        for (int i = 0; i < input.length; i++) {
+            int slot = next[cells[i]]++;
+            this.airports[slot] = input[i];
+            this.lats[slot] = input[i].point().y();
+            this.lons[slot] = input[i].point().x();
+        }
+    }
+
+    /**
+     * A grid sized for the number of airports: cells as large as the earth's surface shared out evenly among
+     * them, so uniform data averages about one airport a cell.
+     */
+    public static GridAirportIndex create(Collection<? extends Airport> airports) {
+        double area = 4 * Math.PI * Geodetic.EARTH_RADIUS_KM * Geodetic.EARTH_RADIUS_KM;
+        double cellKm = Math.sqrt(area / Math.max(1, airports.size()));
+        return create(airports, Math.max(MIN_CELL_KM, Math.min(MAX_CELL_KM, cellKm)));
+    }
+
+    /**
+     * A grid of cells about {@code cellKm} on a side, between {@value #MIN_CELL_KM} and
+     * {@value #MAX_CELL_KM}.
+     */
+    public static GridAirportIndex create(Collection<? extends Airport> airports, double cellKm) {
+        Preconditions.checkArgument(cellKm >= MIN_CELL_KM && cellKm <= MAX_CELL_KM,
+                                    "cellKm must be between %s and %s", MIN_CELL_KM, MAX_CELL_KM);
+        return new GridAirportIndex(Geodetic.Earth, airports, cellKm);
+    }
+
+    @Override
+    public Observable<Airport> nearest(Point p, double maxDistance, int count) {
+        Preconditions.checkArgument(count >= 0, "count must not be negative");
+        if (count == 0 || airports.length == 0 || maxDistance <= 0) {
+            return Observable.empty();
+        }
+        double halfWorld = geodetic.circumference() / 2;
+        double radius = Math.min(cellKm, maxDistance);
+        Candidates found = new Candidates();
+        while (true) {
+            found.clear();
+            DistanceFilter filter = geodetic.filter(AirportIndex.FILTER_METRIC, p.y(), p.x(), radius);
+            scan(geodetic.bounds(p.y(), p.x(), radius), i -> {
+                double d = filter.distance(lats[i], lons[i]);
+                if (d < maxDistance) {
+                    found.add(i, d);
+                }
+            });
+            // everything within the radius has been seen, so once there are count of them they are the nearest
+            if (found.size >= count || radius >= maxDistance || radius >= halfWorld) {
+                break;
+            }
+            radius = Math.min(maxDistance, radius * 2);
+        }
+        return Observable.from(found.nearest(count))
+                         .map(i -> airports[i]);
+    }
+
+    @Override
+    public Observable<Airport> withinDistance(Point p, double distance) {
+        Preconditions.checkArgument(distance >= 0, "distance must not be negative");
+        DistanceFilter filter = geodetic.filter(AirportIndex.FILTER_METRIC, p.y(), p.x(), distance);
+        List<Airport> found = new ArrayList<>();
+        scan(geodetic.bounds(p.y(), p.x(), distance), i -> {
+            if (filter.test(lats[i], lons[i])) {
+                found.add(airports[i]);
+            }
+        });
+        return Observable.from(found);
+    }
+
+    @Override
+    public int size() {
+        return airports.length;
+    }
+
+    /**
+     * Number of cells in the grid, empty ones included.
+     */
+    int cellCount() {
+        return rowOffsets[rows];
+    }
+
+    /**
+     * Visits every airport in a cell touched by {@code bounds}, each once. Bounds come from
+     * {@link Geodetic#bounds}: one rectangle, or two sharing a latitude range when split at the antimeridian,
+     * the first running east to 180 and the second west from -180.
+     */
+    private void scan(List<Rectangle> bounds, IntConsumer visitor) {
+        Rectangle first = bounds.get(0);
+        for (int r = row(first.y1()); r <= row(first.y2()); r++) {
+            int base = rowOffsets[r];
+            int last = rowOffsets[r + 1] - 1;
+            if (bounds.size() == 1) {
+                slice(base + column(r, first.x1()), base + column(r, first.x2()), visitor);
+                continue;
+            }
+            int east = base + column(r, first.x1());
+            int west = base + column(r, bounds.get(1).x2());
+            if (west >= east) {
+                // wide enough that the two halves meet in this row
+                slice(base, last, visitor);
+            }
+            else {
+                slice(base, west, visitor);
+                slice(east, last, visitor);
+            }
+        }
+    }
+
+    private void slice(int fromCell, int toCell, IntConsumer visitor) {
+        for (int i = cellStarts[fromCell]; i < cellStarts[toCell + 1]; i++) {
+            visitor.accept(i);
+        }
+    }
+
+    private int cell(double lat, double lon) {
+        int row = row(lat);
+        return rowOffsets[row] + column(row, lon);
+    }
+
+    private int row(double lat) {
+        return Math.max(0, Math.min(rows - 1, (int) ((lat + 90) / rowHeight)));
+    }
+
+    private int column(int row, double lon) {
+        int columns = rowOffsets[row + 1] - rowOffsets[row];
+        return Math.max(0, Math.min(columns - 1, (int) ((lon + 180) / columnWidths[row])));
+    }
+
+    /**
+     * Airport slots and their distances, in primitive arrays which grow as needed.
+     */
+    private static final class Candidates {
+        private int[] slots = new int[16];
+        private double[] distances = new double[16];
+        private int size;
+
+        private void add(int slot, double distance) {
+            if (size == slots.length) {
+                slots = Arrays.copyOf(slots, size * 2);
+                distances = Arrays.copyOf(distances, size * 2);
+            }
+            slots[size] = slot;
+            distances[size] = distance;
+            size++;
+        }
+
+        private void clear() {
+            size = 0;
+        }
+
+        private List<Integer> nearest(int count) {
+            return IntStream.range(0, size)
+                            .boxed()
+                            .sorted(Comparator.comparingDouble(i -> distances[i]))
+                            .limit(count)
+                            .map(i -> slots[i])
+                            .collect(Collectors.toList());
+        }
+    }
+}
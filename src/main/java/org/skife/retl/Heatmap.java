@@ -0,0 +1,261 @@
+package org.skife.retl;
+
+import com.github.davidmoten.rtree.geometry.Point;
+import com.google.common.base.Preconditions;
+import rx.Observable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Counts and sums of a value over a grid of latitude and longitude cells covering the globe, for density
+ * and coverage maps: airports per cell, or mean distance to the nearest airport over a stream of positions.
+ * Cells are {@code cellDegrees} on a side, numbered row by row from the south pole, west to east from the
+ * antimeridian, and held in primitive arrays, so adding a point is arithmetic and two array updates.
+ * <p>
+ * A heatmap is not thread safe. Parallel workers each fill their own and {@link #merge} them afterwards,
+ * which needs no locks as nothing is shared until then; {@link HeatmapAccumulator} does the bookkeeping.
+ * <p>
+ * Written as CSV, one row per non-empty cell, or as a compact binary form, little endian:
+ * <pre>
+ *   magic "RETLHEAT", int version, int rows, int columns, int cells, double cellDegrees
+ *   then per non-empty cell, in cell order: int cell, long count, double sum
+ * </pre>
+ */
+public final class Heatmap {
+
+    private static final byte[] MAGIC = "RETLHEAT".getBytes(StandardCharsets.US_ASCII);
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int CELL_SIZE = 20;
+
+    private final double cellDegrees;
+    private final int rows;
+    private final int columns;
+    private final long[] counts;
+    private final double[] sums;
+
+    private Heatmap(double cellDegrees) {
+        this.cellDegrees = cellDegrees;
+        this.rows = (int) Math.round(180 / cellDegrees);
+        this.columns = 2 * rows;
+        this.counts = new long[rows * columns];
+        this.sums = new double[rows * columns];
+    }
+
+    /**
+     * An empty heatmap with cells {@code cellDegrees} on a side, which must divide 180 evenly.
+     */
+    public static Heatmap create(double cellDegrees) {
+        checkCellDegrees(cellDegrees);
+        return new Heatmap(cellDegrees);
+    }
+
+    static void checkCellDegrees(double cellDegrees) {
+        Preconditions.checkArgument(cellDegrees > 0 && cellDegrees <= 180, "cellDegrees must be in (0, 180]");
+        double rows = 180 / cellDegrees;
+        Preconditions.checkArgument(Math.abs(rows - Math.round(rows)) < 1e-9, "cellDegrees must divide 180");
+        Preconditions.checkArgument(rows * rows * 2 <= Integer.MAX_VALUE - 8, "cellDegrees is too small");
+    }
+
+    /**
+     * Adds up {@code items} as they arrive, one point and value each, emitting the heatmap when they
+     * complete. The stream is never held in memory; for the airports in each cell,
+     * <pre>{@code
+     * Heatmap.aggregate(Airport.loadKnownAirports(), 1, Airport::point, a -> 1)
+     * }</pre>
+     */
+    public static <T> Observable<Heatmap> aggregate(Observable<? extends T> items,
+                                                    double cellDegrees,
+                                                    Function<? super T, Point> position,
+                                                    ToDoubleFunction<? super T> value) {
+        Preconditions.checkNotNull(position, "position");
+        Preconditions.checkNotNull(value, "value");
+        checkCellDegrees(cellDegrees);
+        return items.collect(() -> create(cellDegrees), (heatmap, item) -> heatmap.add(position.apply(item),
+                                                                                        value.applyAsDouble(item)));
+    }
+
+    public void add(Point p, double value) {
+        add(p.y(), p.x(), value);
+    }
+
+    public void add(double lat, double lon, double value) {
+        int cell = cell(lat, lon);
+        counts[cell]++;
+        sums[cell] += value;
+    }
+
+    /**
+     * Adds {@code other}'s counts and sums into this one, which must have the same cells, and returns this.
+     */
+    public Heatmap merge(Heatmap other) {
+        Preconditions.checkArgument(other.cellDegrees == cellDegrees, "cannot merge %s degree cells into %s",
+                                    other.cellDegrees, cellDegrees);
+        for (int c = 0; c < counts.length; c++) {
+            counts[c] += other.counts[c];
+            sums[c] += other.sums[c];
+        }
+        return this;
+    }
+
+    public double cellDegrees() {
+        return cellDegrees;
+    }
+
+    public int rows() {
+        return rows;
+    }
+
+    public int columns() {
+        return columns;
+    }
+
+    /**
+     * The cell holding (lat, lon). The north pole and the antimeridian at 180 fall in the last row and column.
+     */
+    public int cell(double lat, double lon) {
+        Preconditions.checkArgument(lat >= -90 && lat <= 90, "latitude must be between -90 and 90");
+        Preconditions.checkArgument(lon >= -180 && lon <= 180, "longitude must be between -180 and 180");
+        int row = Math.min(rows - 1, (int) ((lat + 90) / cellDegrees));
+        int column = Math.min(columns - 1, (int) ((lon + 180) / cellDegrees));
+        return row * columns + column;
+    }
+
+    /**
+     * Latitude of the middle of {@code cell}.
+     */
+    public double latitude(int cell) {
+        return -90 + (cell / columns + 0.5) * cellDegrees;
+    }
+
+    /**
+     * Longitude of the middle of {@code cell}.
+     */
+    public double longitude(int cell) {
+        return -180 + (cell % columns + 0.5) * cellDegrees;
+    }
+
+    public long count(int cell) {
+        return counts[cell];
+    }
+
+    public double sum(int cell) {
+        return sums[cell];
+    }
+
+    /**
+     * Mean value in {@code cell}, NaN if it is empty.
+     */
+    public double mean(int cell) {
+        return counts[cell] == 0 ? Double.NaN : sums[cell] / counts[cell];
+    }
+
+    /**
+     * Points added, over all cells.
+     */
+    public long total() {
+        return Arrays.stream(counts).sum();
+    }
+
+    /**
+     * Cells with at least one point.
+     */
+    public int occupied() {
+        int n = 0;
+        for (long count : counts) {
+            if (count != 0) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Writes a header row then {@code lat,lon,count,sum,mean} for each non-empty cell, at the cell's middle.
+     */
+    public void writeCsv(Appendable out) throws IOException {
+        out.append("lat,lon,count,sum,mean\n");
+        for (int c = 0; c < counts.length; c++) {
+            if (counts[c] != 0) {
+                out.append(Double.toString(latitude(c))).append(',')
+                   .append(Double.toString(longitude(c))).append(',')
+                   .append(Long.toString(counts[c])).append(',')
+                   .append(Double.toString(sums[c])).append(',')
+                   .append(Double.toString(mean(c))).append('\n');
+            }
+        }
+    }
+
+    /**
+     * Writes the binary form to {@code target}, replacing it atomically.
+     */
+    public void write(Path target) throws IOException {
+        Path temp = Files.createTempFile(target.toAbsolutePath().getParent(), target.getFileName().toString(), ".tmp");
+        try {
+            ByteBuffer b = encode();
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                while (b.hasRemaining()) {
+                    channel.write(b);
+                }
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    public static Heatmap read(Path source) throws IOException {
+        return read(ByteBuffer.wrap(Files.readAllBytes(source)));
+    }
+
+    public ByteBuffer encode() {
+        int occupied = occupied();
+        ByteBuffer b = ByteBuffer.allocate(HEADER_SIZE + occupied * CELL_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        b.put(MAGIC)
+         .putInt(VERSION)
+         .putInt(rows)
+         .putInt(columns)
+         .putInt(occupied)
+         .putDouble(cellDegrees);
+        for (int c = 0; c < counts.length; c++) {
+            if (counts[c] != 0) {
+                b.putInt(c).putLong(counts[c]).putDouble(sums[c]);
+            }
+        }
+        b.flip();
+        return b;
+    }
+
+    public static Heatmap read(ByteBuffer buffer) {
+        ByteBuffer b = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        byte[] magic = new byte[MAGIC.length];
+        b.get(magic);
+        Preconditions.checkArgument(Arrays.equals(magic, MAGIC), "not a heatmap");
+        int version = b.getInt();
+        Preconditions.checkArgument(version == VERSION, "unsupported heatmap version %s", version);
+        int rows = b.getInt();
+        int columns = b.getInt();
+        int occupied = b.getInt();
+        Heatmap heatmap = create(b.getDouble());
+        Preconditions.checkArgument(heatmap.rows == rows && heatmap.columns == columns,
+                                    "heatmap is %sx%s, its cells are not", rows, columns);
+        for (int i = 0; i < occupied; i++) {
+            int cell = b.getInt();
+            Preconditions.checkElementIndex(cell, heatmap.counts.length, "cell");
+            heatmap.counts[cell] = b.getLong();
+            heatmap.sums[cell] = b.getDouble();
+        }
+        return heatmap;
+    }
+}
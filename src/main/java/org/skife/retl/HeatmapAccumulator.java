@@ -0,0 +1,75 @@
+package org.skife.retl;
+
+import com.github.davidmoten.rtree.geometry.Point;
+import com.google.common.base.Preconditions;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Builds a {@link Heatmap} from batches handed in by any number of threads at once, such as the workers of
+ * a parallel {@link Pipeline} sink:
+ * <pre>{@code
+ * HeatmapAccumulator<NearestAirport> coverage = new HeatmapAccumulator<>(0.5, NearestAirport::point,
+ *                                                                        NearestAirport::distance);
+ * pipeline.sink("coverage", 4, 1024, coverage).run();
+ * Heatmap mean = coverage.result();
+ * }</pre>
+ * Each batch is added to a partial heatmap which only the thread adding it can see: partials are lent out
+ * of a lock free queue of idle ones and returned after, with a new one made only when every partial is in
+ * use, so there are never more partials than threads adding at once. {@link #result()} merges them.
+ */
+public final class HeatmapAccumulator<T> implements Consumer<List<? extends T>> {
+
+    private final double cellDegrees;
+    private final Function<? super T, Point> position;
+    private final ToDoubleFunction<? super T> value;
+    private final Queue<Heatmap> idle = new ConcurrentLinkedQueue<>();
+    private final Queue<Heatmap> all = new ConcurrentLinkedQueue<>();
+
+    public HeatmapAccumulator(double cellDegrees, Function<? super T, Point> position,
+                              ToDoubleFunction<? super T> value) {
+        Heatmap.checkCellDegrees(cellDegrees);
+        this.cellDegrees = cellDegrees;
+        this.position = Preconditions.checkNotNull(position, "position");
+        this.value = Preconditions.checkNotNull(value, "value");
+    }
+
+    @Override
+    public void accept(List<? extends T> batch) {
+        Heatmap partial = idle.poll();
+        if (partial == null) {
+            partial = Heatmap.create(cellDegrees);
+            all.add(partial);
+        }
+        try {
+            for (T item : batch) {
+                partial.add(position.apply(item), value.applyAsDouble(item));
+            }
+        }
+        finally {
+            idle.add(partial);
+        }
+    }
+
+    /**
+     * Partial heatmaps made so far, at most the number of threads which have added at once.
+     */
+    int partials() {
+        return all.size();
+    }
+
+    /**
+     * A new heatmap holding everything added so far; call once no thread is still adding, or batches being
+     * added may be partly counted.
+     */
+    public Heatmap result() {
+        Heatmap merged = Heatmap.create(cellDegrees);
+        all.forEach(merged::merge);
+        return merged;
+    }
+}
@@ -0,0 +1,187 @@
+package org.skife.retl;
+
+import com.google.common.base.Preconditions;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Constant time lookup of airports by IATA code. Codes are three characters from {@code [A-Z0-9]}, so each
+ * packs into an int, six bits a character, and the table is two primitive arrays probed linearly: looking a
+ * code up hashes no {@code String} and boxes nothing. Callers resolving many codes can pack them once with
+ * {@link #pack(CharSequence)} and use {@link #resolve(int[])}.
+ * <p>
+ * Building the index fails, naming every offending airport, if any code is malformed or appears twice.
+ */
+public final class IataIndex {
+
+    /**
+     * Returned by {@link #pack(CharSequence)} for a code which is not three characters from {@code [A-Z0-9]}.
+     * Never present in the table, so resolving it finds nothing.
+     */
+    public static final int MALFORMED = -1;
+
+    private static final int EMPTY = 0;
+    private static final int MAX_REPORTED = 20;
+
+    private final List<? extends Airport> airports;
+    private final int[] keys;
+    private final int[] values;
+    private final int mask;
+    private final int shift;
+
+    private IataIndex(List<? extends Airport> airports, int[] keys, int[] values) {
+        this.airports = airports;
+        this.keys = keys;
+        this.values = values;
+        this.mask = keys.length - 1;
+        this.shift = shift(keys.length);
+    }
+
+    /**
+     * Indexes {@code airports} by code; lookups return positions in, or elements of, this list.
+     *
+     * @throws IllegalArgumentException if any code is malformed or duplicated
+     */
+    public static IataIndex of(List<? extends Airport> airports) {
+        int capacity = Integer.highestOneBit(Math.max(2, airports.size() * 2 - 1)) << 1;
+        int[] keys = new int[capacity];
+        int[] values = new int[capacity];
+        int mask = capacity - 1;
+        int shift = shift(capacity);
+
+        List<String> problems = new ArrayList<>();
+        for (int i = 0; i < airports.size(); i++) {
+            Airport a = airports.get(i);
+            int code = pack(a.iata());
+            if (code == MALFORMED) {
+                problems.add(String.format("malformed code '%s' for %s", a.iata(), a.name()));
+                continue;
+            }
+            int slot = slot(code, shift);
+            while (keys[slot] != EMPTY && keys[slot] != code) {
+                slot = (slot + 1) & mask;
+            }
+            if (keys[slot] == code) {
+                problems.add(String.format("duplicate code %s for %s and %s",
+                                           a.iata(), airports.get(values[slot]).name(), a.name()));
+                continue;
+            }
+            keys[slot] = code;
+            values[slot] = i;
+        }
+        if (!problems.isEmpty()) {
+            throw new IllegalArgumentException(String.format("%d bad IATA codes: %s%s",
+                                                             problems.size(),
+                                                             String.join("; ", problems.subList(0, Math.min(MAX_REPORTED, problems.size()))),
+                                                             problems.size() > MAX_REPORTED ? "; ..." : ""));
+        }
+        return new IataIndex(airports, keys, values);
+    }
+
+    /**
+     * Packs a code into a positive int, or returns {@link #MALFORMED}. Characters map to 1-36, so no code
+     * packs to zero, which marks an empty slot.
+     */
+    public static int pack(CharSequence code) {
+        if (code == null || code.length() != 3) {
+            return MALFORMED;
+        }
+        int packed = 0;
+        for (int i = 0; i < 3; i++) {
+            char c = code.charAt(i);
+            int v;
+            if (c >= 'A' && c <= 'Z') {
+                v = c - 'A' + 1;
+            }
+            else if (c >= '0' && c <= '9') {
+                v = c - '0' + 27;
+            }
+            else {
+                return MALFORMED;
+            }
+            packed = (packed << 6) | v;
+        }
+        return packed;
+    }
+
+    public static String unpack(int code) {
+        Preconditions.checkArgument(code > 0 && code < 1 << 18, "not a packed code: %s", code);
+        char[] chars = new char[3];
+        for (int i = 2; i >= 0; i--) {
+            int v = code & 63;
+            Preconditions.checkArgument(v >= 1 && v <= 36, "not a packed code: %s", code);
+            chars[i] = v <= 26 ? (char) ('A' + v - 1) : (char) ('0' + v - 27);
+            code >>>= 6;
+        }
+        return new String(chars);
+    }
+
+    public int size() {
+        return airports.size();
+    }
+
+    /**
+     * Position in the indexed list of the airport with this packed code, or -1.
+     */
+    public int indexOf(int code) {
+        if (code <= 0) {
+            return -1;
+        }
+        int slot = slot(code, shift);
+        int key;
+        while ((key = keys[slot]) != EMPTY) {
+            if (key == code) {
+                return values[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    public int indexOf(CharSequence iata) {
+        return indexOf(pack(iata));
+    }
+
+    /**
+     * The airport at position {@code i} in the indexed list.
+     */
+    public Airport airport(int i) {
+        return airports.get(i);
+    }
+
+    /**
+     * The airport with this code, or null if there is none.
+     */
+    public Airport get(CharSequence iata) {
+        int i = indexOf(iata);
+        return i < 0 ? null : airports.get(i);
+    }
+
+    /**
+     * Positions of the airports with each of these packed codes, -1 for any not found.
+     */
+    public int[] resolve(int[] codes) {
+        int[] out = new int[codes.length];
+        resolve(codes, out);
+        return out;
+    }
+
+    public void resolve(int[] codes, int[] out) {
+        Preconditions.checkArgument(out.length >= codes.length, "out shorter than codes");
+        for (int i = 0; i < codes.length; i++) {
+            out[i] = indexOf(codes[i]);
+        }
+    }
+
+    /**
+     * Fibonacci hashing: packed codes differ mostly in their low bits, so take the high bits of the product.
+     */
+    private static int slot(int code, int shift) {
+        return (code * 0x9E3779B9) >>> shift;
+    }
+
+    private static int shift(int capacity) {
+        return 32 - Integer.numberOfTrailingZeros(capacity);
+    }
+}
@@ -0,0 +1,41 @@
+package org.skife.retl;
+
+import org.immutables.value.Value;
+
+import java.time.Duration;
+
+/**
+ * What a {@link LiveAirportIndex#reload} changed, and how long it took.
+ */
+@Value.Immutable
+public interface IndexReload {
+
+    /**
+     * Version now published; unchanged if the reload found nothing to do.
+     */
+    long version();
+
+    /**
+     * Airports whose codes were not present before.
+     */
+    int inserted();
+
+    /**
+     * Airports whose codes are no longer present.
+     */
+    int deleted();
+
+    /**
+     * Airports whose code is unchanged but whose name, location or other attributes are not.
+     */
+    int updated();
+
+    /**
+     * Time from starting to read the new data to publishing the new index.
+     */
+    Duration latency();
+
+    default int changed() {
+        return inserted() + deleted() + updated();
+    }
+}
@@ -0,0 +1,164 @@
+package org.skife.retl;
+
+import com.github.davidmoten.rtree.geometry.Point;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableList;
+import rx.Observable;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Holds the current {@link AirportIndex} and moves it forward as the reference data changes. A reload diffs
+ * the new airports against the current ones by IATA code and applies only the differences to the index's
+ * persistent tree, then publishes the new index, and the code lookup that goes with it, with one atomic
+ * reference swap. Readers never block and never see a half applied reload; a reader holding
+ * {@link #index()} keeps a consistent view for as long as it likes.
+ * <p>
+ * When a reload changes more than one airport in {@value #REBUILD_DIVISOR}, patching the tree costs more
+ * than bulk loading a fresh one, so the index is rebuilt instead; readers cannot tell the difference.
+ * <p>
+ * Reloads are serialized with each other.
+ */
+public final class LiveAirportIndex {
+
+    static final int REBUILD_DIVISOR = 20;
+
+    private final AtomicReference<Version> current;
+
+    private LiveAirportIndex(Version initial) {
+        this.current = new AtomicReference<>(initial);
+    }
+
+    /**
+     * @throws IllegalArgumentException if any code is malformed or duplicated, see {@link IataIndex}
+     */
+    public static LiveAirportIndex create(List<? extends Airport> airports) {
+        return create(airports, QueryMetrics.DISABLED);
+    }
+
+    /**
+     * As {@link #create(List)}, with every version recording its queries to {@code metrics}.
+     */
+    public static LiveAirportIndex create(List<? extends Airport> airports, QueryMetrics metrics) {
+        List<Airport> copy = ImmutableList.copyOf(airports);
+        return new LiveAirportIndex(new Version(0, AirportIndex.bulkLoad(copy).withMetrics(metrics), IataIndex.of(copy)));
+    }
+
+    public AirportIndex index() {
+        return current.get().index;
+    }
+
+    /**
+     * The current airport with this code, or null.
+     */
+    public Airport get(CharSequence iata) {
+        return current.get().codes.get(iata);
+    }
+
+    public long version() {
+        return current.get().number;
+    }
+
+    public Observable<Airport> nearest(Point p, double maxDistance, int count) {
+        return index().nearest(p, maxDistance, count);
+    }
+
+    public Observable<Airport> withinDistance(Point p, double distance) {
+        return index().withinDistance(p, distance);
+    }
+
+    public IndexReload reload(Path csv) {
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        return reload(Airport.loadAirports(csv).toList().toBlocking().single(), stopwatch);
+    }
+
+    /**
+     * Makes {@code airports} the current set: codes not seen before are inserted, codes no longer present
+     * are deleted, and codes whose airport differs in any attribute are replaced.
+     *
+     * @throws IllegalArgumentException if any code is malformed or duplicated; the current index is kept
+     */
+    public IndexReload reload(List<? extends Airport> airports) {
+        return reload(airports, Stopwatch.createStarted());
+    }
+
+    private synchronized IndexReload reload(List<? extends Airport> airports, Stopwatch stopwatch) {
+        Version before = current.get();
+        List<Airport> latest = ImmutableList.copyOf(airports);
+        IataIndex codes = IataIndex.of(latest);
+
+        List<Airport> removed = new ArrayList<>();
+        List<Airport> added = new ArrayList<>();
+        int updated = 0;
+        for (Airport a : latest) {
+            Airport previous = before.codes.get(a.iata());
+            if (previous == null) {
+                added.add(a);
+            }
+            else if (!same(previous, a)) {
+                removed.add(previous);
+                added.add(a);
+                updated++;
+            }
+        }
+        int deleted = 0;
+        for (int i = 0; i < before.codes.size(); i++) {
+            Airport previous = before.codes.airport(i);
+            if (codes.indexOf(previous.iata()) < 0) {
+                removed.add(previous);
+                deleted++;
+            }
+        }
+
+        long number = before.number;
+        if (!added.isEmpty() || !removed.isEmpty()) {
+            number++;
+            AirportIndex index = removed.size() + added.size() > latest.size() / REBUILD_DIVISOR
+                                 ? AirportIndex.bulkLoad(latest).withMetrics(before.index.metrics())
+                                 : before.index.update(removed, added);
+            Version next = new Version(number, index, codes);
+            Preconditions.checkState(current.compareAndSet(before, next), "index replaced during reload");
+        }
+        return ImmutableIndexReload.builder()
+                                   .version(number)
+                                   .inserted(added.size() - updated)
+                                   .deleted(deleted)
+                                   .updated(updated)
+                                   .latency(Duration.ofNanos(stopwatch.elapsed(TimeUnit.NANOSECONDS)))
+                                   .build();
+    }
+
+    /**
+     * Attribute equality, so airports from different sources, say CSV rows and {@link AirportStore} views,
+     * compare as the same airport.
+     */
+    private static boolean same(Airport a, Airport b) {
+        return a.name().equals(b.name())
+               && a.iata().equals(b.iata())
+               && a.city().equals(b.city())
+               && a.country().equals(b.country())
+               && Float.floatToIntBits(a.latitude()) == Float.floatToIntBits(b.latitude())
+               && Float.floatToIntBits(a.longitude()) == Float.floatToIntBits(b.longitude());
+    }
+
+    /**
+     * Everything a reader needs, published together.
+     */
+    private static final class Version {
+        private final long number;
+        private final AirportIndex index;
+        private final IataIndex codes;
+
+        private Version(long number, AirportIndex index, IataIndex codes) {
+            this.number = number;
+            this.index = index;
+            this.codes = codes;
+        }
+    }
+}
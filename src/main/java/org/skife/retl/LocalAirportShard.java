@@ -0,0 +1,38 @@
+package org.skife.retl;
+
+import com.github.davidmoten.rtree.geometry.Point;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * A shard in this JVM: a bulk loaded {@link AirportIndex} over the shard's airports.
+ */
+final class LocalAirportShard implements AirportShard {
+
+    private final AirportIndex index;
+
+    LocalAirportShard(List<? extends Airport> airports) {
+        this.index = AirportIndex.bulkLoad(airports);
+    }
+
+    @Override
+    public List<NearestAirport> nearest(Point p, double maxDistance, int count) {
+        return index.nearestEntries(p, maxDistance, count)
+                    .stream()
+                    .map(c -> ImmutableNearestAirport.of(p, c.airport(), c.distance()))
+                    .collect(Collectors.toList());
+    }
+
+    @Override
+    public List<NearestAirport> withinDistance(Point p, double distance) {
+        Geodetic geodetic = index.geodetic();
+        List<NearestAirport> found = new ArrayList<>();
+        for (Airport a : index.withinDistance(p, distance).toBlocking().toIterable()) {
+            double d = geodetic.distance(p.y(), p.x(), a.point().y(), a.point().x());
+            found.add(ImmutableNearestAirport.of(p, a, d));
+        }
+        return found;
+    }
+}
@@ -0,0 +1,23 @@
+package org.skife.retl;
+
+import com.github.davidmoten.rtree.geometry.Point;
+import org.immutables.value.Value;
+
+/**
+ * A point joined to its nearest airport, as produced by {@link AirportIndex#nearestJoin}.
+ */
+@Value.Immutable
+public interface NearestAirport {
+
+    @Value.Parameter
+    Point point();
+
+    @Value.Parameter
+    Airport airport();
+
+    /**
+     * Great circle distance from {@link #point()} to the airport, in kilometres.
+     */
+    @Value.Parameter
+    double distance();
+}
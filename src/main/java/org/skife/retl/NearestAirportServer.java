@@ -0,0 +1,305 @@
+package org.skife.retl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableMap;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * An embedded HTTP server answering {@code GET /nearest?lat=..&lon=..[&within=km]} with the nearest airport
+ * as JSON, 404 when none is in range. {@code GET /stats} reports what it has done so far.
+ * <p>
+ * Requests are not searched one at a time. The server's dispatcher thread only parses a request and queues
+ * it; a single batching thread takes everything queued, up to {@link NearestServerConfig#maxBatch()}, and
+ * answers the lot with one call to {@link AirportIndex#nearest(double[], double[], double, double[])}, which
+ * walks them in Hilbert order so neighbouring requests share the nodes they visit. Batches form by
+ * themselves: while one is being answered the next accumulates, so under light load a batch is a single
+ * request with no added delay, and under heavy load batches grow and the cost per request falls.
+ * <p>
+ * Load is shed rather than queued without limit: when {@link NearestServerConfig#queueLimit()} requests are
+ * waiting, new ones get 503 straight away, and requests which have waited
+ * {@link NearestServerConfig#maxQueueDelay()} get 503 instead of an answer nobody is still waiting for. Both
+ * carry {@code Retry-After}.
+ * <p>
+ * The JDK server writes headers and body separately, and without {@code TCP_NODELAY} the body waits on the
+ * client's delayed ack, about 40ms a request. Applications should run with
+ * {@code -Dsun.net.httpserver.nodelay=true}; the JDK reads it once, when the first server is created, so
+ * setting it later in the JVM's life may have no effect, and it applies to every such server in the JVM.
+ */
+public final class NearestAirportServer implements Closeable {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final byte[] BAD_REQUEST = "{\"error\":\"lat and lon required, within positive\"}"
+            .getBytes(StandardCharsets.UTF_8);
+    private static final byte[] NOT_FOUND = "{}".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] INTERNAL_ERROR = "{\"error\":\"internal\"}".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] OVERLOADED = "{\"error\":\"overloaded\"}".getBytes(StandardCharsets.UTF_8);
+
+    private final Supplier<AirportIndex> index;
+    private final NearestServerConfig config;
+    private final HttpServer http;
+    private final BlockingQueue<Request> queue;
+    private final Thread batcher;
+    private final LongAdder served = new LongAdder();
+    private final LongAdder shed = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private volatile boolean running = true;
+
+    private NearestAirportServer(Supplier<AirportIndex> index, NearestServerConfig config) throws IOException {
+        this.index = index;
+        this.config = config;
+        this.queue = new ArrayBlockingQueue<>(config.queueLimit());
+        this.http = HttpServer.create(new InetSocketAddress(config.host(), config.port()), 0);
+        http.createContext("/nearest", this::accept);
+        http.createContext("/stats", this::stats);
+        this.batcher = new Thread(this::batch, "nearest-batcher-" + http.getAddress().getPort());
+        batcher.setDaemon(true);
+        batcher.start();
+        http.start();
+    }
+
+    /**
+     * Serves a fixed index.
+     */
+    public static NearestAirportServer start(AirportIndex index, NearestServerConfig config) throws IOException {
+        return start(() -> index, config);
+    }
+
+    /**
+     * Serves whatever index {@code index} supplies when each batch runs, such as
+     * {@link LiveAirportIndex#index()}, so reloads are picked up without a restart.
+     */
+    public static NearestAirportServer start(Supplier<AirportIndex> index, NearestServerConfig config)
+            throws IOException {
+        return new NearestAirportServer(index, config);
+    }
+
+    public int port() {
+        return http.getAddress().getPort();
+    }
+
+    /**
+     * Requests answered, whether or not an airport was in range.
+     */
+    public long served() {
+        return served.sum();
+    }
+
+    /**
+     * Requests turned away with 503, on arrival or after waiting too long.
+     */
+    public long shed() {
+        return shed.sum();
+    }
+
+    /**
+     * Passes over the index; {@code served() / batches()} is the mean batch size.
+     */
+    public long batches() {
+        return batches.sum();
+    }
+
+    /**
+     * Stops accepting requests, and sheds any still queued.
+     */
+    @Override
+    public void close() {
+        running = false;
+        batcher.interrupt();
+        http.stop(0);
+        for (Request r = queue.poll(); r != null; r = queue.poll()) {
+            overloaded(r.exchange);
+        }
+    }
+
+    private void accept(HttpExchange exchange) {
+        Request request;
+        try {
+            Map<String, String> params = params(exchange.getRequestURI().getRawQuery());
+            double lat = Double.parseDouble(params.getOrDefault("lat", "NaN"));
+            double lon = Double.parseDouble(params.getOrDefault("lon", "NaN"));
+            double within = params.containsKey("within")
+                            ? Double.parseDouble(params.get("within"))
+                            : config.maxDistance();
+            if (!(lat >= -90 && lat <= 90 && lon >= -180 && lon <= 180 && within > 0)) {
+                throw new IllegalArgumentException();
+            }
+            request = new Request(exchange, lat, lon, within, System.nanoTime());
+        }
+        catch (IllegalArgumentException e) {
+            send(exchange, 400, BAD_REQUEST);
+            return;
+        }
+        if (!running || !queue.offer(request)) {
+            overloaded(exchange);
+        }
+    }
+
+    private void stats(HttpExchange exchange) {
+        send(exchange, 200, json(ImmutableMap.of("served", served(),
+                                                 "shed", shed(),
+                                                 "batches", batches(),
+                                                 "queued", queue.size())));
+    }
+
+    private void batch() {
+        List<Request> batch = new ArrayList<>(config.maxBatch());
+        while (running) {
+            try {
+                batch.add(queue.take());
+            }
+            catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch, config.maxBatch() - 1);
+            try {
+                answer(batch);
+            }
+            catch (RuntimeException e) {
+                // a failing index supplier or response must not end the only thread answering requests
+                for (Request r : batch) {
+                    if (!r.answered) {
+                        reply(r, 500, INTERNAL_ERROR);
+                    }
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    private void answer(List<Request> batch) {
+        long now = System.nanoTime();
+        long maxDelay = config.maxQueueDelay().toNanos();
+        // requests almost always share a radius, so group by it and make one pass per radius
+        Map<Double, List<Request>> byRadius = new HashMap<>();
+        for (Request r : batch) {
+            if (now - r.queued >= maxDelay) {
+                r.answered = true;
+                overloaded(r.exchange);
+            }
+            else {
+                byRadius.computeIfAbsent(r.within, w -> new ArrayList<>()).add(r);
+            }
+        }
+        if (byRadius.isEmpty()) {
+            return;
+        }
+        batches.increment();
+        AirportIndex current = index.get();
+        for (Map.Entry<Double, List<Request>> group : byRadius.entrySet()) {
+            List<Request> requests = group.getValue();
+            int n = requests.size();
+            double[] lats = new double[n];
+            double[] lons = new double[n];
+            double[] distances = new double[n];
+            for (int i = 0; i < n; i++) {
+                lats[i] = requests.get(i).lat;
+                lons[i] = requests.get(i).lon;
+            }
+            Airport[] found;
+            try {
+                found = current.nearest(lats, lons, group.getKey(), distances, ForkJoinPool.commonPool());
+            }
+            catch (RuntimeException e) {
+                requests.forEach(r -> reply(r, 500, INTERNAL_ERROR));
+                continue;
+            }
+            for (int i = 0; i < n; i++) {
+                byte[] body = found[i] == null
+                              ? NOT_FOUND
+                              : json(ImmutableMap.of("airport", found[i], "distance", distances[i]));
+                // counted before replying, so a client which has its answer sees it counted
+                served.increment();
+                reply(requests.get(i), found[i] == null ? 404 : 200, body);
+            }
+        }
+    }
+
+    private static void reply(Request request, int status, byte[] body) {
+        request.answered = true;
+        send(request.exchange, status, body);
+    }
+
+    private void overloaded(HttpExchange exchange) {
+        shed.increment();
+        exchange.getResponseHeaders().set("Retry-After", "1");
+        send(exchange, 503, OVERLOADED);
+    }
+
+    private static void send(HttpExchange exchange, int status, byte[] body) {
+        try {
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(status, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+        catch (IOException e) {
+            // the client has gone, nothing to tell it
+        }
+        finally {
+            exchange.close();
+        }
+    }
+
+    private static byte[] json(Object value) {
+        try {
+            return MAPPER.writeValueAsBytes(value);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Map<String, String> params(String query) {
+        Map<String, String> params = new HashMap<>();
+        if (query != null) {
+            for (String pair : query.split("&")) {
+                int eq = pair.indexOf('=');
+                if (eq > 0) {
+                    params.put(pair.substring(0, eq), pair.substring(eq + 1));
+                }
+            }
+        }
+        return params;
+    }
+
+    /**
+     * A parsed request waiting for its batch.
+     */
+    private static final class Request {
+        private final HttpExchange exchange;
+        private final double lat;
+        private final double lon;
+        private final double within;
+        private final long queued;
+        /**
+         * Whether a response has been sent, so that a batch which fails part way answers only the rest.
+         */
+        private boolean answered;
+
+        private Request(HttpExchange exchange, double lat, double lon, double within, long queued) {
+            this.exchange = exchange;
+            this.lat = lat;
+            this.lon = lon;
+            this.within = within;
+            this.queued = queued;
+        }
+    }
+}
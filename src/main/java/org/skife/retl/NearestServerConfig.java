@@ -0,0 +1,71 @@
+package org.skife.retl;
+
+import com.google.common.base.Preconditions;
+import org.immutables.value.Value;
+
+import java.time.Duration;
+
+/**
+ * Settings for a {@link NearestAirportServer}; every one has a default suited to a single box.
+ */
+@Value.Immutable
+public interface NearestServerConfig {
+
+    /**
+     * Address to listen on, loopback unless the server is meant to be reached from elsewhere.
+     */
+    @Value.Default
+    default String host() {
+        return "127.0.0.1";
+    }
+
+    /**
+     * Port to listen on, or zero for any free one.
+     */
+    @Value.Default
+    default int port() {
+        return 0;
+    }
+
+    /**
+     * Most requests answered in one pass over the index.
+     */
+    @Value.Default
+    default int maxBatch() {
+        return 256;
+    }
+
+    /**
+     * Most requests waiting for a batch; once full, new requests are turned away at once.
+     */
+    @Value.Default
+    default int queueLimit() {
+        return 4096;
+    }
+
+    /**
+     * Requests which have waited this long by the time their batch runs are turned away rather than
+     * answered, as their clients have likely given up.
+     */
+    @Value.Default
+    default Duration maxQueueDelay() {
+        return Duration.ofMillis(100);
+    }
+
+    /**
+     * Search radius in kilometres for requests which do not give one.
+     */
+    @Value.Default
+    default double maxDistance() {
+        return Geodetic.Earth.circumference() / 2;
+    }
+
+    @Value.Check
+    default void check() {
+        Preconditions.checkArgument(port() >= 0 && port() <= 65535, "port must be between 0 and 65535");
+        Preconditions.checkArgument(maxBatch() > 0, "maxBatch must be positive");
+        Preconditions.checkArgument(queueLimit() > 0, "queueLimit must be positive");
+        Preconditions.checkArgument(!maxQueueDelay().isNegative(), "maxQueueDelay must not be negative");
+        Preconditions.checkArgument(maxDistance() > 0, "maxDistance must be positive");
+    }
+}
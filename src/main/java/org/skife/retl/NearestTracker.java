@@ -0,0 +1,129 @@
+package org.skife.retl;
+
+import com.github.davidmoten.rtree.geometry.Point;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Nearest airport lookups for one ordered trace of points, such as an aircraft track, which remembers what
+ * its last tree walk found so that the next point usually needs no walk.
+ * <p>
+ * A walk at some anchor point keeps the few nearest airports and the distance {@code r} to the next one
+ * after them. For a later point {@code q} a distance {@code s} from the anchor, the triangle inequality puts
+ * every airport not kept at least {@code r - s} from {@code q}, so if the nearest kept airport is no further
+ * than that it is the nearest of all: a few distance evaluations instead of a search. Otherwise the tracker
+ * walks the tree again and re-anchors. Keeping more than the single nearest lets the answer change from one
+ * kept airport to another, as it does when a track passes between them, without a walk; slow or straight
+ * moving traces re-anchor once every many points, and a trace which stays put never does.
+ * <p>
+ * State is a few small arrays, so millions of trackers can be live at once; each is for one trace at a time
+ * and is not thread safe, while the index they share is. Bound to the index it was created from, see
+ * {@link AirportIndex#tracker(double)}.
+ */
+public final class NearestTracker {
+
+    /**
+     * Airports kept from each walk.
+     */
+    static final int KEPT = 4;
+
+    /**
+     * Kilometres of headroom on each check, so rounding never certifies an airport that is not the nearest.
+     */
+    private static final double SLACK = 1e-9;
+
+    private final AirportIndex index;
+    private final double maxDistance;
+    private final Airport[] kept = new Airport[KEPT];
+    private final double[] keptLat = new double[KEPT];
+    private final double[] keptLon = new double[KEPT];
+    private int count;
+    private double anchorLat = Double.NaN;
+    private double anchorLon = Double.NaN;
+    private double reach;
+    private double distance = Double.POSITIVE_INFINITY;
+    private long walks;
+
+    NearestTracker(AirportIndex index, double maxDistance) {
+        this.index = index;
+        this.maxDistance = maxDistance;
+    }
+
+    /**
+     * The nearest airport to {@code p}, or null if there is none within the tracker's maximum distance.
+     */
+    public Airport nearest(Point p) {
+        return nearest(p.y(), p.x());
+    }
+
+    /**
+     * The nearest airport to (lat, lon), or null if there is none within the tracker's maximum distance.
+     */
+    public Airport nearest(double lat, double lon) {
+        if (!Double.isNaN(anchorLat)) {
+            if (count == 0) {
+                // the index is empty, no point walking it again
+                return answer(null, Double.POSITIVE_INFINITY);
+            }
+            Geodetic geodetic = index.geodetic();
+            int best = 0;
+            double d = geodetic.distance(lat, lon, keptLat[0], keptLon[0]);
+            for (int i = 1; i < count; i++) {
+                double di = geodetic.distance(lat, lon, keptLat[i], keptLon[i]);
+                if (di < d) {
+                    best = i;
+                    d = di;
+                }
+            }
+            if (d + SLACK <= reach - geodetic.distance(anchorLat, anchorLon, lat, lon)) {
+                return answer(kept[best], d);
+            }
+        }
+        return walk(lat, lon);
+    }
+
+    /**
+     * Distance in kilometres from the last point to the last answer, infinity if there was none.
+     */
+    public double distance() {
+        return distance;
+    }
+
+    /**
+     * Tree walks so far; points less walks were answered from the airports kept.
+     */
+    public long walks() {
+        return walks;
+    }
+
+    private Airport answer(Airport nearest, double d) {
+        if (nearest != null && d < maxDistance) {
+            distance = d;
+            return nearest;
+        }
+        distance = Double.POSITIVE_INFINITY;
+        return null;
+    }
+
+    /**
+     * Finds the nearest airports with no limit on distance, so the anchor holds however far the trace is from
+     * any airport; the limit is applied to answers instead.
+     */
+    private Airport walk(double lat, double lon) {
+        walks++;
+        List<AirportIndex.Candidate> nearest = index.nearestEntries(Geodetic.latLong(lat, lon),
+                                                                    Double.POSITIVE_INFINITY, KEPT + 1);
+        anchorLat = lat;
+        anchorLon = lon;
+        count = Math.min(KEPT, nearest.size());
+        for (int i = 0; i < count; i++) {
+            kept[i] = nearest.get(i).airport();
+            keptLat[i] = kept[i].point().y();
+            keptLon[i] = kept[i].point().x();
+        }
+        Arrays.fill(kept, count, KEPT, null);
+        reach = nearest.size() > KEPT ? nearest.get(KEPT).distance() : Double.POSITIVE_INFINITY;
+        return count == 0 ? answer(null, Double.POSITIVE_INFINITY) : answer(kept[0], nearest.get(0).distance());
+    }
+}
@@ -0,0 +1,256 @@
+package org.skife.retl;
+
+import com.google.common.base.Preconditions;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.stream.IntStream;
+
+/**
+ * Read-only R-tree packed into flat float columns, suitable for serving straight out of a memory mapped
+ * file. Records are stored in Hilbert curve order; leaf {@code i} covers records {@code [i * nodeSize,
+ * (i + 1) * nodeSize)} and each node on a higher level covers the same span of nodes on the level below,
+ * so the only structure stored is one bounding box per node, laid out leaves first.
+ * <p>
+ * Boxes are four floats, {@code minLat, minLon, maxLat, maxLon}.
+ */
+final class PackedRTree {
+
+    static final int DEFAULT_NODE_SIZE = 16;
+
+    private final int count;
+    private final int nodeSize;
+    private final int[] levelOffsets;
+    private final FloatBuffer lats;
+    private final FloatBuffer lons;
+    private final FloatBuffer boxes;
+
+    PackedRTree(int count, int nodeSize, FloatBuffer lats, FloatBuffer lons, FloatBuffer boxes) {
+        Preconditions.checkArgument(nodeSize >= 2, "nodeSize must be at least 2");
+        this.count = count;
+        this.nodeSize = nodeSize;
+        this.levelOffsets = levelOffsets(count, nodeSize);
+        this.lats = lats;
+        this.lons = lons;
+        this.boxes = boxes;
+        Preconditions.checkArgument(boxes.limit() >= nodeCount(count, nodeSize) * 4,
+                                    "boxes too short for %s records", count);
+    }
+
+    /**
+     * Packs columns which are already in Hilbert order, see {@link #hilbertOrder(float[], float[])}.
+     */
+    static PackedRTree pack(float[] lats, float[] lons, int nodeSize) {
+        FloatBuffer latBuffer = FloatBuffer.wrap(lats);
+        FloatBuffer lonBuffer = FloatBuffer.wrap(lons);
+        FloatBuffer boxes = FloatBuffer.wrap(boxes(latBuffer, lonBuffer, lats.length, nodeSize));
+        return new PackedRTree(lats.length, nodeSize, latBuffer, lonBuffer, boxes);
+    }
+
+    int size() {
+        return count;
+    }
+
+    int nodeSize() {
+        return nodeSize;
+    }
+
+    float latitude(int record) {
+        return lats.get(record);
+    }
+
+    float longitude(int record) {
+        return lons.get(record);
+    }
+
+    /**
+     * Total number of nodes, across every level, in a tree over {@code count} records.
+     */
+    static int nodeCount(int count, int nodeSize) {
+        int[] offsets = levelOffsets(count, nodeSize);
+        return offsets[offsets.length - 1];
+    }
+
+    /**
+     * Node offset at which each level starts, leaves first, with a trailing entry holding the total.
+     */
+    private static int[] levelOffsets(int count, int nodeSize) {
+        List<Integer> offsets = new ArrayList<>();
+        offsets.add(0);
+        int below = count;
+        int total = 0;
+        while (below > 1 || offsets.size() == 1) {
+            int nodes = Math.max(1, (below + nodeSize - 1) / nodeSize);
+            total += nodes;
+            offsets.add(total);
+            below = nodes;
+            if (count == 0) {
+                break;
+            }
+        }
+        return offsets.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Computes the bounding box of every node, leaves first, for records already in packed order. Nodes on
+     * a level are independent, so each level is computed in parallel.
+     */
+    static float[] boxes(FloatBuffer lats, FloatBuffer lons, int count, int nodeSize) {
+        int[] offsets = levelOffsets(count, nodeSize);
+        float[] boxes = new float[offsets[offsets.length - 1] * 4];
+        Arrays.fill(boxes, Float.NaN);
+
+        IntStream.range(0, offsets[1]).parallel().forEach(leaf -> {
+            int from = leaf * nodeSize;
+            int to = Math.min(from + nodeSize, count);
+            float minLat = Float.POSITIVE_INFINITY, minLon = Float.POSITIVE_INFINITY;
+            float maxLat = Float.NEGATIVE_INFINITY, maxLon = Float.NEGATIVE_INFINITY;
+            for (int r = from; r < to; r++) {
+                minLat = Math.min(minLat, lats.get(r));
+                maxLat = Math.max(maxLat, lats.get(r));
+                minLon = Math.min(minLon, lons.get(r));
+                maxLon = Math.max(maxLon, lons.get(r));
+            }
+            setBox(boxes, leaf, minLat, minLon, maxLat, maxLon);
+        });
+
+        for (int level = 1; level < offsets.length - 1; level++) {
+            int below = offsets[level - 1];
+            int belowCount = offsets[level] - below;
+            int start = offsets[level];
+            IntStream.range(0, offsets[level + 1] - offsets[level]).parallel().forEach(node -> {
+                int from = node * nodeSize;
+                int to = Math.min(from + nodeSize, belowCount);
+                float minLat = Float.POSITIVE_INFINITY, minLon = Float.POSITIVE_INFINITY;
+                float maxLat = Float.NEGATIVE_INFINITY, maxLon = Float.NEGATIVE_INFINITY;
+                for (int c = below + from; c < below + to; c++) {
+                    minLat = Math.min(minLat, boxes[c * 4]);
+                    minLon = Math.min(minLon, boxes[c * 4 + 1]);
+                    maxLat = Math.max(maxLat, boxes[c * 4 + 2]);
+                    maxLon = Math.max(maxLon, boxes[c * 4 + 3]);
+                }
+                setBox(boxes, start + node, minLat, minLon, maxLat, maxLon);
+            });
+        }
+        return boxes;
+    }
+
+    private static void setBox(float[] boxes, int node, float minLat, float minLon, float maxLat, float maxLon) {
+        boxes[node * 4] = minLat;
+        boxes[node * 4 + 1] = minLon;
+        boxes[node * 4 + 2] = maxLat;
+        boxes[node * 4 + 3] = maxLon;
+    }
+
+    /**
+     * Order in which records should be laid out: ascending position along a Hilbert curve over lon/lat,
+     * which keeps records that are close on the ground close in the file and in each node. Keys carry the
+     * record index in their low bits, so the whole ordering is one parallel sort of primitive longs. Curve
+     * positions use all 32 high bits, so keys have their sign bit flipped to sort as unsigned.
+     */
+    static int[] hilbertOrder(float[] lats, float[] lons) {
+        Preconditions.checkArgument(lats.length == lons.length, "lats and lons must be the same length");
+        long[] keys = new long[lats.length];
+        IntStream.range(0, keys.length)
+                 .parallel()
+                 .forEach(i -> keys[i] = ((hilbert(lats[i], lons[i]) << 32) | i) ^ Long.MIN_VALUE);
+        Arrays.parallelSort(keys);
+        int[] order = new int[keys.length];
+        IntStream.range(0, keys.length).parallel().forEach(i -> order[i] = (int) keys[i]);
+        return order;
+    }
+
+    /**
+     * Position along a Hilbert curve filling a 65536 x 65536 grid over the whole globe, from 0 to
+     * {@code 2^32 - 1}.
+     */
+    static long hilbert(float lat, float lon) {
+        int side = 1 << 16;
+        int x = Math.min(side - 1, (int) ((lon + 180.0) / 360.0 * side));
+        int y = Math.min(side - 1, (int) ((lat + 90.0) / 180.0 * side));
+        long d = 0;
+        for (int s = side / 2; s > 0; s /= 2) {
+            int rx = (x & s) > 0 ? 1 : 0;
+            int ry = (y & s) > 0 ? 1 : 0;
+            d += (long) s * s * ((3 * rx) ^ ry);
+            if (ry == 0) {
+                if (rx == 1) {
+                    x = s - 1 - x;
+                    y = s - 1 - y;
+                }
+                int t = x;
+                x = y;
+                y = t;
+            }
+        }
+        return d;
+    }
+
+    /**
+     * Records within {@code maxDistance} of (lat, lon), nearest first, at most {@code k} of them. The same
+     * best first search as {@link AirportIndex}, over node indices rather than node objects.
+     */
+    int[] nearest(Geodetic geodetic, double lat, double lon, double maxDistance, int k) {
+        Preconditions.checkArgument(k >= 0, "k must not be negative");
+        if (count == 0 || k == 0) {
+            return new int[0];
+        }
+        int[] results = new int[Math.min(k, count)];
+        int found = 0;
+
+        int top = levelOffsets.length - 2;
+        PriorityQueue<Item> queue = new PriorityQueue<>();
+        queue.add(new Item(top, 0, 0));
+        while (!queue.isEmpty() && found < results.length) {
+            Item next = queue.poll();
+            if (next.distance >= maxDistance) {
+                break;
+            }
+            if (next.level < 0) {
+                results[found++] = next.index;
+                continue;
+            }
+            int from = next.index * nodeSize;
+            int to = Math.min(from + nodeSize, next.level == 0 ? count : levelOffsets[next.level] - levelOffsets[next.level - 1]);
+            for (int c = from; c < to; c++) {
+                if (next.level == 0) {
+                    double d = geodetic.distance(lat, lon, lats.get(c), lons.get(c));
+                    if (d < maxDistance) {
+                        queue.add(new Item(-1, c, d));
+                    }
+                }
+                else {
+                    int box = (levelOffsets[next.level - 1] + c) * 4;
+                    double d = geodetic.distance(lat, lon,
+                                                 boxes.get(box), boxes.get(box + 1),
+                                                 boxes.get(box + 2), boxes.get(box + 3));
+                    if (d < maxDistance) {
+                        queue.add(new Item(next.level - 1, c, d));
+                    }
+                }
+            }
+        }
+        return found == results.length ? results : Arrays.copyOf(results, found);
+    }
+
+    private static final class Item implements Comparable<Item> {
+        private final int level;
+        private final int index;
+        private final double distance;
+
+        private Item(int level, int index, double distance) {
+            this.level = level;
+            this.index = index;
+            this.distance = distance;
+        }
+
+        @Override
+        public int compareTo(Item o) {
+            int c = Double.compare(distance, o.distance);
+            return c == 0 ? Integer.compare(level, o.level) : c;
+        }
+    }
+}
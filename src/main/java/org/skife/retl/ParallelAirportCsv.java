@@ -0,0 +1,391 @@
+package org.skife.retl;
+
+import com.google.common.base.Preconditions;
+import rx.Observable;
+import rx.Scheduler;
+import rx.schedulers.Schedulers;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Loads airports from large CSV files by splitting the file into chunks on record boundaries and parsing
+ * the chunks in parallel, each straight from its own memory mapped region of the file. Numeric columns are
+ * decoded directly from the bytes, with no intermediate {@code String}.
+ * <p>
+ * Chunk boundaries are found by scanning forward to the next newline, so records must not contain quoted
+ * newlines. Quoted commas and doubled quotes are fine. The header row names the columns, in any order;
+ * unknown columns are ignored, as {@link Airport#loadKnownAirports()} ignores them.
+ */
+public final class ParallelAirportCsv {
+
+    private static final long MAX_CHUNK_BYTES = 64L << 20;
+    private static final long MIN_CHUNK_BYTES = 256L << 10;
+    private static final String[] COLUMNS = {"name", "city", "country", "iata", "latitude", "longitude"};
+
+    private ParallelAirportCsv() {
+    }
+
+    /**
+     * Loads airports on the common fork join pool.
+     *
+     * @param ordered whether airports are emitted in file order, or as each chunk finishes
+     */
+    public static Observable<Airport> load(Path csv, boolean ordered) {
+        return load(csv, ordered, ForkJoinPool.commonPool());
+    }
+
+    public static Observable<Airport> load(Path csv, boolean ordered, ForkJoinPool pool) {
+        return Observable.defer(() -> {
+            try (FileChannel channel = FileChannel.open(csv, StandardOpenOption.READ)) {
+                long size = channel.size();
+                ByteBuffer first = ByteBuffer.allocate((int) Math.min(size, 64 << 10));
+                channel.read(first, 0);
+                first.flip();
+                int headerEnd = lineEnd(first, 0, first.limit());
+                Preconditions.checkState(headerEnd < first.limit() || size == first.limit(),
+                                         "header row of %s is too long", csv);
+                int[] columns = columns(first, 0, headerEnd, csv.toString());
+
+                long[] boundaries = boundaries(channel, Math.min(size, headerEnd + 1), size, pool.getParallelism());
+                List<ByteBuffer> chunks = new ArrayList<>(boundaries.length - 1);
+                for (int i = 0; i < boundaries.length - 1; i++) {
+                    chunks.add(channel.map(FileChannel.MapMode.READ_ONLY,
+                                           boundaries[i],
+                                           boundaries[i + 1] - boundaries[i]));
+                }
+                return parse(chunks, columns, ordered, pool);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * Loads airports from CSV held in {@code csv}, which must be no larger than a single buffer.
+     */
+    public static Observable<Airport> load(ByteBuffer csv, boolean ordered, ForkJoinPool pool) {
+        return Observable.defer(() -> {
+            ByteBuffer b = csv.duplicate();
+            int headerEnd = lineEnd(b, 0, b.limit());
+            int[] columns = columns(b, 0, headerEnd, "buffer");
+
+            int start = Math.min(b.limit(), headerEnd + 1);
+            int count = chunkCount(b.limit() - start, pool.getParallelism());
+            List<ByteBuffer> chunks = new ArrayList<>(count);
+            int from = start;
+            for (int i = 1; i <= count && from < b.limit(); i++) {
+                int nominal = i == count ? b.limit() : start + (int) ((long) (b.limit() - start) * i / count);
+                int to = nominal >= b.limit() ? b.limit() : Math.min(b.limit(), lineEnd(b, Math.max(from, nominal), b.limit()) + 1);
+                ByteBuffer chunk = b.duplicate();
+                chunk.position(from);
+                chunk.limit(to);
+                chunks.add(chunk.slice());
+                from = to;
+            }
+            return parse(chunks, columns, ordered, pool);
+        });
+    }
+
+    private static Observable<Airport> parse(List<ByteBuffer> chunks, int[] columns, boolean ordered, ForkJoinPool pool) {
+        Scheduler scheduler = Schedulers.from(pool);
+        int concurrency = Math.max(1, pool.getParallelism());
+        Observable<ByteBuffer> source = Observable.from(chunks);
+        if (ordered) {
+            return source.concatMapEager(chunk -> Observable.fromCallable(() -> parseChunk(chunk, columns))
+                                                            .subscribeOn(scheduler),
+                                         concurrency,
+                                         concurrency)
+                         .concatMapIterable(list -> list);
+        }
+        return source.flatMap(chunk -> Observable.fromCallable(() -> parseChunk(chunk, columns))
+                                                 .subscribeOn(scheduler),
+                              concurrency)
+                     .concatMapIterable(list -> list);
+    }
+
+    private static int chunkCount(long bytes, int parallelism) {
+        long byTarget = (bytes + MAX_CHUNK_BYTES - 1) / MAX_CHUNK_BYTES;
+        long byParallelism = Math.min(parallelism * 4L, Math.max(1, bytes / MIN_CHUNK_BYTES));
+        return (int) Math.max(1, Math.max(byTarget, byParallelism));
+    }
+
+    /**
+     * Chunk start offsets, each the start of a record, with a trailing entry at {@code size}.
+     */
+    private static long[] boundaries(FileChannel channel, long start, long size, int parallelism) throws IOException {
+        int count = chunkCount(size - start, parallelism);
+        long[] boundaries = new long[count + 1];
+        int n = 0;
+        boundaries[n++] = start;
+        ByteBuffer window = ByteBuffer.allocate(64 << 10);
+        for (int i = 1; i < count; i++) {
+            long nominal = start + (size - start) * i / count;
+            long at = Math.max(nominal, boundaries[n - 1]);
+            long next = -1;
+            while (next < 0 && at < size) {
+                window.clear();
+                int read = channel.read(window, at);
+                if (read <= 0) {
+                    break;
+                }
+                window.flip();
+                int end = lineEnd(window, 0, window.limit());
+                if (end < window.limit()) {
+                    next = at + end + 1;
+                }
+                at += read;
+            }
+            if (next > boundaries[n - 1] && next < size) {
+                boundaries[n++] = next;
+            }
+        }
+        boundaries[n++] = size;
+        return Arrays.copyOf(boundaries, n);
+    }
+
+    /**
+     * Position of the first newline at or after {@code from}, or {@code to} if there is none.
+     */
+    private static int lineEnd(ByteBuffer b, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (b.get(i) == '\n') {
+                return i;
+            }
+        }
+        return to;
+    }
+
+    /**
+     * Maps each of {@link #COLUMNS} to its position in the header row.
+     */
+    private static int[] columns(ByteBuffer b, int from, int to, String description) {
+        if (to > from && b.get(to - 1) == '\r') {
+            to--;
+        }
+        List<String> header = new ArrayList<>();
+        Field field = new Field();
+        int at = from;
+        while (at <= to) {
+            at = field.next(b, at, to);
+            header.add(field.string(b));
+        }
+        int[] columns = new int[COLUMNS.length];
+        for (int i = 0; i < COLUMNS.length; i++) {
+            columns[i] = header.indexOf(COLUMNS[i]);
+            Preconditions.checkArgument(columns[i] >= 0, "%s has no %s column", description, COLUMNS[i]);
+        }
+        return columns;
+    }
+
+    static List<Airport> parseChunk(ByteBuffer chunk, int[] columns) {
+        int width = Arrays.stream(columns).max().getAsInt() + 1;
+        int[] slot = new int[width];
+        Arrays.fill(slot, -1);
+        for (int i = 0; i < columns.length; i++) {
+            slot[columns[i]] = i;
+        }
+
+        List<Airport> airports = new ArrayList<>();
+        Field field = new Field();
+        String[] strings = new String[4];
+        float latitude = 0;
+        float longitude = 0;
+
+        int limit = chunk.limit();
+        int at = 0;
+        while (at < limit) {
+            int end = lineEnd(chunk, at, limit);
+            int lineEnd = end > at && chunk.get(end - 1) == '\r' ? end - 1 : end;
+            if (lineEnd > at) {
+                int column = 0;
+                int p = at;
+                while (p <= lineEnd && column < width) {
+                    p = field.next(chunk, p, lineEnd);
+                    int s = slot[column++];
+                    if (s < 0) {
+                        continue;
+                    }
+                    if (s < 4) {
+                        strings[s] = field.string(chunk);
+                    }
+                    else if (s == 4) {
+                        latitude = field.parseFloat(chunk);
+                    }
+                    else {
+                        longitude = field.parseFloat(chunk);
+                    }
+                }
+                Preconditions.checkArgument(column >= width, "short record at byte %s of chunk", at);
+                airports.add(ImmutableAirport.builder()
+                                             .name(strings[0])
+                                             .city(strings[1])
+                                             .country(strings[2])
+                                             .iata(strings[3])
+                                             .latitude(latitude)
+                                             .longitude(longitude)
+                                             .build());
+            }
+            at = end + 1;
+        }
+        return airports;
+    }
+
+    /**
+     * Cursor over one field of a record. Reused for every field of a chunk, so the only allocation per
+     * field is the decoded {@code String} of a string column.
+     */
+    static final class Field {
+        private int start;
+        private int end;
+        private boolean quoted;
+        private byte[] scratch = new byte[256];
+
+        /**
+         * Positions this field at the one starting at {@code from}, returning where the next one starts.
+         */
+        int next(ByteBuffer b, int from, int lineEnd) {
+            if (from < lineEnd && b.get(from) == '"') {
+                quoted = true;
+                int i = from + 1;
+                while (i < lineEnd) {
+                    if (b.get(i) == '"') {
+                        if (i + 1 < lineEnd && b.get(i + 1) == '"') {
+                            i += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    i++;
+                }
+                start = from + 1;
+                end = i;
+                int comma = i + 1;
+                while (comma < lineEnd && b.get(comma) != ',') {
+                    comma++;
+                }
+                return comma + 1;
+            }
+            quoted = false;
+            int i = from;
+            while (i < lineEnd && b.get(i) != ',') {
+                i++;
+            }
+            start = from;
+            end = i;
+            return i + 1;
+        }
+
+        String string(ByteBuffer b) {
+            int length = end - start;
+            if (scratch.length < length) {
+                scratch = new byte[Math.max(length, scratch.length * 2)];
+            }
+            int n = 0;
+            for (int i = start; i < end; i++) {
+                byte c = b.get(i);
+                scratch[n++] = c;
+                if (quoted && c == '"') {
+                    i++;
+                }
+            }
+            return new String(scratch, 0, n, StandardCharsets.UTF_8);
+        }
+
+        float parseFloat(ByteBuffer b) {
+            return ParallelAirportCsv.parseFloat(b, start, end);
+        }
+    }
+
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    /**
+     * Parses a decimal float from bytes, with the same result as {@link Float#parseFloat(String)}.
+     * <p>
+     * Up to 18 significant digits are accumulated into a long and scaled by an exact power of ten, which
+     * gives a double within two ulps of the true value. Rounding that double to float is then correct
+     * unless it lands within a few ulps of a float rounding midpoint, in which case, as for anything
+     * unusual (exponents, more digits, NaN and friends), this falls back to {@code Float.parseFloat}.
+     */
+    static float parseFloat(ByteBuffer b, int from, int to) {
+        int i = from;
+        boolean negative = false;
+        if (i < to && (b.get(i) == '-' || b.get(i) == '+')) {
+            negative = b.get(i) == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean point = false;
+        boolean any = false;
+        for (; i < to; i++) {
+            byte c = b.get(i);
+            if (c >= '0' && c <= '9') {
+                any = true;
+                if (mantissa == 0 && c == '0') {
+                    // leading zeros are not significant
+                    if (point) {
+                        scale--;
+                    }
+                    continue;
+                }
+                if (digits == 18) {
+                    return slowParseFloat(b, from, to);
+                }
+                mantissa = mantissa * 10 + (c - '0');
+                digits++;
+                if (point) {
+                    scale--;
+                }
+            }
+            else if (c == '.' && !point) {
+                point = true;
+            }
+            else {
+                return slowParseFloat(b, from, to);
+            }
+        }
+        if (!any) {
+            return slowParseFloat(b, from, to);
+        }
+        if (mantissa == 0) {
+            return negative ? -0f : 0f;
+        }
+        if (scale < -22 || scale > 22) {
+            return slowParseFloat(b, from, to);
+        }
+
+        double value = scale < 0 ? mantissa / POWERS_OF_TEN[-scale] : mantissa * POWERS_OF_TEN[scale];
+        if (Math.abs(value) < Float.MIN_NORMAL || Math.abs(value) > Float.MAX_VALUE) {
+            return slowParseFloat(b, from, to);
+        }
+        // the 29 low bits of the double's mantissa are those float rounding discards
+        long discarded = Double.doubleToRawLongBits(value) & 0x1FFFFFFFL;
+        if (Math.abs(discarded - 0x10000000L) <= 8) {
+            return slowParseFloat(b, from, to);
+        }
+        float f = (float) value;
+        return negative ? -f : f;
+    }
+
+    private static float slowParseFloat(ByteBuffer b, int from, int to) {
+        byte[] bytes = new byte[to - from];
+        for (int i = from; i < to; i++) {
+            bytes[i - from] = b.get(i);
+        }
+        return Float.parseFloat(new String(bytes, StandardCharsets.US_ASCII));
+    }
+}
@@ -0,0 +1,111 @@
+package org.skife.retl;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import rx.Observable;
+
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * An extract, transform, load job: a source, any number of transform stages, then a sink which writes in
+ * batches. For example, snapping positions to their nearest airport and storing the results:
+ * <pre>{@code
+ * Pipeline.from("positions", positions)
+ *         .map("enrich", 4, true, p -> nearest(index, p))
+ *         .sink("store", 1, 500, store::write)
+ *         .run();
+ * }</pre>
+ * Each stage runs on its own threads, as many as its parallelism, with a bounded queue in front of it; see
+ * {@link PipelineConfig#queueCapacity()}. A stage which cannot keep up fills its queue and blocks the stage
+ * before it, back to the source, which stops requesting from its {@link Observable}, so a job holds at most
+ * a queue's worth of items per stage however fast the source is.
+ * <p>
+ * A transform with parallelism above one may emit in input order, at the cost of an idle worker waiting
+ * when the item ahead of it is slow, or in whatever order its workers finish. A transform returning null
+ * drops the item. The sink takes what has queued for it, up to its batch size, so under load batches are
+ * full and when the sink keeps up they are as small as they need to be. A sink with parallelism above one
+ * writes batches concurrently, and so out of order.
+ * <p>
+ * Pipelines are immutable descriptions; {@link #sink} returns a {@link PipelineJob} which runs it.
+ */
+public final class Pipeline<T> {
+
+    private final PipelineConfig config;
+    private final List<Stage> stages;
+
+    private Pipeline(PipelineConfig config, List<Stage> stages) {
+        this.config = config;
+        this.stages = stages;
+    }
+
+    public static <T> Pipeline<T> from(String name, Observable<? extends T> source) {
+        return from(name, source, ImmutablePipelineConfig.builder().build());
+    }
+
+    public static <T> Pipeline<T> from(String name, Observable<? extends T> source, PipelineConfig config) {
+        Preconditions.checkNotNull(source, "source");
+        return new Pipeline<>(config, ImmutableList.of(new Stage(name, 1, false, 0, source, null, null)));
+    }
+
+    /**
+     * Adds a stage applying {@code f} to each item on {@code parallelism} threads.
+     *
+     * @param ordered whether items leave in the order they arrived, or as each is done
+     */
+    @SuppressWarnings("unchecked")
+    public <R> Pipeline<R> map(String name, int parallelism, boolean ordered, Function<? super T, ? extends R> f) {
+        Preconditions.checkArgument(parallelism > 0, "parallelism must be positive");
+        Preconditions.checkNotNull(f, "f");
+        // with a single worker items cannot overtake each other, so there is nothing to put back in order
+        return new Pipeline<>(config, append(new Stage(name, parallelism, ordered && parallelism > 1, 0, null,
+                                                       (Function<Object, Object>) f, null)));
+    }
+
+    /**
+     * Ends the pipeline with a stage handing batches of up to {@code batchSize} items to {@code sink}, on
+     * {@code parallelism} threads.
+     */
+    @SuppressWarnings("unchecked")
+    public PipelineJob sink(String name, int parallelism, int batchSize, Consumer<? super List<T>> sink) {
+        Preconditions.checkArgument(parallelism > 0, "parallelism must be positive");
+        Preconditions.checkArgument(batchSize > 0, "batchSize must be positive");
+        Preconditions.checkNotNull(sink, "sink");
+        return new PipelineJob(config, append(new Stage(name, parallelism, false, batchSize, null, null,
+                                                        (Consumer<List<Object>>) (Consumer<?>) sink)));
+    }
+
+    private List<Stage> append(Stage stage) {
+        return ImmutableList.<Stage>builder().addAll(stages).add(stage).build();
+    }
+
+    /**
+     * One stage, which is exactly one of a source, a transform, or a sink.
+     */
+    static final class Stage {
+        final String name;
+        final int parallelism;
+        final boolean ordered;
+        final int batchSize;
+        final Observable<?> source;
+        final Function<Object, Object> transform;
+        final Consumer<List<Object>> sink;
+
+        private Stage(String name,
+                      int parallelism,
+                      boolean ordered,
+                      int batchSize,
+                      Observable<?> source,
+                      Function<Object, Object> transform,
+                      Consumer<List<Object>> sink) {
+            this.name = Preconditions.checkNotNull(name, "name");
+            this.parallelism = parallelism;
+            this.ordered = ordered;
+            this.batchSize = batchSize;
+            this.source = source;
+            this.transform = transform;
+            this.sink = sink;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package org.skife.retl;
+
+import com.google.common.base.Preconditions;
+import org.immutables.value.Value;
+
+/**
+ * Settings for running a {@link Pipeline}; the defaults suit a job whose stages do comparable work.
+ */
+@Value.Immutable
+public interface PipelineConfig {
+
+    /**
+     * Most items waiting in front of each stage; once full, the stage feeding it blocks until there is room,
+     * and so on back to the source.
+     */
+    @Value.Default
+    default int queueCapacity() {
+        return 1024;
+    }
+
+    /**
+     * Whether to run stages on virtual threads when the JDK has them. They suit stages which spend their time
+     * blocked on I/O, such as a sink writing to a database, with a parallelism in the hundreds. Ignored, with
+     * platform threads used instead, on JDKs without them; see {@link PipelineJob#virtualThreads()}.
+     */
+    @Value.Default
+    default boolean virtualThreads() {
+        return false;
+    }
+
+    @Value.Check
+    default void check() {
+        Preconditions.checkArgument(queueCapacity() > 0, "queueCapacity must be positive");
+    }
+}
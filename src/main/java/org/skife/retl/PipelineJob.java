@@ -0,0 +1,406 @@
+package org.skife.retl;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import rx.Subscription;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A {@link Pipeline} ready to run, or running. {@link #snapshot()} reports on each stage at any time, so a
+ * long job can be watched to see where it is bottlenecked, see {@link StageStats}.
+ * <p>
+ * If any stage throws, the job stops: every stage's threads are interrupted, the source is unsubscribed,
+ * and {@link #await()} throws what the stage threw. Closing a running job stops it the same way.
+ */
+public final class PipelineJob implements AutoCloseable {
+
+    /**
+     * {@code Thread.ofVirtual().factory()}, looked up reflectively as this builds for Java 8; null when the
+     * running JDK has no virtual threads, or has them only as a preview feature which is not enabled.
+     */
+    private static final ThreadFactory VIRTUAL_THREADS = virtualThreadFactory();
+
+    /**
+     * Follows the last item into a queue. Each worker which takes it puts it back for its siblings, bar the
+     * last, which passes it on to the next stage.
+     */
+    private static final Object END = new Object();
+
+    private final PipelineConfig config;
+    private final List<Pipeline.Stage> stages;
+    private final boolean virtual;
+    /**
+     * The queue in front of each stage; the source has none, so {@code queues[0]} is null.
+     */
+    private final Queue[] queues;
+    private final Meter[] meters;
+    private final List<Thread> threads = new ArrayList<>();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private final AtomicInteger live = new AtomicInteger();
+    private CountDownLatch done;
+    private volatile long started;
+    private volatile long finished;
+
+    PipelineJob(PipelineConfig config, List<Pipeline.Stage> stages) {
+        this.config = config;
+        this.stages = stages;
+        this.virtual = config.virtualThreads() && VIRTUAL_THREADS != null;
+        this.queues = new Queue[stages.size()];
+        this.meters = new Meter[stages.size()];
+        for (int i = 0; i < stages.size(); i++) {
+            queues[i] = i == 0 ? null : new Queue(config.queueCapacity());
+            meters[i] = new Meter(stages.get(i).parallelism);
+        }
+    }
+
+    /**
+     * Whether stages run on virtual threads: asked for, and available on this JDK.
+     */
+    public boolean virtualThreads() {
+        return virtual;
+    }
+
+    public synchronized PipelineJob start() {
+        Preconditions.checkState(done == null, "already started");
+        Preconditions.checkState(failure.get() == null, "closed");
+        int count = stages.stream().mapToInt(s -> s.parallelism).sum();
+        live.set(count);
+        done = new CountDownLatch(count);
+        started = System.nanoTime();
+        for (int i = 0; i < stages.size(); i++) {
+            Pipeline.Stage stage = stages.get(i);
+            for (int w = 0; w < stage.parallelism; w++) {
+                int index = i;
+                Thread thread = newThread(() -> work(index), "retl-" + stage.name + "-" + w);
+                threads.add(thread);
+            }
+        }
+        threads.forEach(Thread::start);
+        return this;
+    }
+
+    /**
+     * Waits for the job to finish, returning each stage's totals, source first.
+     *
+     * @throws CancellationException if the job was closed before it finished
+     * @throws RuntimeException      what a stage threw, if one did
+     */
+    public List<StageStats> await() throws InterruptedException {
+        CountDownLatch latch;
+        synchronized (this) {
+            Preconditions.checkState(done != null, "not started");
+            latch = done;
+        }
+        latch.await();
+        Throwable t = failure.get();
+        if (t != null) {
+            Throwables.throwIfUnchecked(t);
+            throw new RuntimeException(t);
+        }
+        return snapshot();
+    }
+
+    /**
+     * Starts the job and waits for it to finish, see {@link #await()}.
+     */
+    public List<StageStats> run() throws InterruptedException {
+        return start().await();
+    }
+
+    /**
+     * Each stage's totals so far, source first.
+     */
+    public List<StageStats> snapshot() {
+        long start = started;
+        long end = finished;
+        Duration elapsed = start == 0 ? Duration.ZERO : Duration.ofNanos((end == 0 ? System.nanoTime() : end) - start);
+        ImmutableList.Builder<StageStats> stats = ImmutableList.builder();
+        for (int i = 0; i < stages.size(); i++) {
+            Meter m = meters[i];
+            Queue q = queues[i];
+            stats.add(ImmutableStageStats.builder()
+                                         .name(stages.get(i).name)
+                                         .parallelism(stages.get(i).parallelism)
+                                         .items(m.items.sum())
+                                         .batches(m.batches.sum())
+                                         .busy(Duration.ofNanos(m.busy.sum()))
+                                         .elapsed(elapsed)
+                                         .queued(q == null ? 0 : q.depth())
+                                         .maxQueued(q == null ? 0 : q.maxDepth)
+                                         .capacity(q == null ? 0 : config.queueCapacity())
+                                         .build());
+        }
+        return stats.build();
+    }
+
+    /**
+     * Stops the job if it is still running, or keeps it from starting if it has not.
+     */
+    @Override
+    public void close() {
+        if (finished == 0) {
+            stop(new CancellationException("pipeline closed"));
+        }
+    }
+
+    private void stop(Throwable cause) {
+        if (failure.compareAndSet(null, cause)) {
+            synchronized (this) {
+                threads.forEach(Thread::interrupt);
+            }
+        }
+    }
+
+    private void work(int index) {
+        Pipeline.Stage stage = stages.get(index);
+        try {
+            if (stage.source != null) {
+                source(stage, meters[index], queues[index + 1]);
+            }
+            else if (stage.transform != null) {
+                transform(stage, meters[index], queues[index], queues[index + 1]);
+            }
+            else {
+                sink(stage, meters[index], queues[index]);
+            }
+        }
+        catch (InterruptedException e) {
+            // stopped
+        }
+        catch (Throwable t) {
+            stop(t);
+        }
+        finally {
+            if (live.decrementAndGet() == 0) {
+                finished = System.nanoTime();
+            }
+            done.countDown();
+        }
+    }
+
+    private static void source(Pipeline.Stage stage, Meter meter, Queue out) throws InterruptedException {
+        // the blocking iterator requests a little at a time from the observable, and no more while we are
+        // blocked on a full queue, so backpressure carries through to sources which support it
+        Iterator<?> items = stage.source.toBlocking().getIterator();
+        try {
+            while (true) {
+                long start = System.nanoTime();
+                if (!items.hasNext()) {
+                    break;
+                }
+                Object item = items.next();
+                meter.busy.add(System.nanoTime() - start);
+                meter.items.increment();
+                out.put(item);
+            }
+        }
+        finally {
+            if (items instanceof Subscription) {
+                ((Subscription) items).unsubscribe();
+            }
+        }
+        out.put(END);
+    }
+
+    private static void transform(Pipeline.Stage stage, Meter meter, Queue in, Queue out)
+            throws InterruptedException {
+        while (true) {
+            Object item;
+            Slot slot = null;
+            if (stage.ordered) {
+                // taking an item and reserving its place downstream happen together, so places are reserved
+                // in the order items arrived; the next stage waits on each place until it is filled
+                in.order.lockInterruptibly();
+                try {
+                    item = in.take();
+                    if (item != END) {
+                        slot = new Slot();
+                        out.put(slot);
+                    }
+                }
+                finally {
+                    in.order.unlock();
+                }
+            }
+            else {
+                item = in.take();
+            }
+            if (item == END) {
+                if (meter.remaining.decrementAndGet() > 0) {
+                    in.put(END);
+                }
+                else {
+                    // siblings which saw END before this worker have finished, so everything is passed on
+                    out.put(END);
+                }
+                return;
+            }
+            long start = System.nanoTime();
+            Object result = stage.transform.apply(item);
+            meter.busy.add(System.nanoTime() - start);
+            if (result != null) {
+                meter.items.increment();
+            }
+            if (slot != null) {
+                slot.complete(result);
+            }
+            else if (result != null) {
+                out.put(result);
+            }
+        }
+    }
+
+    private static void sink(Pipeline.Stage stage, Meter meter, Queue in) throws InterruptedException {
+        boolean end = false;
+        while (!end) {
+            List<Object> batch = new ArrayList<>(stage.batchSize);
+            Object first = in.take();
+            if (first == END) {
+                break;
+            }
+            batch.add(first);
+            end = in.drainTo(batch, stage.batchSize);
+            long start = System.nanoTime();
+            stage.sink.accept(batch);
+            meter.busy.add(System.nanoTime() - start);
+            meter.items.add(batch.size());
+            meter.batches.increment();
+        }
+        if (meter.remaining.decrementAndGet() > 0) {
+            in.put(END);
+        }
+    }
+
+    private Thread newThread(Runnable work, String name) {
+        Thread thread;
+        if (virtual) {
+            thread = VIRTUAL_THREADS.newThread(work);
+            thread.setName(name);
+        }
+        else {
+            thread = new Thread(work, name);
+            thread.setDaemon(true);
+        }
+        return thread;
+    }
+
+    static ThreadFactory virtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+        }
+        catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * A stage's counters, striped so its workers do not contend on them.
+     */
+    private static final class Meter {
+        private final LongAdder items = new LongAdder();
+        private final LongAdder batches = new LongAdder();
+        private final LongAdder busy = new LongAdder();
+        private final AtomicInteger remaining;
+
+        private Meter(int parallelism) {
+            this.remaining = new AtomicInteger(parallelism);
+        }
+    }
+
+    /**
+     * The bounded queue in front of a stage. Holds items, {@link Slot}s standing in for items an ordered
+     * transform is still working on, and {@link #END}; takers see only items and {@code END}.
+     */
+    private static final class Queue {
+        private final BlockingQueue<Object> queue;
+        private final Lock order = new ReentrantLock();
+        private volatile int maxDepth;
+
+        private Queue(int capacity) {
+            this.queue = new ArrayBlockingQueue<>(capacity);
+        }
+
+        private void put(Object item) throws InterruptedException {
+            queue.put(item);
+            int depth = queue.size();
+            if (depth > maxDepth) {
+                // racy, so may miss a peak by an item or two, which is fine for a gauge
+                maxDepth = depth;
+            }
+        }
+
+        private Object take() throws InterruptedException {
+            while (true) {
+                Object item = unwrap(queue.take());
+                if (item != null) {
+                    return item;
+                }
+            }
+        }
+
+        /**
+         * Adds whatever is queued to {@code batch}, without waiting for more, until it holds {@code max}.
+         * Returns whether {@code END} was taken.
+         */
+        private boolean drainTo(List<Object> batch, int max) throws InterruptedException {
+            while (batch.size() < max) {
+                Object next = queue.poll();
+                if (next == null) {
+                    return false;
+                }
+                if (next == END) {
+                    return true;
+                }
+                next = unwrap(next);
+                if (next != null) {
+                    batch.add(next);
+                }
+            }
+            return false;
+        }
+
+        private int depth() {
+            return queue.size();
+        }
+
+        /**
+         * The item, waiting for it if a slot stands in for it; null if the transform dropped it.
+         */
+        private static Object unwrap(Object item) throws InterruptedException {
+            if (item instanceof Slot) {
+                try {
+                    return ((Slot) item).get();
+                }
+                catch (ExecutionException e) {
+                    // slots are only ever completed normally
+                    throw new IllegalStateException(e);
+                }
+            }
+            return item;
+        }
+    }
+
+    /**
+     * The place in an ordered transform's output of an item it is still working on.
+     */
+    private static final class Slot extends CompletableFuture<Object> {
+    }
+}
@@ -0,0 +1,404 @@
+package org.skife.retl;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.github.davidmoten.rtree.geometry.Geometries;
+import com.github.davidmoten.rtree.geometry.Point;
+import com.github.davidmoten.rtree.geometry.Rectangle;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A region bounded by one or more rings of lat/lon vertices, prepared for fast point in polygon tests, for
+ * questions like "which airports are in this country, FIR or no-fly zone?". Edges are straight lines in
+ * lat/lon, as in GeoJSON. Rings combine by the even-odd rule, so a multipolygon is its rings, holes included,
+ * in any order.
+ * <p>
+ * An edge joins its vertices the short way round, so rings may cross the antimeridian: each ring's
+ * longitudes are unwrapped to run continuously, possibly past 180, and a point is tested at its longitude
+ * and at that plus 360. A ring which goes all the way round, such as one around Antarctica, is closed over
+ * the pole on the side of its mean latitude.
+ * <p>
+ * Preparing lays a grid of about {@value #CELLS_PER_EDGE} cells per edge over the rings' bounds. Cells no
+ * edge touches are wholly inside or wholly outside, which a point in one learns with a single lookup. Other
+ * cells keep the edges that touch them and whether a reference point in the cell is inside; a point there
+ * counts crossings of those edges only, along a path from the reference point that stays in the cell. So
+ * most tests cost O(1), and the rest a handful of edges, rather than every edge in the polygon. Answers are
+ * those of ray casting over all edges, bar points lying exactly on an edge or a reference path, which may
+ * fall either way.
+ * <p>
+ * Immutable, and safe to share between threads.
+ */
+public final class Polygon {
+
+    static final int CELLS_PER_EDGE = 4;
+    private static final int MAX_CELLS = 1 << 22;
+
+    private static final byte OUTSIDE = 0;
+    private static final byte INSIDE = 1;
+    private static final byte BOUNDARY_OUTSIDE = 2;
+    private static final byte BOUNDARY_INSIDE = 3;
+
+    /**
+     * Where in each cell its reference point sits, as fractions of its width and height; deliberately not
+     * the middle, which tends to line up with the round numbers boundaries are drawn on.
+     */
+    private static final double REFERENCE_X = 0.4142135623730951;
+    private static final double REFERENCE_Y = 0.5772156649015329;
+
+    private final int rings;
+    private final int vertices;
+    private final double[] x1;
+    private final double[] y1;
+    private final double[] x2;
+    private final double[] y2;
+    private final double minX;
+    private final double maxX;
+    private final double minY;
+    private final double maxY;
+    private final int columns;
+    private final int rows;
+    private final double cellWidth;
+    private final double cellHeight;
+    private final byte[] states;
+    private final int[] cellStarts;
+    private final int[] cellEdges;
+
+    private Polygon(List<double[][]> unwrapped, int vertices) {
+        this.rings = unwrapped.size();
+        this.vertices = vertices;
+        int edges = unwrapped.stream().mapToInt(r -> r[0].length).sum();
+        this.x1 = new double[edges];
+        this.y1 = new double[edges];
+        this.x2 = new double[edges];
+        this.y2 = new double[edges];
+        double loX = Double.POSITIVE_INFINITY;
+        double hiX = Double.NEGATIVE_INFINITY;
+        double loY = Double.POSITIVE_INFINITY;
+        double hiY = Double.NEGATIVE_INFINITY;
+        int e = 0;
+        for (double[][] ring : unwrapped) {
+            double[] lats = ring[0];
+            double[] lons = ring[1];
+            for (int i = 0; i < lats.length; i++) {
+                int j = (i + 1) % lats.length;
+                x1[e] = lons[i];
+                y1[e] = lats[i];
+                x2[e] = lons[j];
+                y2[e] = lats[j];
+                e++;
+                loX = Math.min(loX, lons[i]);
+                hiX = Math.max(hiX, lons[i]);
+                loY = Math.min(loY, lats[i]);
+                hiY = Math.max(hiY, lats[i]);
+            }
+        }
+        this.minX = loX;
+        this.maxX = hiX;
+        this.minY = loY;
+        this.maxY = hiY;
+
+        // roughly square cells, about CELLS_PER_EDGE per edge in all
+        double width = Math.max(maxX - minX, 1e-9);
+        double height = Math.max(maxY - minY, 1e-9);
+        double cells = Math.min(MAX_CELLS, Math.max(16, (double) CELLS_PER_EDGE * edges));
+        double side = Math.sqrt(width * height / cells);
+        this.columns = (int) Math.max(1, Math.min(cells, Math.ceil(width / side)));
+        this.rows = (int) Math.max(1, Math.min(cells / columns, Math.ceil(height / side)));
+        this.cellWidth = width / columns;
+        this.cellHeight = height / rows;
+
+        // edges touching each cell, in two passes: count, then fill
+        this.cellStarts = new int[columns * rows + 1];
+        rasterize(null);
+        for (int c = 0; c < columns * rows; c++) {
+            cellStarts[c + 1] += cellStarts[c];
+        }
+        this.cellEdges = new int[cellStarts[columns * rows]];
+        rasterize(Arrays.copyOf(cellStarts, columns * rows));
+
+        this.states = new byte[columns * rows];
+        classify();
+    }
+
+    /**
+     * A polygon of one ring, which may be closed by repeating the first vertex or not.
+     */
+    public static Polygon of(List<Point> ring) {
+        return of(ImmutableList.of(ring));
+    }
+
+    /**
+     * A polygon of several rings, combined by the even-odd rule: the rings of every part of a multipolygon,
+     * and of every hole in them.
+     */
+    public static Polygon of(Iterable<? extends List<Point>> rings) {
+        List<double[][]> unwrapped = new ArrayList<>();
+        int vertices = 0;
+        for (List<Point> ring : rings) {
+            int n = ring.size();
+            if (n > 1 && ring.get(0).x() == ring.get(n - 1).x() && ring.get(0).y() == ring.get(n - 1).y()) {
+                n--;
+            }
+            Preconditions.checkArgument(n >= 3, "a ring needs at least three vertices");
+            double[] lats = new double[n];
+            double[] lons = new double[n];
+            for (int i = 0; i < n; i++) {
+                lats[i] = ring.get(i).y();
+                lons[i] = ring.get(i).x();
+                Preconditions.checkArgument(lats[i] >= -90 && lats[i] <= 90, "latitude must be between -90 and 90");
+                Preconditions.checkArgument(lons[i] >= -180 && lons[i] <= 180, "longitude must be between -180 and 180");
+            }
+            unwrapped.add(unwrap(lats, lons));
+            vertices += n;
+        }
+        Preconditions.checkArgument(!unwrapped.isEmpty(), "a polygon needs at least one ring");
+        return new Polygon(unwrapped, vertices);
+    }
+
+    /**
+     * A GeoJSON {@code Polygon} or {@code MultiPolygon} geometry, or a {@code Feature} holding one.
+     */
+    public static Polygon fromGeoJson(JsonNode geoJson) {
+        JsonNode geometry = "Feature".equals(geoJson.path("type").asText()) ? geoJson.path("geometry") : geoJson;
+        String type = geometry.path("type").asText();
+        JsonNode coordinates = geometry.path("coordinates");
+        List<List<Point>> rings = new ArrayList<>();
+        if ("Polygon".equals(type)) {
+            coordinates.forEach(ring -> rings.add(ring(ring)));
+        }
+        else if ("MultiPolygon".equals(type)) {
+            coordinates.forEach(polygon -> polygon.forEach(ring -> rings.add(ring(ring))));
+        }
+        else {
+            throw new IllegalArgumentException("not a GeoJSON Polygon or MultiPolygon: " + type);
+        }
+        return of(rings);
+    }
+
+    private static List<Point> ring(JsonNode positions) {
+        List<Point> ring = new ArrayList<>(positions.size());
+        for (JsonNode position : positions) {
+            // GeoJSON positions are longitude first
+            ring.add(Geodetic.latLong(position.path(1).asDouble(Double.NaN), position.path(0).asDouble(Double.NaN)));
+        }
+        return ring;
+    }
+
+    /**
+     * Longitudes made continuous, each edge taking the short way round, shifted so the ring's westernmost
+     * point lies in [-180, 180). Rings which wind round a pole are closed over it.
+     */
+    private static double[][] unwrap(double[] lats, double[] lons) {
+        int n = lats.length;
+        double[] x = new double[n];
+        x[0] = lons[0];
+        for (int i = 1; i < n; i++) {
+            x[i] = x[i - 1] + shortWay(lons[i] - lons[i - 1]);
+        }
+        double end = x[n - 1] + shortWay(lons[0] - lons[n - 1]);
+        double[] y = lats;
+        if (Math.abs(end - x[0]) > 180) {
+            double mean = Arrays.stream(lats).average().getAsDouble();
+            double pole = mean < 0 ? -90 : 90;
+            // on along the closing edge to the first vertex, a turn round the world later, then over the pole
+            // and back to where the ring started
+            x = Arrays.copyOf(x, n + 3);
+            y = Arrays.copyOf(lats, n + 3);
+            x[n] = end;
+            y[n] = lats[0];
+            x[n + 1] = end;
+            y[n + 1] = pole;
+            x[n + 2] = x[0];
+            y[n + 2] = pole;
+        }
+        double west = Arrays.stream(x).min().getAsDouble();
+        double shift = -360 * Math.floor((west + 180) / 360);
+        for (int i = 0; i < x.length; i++) {
+            x[i] += shift;
+        }
+        return new double[][]{y, x};
+    }
+
+    private static double shortWay(double delta) {
+        if (delta > 180) {
+            return delta - 360;
+        }
+        if (delta < -180) {
+            return delta + 360;
+        }
+        return delta;
+    }
+
+    /**
+     * Whether (lat, lon) is inside.
+     */
+    public boolean contains(double lat, double lon) {
+        if (lat < minY || lat > maxY) {
+            return false;
+        }
+        boolean inside = false;
+        if (lon >= minX && lon <= maxX) {
+            inside = test(lon, lat);
+        }
+        if (lon + 360 >= minX && lon + 360 <= maxX) {
+            inside ^= test(lon + 360, lat);
+        }
+        return inside;
+    }
+
+    public boolean contains(Point p) {
+        return contains(p.y(), p.x());
+    }
+
+    /**
+     * Vertices over all rings, not counting a repeated closing vertex.
+     */
+    public int vertices() {
+        return vertices;
+    }
+
+    public int rings() {
+        return rings;
+    }
+
+    /**
+     * Lat/lon rectangles covering the polygon, two when it crosses the antimeridian.
+     */
+    List<Rectangle> boxes() {
+        if (maxX - minX >= 360) {
+            return ImmutableList.of(Geometries.rectangle(-180, minY, 180, maxY));
+        }
+        if (maxX <= 180) {
+            return ImmutableList.of(Geometries.rectangle(minX, minY, maxX, maxY));
+        }
+        return ImmutableList.of(Geometries.rectangle(minX, minY, 180, maxY),
+                                Geometries.rectangle(-180, minY, maxX - 360, maxY));
+    }
+
+    /**
+     * Fraction of grid cells which need edges checked, the rest answering with a lookup.
+     */
+    double boundaryFraction() {
+        int boundary = 0;
+        for (byte state : states) {
+            if (state >= BOUNDARY_OUTSIDE) {
+                boundary++;
+            }
+        }
+        return (double) boundary / states.length;
+    }
+
+    private boolean test(double x, double y) {
+        int column = Math.min(columns - 1, (int) ((x - minX) / cellWidth));
+        int row = Math.min(rows - 1, (int) ((y - minY) / cellHeight));
+        int cell = row * columns + column;
+        byte state = states[cell];
+        if (state < BOUNDARY_OUTSIDE) {
+            return state == INSIDE;
+        }
+        // from the reference point straight up or down to y, then across to x, never leaving the cell
+        double rx = minX + (column + REFERENCE_X) * cellWidth;
+        double ry = minY + (row + REFERENCE_Y) * cellHeight;
+        boolean inside = state == BOUNDARY_INSIDE;
+        for (int i = cellStarts[cell]; i < cellStarts[cell + 1]; i++) {
+            int e = cellEdges[i];
+            double ax = x1[e];
+            double ay = y1[e];
+            double bx = x2[e];
+            double by = y2[e];
+            if ((ax > rx) != (bx > rx)) {
+                double yi = ay + (rx - ax) * (by - ay) / (bx - ax);
+                if ((yi > ry) != (yi > y)) {
+                    inside = !inside;
+                }
+            }
+            if ((ay > y) != (by > y)) {
+                double xi = ax + (y - ay) * (bx - ax) / (by - ay);
+                if ((xi > rx) != (xi > x)) {
+                    inside = !inside;
+                }
+            }
+        }
+        return inside;
+    }
+
+    /**
+     * Adds each edge to the cells it passes through, a little generously: counting when {@code next} is null,
+     * otherwise filling {@link #cellEdges} at the positions it holds.
+     */
+    private void rasterize(int[] next) {
+        double padX = cellWidth * 1e-9;
+        double padY = cellHeight * 1e-9;
+        for (int e = 0; e < x1.length; e++) {
+            double lowY = Math.min(y1[e], y2[e]);
+            double highY = Math.max(y1[e], y2[e]);
+            int firstRow = clamp((int) Math.floor((lowY - padY - minY) / cellHeight), rows);
+            int lastRow = clamp((int) Math.floor((highY + padY - minY) / cellHeight), rows);
+            for (int row = firstRow; row <= lastRow; row++) {
+                // the part of the edge within this row's band of latitude
+                double bandLow = Math.max(lowY, minY + row * cellHeight);
+                double bandHigh = Math.min(highY, minY + (row + 1) * cellHeight);
+                double xa;
+                double xb;
+                if (y1[e] == y2[e]) {
+                    xa = x1[e];
+                    xb = x2[e];
+                }
+                else {
+                    double slope = (x2[e] - x1[e]) / (y2[e] - y1[e]);
+                    xa = x1[e] + (bandLow - y1[e]) * slope;
+                    xb = x1[e] + (bandHigh - y1[e]) * slope;
+                }
+                int firstColumn = clamp((int) Math.floor((Math.min(xa, xb) - padX - minX) / cellWidth), columns);
+                int lastColumn = clamp((int) Math.floor((Math.max(xa, xb) + padX - minX) / cellWidth), columns);
+                for (int column = firstColumn; column <= lastColumn; column++) {
+                    int cell = row * columns + column;
+                    if (next == null) {
+                        cellStarts[cell + 1]++;
+                    }
+                    else {
+                        cellEdges[next[cell]++] = e;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Whether each cell's reference point is inside, by ray casting along its row: sorting the crossings of
+     * the row's reference latitude lets every cell in the row be answered in one pass.
+     */
+    private void classify() {
+        double[] crossings = new double[x1.length];
+        for (int row = 0; row < rows; row++) {
+            double ry = minY + (row + REFERENCE_Y) * cellHeight;
+            int n = 0;
+            for (int e = 0; e < x1.length; e++) {
+                if ((y1[e] > ry) != (y2[e] > ry)) {
+                    crossings[n++] = x1[e] + (ry - y1[e]) * (x2[e] - x1[e]) / (y2[e] - y1[e]);
+                }
+            }
+            Arrays.sort(crossings, 0, n);
+            int left = 0;
+            for (int column = 0; column < columns; column++) {
+                double rx = minX + (column + REFERENCE_X) * cellWidth;
+                while (left < n && crossings[left] <= rx) {
+                    left++;
+                }
+                // crossings east of the reference point
+                boolean inside = ((n - left) & 1) == 1;
+                int cell = row * columns + column;
+                boolean boundary = cellStarts[cell + 1] > cellStarts[cell];
+                states[cell] = boundary ? (inside ? BOUNDARY_INSIDE : BOUNDARY_OUTSIDE) : (inside ? INSIDE : OUTSIDE);
+            }
+        }
+    }
+
+    private static int clamp(int i, int size) {
+        return Math.max(0, Math.min(size - 1, i));
+    }
+}
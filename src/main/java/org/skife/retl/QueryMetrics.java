@@ -0,0 +1,96 @@
+package org.skife.retl;
+
+import com.github.davidmoten.rtree.geometry.Geometries;
+import com.github.davidmoten.rtree.geometry.Point;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and a latency histogram for the queries an {@link AirportIndex} answers, see
+ * {@link AirportIndex#withMetrics(QueryMetrics)}. Each query tallies its own work in locals and adds it here
+ * once, to striped counters, so threads recording at the same time do not contend. Latency covers the
+ * search itself, not delivery to subscribers, so a slow query with a fast search is time spent in Rx.
+ * <p>
+ * {@link #DISABLED} records nothing; indexes check {@link #enabled()} before reading the clock or counting,
+ * so an index without metrics runs exactly the code it did before.
+ */
+public final class QueryMetrics {
+
+    public static final QueryMetrics DISABLED = new QueryMetrics(false);
+
+    private final boolean enabled;
+    private final LongAdder queries = new LongAdder();
+    private final LongAdder nodesVisited = new LongAdder();
+    private final LongAdder distanceEvaluations = new LongAdder();
+    private final LongAdder results = new LongAdder();
+    private final LatencyHistogram latency;
+    private volatile Point costliestPoint;
+    private volatile long costliestNodes;
+
+    private QueryMetrics(boolean enabled) {
+        this.enabled = enabled;
+        this.latency = enabled ? new LatencyHistogram() : null;
+    }
+
+    public static QueryMetrics create() {
+        return new QueryMetrics(true);
+    }
+
+    public boolean enabled() {
+        return enabled;
+    }
+
+    /**
+     * Start time for a query, to be handed back to {@link #record}.
+     */
+    long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Adds one query, from (lat, lon), started at {@code start}.
+     */
+    void record(long start, double lat, double lon, int nodes, int distances, int found) {
+        if (!enabled) {
+            return;
+        }
+        latency.record(System.nanoTime() - start);
+        queries.increment();
+        nodesVisited.add(nodes);
+        distanceEvaluations.add(distances);
+        results.add(found);
+        if (nodes > costliestNodes) {
+            costliest(lat, lon, nodes);
+        }
+    }
+
+    private synchronized void costliest(double lat, double lon, int nodes) {
+        if (nodes > costliestNodes) {
+            costliestNodes = nodes;
+            costliestPoint = Geometries.point(lon, lat);
+        }
+    }
+
+    public QueryStats snapshot() {
+        ImmutableQueryStats.Builder stats = ImmutableQueryStats.builder()
+                                                               .queries(queries.sum())
+                                                               .nodesVisited(nodesVisited.sum())
+                                                               .distanceEvaluations(distanceEvaluations.sum())
+                                                               .results(results.sum());
+        synchronized (this) {
+            stats.costliestNodes(costliestNodes);
+            if (costliestPoint != null) {
+                stats.costliestPoint(costliestPoint);
+            }
+        }
+        if (!enabled) {
+            return stats.p50(Duration.ZERO).p99(Duration.ZERO).p999(Duration.ZERO).max(Duration.ZERO).build();
+        }
+        return stats.p50(Duration.ofNanos(latency.quantile(0.5)))
+                    .p99(Duration.ofNanos(latency.quantile(0.99)))
+                    .p999(Duration.ofNanos(latency.quantile(0.999)))
+                    .max(Duration.ofNanos(latency.max()))
+                    .build();
+    }
+}
@@ -0,0 +1,53 @@
+package org.skife.retl;
+
+import com.github.davidmoten.rtree.geometry.Point;
+import org.immutables.value.Value;
+
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Point in time totals from {@link QueryMetrics}. Counters are read one at a time while queries may still
+ * be running, so they can be a query or two out of step with each other.
+ */
+@Value.Immutable
+public interface QueryStats {
+
+    long queries();
+
+    /**
+     * Tree nodes whose bounds were examined by nearest queries. Rectangle searches run inside the R-tree and
+     * are not counted.
+     */
+    long nodesVisited();
+
+    /**
+     * Distances computed to airports and to node bounds, approximate filters included.
+     */
+    long distanceEvaluations();
+
+    long results();
+
+    Duration p50();
+
+    Duration p99();
+
+    Duration p999();
+
+    Duration max();
+
+    /**
+     * The query point which visited the most nodes, the first place to look for a pathological query.
+     */
+    Optional<Point> costliestPoint();
+
+    long costliestNodes();
+
+    default double nodesPerQuery() {
+        return queries() == 0 ? 0 : (double) nodesVisited() / queries();
+    }
+
+    default double distancesPerQuery() {
+        return queries() == 0 ? 0 : (double) distanceEvaluations() / queries();
+    }
+}
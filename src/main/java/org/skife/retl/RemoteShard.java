@@ -0,0 +1,176 @@
+package org.skife.retl;
+
+import com.github.davidmoten.rtree.geometry.Point;
+import com.google.common.collect.ImmutableList;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Function;
+
+/**
+ * A shard held by a {@link ShardServer} in another JVM on this machine. Connections are pooled, one per
+ * concurrent query, and the airports are kept here too so responses need only carry positions and distances.
+ * I/O failures surface as {@link UncheckedIOException} and discard the connection they happened on.
+ */
+public final class RemoteShard implements AirportShard {
+
+    private final int port;
+    private final List<Airport> airports;
+    private final int id;
+    private final Queue<Connection> idle = new ConcurrentLinkedQueue<>();
+
+    private RemoteShard(int port, List<Airport> airports) throws IOException {
+        this.port = port;
+        this.airports = airports;
+        Connection c = new Connection(port);
+        try {
+            c.out.writeByte(ShardServer.LOAD);
+            c.out.writeInt(airports.size());
+            for (Airport a : airports) {
+                c.out.writeUTF(a.name());
+                c.out.writeUTF(a.iata());
+                c.out.writeUTF(a.city());
+                c.out.writeUTF(a.country());
+                c.out.writeFloat(a.latitude());
+                c.out.writeFloat(a.longitude());
+            }
+            c.out.flush();
+            this.id = c.in.readInt();
+        }
+        catch (IOException e) {
+            c.close();
+            throw e;
+        }
+        idle.add(c);
+    }
+
+    /**
+     * Loads {@code airports} into the server listening on loopback {@code port}.
+     */
+    public static RemoteShard connect(int port, List<? extends Airport> airports) throws IOException {
+        return new RemoteShard(port, ImmutableList.copyOf(airports));
+    }
+
+    /**
+     * A shard factory for {@link ShardedAirportIndex} which deals shards round robin to the servers on
+     * {@code ports}.
+     */
+    public static Function<List<Airport>, AirportShard> roundRobin(int... ports) {
+        int[] next = new int[1];
+        return airports -> {
+            try {
+                return connect(ports[next[0]++ % ports.length], airports);
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        };
+    }
+
+    @Override
+    public List<NearestAirport> nearest(Point p, double maxDistance, int count) {
+        return query(p, c -> {
+            c.out.writeByte(ShardServer.NEAREST);
+            c.out.writeInt(id);
+            c.out.writeDouble(p.y());
+            c.out.writeDouble(p.x());
+            c.out.writeDouble(maxDistance);
+            c.out.writeInt(count);
+        });
+    }
+
+    @Override
+    public List<NearestAirport> withinDistance(Point p, double distance) {
+        return query(p, c -> {
+            c.out.writeByte(ShardServer.WITHIN);
+            c.out.writeInt(id);
+            c.out.writeDouble(p.y());
+            c.out.writeDouble(p.x());
+            c.out.writeDouble(distance);
+        });
+    }
+
+    /**
+     * Drops the shard from the server and closes every idle connection.
+     */
+    @Override
+    public void close() {
+        Connection c = idle.poll();
+        if (c != null) {
+            try {
+                c.out.writeByte(ShardServer.DROP);
+                c.out.writeInt(id);
+                c.out.flush();
+            }
+            catch (IOException e) {
+                // the server is gone, and the shard with it
+            }
+            c.close();
+        }
+        for (Connection rest = idle.poll(); rest != null; rest = idle.poll()) {
+            rest.close();
+        }
+    }
+
+    private List<NearestAirport> query(Point p, Request request) {
+        Connection c = null;
+        try {
+            c = idle.poll();
+            if (c == null) {
+                c = new Connection(port);
+            }
+            request.write(c);
+            c.out.flush();
+            int n = c.in.readInt();
+            List<NearestAirport> found = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                found.add(ImmutableNearestAirport.of(p, airports.get(c.in.readInt()), c.in.readDouble()));
+            }
+            idle.add(c);
+            return found;
+        }
+        catch (IOException e) {
+            if (c != null) {
+                c.close();
+            }
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Request {
+        void write(Connection c) throws IOException;
+    }
+
+    private static final class Connection {
+        private final Socket socket;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+
+        private Connection(int port) throws IOException {
+            this.socket = new Socket(InetAddress.getLoopbackAddress(), port);
+            socket.setTcpNoDelay(true);
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+
+        private void close() {
+            try {
+                socket.close();
+            }
+            catch (IOException e) {
+                // nothing more to do
+            }
+        }
+    }
+}
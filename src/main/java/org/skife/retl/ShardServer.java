@@ -0,0 +1,204 @@
+package org.skife.retl;
+
+import com.github.davidmoten.rtree.geometry.Point;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hosts {@link AirportShard shards} for {@link RemoteShard} clients over loopback TCP, so one machine's
+ * shards can be spread over several JVMs, each with its own heap and collector.
+ * <p>
+ * Clients send a shard's airports once and get back an id to query it by. The protocol is
+ * {@link java.io.DataOutput} primitives: a request is an op byte and its arguments, and query responses are a
+ * count followed by that many pairs of the airport's position in the loaded list and its distance, so airports
+ * themselves only cross the wire when loaded. Any failure closes the connection and is counted in
+ * {@link #failedConnections()}.
+ */
+public final class ShardServer implements Closeable {
+
+    static final byte LOAD = 1;
+    static final byte NEAREST = 2;
+    static final byte WITHIN = 3;
+    static final byte DROP = 4;
+
+    private final ServerSocket socket;
+    private final ExecutorService connections;
+    private final Map<Integer, Hosted> shards = new ConcurrentHashMap<>();
+    private final AtomicInteger ids = new AtomicInteger();
+    private final LongAdder failed = new LongAdder();
+
+    private ShardServer(ServerSocket socket) {
+        this.socket = socket;
+        this.connections = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "shard-server-" + socket.getLocalPort());
+            t.setDaemon(true);
+            return t;
+        });
+        this.connections.execute(this::accept);
+    }
+
+    /**
+     * Listens on {@code port} of the loopback address, or any free port if {@code port} is zero.
+     */
+    public static ShardServer start(int port) throws IOException {
+        return new ShardServer(new ServerSocket(port, 50, InetAddress.getLoopbackAddress()));
+    }
+
+    /**
+     * Runs a server in its own JVM, on the port given as the only argument or any free one. Prints
+     * {@code listening on <port>} once ready and exits when standard input closes, so a parent process which
+     * dies takes its servers with it.
+     */
+    public static void main(String[] args) throws IOException {
+        try (ShardServer server = start(args.length > 0 ? Integer.parseInt(args[0]) : 0)) {
+            System.out.println("listening on " + server.port());
+            System.out.flush();
+            while (System.in.read() >= 0) {
+                // wait for the parent to close our input
+            }
+        }
+    }
+
+    public int port() {
+        return socket.getLocalPort();
+    }
+
+    /**
+     * Connections closed because a request failed, such as an unknown op or shard, rather than because the
+     * client went away.
+     */
+    public long failedConnections() {
+        return failed.sum();
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+        connections.shutdownNow();
+    }
+
+    private void accept() {
+        while (!socket.isClosed()) {
+            try {
+                Socket connection = socket.accept();
+                connection.setTcpNoDelay(true);
+                connections.execute(() -> serve(connection));
+            }
+            catch (IOException e) {
+                // closed
+            }
+        }
+    }
+
+    private void serve(Socket connection) {
+        try (Socket s = connection;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()))) {
+            while (true) {
+                int op = in.read();
+                if (op < 0) {
+                    return;
+                }
+                switch (op) {
+                    case LOAD:
+                        out.writeInt(load(in));
+                        break;
+                    case NEAREST: {
+                        Hosted shard = shard(in.readInt());
+                        Point p = Geodetic.latLong(in.readDouble(), in.readDouble());
+                        write(shard, shard.shard.nearest(p, in.readDouble(), in.readInt()), out);
+                        break;
+                    }
+                    case WITHIN: {
+                        Hosted shard = shard(in.readInt());
+                        Point p = Geodetic.latLong(in.readDouble(), in.readDouble());
+                        write(shard, shard.shard.withinDistance(p, in.readDouble()), out);
+                        break;
+                    }
+                    case DROP:
+                        shards.remove(in.readInt());
+                        break;
+                    default:
+                        throw new IOException("unknown op " + op);
+                }
+                out.flush();
+            }
+        }
+        catch (EOFException e) {
+            // client went away mid request
+        }
+        catch (IOException | RuntimeException e) {
+            if (!socket.isClosed()) {
+                failed.increment();
+            }
+        }
+    }
+
+    private int load(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<Airport> airports = new ArrayList<>(count);
+        Map<Airport, Integer> positions = new IdentityHashMap<>(count);
+        for (int i = 0; i < count; i++) {
+            Airport airport = ImmutableAirport.builder()
+                                              .name(in.readUTF())
+                                              .iata(in.readUTF())
+                                              .city(in.readUTF())
+                                              .country(in.readUTF())
+                                              .latitude(in.readFloat())
+                                              .longitude(in.readFloat())
+                                              .build();
+            airports.add(airport);
+            positions.put(airport, i);
+        }
+        int id = ids.incrementAndGet();
+        shards.put(id, new Hosted(AirportShard.local(airports), positions));
+        return id;
+    }
+
+    private Hosted shard(int id) throws IOException {
+        Hosted shard = shards.get(id);
+        if (shard == null) {
+            throw new IOException("no shard " + id);
+        }
+        return shard;
+    }
+
+    private static void write(Hosted shard, List<NearestAirport> found, DataOutputStream out) throws IOException {
+        out.writeInt(found.size());
+        for (NearestAirport n : found) {
+            out.writeInt(shard.positions.get(n.airport()));
+            out.writeDouble(n.distance());
+        }
+    }
+
+    /**
+     * A shard and where each of its airports came in the list the client loaded, by identity.
+     */
+    private static final class Hosted {
+        private final AirportShard shard;
+        private final Map<Airport, Integer> positions;
+
+        private Hosted(AirportShard shard, Map<Airport, Integer> positions) {
+            this.shard = shard;
+            this.positions = positions;
+        }
+    }
+}
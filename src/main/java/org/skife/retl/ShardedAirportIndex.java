@@ -0,0 +1,235 @@
+package org.skife.retl;
+
+import com.github.davidmoten.rtree.geometry.Point;
+import com.google.common.base.Preconditions;
+import rx.Observable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Airports split into shards, each a small index of its own, with queries scattered to the shards which could
+ * hold an answer and the results gathered back together.
+ * <p>
+ * Shards are contiguous runs of the airports in Hilbert order, so each covers a compact patch of the globe and
+ * its bounding box is a useful lower bound on the distance to anything inside it. A nearest query asks the
+ * shard with the closest box first, then fans out in parallel to only those shards whose boxes lie nearer
+ * than the furthest airport it returned; a radius query goes to every shard whose box meets the circle. Shards
+ * report exact great circle distances, so merging is a sort and the results match a single
+ * {@link AirportIndex} over the same airports.
+ * <p>
+ * How shards are built is up to the caller: {@link AirportShard#local} keeps them in this JVM, and
+ * {@link RemoteShard} puts them in another process behind a {@link ShardServer}.
+ */
+public final class ShardedAirportIndex implements SpatialIndex, AutoCloseable {
+
+    /**
+     * Kilometres taken off each shard's bound, as the box and point formulas may round an ulp apart.
+     */
+    private static final double BOUND_SLACK = 1e-9;
+
+    private static final Comparator<NearestAirport> NEAREST_FIRST = Comparator.comparingDouble(NearestAirport::distance);
+
+    private final Geodetic geodetic;
+    private final List<Shard> shards;
+    private final Executor executor;
+    private final int size;
+
+    private ShardedAirportIndex(Geodetic geodetic, List<Shard> shards, Executor executor) {
+        this.geodetic = geodetic;
+        this.shards = shards;
+        this.executor = executor;
+        this.size = shards.stream().mapToInt(s -> s.size).sum();
+    }
+
+    /**
+     * {@code shardCount} shards in this JVM, queried in parallel on the common fork join pool.
+     */
+    public static ShardedAirportIndex create(List<? extends Airport> airports, int shardCount) {
+        return create(airports, shardCount, AirportShard::local, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Splits {@code airports} into {@code shardCount} runs of Hilbert order, near enough equal in size, and
+     * builds a shard over each with {@code factory}. Shards are queried in parallel on {@code executor}.
+     */
+    public static ShardedAirportIndex create(List<? extends Airport> airports,
+                                             int shardCount,
+                                             Function<List<Airport>, AirportShard> factory,
+                                             Executor executor) {
+        Preconditions.checkArgument(shardCount > 0, "shardCount must be positive");
+        float[] lats = new float[airports.size()];
+        float[] lons = new float[airports.size()];
+        for (int i = 0; i < airports.size(); i++) {
+            lats[i] = (float) airports.get(i).point().y();
+            lons[i] = (float) airports.get(i).point().x();
+        }
+        int[] order = PackedRTree.hilbertOrder(lats, lons);
+
+        List<Shard> shards = new ArrayList<>();
+        for (int s = 0; s < shardCount; s++) {
+            int from = (int) ((long) airports.size() * s / shardCount);
+            int to = (int) ((long) airports.size() * (s + 1) / shardCount);
+            if (from == to) {
+                continue;
+            }
+            List<Airport> members = Arrays.stream(order, from, to)
+                                          .mapToObj(airports::get)
+                                          .collect(Collectors.toList());
+            shards.add(new Shard(members, factory.apply(members)));
+        }
+        return new ShardedAirportIndex(Geodetic.Earth, shards, executor);
+    }
+
+    @Override
+    public Observable<Airport> nearest(Point p, double maxDistance, int count) {
+        return Observable.from(nearestAirports(p, maxDistance, count))
+                         .map(NearestAirport::airport);
+    }
+
+    /**
+     * Up to {@code count} airports within {@code maxDistance} kilometres of {@code p}, nearest first, with
+     * their distances.
+     */
+    public List<NearestAirport> nearestAirports(Point p, double maxDistance, int count) {
+        Preconditions.checkArgument(count >= 0, "count must not be negative");
+        if (count == 0 || shards.isEmpty()) {
+            return new ArrayList<>();
+        }
+        double[] bounds = bounds(p);
+        int closest = IntStream.range(0, shards.size())
+                               .reduce((a, b) -> bounds[b] < bounds[a] ? b : a)
+                               .getAsInt();
+        if (bounds[closest] >= maxDistance) {
+            return new ArrayList<>();
+        }
+        List<NearestAirport> found = new ArrayList<>(shards.get(closest).shard.nearest(p, maxDistance, count));
+
+        // only shards with a box nearer than the furthest of those can improve on them; nextUp keeps ties
+        double reach = found.size() == count
+                       ? Math.min(maxDistance, Math.nextUp(found.get(count - 1).distance()))
+                       : maxDistance;
+        List<AirportShard> rest = new ArrayList<>();
+        for (int s = 0; s < shards.size(); s++) {
+            if (s != closest && bounds[s] < reach) {
+                rest.add(shards.get(s).shard);
+            }
+        }
+        if (rest.isEmpty()) {
+            return found;
+        }
+        scatter(rest, shard -> shard.nearest(p, reach, count), found);
+        found.sort(NEAREST_FIRST);
+        return new ArrayList<>(found.subList(0, Math.min(count, found.size())));
+    }
+
+    @Override
+    public Observable<Airport> withinDistance(Point p, double distance) {
+        return Observable.from(airportsWithin(p, distance))
+                         .map(NearestAirport::airport);
+    }
+
+    /**
+     * Every airport within {@code distance} kilometres of {@code p}, edge included, with their distances, in
+     * no particular order.
+     */
+    public List<NearestAirport> airportsWithin(Point p, double distance) {
+        Preconditions.checkArgument(distance >= 0, "distance must not be negative");
+        double[] bounds = bounds(p);
+        List<AirportShard> targets = new ArrayList<>();
+        for (int s = 0; s < shards.size(); s++) {
+            if (bounds[s] <= distance) {
+                targets.add(shards.get(s).shard);
+            }
+        }
+        List<NearestAirport> found = new ArrayList<>();
+        scatter(targets, shard -> shard.withinDistance(p, distance), found);
+        return found;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    int shardCount() {
+        return shards.size();
+    }
+
+    /**
+     * Closes every shard.
+     */
+    @Override
+    public void close() {
+        shards.forEach(s -> s.shard.close());
+    }
+
+    private double[] bounds(Point p) {
+        double[] bounds = new double[shards.size()];
+        for (int s = 0; s < bounds.length; s++) {
+            Shard shard = shards.get(s);
+            double d = geodetic.distance(p.y(), p.x(), shard.minLat, shard.minLon, shard.maxLat, shard.maxLon);
+            bounds[s] = Math.max(0, d - BOUND_SLACK);
+        }
+        return bounds;
+    }
+
+    /**
+     * Runs {@code query} against every shard in {@code targets}, all but the last on the executor and the last
+     * on this thread, which would otherwise only wait, and adds what they find to {@code into}.
+     */
+    private void scatter(List<AirportShard> targets,
+                         Function<AirportShard, List<NearestAirport>> query,
+                         List<NearestAirport> into) {
+        if (targets.isEmpty()) {
+            return;
+        }
+        List<CompletableFuture<List<NearestAirport>>> pending = new ArrayList<>();
+        for (AirportShard shard : targets.subList(0, targets.size() - 1)) {
+            pending.add(CompletableFuture.supplyAsync(() -> query.apply(shard), executor));
+        }
+        into.addAll(query.apply(targets.get(targets.size() - 1)));
+        for (CompletableFuture<List<NearestAirport>> future : pending) {
+            try {
+                into.addAll(future.join());
+            }
+            catch (CompletionException e) {
+                // rethrow what the shard threw, rather than the wrapper
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * A shard and the bounding box of its airports.
+     */
+    private static final class Shard {
+        private final AirportShard shard;
+        private final int size;
+        private final double minLat;
+        private final double minLon;
+        private final double maxLat;
+        private final double maxLon;
+
+        private Shard(List<Airport> airports, AirportShard shard) {
+            this.shard = shard;
+            this.size = airports.size();
+            this.minLat = airports.stream().mapToDouble(a -> a.point().y()).min().getAsDouble();
+            this.minLon = airports.stream().mapToDouble(a -> a.point().x()).min().getAsDouble();
+            this.maxLat = airports.stream().mapToDouble(a -> a.point().y()).max().getAsDouble();
+            this.maxLon = airports.stream().mapToDouble(a -> a.point().x()).max().getAsDouble();
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package org.skife.retl;
+
+import com.github.davidmoten.rtree.geometry.Point;
+import rx.Observable;
+
+/**
+ * Airports by great circle distance, in kilometres, whatever the structure underneath: the R-tree backed
+ * {@link AirportIndex}, or the fixed cell {@link GridAirportIndex} for dense, uniform data.
+ */
+public interface SpatialIndex {
+
+    /**
+     * Up to {@code count} airports within {@code maxDistance} kilometres of {@code p}, nearest first.
+     */
+    Observable<Airport> nearest(Point p, double maxDistance, int count);
+
+    /**
+     * Every airport within {@code distance} kilometres of {@code p}, edge included, in no particular order.
+     */
+    Observable<Airport> withinDistance(Point p, double distance);
+
+    int size();
+}
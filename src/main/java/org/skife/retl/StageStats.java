@@ -0,0 +1,66 @@
+package org.skife.retl;
+
+import org.immutables.value.Value;
+
+import java.time.Duration;
+
+/**
+ * Point in time totals for one stage of a {@link PipelineJob}. Read while the job runs, a stage which is
+ * busy nearly all the time with a full queue in front of it is the bottleneck; stages before it will show
+ * full queues too, and those after it empty ones.
+ */
+@Value.Immutable
+public interface StageStats {
+
+    String name();
+
+    int parallelism();
+
+    /**
+     * Items the stage has passed on: emitted by the source, returned non-null by a transform, or written by
+     * the sink.
+     */
+    long items();
+
+    /**
+     * Batches written, for the sink; zero for other stages.
+     */
+    long batches();
+
+    /**
+     * Time spent in the stage's own code, its source, function or sink, summed over its threads. Time
+     * waiting on the queues either side is not included.
+     */
+    Duration busy();
+
+    /**
+     * Time since the job started, until it finished if it has.
+     */
+    Duration elapsed();
+
+    /**
+     * Items waiting in the queue in front of the stage; the source has no queue, and always reports zero.
+     */
+    int queued();
+
+    /**
+     * The most items seen waiting in the queue in front of the stage.
+     */
+    int maxQueued();
+
+    int capacity();
+
+    /**
+     * Items a second.
+     */
+    default double throughput() {
+        return elapsed().isZero() ? 0 : items() * 1e9 / elapsed().toNanos();
+    }
+
+    /**
+     * Fraction of the stage's thread time spent busy, from 0 to 1.
+     */
+    default double utilization() {
+        return elapsed().isZero() ? 0 : (double) busy().toNanos() / elapsed().toNanos() / parallelism();
+    }
+}
@@ -0,0 +1,147 @@
+package org.skife.retl;
+
+import com.google.common.io.ByteStreams;
+import org.tukaani.xz.SeekableFileInputStream;
+import org.tukaani.xz.SeekableInputStream;
+import org.tukaani.xz.SeekableXZInputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.concurrent.Callable;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+
+/**
+ * Block parallel decompression of multi-block XZ files. Each block of an XZ stream is independent, so
+ * every block is decompressed by its own {@link SeekableXZInputStream}, on the common fork join pool,
+ * straight into its place in the output.
+ */
+final class Xz {
+
+    private Xz() {
+    }
+
+    static boolean isXz(Path path) {
+        return path.getFileName().toString().endsWith(".xz");
+    }
+
+    static Callable<SeekableInputStream> source(Path path) {
+        return () -> new SeekableFileInputStream(path.toFile());
+    }
+
+    static Callable<SeekableInputStream> source(byte[] compressed) {
+        return () -> new SeekableByteArrayInputStream(compressed);
+    }
+
+    static Callable<SeekableInputStream> source(InputStream compressed) throws IOException {
+        return source(ByteStreams.toByteArray(compressed));
+    }
+
+    /**
+     * Decompresses every block.
+     */
+    static byte[] decompress(Callable<SeekableInputStream> source) throws IOException {
+        return decompress(source, b -> true);
+    }
+
+    /**
+     * Decompresses the blocks accepted by {@code blocks}, concatenated in block order.
+     */
+    static byte[] decompress(Callable<SeekableInputStream> source, IntPredicate blocks) throws IOException {
+        int[] selected;
+        long[] positions;
+        int total = 0;
+        try (SeekableXZInputStream in = open(source)) {
+            selected = IntStream.range(0, in.getBlockCount()).filter(blocks).toArray();
+            positions = new long[selected.length + 1];
+            long at = 0;
+            for (int i = 0; i < selected.length; i++) {
+                positions[i] = at;
+                at += in.getBlockSize(selected[i]);
+            }
+            positions[selected.length] = at;
+            if (at > Integer.MAX_VALUE - 8) {
+                throw new IOException("decompressed blocks too large for a single array: " + at + " bytes");
+            }
+            total = (int) at;
+        }
+
+        byte[] out = new byte[total];
+        IntStream.range(0, selected.length).parallel().forEach(i -> {
+            try (SeekableXZInputStream in = open(source)) {
+                in.seekToBlock(selected[i]);
+                ByteStreams.readFully(in, out, (int) positions[i], (int) (positions[i + 1] - positions[i]));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        return out;
+    }
+
+    /**
+     * Number of blocks in the stream.
+     */
+    static int blockCount(Callable<SeekableInputStream> source) throws IOException {
+        try (SeekableXZInputStream in = open(source)) {
+            return in.getBlockCount();
+        }
+    }
+
+    private static SeekableXZInputStream open(Callable<SeekableInputStream> source) throws IOException {
+        try {
+            return new SeekableXZInputStream(source.call());
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+    static final class SeekableByteArrayInputStream extends SeekableInputStream {
+        private final byte[] bytes;
+        private int position;
+
+        SeekableByteArrayInputStream(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public long length() {
+            return bytes.length;
+        }
+
+        @Override
+        public long position() {
+            return position;
+        }
+
+        @Override
+        public void seek(long pos) throws IOException {
+            if (pos < 0) {
+                throw new IOException("negative seek position " + pos);
+            }
+            position = (int) Math.min(pos, bytes.length);
+        }
+
+        @Override
+        public int read() {
+            return position < bytes.length ? bytes[position++] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (position >= bytes.length) {
+                return -1;
+            }
+            int n = Math.min(len, bytes.length - position);
+            System.arraycopy(bytes, position, b, off, n);
+            position += n;
+            return n;
+        }
+    }
+}
@@ -0,0 +1,382 @@
+package org.skife.retl;
+
+import com.github.davidmoten.rtree.geometry.Point;
+import com.google.common.collect.ImmutableList;
+import io.vavr.Tuple2;
+import net.jqwik.api.Arbitraries;
+import net.jqwik.api.Arbitrary;
+import net.jqwik.api.Assume;
+import net.jqwik.api.Example;
+import net.jqwik.api.ForAll;
+import net.jqwik.api.Property;
+import net.jqwik.api.Provide;
+import org.assertj.core.util.Lists;
+import rx.Observable;
+import rx.observers.TestSubscriber;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+import static org.skife.retl.Geodetic.Earth;
+
+public class AirportIndexTest {
+
+    private static final Point SEA_OFFICE = Geodetic.latLong(47.607148, -122.3381338);
+    private static final Point BLR_OFFICE = Geodetic.latLong(12.9796, 77.7277);
+
+    private static final List<Airport> AIRPORTS = ImmutableList.copyOf(Airport.loadKnownAirports()
+                                                                              .toBlocking()
+                                                                              .getIterator());
+
+    private static final AirportIndex INDEX = AirportIndex.create(AIRPORTS);
+    private static final AirportIndex BULK = AirportIndex.bulkLoad(AIRPORTS);
+
+    @Example
+    public void seattle() {
+        assertThat(nearest(SEA_OFFICE, 10, 1)).extracting("iata").containsExactly("BFI");
+    }
+
+    @Example
+    public void seattleTwo() {
+        assertThat(nearest(SEA_OFFICE, 100, 2)).extracting("iata").containsExactly("BFI", "RNT");
+    }
+
+    @Example
+    public void bengaluru() {
+        assertThat(nearest(BLR_OFFICE, 50, 1)).extracting("iata").containsExactly("BLR");
+    }
+
+    @Example
+    public void maxDistanceIsKilometres() {
+        // BFI is just under 9km from the office
+        assertThat(nearest(SEA_OFFICE, 8.9, 1)).isEmpty();
+        assertThat(nearest(SEA_OFFICE, 9.1, 1)).isNotEmpty();
+    }
+
+    @Example
+    public void acrossTheAntimeridian() {
+        Point p = Geodetic.latLong(-16.5, 179.999);
+        assertThat(nearest(p, 2000, 5)).isEqualTo(bruteForce(p, 2000, 5));
+    }
+
+    @Example
+    public void nearThePole() {
+        Point p = Geodetic.latLong(89.9, 100);
+        assertThat(nearest(p, Earth.circumference(), 5)).isEqualTo(bruteForce(p, Earth.circumference(), 5));
+    }
+
+    @Property
+    public void findsActualClosest(@ForAll Point p) {
+        assertThat(nearest(p, 1000, 3)).isEqualTo(bruteForce(p, 1000, 3));
+    }
+
+    @Property
+    public void findsActualClosestAnywhere(@ForAll Point p) {
+        assertThat(nearest(p, Earth.circumference(), 1)).isEqualTo(bruteForce(p, Earth.circumference(), 1));
+    }
+
+    @Example
+    public void bulkLoadPacksTighter() {
+        assertThat(BULK.size()).isEqualTo(INDEX.size());
+        assertThat(BULK.nodeCount()).isLessThan(INDEX.nodeCount());
+        // every leaf but the last few of each tile is full
+        assertThat(BULK.nodeCount()).isLessThan(AIRPORTS.size() / AirportIndex.BULK_MAX_CHILDREN * 2);
+    }
+
+    @Example
+    public void bulkLoadEmpty() {
+        AirportIndex empty = AirportIndex.bulkLoad(ImmutableList.of());
+        assertThat(empty.nodeCount()).isZero();
+        assertThat(empty.nearest(SEA_OFFICE, 100, 1).toBlocking().toIterable()).isEmpty();
+    }
+
+    @Property
+    public void bulkLoadFindsActualClosest(@ForAll Point p) {
+        assertThat(Lists.newArrayList(BULK.nearest(p, 1000, 3).toBlocking().toIterable()))
+                .isEqualTo(bruteForce(p, 1000, 3));
+    }
+
+    @Example
+    public void batchMatchesNearest() {
+        Random random = new Random(1234);
+        double[] lats = new double[5000];
+        double[] lons = new double[5000];
+        for (int i = 0; i < lats.length; i++) {
+            lats[i] = random.nextDouble() * 180 - 90;
+            lons[i] = random.nextDouble() * 360 - 180;
+        }
+        double[] distances = new double[lats.length];
+        Airport[] airports = INDEX.nearest(lats, lons, 500, distances);
+
+        for (int i = 0; i < lats.length; i++) {
+            Point p = Geodetic.latLong(lats[i], lons[i]);
+            List<Airport> expected = nearest(p, 500, 1);
+            if (expected.isEmpty()) {
+                assertThat(airports[i]).isNull();
+                assertThat(distances[i]).isEqualTo(Double.POSITIVE_INFINITY);
+            }
+            else {
+                // ties between airports at the same spot may resolve either way, so compare distances
+                assertThat(distances[i]).isCloseTo(Earth.distance(p, expected.get(0).point()), within(1e-9));
+                assertThat(Earth.distance(p, airports[i].point())).isCloseTo(distances[i], within(1e-9));
+            }
+        }
+    }
+
+    @Example
+    public void joinKeepsOrderAndDropsUnmatched() {
+        Point nowhere = Geodetic.latLong(-48.876667, -123.393333);
+        List<NearestAirport> joined = Lists.newArrayList(INDEX.nearestJoin(Observable.just(SEA_OFFICE, nowhere, BLR_OFFICE), 50)
+                                                              .toBlocking()
+                                                              .toIterable());
+        assertThat(joined).extracting(NearestAirport::point).containsExactly(SEA_OFFICE, BLR_OFFICE);
+        assertThat(joined).extracting(j -> j.airport().iata()).containsExactly("BFI", "BLR");
+        assertThat(joined.get(0).distance()).isCloseTo(9.0, within(0.1));
+    }
+
+    @Example
+    public void joinPullsPointsAsRequested() throws Exception {
+        AtomicInteger pulled = new AtomicInteger();
+        Observable<Point> huge = Observable.range(0, 2_000_000)
+                                           .map(i -> Geodetic.latLong(47.6 + (i % 100) / 1000.0, -122.3))
+                                           .doOnNext(p -> pulled.incrementAndGet());
+        TestSubscriber<NearestAirport> subscriber = new TestSubscriber<>(10);
+        BULK.nearestJoin(huge, 50).subscribe(subscriber);
+        subscriber.awaitValueCount(10, 10, TimeUnit.SECONDS);
+        Thread.sleep(100);
+
+        subscriber.assertValueCount(10);
+        subscriber.assertNotCompleted();
+        // the batches being searched or waiting, and the one being emitted, and no more
+        int batches = Runtime.getRuntime().availableProcessors() + 2;
+        assertThat(pulled.get()).isLessThanOrEqualTo(batches * AirportIndex.JOIN_BATCH_SIZE);
+        subscriber.unsubscribe();
+    }
+
+    @Property(tries = 20)
+    public void joinMatchesNearest(@ForAll List<Point> points) {
+        List<NearestAirport> joined = Lists.newArrayList(BULK.nearestJoin(Observable.from(points), 2000)
+                                                             .toBlocking()
+                                                             .toIterable());
+        List<Point> matched = points.stream().filter(p -> !nearest(p, 2000, 1).isEmpty()).collect(Collectors.toList());
+        assertThat(joined).extracting(NearestAirport::point).isEqualTo(matched);
+        for (NearestAirport j : joined) {
+            assertThat(j.distance()).isCloseTo(Earth.distance(j.point(), nearest(j.point(), 2000, 1).get(0).point()),
+                                               within(1e-9));
+        }
+    }
+
+    @Example
+    public void withinDistanceOfSeattle() {
+        assertThat(withinDistance(SEA_OFFICE, 20)).extracting("iata").containsExactlyInAnyOrder("BFI", "RNT", "SEA");
+        assertThat(withinDistance(SEA_OFFICE, 8.9)).isEmpty();
+    }
+
+    @Example
+    public void withinDistanceAcrossTheAntimeridian() {
+        Point p = Geodetic.latLong(-17.5, 179.5);
+        List<Airport> found = withinDistance(p, 1500);
+        assertThat(found).anyMatch(a -> a.longitude() < 0).anyMatch(a -> a.longitude() > 0);
+        assertThat(found).containsExactlyInAnyOrderElementsOf(bruteForceWithin(p, 1500));
+    }
+
+    @Example
+    public void withinDistanceOverThePole() {
+        Point p = Geodetic.latLong(80, 0);
+        assertThat(withinDistance(p, 2500)).containsExactlyInAnyOrderElementsOf(bruteForceWithin(p, 2500));
+    }
+
+    @Example
+    public void withinDistanceEverywhere() {
+        assertThat(withinDistance(BLR_OFFICE, Earth.circumference())).hasSameSizeAs(AIRPORTS);
+    }
+
+    @Property
+    public void withinDistanceMatchesBruteForce(@ForAll Point p, @ForAll("distances") double distance) {
+        assertThat(withinDistance(p, distance)).containsExactlyInAnyOrderElementsOf(bruteForceWithin(p, distance));
+    }
+
+    @Example
+    public void diversionsFromSeattleToBengaluru() {
+        List<CorridorAirport> diversions = BULK.corridor(SEA_OFFICE, BLR_OFFICE, 100).toList().toBlocking().single();
+        assertCorridor(diversions, bruteForceCorridor(SEA_OFFICE, BLR_OFFICE, 100));
+        // airports south of Seattle are behind the start of a route heading north, and measure to its start
+        assertThat(diversions.get(0).alongTrack()).isZero();
+        assertThat(diversions).extracting("airport.iata").contains("BFI", "SEA", "RNT");
+        assertThat(diversions.get(diversions.size() - 1).airport().iata()).isEqualTo("BLR");
+        assertThat(diversions).allSatisfy(d -> assertThat(d.distance()).isLessThanOrEqualTo(100));
+    }
+
+    @Property
+    public void corridorMatchesBruteForce(@ForAll Point from, @ForAll Point to, @ForAll("distances") double width) {
+        Assume.that(Earth.distance(from, to) < Earth.circumference() / 2 - 100);
+        assertCorridor(INDEX.corridor(from, to, width / 10).toList().toBlocking().single(),
+                       bruteForceCorridor(from, to, width / 10));
+        assertCorridor(BULK.corridor(from, to, width).toList().toBlocking().single(),
+                       bruteForceCorridor(from, to, width));
+    }
+
+    @Example
+    public void corridorStreamsAsRequested() {
+        TestSubscriber<CorridorAirport> subscriber = new TestSubscriber<>(2);
+        BULK.corridor(SEA_OFFICE, BLR_OFFICE, 100).subscribe(subscriber);
+        subscriber.assertValueCount(2);
+        subscriber.assertNotCompleted();
+        assertThatThrownBy(() -> BULK.corridor(SEA_OFFICE, BLR_OFFICE, -1)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    /**
+     * Same airports, in order along the route; airports at the same position may come in either order.
+     */
+    private static void assertCorridor(List<CorridorAirport> found, List<CorridorAirport> expected) {
+        assertThat(found).containsExactlyInAnyOrderElementsOf(expected);
+        assertThat(found).isSortedAccordingTo(Comparator.comparingDouble(CorridorAirport::alongTrack));
+    }
+
+    private static List<CorridorAirport> bruteForceCorridor(Point from, Point to, double width) {
+        Corridor route = new Corridor(Earth, from.y(), from.x(), to.y(), to.x());
+        return AIRPORTS.stream()
+                       .filter(a -> route.distance(a.point().y(), a.point().x()) <= width)
+                       .map(a -> ImmutableCorridorAirport.of(a,
+                                                             route.alongTrack(a.point().y(), a.point().x()),
+                                                             route.distance(a.point().y(), a.point().x())))
+                       .sorted(Comparator.comparingDouble(CorridorAirport::alongTrack))
+                       .collect(Collectors.toList());
+    }
+
+    @Provide
+    Arbitrary<Double> distances() {
+        return Arbitraries.doubles().between(0, 5000);
+    }
+
+    @Example
+    public void withinBoxAcrossTheAntimeridian() {
+        List<Airport> found = Lists.newArrayList(INDEX.withinBox(-25, 170, -10, -170).toBlocking().toIterable());
+        assertThat(found).isNotEmpty()
+                         .containsExactlyInAnyOrderElementsOf(
+                                 AIRPORTS.stream()
+                                         .filter(a -> a.latitude() >= -25 && a.latitude() <= -10)
+                                         .filter(a -> a.longitude() >= 170 || a.longitude() <= -170)
+                                         .collect(Collectors.toList()));
+    }
+
+    @Example
+    public void withinBoxIsLazy() {
+        assertThat(INDEX.withinBox(-90, -180, 90, 180).take(3).toList().toBlocking().single()).hasSize(3);
+    }
+
+    @Property
+    public void boundNeverExceedsDistance(@ForAll Point p, @ForAll Point a, @ForAll Point b) {
+        double minLat = Math.min(a.y(), b.y());
+        double maxLat = Math.max(a.y(), b.y());
+        double minLon = Math.min(a.x(), b.x());
+        double maxLon = Math.max(a.x(), b.x());
+        double bound = Math.toDegrees(Geodetic.minAngle(p.y(), p.x(), minLat, minLon, maxLat, maxLon));
+
+        for (double lat = minLat; lat <= maxLat; lat += (maxLat - minLat) / 8 + 1e-9) {
+            for (double lon = minLon; lon <= maxLon; lon += (maxLon - minLon) / 8 + 1e-9) {
+                assertThat(bound).isLessThanOrEqualTo(Math.toDegrees(Geodetic.angle(p.y(), p.x(), lat, lon)) + 1e-9);
+            }
+        }
+    }
+
+    private static List<Airport> nearest(Point p, double maxDistance, int count) {
+        return Lists.newArrayList(INDEX.nearest(p, maxDistance, count)
+                                       .toBlocking()
+                                       .toIterable());
+    }
+
+    private static List<Airport> withinDistance(Point p, double distance) {
+        return Lists.newArrayList(INDEX.withinDistance(p, distance).toBlocking().toIterable());
+    }
+
+    @Property
+    public void nearestFirstMatchesBruteForce(@ForAll Point p, @ForAll("distances") double maxDistance) {
+        List<NearestAirport> all = BULK.nearestFirst(p, maxDistance).toList().toBlocking().single();
+        // airports at the same distance, such as a parallel's worth from a pole, may come in either order
+        assertThat(all).extracting(NearestAirport::airport)
+                       .containsExactlyInAnyOrderElementsOf(bruteForce(p, maxDistance, Integer.MAX_VALUE));
+        for (int i = 1; i < all.size(); i++) {
+            assertThat(all.get(i).distance()).isGreaterThanOrEqualTo(all.get(i - 1).distance());
+        }
+        for (NearestAirport n : all) {
+            assertThat(n.distance()).isCloseTo(Earth.distance(p, n.airport().point()), within(1e-9));
+        }
+    }
+
+    @Example
+    public void nearestFirstStopsAtThePredicate() {
+        Airport expected = bruteForce(SEA_OFFICE, Double.POSITIVE_INFINITY, Integer.MAX_VALUE)
+                .stream()
+                .filter(a -> !a.country().equals("United States"))
+                .findFirst()
+                .get();
+
+        QueryMetrics lazy = QueryMetrics.create();
+        NearestAirport found = BULK.withMetrics(lazy)
+                                   .nearestFirst(SEA_OFFICE, Double.POSITIVE_INFINITY)
+                                   .filter(n -> !n.airport().country().equals("United States"))
+                                   .toBlocking()
+                                   .first();
+        assertThat(found.airport()).isEqualTo(expected);
+        assertThat(found.distance()).isEqualTo(Earth.distance(SEA_OFFICE, expected.point()));
+
+        QueryMetrics eager = QueryMetrics.create();
+        BULK.withMetrics(eager).nearest(SEA_OFFICE, Double.POSITIVE_INFINITY, Integer.MAX_VALUE).toBlocking().last();
+        assertThat(lazy.snapshot().queries()).isEqualTo(1);
+        assertThat(lazy.snapshot().nodesVisited()).isLessThan(eager.snapshot().nodesVisited() / 4);
+    }
+
+    @Example
+    public void nearestFirstHonoursBackpressure() {
+        TestSubscriber<NearestAirport> subscriber = new TestSubscriber<>(1);
+        BULK.nearestFirst(SEA_OFFICE, 100).subscribe(subscriber);
+        subscriber.assertValueCount(1);
+        subscriber.assertNotCompleted();
+        assertThat(subscriber.getOnNextEvents().get(0).airport().iata()).isEqualTo("BFI");
+
+        subscriber.requestMore(1);
+        subscriber.assertValueCount(2);
+        assertThat(subscriber.getOnNextEvents().get(1).airport().iata()).isEqualTo("RNT");
+        subscriber.unsubscribe();
+    }
+
+    @Example
+    public void nearestFirstIteratorAndSpliterator() {
+        Iterator<NearestAirport> nearest = BULK.nearestFirstIterator(SEA_OFFICE, 20);
+        assertThat(nearest).extracting(n -> n.airport().iata()).containsExactly("BFI", "RNT", "SEA");
+        assertThat(nearest.hasNext()).isFalse();
+        assertThatThrownBy(nearest::next).isInstanceOf(NoSuchElementException.class);
+
+        assertThat(StreamSupport.stream(BULK.nearestFirstSpliterator(BLR_OFFICE, Double.POSITIVE_INFINITY), false)
+                                .filter(n -> n.airport().city().equals("Madras"))
+                                .findFirst())
+                .hasValueSatisfying(n -> assertThat(n.airport().iata()).isEqualTo("MAA"));
+
+        assertThat(AirportIndex.create(ImmutableList.of()).nearestFirstIterator(SEA_OFFICE, 100).hasNext()).isFalse();
+    }
+
+    private static List<Airport> bruteForceWithin(Point p, double distance) {
+        return AIRPORTS.stream().filter(a -> Earth.distance(p, a.point()) <= distance).collect(Collectors.toList());
+    }
+
+    private static List<Airport> bruteForce(Point p, double maxDistance, int count) {
+        return AIRPORTS.stream()
+                       .map(a -> new Tuple2<>(a, Earth.distance(p, a.point())))
+                       .filter(t -> t._2 < maxDistance)
+                       .sorted(Comparator.comparingDouble(t -> t._2))
+                       .limit(count)
+                       .map(t -> t._1)
+                       .collect(Collectors.toList());
+    }
+}
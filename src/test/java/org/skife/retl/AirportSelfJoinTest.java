@@ -0,0 +1,120 @@
+package org.skife.retl;
+
+import com.google.common.collect.ImmutableList;
+import net.jqwik.api.Example;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import static org.skife.retl.Geodetic.Earth;
+
+public class AirportSelfJoinTest {
+
+    private static final List<Airport> AIRPORTS = ImmutableList.copyOf(Airport.loadKnownAirports()
+                                                                              .toBlocking()
+                                                                              .getIterator());
+
+    @Example
+    public void matchesBruteForce() {
+        assertThat(join(AIRPORTS, 50)).isEqualTo(bruteForce(AIRPORTS, 50));
+    }
+
+    @Example
+    public void matchesBruteForceFarApart() {
+        List<Airport> sample = AIRPORTS.subList(0, 1000);
+        assertThat(join(sample, 2000)).isEqualTo(bruteForce(sample, 2000));
+    }
+
+    @Example
+    public void eachPairOnce() {
+        List<AirportPair> pairs = pairs(AIRPORTS, 100, ForkJoinPool.commonPool());
+        Set<String> seen = new HashSet<>();
+        for (AirportPair p : pairs) {
+            assertThat(AIRPORTS.indexOf(p.first())).isLessThan(AIRPORTS.indexOf(p.second()));
+            assertThat(seen.add(key(p))).isTrue();
+            assertThat(p.distance()).isCloseTo(Earth.distance(p.first().point(), p.second().point()), within(1e-9))
+                                    .isLessThanOrEqualTo(100);
+        }
+    }
+
+    @Example
+    public void acrossTheAntimeridianAndPoles() {
+        List<Airport> airports = ImmutableList.of(airport("AAA", -16, 179.9f),
+                                                  airport("BBB", -16, -179.9f),
+                                                  airport("CCC", 89.9f, 0),
+                                                  airport("DDD", 89.9f, 180),
+                                                  airport("EEE", 0, 0));
+        assertThat(join(airports, 50)).containsExactlyInAnyOrder("AAA-BBB", "CCC-DDD");
+    }
+
+    @Example
+    public void onAnyPool() {
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            assertThat(pairs(AIRPORTS, 50, pool).stream().map(AirportSelfJoinTest::key).collect(Collectors.toSet()))
+                    .isEqualTo(bruteForce(AIRPORTS, 50));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Example
+    public void nearestNeighbours() {
+        List<AirportPair> pairs = AirportSelfJoin.nearestNeighbours(AIRPORTS, 3).toList().toBlocking().single();
+        assertThat(pairs).hasSize(AIRPORTS.size() * 3);
+        AirportIndex index = AirportIndex.create(AIRPORTS);
+        for (AirportPair p : pairs.subList(0, 300)) {
+            List<Airport> expected = index.nearest(p.first().point(), Earth.circumference(), 4)
+                                          .filter(a -> a != p.first())
+                                          .toList()
+                                          .toBlocking()
+                                          .single();
+            assertThat(p.second()).isNotSameAs(p.first());
+            assertThat(p.distance()).isLessThanOrEqualTo(Earth.distance(p.first().point(), expected.get(2).point()) + 1e-9);
+        }
+    }
+
+    private static Set<String> join(List<Airport> airports, double distance) {
+        return pairs(airports, distance, ForkJoinPool.commonPool()).stream()
+                                                                   .map(AirportSelfJoinTest::key)
+                                                                   .collect(Collectors.toSet());
+    }
+
+    private static List<AirportPair> pairs(List<Airport> airports, double distance, ForkJoinPool pool) {
+        return AirportSelfJoin.withinDistance(airports, distance, pool).toList().toBlocking().single();
+    }
+
+    private static Set<String> bruteForce(List<Airport> airports, double distance) {
+        Set<String> pairs = new HashSet<>();
+        for (int i = 0; i < airports.size(); i++) {
+            for (int j = i + 1; j < airports.size(); j++) {
+                Airport a = airports.get(i);
+                Airport b = airports.get(j);
+                if (Earth.distance(a.latitude(), a.longitude(), b.latitude(), b.longitude()) <= distance) {
+                    pairs.add(a.iata() + "-" + b.iata());
+                }
+            }
+        }
+        return pairs;
+    }
+
+    private static String key(AirportPair p) {
+        return p.first().iata() + "-" + p.second().iata();
+    }
+
+    private static Airport airport(String iata, float latitude, float longitude) {
+        return ImmutableAirport.builder()
+                               .name(iata)
+                               .iata(iata)
+                               .city("City")
+                               .country("Country")
+                               .latitude(latitude)
+                               .longitude(longitude)
+                               .build();
+    }
+}
@@ -0,0 +1,141 @@
+package org.skife.retl;
+
+import com.github.davidmoten.rtree.geometry.Point;
+import com.google.common.collect.ImmutableList;
+import net.jqwik.api.Example;
+import net.jqwik.api.ForAll;
+import net.jqwik.api.Property;
+import org.assertj.core.util.Lists;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.skife.retl.Geodetic.Earth;
+
+public class AirportSnapshotTest {
+
+    private static final List<Airport> AIRPORTS = ImmutableList.copyOf(Airport.loadKnownAirports()
+                                                                              .toBlocking()
+                                                                              .getIterator());
+
+    private static final AirportIndex INDEX = AirportIndex.create(AIRPORTS);
+
+    private static final AirportSnapshot SNAPSHOT = AirportSnapshot.read(AirportSnapshot.encode(AIRPORTS, 0, 0));
+
+    @Example
+    public void roundTrips() throws Exception {
+        Path dir = Files.createTempDirectory("snapshot");
+        Path file = dir.resolve("airports.snapshot");
+        AirportSnapshot.write(AIRPORTS, file);
+
+        AirportSnapshot snapshot = AirportSnapshot.open(file);
+        assertThat(snapshot.size()).isEqualTo(5652);
+        assertThat(Lists.newArrayList(snapshot.airports().toBlocking().toIterable()))
+                .containsExactlyInAnyOrderElementsOf(AIRPORTS);
+    }
+
+    @Property
+    public void nearestMatchesIndex(@ForAll Point p) {
+        assertThat(Lists.newArrayList(SNAPSHOT.nearest(p, 2000, 3).toBlocking().toIterable()))
+                .isEqualTo(Lists.newArrayList(INDEX.nearest(p, 2000, 3).toBlocking().toIterable()));
+    }
+
+    @Property
+    public void nearestAnywhere(@ForAll Point p) {
+        assertThat(Lists.newArrayList(SNAPSHOT.nearest(p, Earth.circumference(), 1).toBlocking().toIterable()))
+                .isEqualTo(Lists.newArrayList(INDEX.nearest(p, Earth.circumference(), 1).toBlocking().toIterable()));
+    }
+
+    @Example
+    public void rebuildsWhenCsvChanges() throws Exception {
+        Path dir = Files.createTempDirectory("snapshot");
+        Path csv = dir.resolve("airports.csv");
+        Path snapshot = dir.resolve("airports.snapshot");
+        Files.copy(Paths.get(AirportSnapshotTest.class.getResource("/airports.csv").toURI()), csv);
+
+        assertThat(AirportSnapshot.load(csv, snapshot).size()).isEqualTo(5652);
+        assertThat(snapshot).exists();
+        assertThat(AirportSnapshot.load(csv, snapshot).size()).isEqualTo(5652);
+
+        append(csv, "Somewhere Airport,Somewhere,Nowhere,ZZZ,1.5,2.5\n");
+        AirportSnapshot rebuilt = AirportSnapshot.load(csv, snapshot);
+        assertThat(rebuilt.size()).isEqualTo(5653);
+        assertThat(rebuilt.nearest(Geodetic.latLong(1.5, 2.5), 1, 1).toBlocking().first().iata()).isEqualTo("ZZZ");
+    }
+
+    @Example
+    public void rebuildsWhenUnreadable() throws Exception {
+        Path dir = Files.createTempDirectory("snapshot");
+        Path csv = dir.resolve("airports.csv");
+        Path snapshot = dir.resolve("airports.snapshot");
+        Files.copy(Paths.get(AirportSnapshotTest.class.getResource("/airports.csv").toURI()), csv);
+
+        Files.write(snapshot, "not a snapshot at all".getBytes(StandardCharsets.UTF_8));
+        assertThat(AirportSnapshot.load(csv, snapshot).size()).isEqualTo(5652);
+
+        byte[] valid = Files.readAllBytes(snapshot);
+        Files.write(snapshot, Arrays.copyOf(valid, valid.length / 2));
+        assertThat(AirportSnapshot.load(csv, snapshot).size()).isEqualTo(5652);
+
+        ByteBuffer.wrap(valid).order(ByteOrder.LITTLE_ENDIAN).putInt(8, 99);
+        Files.write(snapshot, valid);
+        assertThatThrownBy(() -> AirportSnapshot.open(snapshot)).isInstanceOf(IllegalArgumentException.class)
+                                                                 .hasMessageContaining("version 99");
+        AirportSnapshot rebuilt = AirportSnapshot.load(csv, snapshot);
+        assertThat(rebuilt.size()).isEqualTo(5652);
+        assertThat(AirportSnapshot.open(snapshot).size()).isEqualTo(5652);
+    }
+
+    @Example
+    public void packedInMemory() {
+        AirportSnapshot packed = AirportSnapshot.of(AIRPORTS);
+        assertThat(packed.size()).isEqualTo(AIRPORTS.size());
+        assertThat(packed.nodeCount()).isEqualTo(PackedRTree.nodeCount(AIRPORTS.size(), PackedRTree.DEFAULT_NODE_SIZE));
+        assertThat(packed.nodeCount()).isLessThan(INDEX.nodeCount());
+    }
+
+    @Example
+    public void hilbertCoversTheWholeCurve() {
+        assertThat(PackedRTree.hilbert(-90, -180)).isZero();
+        assertThat(PackedRTree.hilbert(-90, 180)).isEqualTo((1L << 32) - 1);
+        assertThat(PackedRTree.hilbert(90, 0)).isGreaterThan(Integer.MAX_VALUE);
+    }
+
+    @Property
+    public void hilbertOrderFollowsTheCurve(@ForAll List<Point> points) {
+        float[] lats = new float[points.size()];
+        float[] lons = new float[points.size()];
+        for (int i = 0; i < points.size(); i++) {
+            lats[i] = (float) points.get(i).y();
+            lons[i] = (float) points.get(i).x();
+        }
+        int[] order = PackedRTree.hilbertOrder(lats, lons);
+        assertThat(order).containsExactlyInAnyOrder(IntStream.range(0, points.size()).toArray());
+        for (int i = 1; i < order.length; i++) {
+            assertThat(PackedRTree.hilbert(lats[order[i]], lons[order[i]]))
+                    .isGreaterThanOrEqualTo(PackedRTree.hilbert(lats[order[i - 1]], lons[order[i - 1]]));
+        }
+    }
+
+    @Example
+    public void empty() {
+        AirportSnapshot snapshot = AirportSnapshot.read(AirportSnapshot.encode(ImmutableList.of(), 0, 0));
+        assertThat(snapshot.size()).isZero();
+        assertThat(snapshot.nearest(Geodetic.latLong(0, 0), 100, 1).toBlocking().toIterable()).isEmpty();
+    }
+
+    private static void append(Path file, String line) throws IOException {
+        Files.write(file, line.getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+    }
+}
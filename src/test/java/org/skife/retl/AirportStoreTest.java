@@ -0,0 +1,90 @@
+package org.skife.retl;
+
+import com.google.common.collect.ImmutableList;
+import net.jqwik.api.Example;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AirportStoreTest {
+
+    private static final List<Airport> AIRPORTS = ImmutableList.copyOf(Airport.loadKnownAirports()
+                                                                              .toBlocking()
+                                                                              .getIterator());
+
+    private static final AirportStore STORE = AirportStore.of(AIRPORTS);
+
+    @Example
+    public void roundTrips() {
+        assertThat(STORE.size()).isEqualTo(AIRPORTS.size());
+        assertThat(STORE.airports().stream().map(ImmutableAirport::copyOf).collect(Collectors.toList()))
+                .isEqualTo(AIRPORTS);
+    }
+
+    @Example
+    public void citiesAndCountriesShareStrings() {
+        long distinct = AIRPORTS.stream().map(Airport::city).distinct().count()
+                        + AIRPORTS.stream().map(Airport::country).distinct().count();
+        assertThat(STORE.dictionarySize()).isLessThanOrEqualTo((int) distinct);
+
+        int seattle = indexOf("SEA");
+        int boeing = indexOf("BFI");
+        assertThat(STORE.countryId(seattle)).isEqualTo(STORE.countryId(boeing));
+        assertThat(STORE.country(seattle)).isSameAs(STORE.country(boeing));
+    }
+
+    @Example
+    public void pointsAreBuiltOnce() {
+        AirportStore.StoredAirport a = STORE.airport(indexOf("BLR"));
+        assertThat(a.point()).isSameAs(a.point());
+        assertThat(a.point().y()).isEqualTo(a.latitude());
+        assertThat(a.point().x()).isEqualTo(a.longitude());
+    }
+
+    @Example
+    public void viewsCompareByValue() {
+        AirportStore copy = AirportStore.of(AIRPORTS);
+        int i = indexOf("SEA");
+        assertThat(STORE.airport(i)).isEqualTo(STORE.airport(i))
+                                    .isEqualTo(copy.airport(i))
+                                    .hasSameHashCodeAs(ImmutableAirport.copyOf(AIRPORTS.get(i)))
+                                    .isNotEqualTo(STORE.airport(i + 1));
+        assertThat(STORE.airport(i).toString()).isEqualTo(AIRPORTS.get(i).toString());
+    }
+
+    @Example
+    public void nonAsciiText() {
+        AirportStore store = new AirportStore.Builder().add("Z\u00fcrich Flughafen", "ZRH", "Z\u00fcrich", "Switzerland", 47.46f, 8.55f)
+                                                       .add("Malm\u00f6 Airport", "MMX", "Malm\u00f6", "Sweden", 55.54f, 13.37f)
+                                                       .build();
+        assertThat(store.name(0)).isEqualTo("Z\u00fcrich Flughafen");
+        assertThat(store.iata(0)).isEqualTo("ZRH");
+        assertThat(store.name(1)).isEqualTo("Malm\u00f6 Airport");
+        assertThat(store.city(1)).isEqualTo("Malm\u00f6");
+
+        AirportStore copy = AirportStore.of(store.airports());
+        assertThat(store.airport(0)).isEqualTo(copy.airport(0))
+                                    .hasSameHashCodeAs(copy.airport(0))
+                                    .hasSameHashCodeAs(ImmutableAirport.copyOf(store.airport(0)))
+                                    .isNotEqualTo(copy.airport(1));
+    }
+
+    @Example
+    public void indexesViews() {
+        AirportIndex index = AirportIndex.bulkLoad(STORE.airports());
+        Airport nearest = index.nearest(Geodetic.latLong(47.607148, -122.3381338), 10, 1).toBlocking().first();
+        assertThat(nearest).isInstanceOf(AirportStore.StoredAirport.class);
+        assertThat(nearest.iata()).isEqualTo("BFI");
+    }
+
+    private static int indexOf(String iata) {
+        for (int i = 0; i < AIRPORTS.size(); i++) {
+            if (AIRPORTS.get(i).iata().equals(iata)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException(iata);
+    }
+}
@@ -0,0 +1,125 @@
+package org.skife.retl;
+
+import com.google.common.collect.ImmutableList;
+import net.jqwik.api.Example;
+import org.assertj.core.util.Lists;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AirportXzTest {
+
+    private static final List<Airport> AIRPORTS = ImmutableList.copyOf(Airport.loadKnownAirports()
+                                                                              .toBlocking()
+                                                                              .getIterator());
+
+    private static final Path CSV_XZ = writeCsv();
+
+    @Example
+    public void csvRoundTrips() throws Exception {
+        Path file = CSV_XZ;
+
+        assertThat(Files.size(file)).isLessThan(Files.size(Paths.get(AirportXzTest.class.getResource("/airports.csv").toURI())) / 2);
+        assertThat(Lists.newArrayList(Airport.loadAirports(file).toBlocking().toIterable()))
+                .containsExactlyInAnyOrderElementsOf(AIRPORTS);
+    }
+
+    @Example
+    public void regionOnlyReadsItsBlocks() throws Exception {
+        Path file = CSV_XZ;
+
+        assertRegion(file, 45, -125, 50, -120);
+        assertRegion(file, -90, -180, 90, 180);
+        assertRegion(file, 10, 60, 20, 100);
+
+        int blocks = Xz.blockCount(Xz.source(file));
+        boolean[] seattle = AirportXz.regionBlocks(Xz.source(file), 45, -125, 50, -120);
+        assertThat(seattle).hasSize(blocks);
+        assertThat(seattle[0]).as("header").isTrue();
+        assertThat(seattle[blocks - 1]).as("manifest, read separately").isFalse();
+        int read = 0;
+        for (int b = 1; b < blocks - 1; b++) {
+            if (seattle[b]) {
+                read++;
+            }
+            else {
+                // a skipped block must hold none of the region's airports
+                int block = b;
+                String tile = new String(Xz.decompress(Xz.source(file), i -> i == block), StandardCharsets.UTF_8);
+                assertThat(AIRPORTS.stream()
+                                   .filter(a -> a.latitude() >= 45 && a.latitude() <= 50)
+                                   .filter(a -> a.longitude() >= -125 && a.longitude() <= -120))
+                        .noneMatch(a -> tile.contains("," + a.iata() + ","));
+            }
+        }
+        // a five degree box sits within one thirty degree tile, so one tile block is read of many
+        assertThat(read).isEqualTo(1);
+        assertThat(blocks).isGreaterThan(10);
+
+        boolean[] world = AirportXz.regionBlocks(Xz.source(file), -90, -180, 90, 180);
+        for (int b = 0; b < blocks - 1; b++) {
+            assertThat(world[b]).isTrue();
+        }
+    }
+
+    @Example
+    public void regionAcrossTheAntimeridian() throws Exception {
+        Path file = CSV_XZ;
+
+        List<Airport> found = assertRegion(file, -30, 170, 0, -170);
+        assertThat(found).extracting("country").contains("Fiji");
+    }
+
+    @Example
+    public void blocksDecompressIndependently() throws Exception {
+        Path file = CSV_XZ;
+
+        int blocks = Xz.blockCount(Xz.source(file));
+        assertThat(blocks).isGreaterThan(10);
+        byte[] header = Xz.decompress(Xz.source(file), b -> b == 0);
+        assertThat(new String(header, "UTF-8")).startsWith("name,city,country,iata");
+    }
+
+    @Example
+    public void snapshotRoundTrips() throws Exception {
+        Path file = Files.createTempDirectory("xz").resolve("airports.snapshot.xz");
+        AirportSnapshot.write(AIRPORTS, file);
+
+        assertThat(Xz.blockCount(Xz.source(file))).isGreaterThan(1);
+        AirportSnapshot snapshot = AirportSnapshot.open(file);
+        assertThat(Lists.newArrayList(snapshot.airports().toBlocking().toIterable()))
+                .containsExactlyInAnyOrderElementsOf(AIRPORTS);
+    }
+
+    private static Path writeCsv() {
+        try {
+            Path file = Files.createTempDirectory("xz").resolve("airports.csv.xz");
+            AirportXz.writeCsv(AIRPORTS, file);
+            return file;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static List<Airport> assertRegion(Path file, double minLat, double minLon, double maxLat, double maxLon) {
+        List<Airport> found = Lists.newArrayList(AirportXz.loadRegion(file, minLat, minLon, maxLat, maxLon)
+                                                          .toBlocking()
+                                                          .toIterable());
+        List<Airport> expected = AIRPORTS.stream()
+                                         .filter(a -> a.latitude() >= minLat && a.latitude() <= maxLat)
+                                         .filter(a -> minLon <= maxLon
+                                                      ? a.longitude() >= minLon && a.longitude() <= maxLon
+                                                      : a.longitude() >= minLon || a.longitude() <= maxLon)
+                                         .collect(Collectors.toList());
+        assertThat(found).isNotEmpty().containsExactlyInAnyOrderElementsOf(expected);
+        return found;
+    }
+}
@@ -0,0 +1,141 @@
+package org.skife.retl;
+
+import com.github.davidmoten.rtree.geometry.Point;
+import com.google.common.collect.ImmutableList;
+import net.jqwik.api.Example;
+import net.jqwik.api.ForAll;
+import net.jqwik.api.Property;
+import org.assertj.core.util.Lists;
+
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import static org.skife.retl.Geodetic.Earth;
+
+public class CachedAirportIndexTest {
+
+    private static final Point SEA_OFFICE = Geodetic.latLong(47.607148, -122.3381338);
+    private static final Point BLR_OFFICE = Geodetic.latLong(12.9796, 77.7277);
+
+    private static final List<Airport> AIRPORTS = ImmutableList.copyOf(Airport.loadKnownAirports()
+                                                                              .toBlocking()
+                                                                              .getIterator());
+
+    private static final AirportIndex INDEX = AirportIndex.bulkLoad(AIRPORTS);
+    private static final CachedAirportIndex CACHED = CachedAirportIndex.create(INDEX, 0.5, 1_000_000);
+
+    @Example
+    public void offices() {
+        CachedAirportIndex cached = CachedAirportIndex.create(INDEX, 0.1, 10_000);
+        for (int i = 0; i < 10; i++) {
+            assertThat(nearest(cached, SEA_OFFICE, 100, 2)).extracting("iata").containsExactly("BFI", "RNT");
+            assertThat(nearest(cached, BLR_OFFICE, 50, 1)).extracting("iata").containsExactly("BLR");
+        }
+        assertThat(cached.stats().missCount()).isEqualTo(2);
+        assertThat(cached.stats().hitCount()).isEqualTo(18);
+        assertThat(cached.size()).isEqualTo(2);
+    }
+
+    @Example
+    public void maxDistanceAppliesToCachedAnswers() {
+        CachedAirportIndex cached = CachedAirportIndex.create(INDEX, 0.1, 10_000);
+        assertThat(nearest(cached, SEA_OFFICE, 9.1, 1)).isNotEmpty();
+        assertThat(nearest(cached, SEA_OFFICE, 8.9, 1)).isEmpty();
+        assertThat(cached.stats().hitCount()).isEqualTo(1);
+    }
+
+    @Example
+    public void evictsBySize() {
+        CachedAirportIndex cached = CachedAirportIndex.create(INDEX, 0.5, 200);
+        Random random = new Random(1234);
+        for (int i = 0; i < 500; i++) {
+            Point p = Geodetic.latLong(random.nextDouble() * 180 - 90, random.nextDouble() * 360 - 180);
+            assertDistances(nearest(cached, p, 2000, 3), nearest(p, 2000, 3), p);
+        }
+        assertThat(cached.stats().evictionCount()).isGreaterThan(0);
+    }
+
+    @Example
+    public void uncacheableCellsStillAnswer() {
+        CachedAirportIndex cached = CachedAirportIndex.create(INDEX, 1, 10_000, 1);
+        assertThat(nearest(cached, SEA_OFFICE, 100, 2)).extracting("iata").containsExactly("BFI", "RNT");
+        assertThat(nearest(cached, SEA_OFFICE, 100, 2)).extracting("iata").containsExactly("BFI", "RNT");
+    }
+
+    @Example
+    public void concurrentReaders() {
+        Random random = new Random(1234);
+        List<Point> hot = IntStream.range(0, 50)
+                                   .mapToObj(i -> Geodetic.latLong(random.nextDouble() * 120 - 60,
+                                                                   random.nextDouble() * 360 - 180))
+                                   .collect(Collectors.toList());
+        CachedAirportIndex cached = CachedAirportIndex.create(INDEX, 0.25, 100_000);
+        IntStream.range(0, 5000).parallel().forEach(i -> {
+            Point p = hot.get(i % hot.size());
+            assertDistances(nearest(cached, p, 5000, 2), nearest(p, 5000, 2), p);
+        });
+        assertThat(cached.stats().hitCount()).isGreaterThan(4000);
+    }
+
+    @Example
+    public void cellsOverhangingTheAntimeridian() {
+        // 180 / 8.5 leaves a partial cell on each side, which would centre on 182.75 and -182.75 unclipped
+        CachedAirportIndex cached = CachedAirportIndex.create(INDEX, 8.5, 10_000);
+        for (Point p : ImmutableList.of(Geodetic.latLong(-17, 179.5), Geodetic.latLong(-17, -179.5))) {
+            assertDistances(nearest(cached, p, 500, 1), nearest(p, 500, 1), p);
+            assertThat(Lists.newArrayList(cached.withinDistance(p, 500).toBlocking().toIterable()))
+                    .containsExactlyInAnyOrderElementsOf(INDEX.withinDistance(p, 500).toBlocking().toIterable());
+        }
+    }
+
+    @Property
+    public void exact(@ForAll Point p) {
+        assertDistances(nearest(CACHED, p, 1000, 3), nearest(p, 1000, 3), p);
+    }
+
+    @Property
+    public void exactAnywhere(@ForAll Point p) {
+        assertDistances(nearest(CACHED, p, Earth.circumference(), 5), nearest(p, Earth.circumference(), 5), p);
+    }
+
+    @Property
+    public void withinDistanceExact(@ForAll Point p) {
+        assertThat(Lists.newArrayList(CACHED.withinDistance(p, 300).toBlocking().toIterable()))
+                .containsExactlyInAnyOrderElementsOf(INDEX.withinDistance(p, 300).toBlocking().toIterable());
+    }
+
+    @Example
+    public void withinDistanceHits() {
+        CachedAirportIndex cached = CachedAirportIndex.create(INDEX, 0.1, 10_000);
+        for (int i = 0; i < 5; i++) {
+            assertThat(Lists.newArrayList(cached.withinDistance(SEA_OFFICE, 20).toBlocking().toIterable()))
+                    .extracting("iata")
+                    .containsExactlyInAnyOrder("BFI", "RNT", "SEA");
+        }
+        assertThat(cached.stats().missCount()).isEqualTo(1);
+        assertThat(cached.stats().hitCount()).isEqualTo(4);
+    }
+
+    /**
+     * Airports at exactly the same distance may come back in either order, so compare distances.
+     */
+    private static void assertDistances(List<Airport> actual, List<Airport> expected, Point p) {
+        assertThat(actual).hasSameSizeAs(expected);
+        for (int i = 0; i < actual.size(); i++) {
+            assertThat(Earth.distance(p, actual.get(i).point()))
+                    .isCloseTo(Earth.distance(p, expected.get(i).point()), within(1e-9));
+        }
+    }
+
+    private static List<Airport> nearest(CachedAirportIndex cached, Point p, double maxDistance, int count) {
+        return Lists.newArrayList(cached.nearest(p, maxDistance, count).toBlocking().toIterable());
+    }
+
+    private static List<Airport> nearest(Point p, double maxDistance, int count) {
+        return Lists.newArrayList(INDEX.nearest(p, maxDistance, count).toBlocking().toIterable());
+    }
+}
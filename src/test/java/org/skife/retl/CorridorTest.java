@@ -0,0 +1,124 @@
+package org.skife.retl;
+
+import com.github.davidmoten.rtree.geometry.Geometries;
+import com.github.davidmoten.rtree.geometry.Point;
+import com.github.davidmoten.rtree.geometry.Rectangle;
+import net.jqwik.api.Assume;
+import net.jqwik.api.Example;
+import net.jqwik.api.ForAll;
+import net.jqwik.api.Property;
+import net.jqwik.api.constraints.DoubleRange;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+import static org.skife.retl.Geodetic.Earth;
+
+public class CorridorTest {
+
+    private static final Point SEA_OFFICE = Geodetic.latLong(47.607148, -122.3381338);
+    private static final Point BLR_OFFICE = Geodetic.latLong(12.9796, 77.7277);
+
+    private static final int SAMPLES = 4000;
+
+    @Example
+    public void seattleToBengaluru() {
+        Corridor route = route(SEA_OFFICE, BLR_OFFICE);
+        assertThat(route.length()).isCloseTo(Earth.distance(SEA_OFFICE, BLR_OFFICE), within(1e-6));
+        assertThat(route.alongTrack(SEA_OFFICE.y(), SEA_OFFICE.x())).isCloseTo(0, within(1e-6));
+        assertThat(route.alongTrack(BLR_OFFICE.y(), BLR_OFFICE.x())).isCloseTo(route.length(), within(1e-6));
+        assertThat(route.distance(SEA_OFFICE.y(), SEA_OFFICE.x())).isCloseTo(0, within(1e-6));
+        Point midway = interpolate(SEA_OFFICE, BLR_OFFICE, 0.5);
+        assertThat(route.distance(midway.y(), midway.x())).isCloseTo(0, within(1e-6));
+        assertThat(route.alongTrack(midway.y(), midway.x())).isCloseTo(route.length() / 2, within(1e-6));
+        // the route heads north over the Arctic, so due south of Seattle the nearest point is Seattle
+        Point south = Geodetic.latLong(30, -122.3381338);
+        assertThat(route.distance(south.y(), south.x())).isCloseTo(Earth.distance(SEA_OFFICE, south), within(1e-6));
+        assertThat(route.alongTrack(south.y(), south.x())).isZero();
+    }
+
+    @Property
+    public void distanceMatchesSampledRoute(@ForAll Point from, @ForAll Point to, @ForAll Point p) {
+        Assume.that(Earth.distance(from, to) < Earth.circumference() / 2 - 100);
+        Corridor route = route(from, to);
+        double step = route.length() / SAMPLES;
+        double sampled = Double.POSITIVE_INFINITY;
+        double sampledAlong = 0;
+        for (int i = 0; i <= SAMPLES; i++) {
+            Point q = interpolate(from, to, (double) i / SAMPLES);
+            double d = Earth.distance(p.y(), p.x(), q.y(), q.x());
+            if (d < sampled) {
+                sampled = d;
+                sampledAlong = i * step;
+            }
+        }
+        double exact = route.distance(p.y(), p.x());
+        assertThat(exact).isLessThanOrEqualTo(sampled + 1e-6);
+        assertThat(exact).isGreaterThanOrEqualTo(sampled - step);
+        if (sampled > step * 10 && route.length() > step * 10) {
+            // off the route the nearest sample is a fair guide to where along it the nearest point is
+            assertThat(route.alongTrack(p.y(), p.x())).isCloseTo(sampledAlong, within(Math.sqrt(step * sampled) * 4 + step));
+        }
+    }
+
+    @Property
+    public void lowerBoundHoldsForEveryPointInside(@ForAll Point from, @ForAll Point to, @ForAll Point corner,
+                                                   @ForAll @DoubleRange(min = 0, max = 60) double height,
+                                                   @ForAll @DoubleRange(min = 0, max = 120) double width,
+                                                   @ForAll @DoubleRange(min = 0, max = 1) double u,
+                                                   @ForAll @DoubleRange(min = 0, max = 1) double v) {
+        Assume.that(Earth.distance(from, to) < Earth.circumference() / 2 - 100);
+        Corridor route = route(from, to);
+        double minLat = Math.min(corner.y(), 90 - height);
+        double minLon = Math.min(corner.x(), 180 - width);
+        Rectangle r = Geometries.rectangle(minLon, minLat, minLon + width, minLat + height);
+        double lat = r.y1() + (r.y2() - r.y1()) * u;
+        double lon = r.x1() + (r.x2() - r.x1()) * v;
+        assertThat(route.lowerBound(r)).isLessThanOrEqualTo(route.distance(lat, lon));
+    }
+
+    @Property
+    public void slicesMeasureTheSameAsTheRouteAbeamOfThem(@ForAll Point from, @ForAll Point to, @ForAll Point p,
+                                                          @ForAll @DoubleRange(min = 0, max = 1) double s) {
+        Assume.that(Earth.distance(from, to) < Earth.circumference() / 2 - 100);
+        Corridor route = route(from, to);
+        double along = route.alongTrack(p.y(), p.x());
+        Corridor slice = route.slice(Math.min(along, route.length() * s), Math.max(along, route.length() * s));
+        assertThat(slice.distance(p.y(), p.x())).isCloseTo(route.distance(p.y(), p.x()), within(1e-6));
+    }
+
+    @Example
+    public void rejectsAntipodes() {
+        assertThatThrownBy(() -> route(Geodetic.latLong(10, 20), Geodetic.latLong(-10, -160)))
+                .isInstanceOf(IllegalArgumentException.class);
+        Corridor point = route(SEA_OFFICE, SEA_OFFICE);
+        assertThat(point.length()).isZero();
+        assertThat(point.distance(BLR_OFFICE.y(), BLR_OFFICE.x()))
+                .isCloseTo(Earth.distance(SEA_OFFICE, BLR_OFFICE), within(1e-6));
+    }
+
+    private static Corridor route(Point from, Point to) {
+        return new Corridor(Earth, from.y(), from.x(), to.y(), to.x());
+    }
+
+    /**
+     * The point {@code f} of the way from {@code from} to {@code to} along the great circle, by the usual
+     * intermediate point formula rather than the vectors {@link Corridor} uses.
+     */
+    private static Point interpolate(Point from, Point to, double f) {
+        double lat1 = Math.toRadians(from.y());
+        double lon1 = Math.toRadians(from.x());
+        double lat2 = Math.toRadians(to.y());
+        double lon2 = Math.toRadians(to.x());
+        double delta = Earth.distance(from, to) / Earth.radius();
+        if (delta == 0) {
+            return from;
+        }
+        double a = Math.sin((1 - f) * delta) / Math.sin(delta);
+        double b = Math.sin(f * delta) / Math.sin(delta);
+        double x = a * Math.cos(lat1) * Math.cos(lon1) + b * Math.cos(lat2) * Math.cos(lon2);
+        double y = a * Math.cos(lat1) * Math.sin(lon1) + b * Math.cos(lat2) * Math.sin(lon2);
+        double z = a * Math.sin(lat1) + b * Math.sin(lat2);
+        return Geodetic.latLong(Math.toDegrees(Math.atan2(z, Math.hypot(x, y))), Math.toDegrees(Math.atan2(y, x)));
+    }
+}
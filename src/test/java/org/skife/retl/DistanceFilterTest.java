@@ -0,0 +1,93 @@
+package org.skife.retl;
+
+import com.github.davidmoten.rtree.geometry.Point;
+import com.google.common.collect.ImmutableList;
+import net.jqwik.api.Arbitraries;
+import net.jqwik.api.Arbitrary;
+import net.jqwik.api.Example;
+import net.jqwik.api.ForAll;
+import net.jqwik.api.Property;
+import net.jqwik.api.Provide;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import static org.skife.retl.Geodetic.Earth;
+
+public class DistanceFilterTest {
+
+    private static final Point SEA_OFFICE = Geodetic.latLong(47.607148, -122.3381338);
+
+    private static final List<Airport> AIRPORTS = ImmutableList.copyOf(Airport.loadKnownAirports()
+                                                                              .toBlocking()
+                                                                              .getIterator());
+
+    @Property
+    public void twoPhaseIsExactlyHaversine(@ForAll Point p,
+                                           @ForAll("distances") double distance,
+                                           @ForAll Geodetic.Metric metric) {
+        DistanceFilter filter = Earth.filter(metric, p.y(), p.x(), distance);
+        for (Airport a : AIRPORTS) {
+            double exact = Earth.distance(p.y(), p.x(), a.latitude(), a.longitude());
+            assertThat(filter.distance(a.latitude(), a.longitude()))
+                    .isEqualTo(exact <= distance ? exact : Double.POSITIVE_INFINITY);
+        }
+    }
+
+    @Property
+    public void neverBeyondReach(@ForAll Point from, @ForAll Point to, @ForAll Geodetic.Metric metric) {
+        assertWithinReach(metric, from, to);
+    }
+
+    @Property
+    public void neverBeyondReachNearby(@ForAll Point from,
+                                       @ForAll("offsets") double north,
+                                       @ForAll("offsets") double east,
+                                       @ForAll Geodetic.Metric metric) {
+        double lat = Math.max(-90, Math.min(90, from.y() + north));
+        double lon = from.x() + east;
+        assertWithinReach(metric, from, Geodetic.latLong(lat, lon > 180 ? lon - 360 : lon < -180 ? lon + 360 : lon));
+    }
+
+    @Example
+    public void documentedAccuracy() {
+        for (Airport a : AIRPORTS) {
+            double exact = Earth.distance(SEA_OFFICE.y(), SEA_OFFICE.x(), a.point().y(), a.point().x());
+            if (exact <= 500) {
+                assertThat(Earth.distance(Geodetic.Metric.CHORD, SEA_OFFICE, a.point())).isCloseTo(exact, within(exact * 3e-4));
+                assertThat(Earth.distance(Geodetic.Metric.EQUIRECTANGULAR, SEA_OFFICE, a.point())).isCloseTo(exact, within(exact * 7e-4));
+            }
+            if (exact <= 10_000) {
+                assertThat(Earth.distance(Geodetic.Metric.FLOAT, SEA_OFFICE, a.point())).isCloseTo(exact, within(0.01));
+            }
+            assertThat(Earth.distance(Geodetic.Metric.HAVERSINE, SEA_OFFICE, a.point())).isEqualTo(exact);
+        }
+    }
+
+    @Example
+    public void acrossThePoleAndTheAntimeridian() {
+        Point north = Geodetic.latLong(89.5, 179.9);
+        for (Geodetic.Metric metric : Geodetic.Metric.values()) {
+            DistanceFilter filter = Earth.filter(metric, north.y(), north.x(), 120);
+            assertThat(filter.test(89.5, -0.1)).isTrue();
+            assertThat(filter.test(89.5, -179.9)).isTrue();
+            assertThat(filter.test(88, -179.9)).isFalse();
+        }
+    }
+
+    private static void assertWithinReach(Geodetic.Metric metric, Point from, Point to) {
+        double exact = Earth.distance(from.y(), from.x(), to.y(), to.x());
+        assertThat(Earth.distance(metric, from, to)).isLessThanOrEqualTo(metric.reach(Earth.radius(), exact));
+    }
+
+    @Provide
+    Arbitrary<Double> distances() {
+        return Arbitraries.doubles().between(0, 5000);
+    }
+
+    @Provide
+    Arbitrary<Double> offsets() {
+        return Arbitraries.doubles().between(-2, 2);
+    }
+}
@@ -7,6 +7,7 @@ import net.jqwik.api.Property;
 import org.assertj.core.api.Condition;
 import org.assertj.core.data.Offset;
 
+import java.util.Random;
 import java.util.function.Predicate;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -26,6 +27,22 @@ public class GeodeticTest {
     }
 
 
+    @Property
+    public void boundsCoverEverythingInRange(@ForAll Point from, @ForAll Point to) {
+        double distance = Earth.distance(from, to);
+        assertThat(Earth.bounds(from.y(), from.x(), distance))
+                .anyMatch(r -> r.contains(to.x(), to.y()) || r.contains(to.x() - 360, to.y()) || r.contains(to.x() + 360, to.y()));
+    }
+
+    @Example
+    public void boundsSplitAtTheAntimeridian() {
+        assertThat(Earth.bounds(0, 179, 500)).hasSize(2);
+        assertThat(Earth.bounds(0, 0, 500)).hasSize(1);
+        // reaching over the pole covers every longitude
+        assertThat(Earth.bounds(85, 0, 1000)).hasSize(1);
+        assertThat(Earth.bounds(85, 0, 1000).get(0)).extracting("x1", "x2").containsExactly(-180.0, 180.0);
+    }
+
     @Property
     public void nothingFurtherThanHalfWorldAway(@ForAll Point from,
                                                 @ForAll Point to) {
@@ -51,6 +68,62 @@ public class GeodeticTest {
         assertThatThrownBy(() -> Geodetic.latLong(lat, lon)).isInstanceOf(IllegalArgumentException.class);
     }
 
+    @Property
+    public void batchDistancesMatchDistance(@ForAll Point from) {
+        double[] out = new double[LONS.length];
+        Earth.distances(from.y(), from.x(), LATS, LONS, out);
+        for (int i = 0; i < LATS.length; i++) {
+            assertThat(out[i]).isCloseTo(Earth.distance(from, POINTS[i]), Offset.offset(1e-6));
+        }
+    }
+
+    @Property
+    public void preparedDistancesMatchDistance(@ForAll Point from) {
+        double[] out = new double[LONS.length];
+        Earth.distances(from.y(), from.x(), PREPARED, out);
+        for (int i = 0; i < LATS.length; i++) {
+            assertThat(out[i]).isCloseTo(Earth.distance(from, POINTS[i]), Offset.offset(1e-6));
+        }
+    }
+
+    @Property
+    public void minDistanceMatchesDistance(@ForAll Point from) {
+        double min = Double.POSITIVE_INFINITY;
+        int nearest = -1;
+        for (int i = 0; i < POINTS.length; i++) {
+            double d = Earth.distance(from, POINTS[i]);
+            if (d < min) {
+                min = d;
+                nearest = i;
+            }
+        }
+
+        assertThat(Earth.minDistance(from.y(), from.x(), PREPARED)).isCloseTo(min, Offset.offset(1e-6));
+        assertThat(Earth.nearest(from.y(), from.x(), PREPARED)).isEqualTo(nearest);
+    }
+
+    @Example
+    public void emptyDataset() {
+        Coordinates none = Coordinates.of(new double[0], new double[0]);
+        assertThat(Earth.minDistance(0, 0, none)).isEqualTo(Double.POSITIVE_INFINITY);
+        assertThat(Earth.nearest(0, 0, none)).isEqualTo(-1);
+    }
+
+    private static final double[] LATS = new double[500];
+    private static final double[] LONS = new double[500];
+    private static final Point[] POINTS = new Point[500];
+    private static final Coordinates PREPARED;
+
+    static {
+        Random random = new Random(1234);
+        for (int i = 0; i < LATS.length; i++) {
+            LATS[i] = random.nextDouble() * 180 - 90;
+            LONS[i] = random.nextDouble() * 360 - 180;
+            POINTS[i] = Geodetic.latLong(LATS[i], LONS[i]);
+        }
+        PREPARED = Coordinates.of(LATS, LONS);
+    }
+
     public static <T> Condition<T> condition(Predicate<T> p, String desc) {
         return new Condition<>(p, desc);
     }
@@ -0,0 +1,107 @@
+package org.skife.retl;
+
+import com.github.davidmoten.rtree.geometry.Point;
+import com.google.common.collect.ImmutableList;
+import net.jqwik.api.Arbitraries;
+import net.jqwik.api.Arbitrary;
+import net.jqwik.api.Example;
+import net.jqwik.api.ForAll;
+import net.jqwik.api.Property;
+import net.jqwik.api.Provide;
+import net.jqwik.api.constraints.IntRange;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.skife.retl.Geodetic.Earth;
+
+public class GridAirportIndexTest {
+
+    private static final Point SEA_OFFICE = Geodetic.latLong(47.607148, -122.3381338);
+
+    private static final List<Airport> AIRPORTS = ImmutableList.copyOf(Airport.loadKnownAirports()
+                                                                              .toBlocking()
+                                                                              .getIterator());
+
+    private static final AirportIndex TREE = AirportIndex.bulkLoad(AIRPORTS);
+    private static final GridAirportIndex GRID = GridAirportIndex.create(AIRPORTS);
+    private static final GridAirportIndex FINE = GridAirportIndex.create(AIRPORTS, 25);
+
+    @Example
+    public void seattle() {
+        assertThat(GRID.nearest(SEA_OFFICE, 100, 2).toList().toBlocking().single())
+                .extracting("iata").containsExactly("BFI", "RNT");
+        assertThat(GRID.withinDistance(SEA_OFFICE, 20).toList().toBlocking().single())
+                .extracting("iata").containsExactlyInAnyOrder("BFI", "RNT", "SEA");
+        assertThat(GRID.nearest(SEA_OFFICE, 8.9, 1).toList().toBlocking().single()).isEmpty();
+    }
+
+    @Property
+    public void nearestMatchesTree(@ForAll Point p,
+                                   @ForAll("distances") double maxDistance,
+                                   @ForAll @IntRange(min = 1, max = 20) int count) {
+        List<Double> expected = distances(p, TREE.nearest(p, maxDistance, count).toList().toBlocking().single());
+        assertThat(distances(p, GRID.nearest(p, maxDistance, count).toList().toBlocking().single()))
+                .isEqualTo(expected);
+        assertThat(distances(p, FINE.nearest(p, maxDistance, count).toList().toBlocking().single()))
+                .isEqualTo(expected);
+    }
+
+    @Property
+    public void withinDistanceMatchesTree(@ForAll Point p, @ForAll("distances") double distance) {
+        List<Airport> expected = TREE.withinDistance(p, distance).toList().toBlocking().single();
+        assertThat(GRID.withinDistance(p, distance).toList().toBlocking().single())
+                .containsExactlyInAnyOrderElementsOf(expected);
+        assertThat(FINE.withinDistance(p, distance).toList().toBlocking().single())
+                .containsExactlyInAnyOrderElementsOf(expected);
+    }
+
+    @Example
+    public void acrossTheAntimeridianAndOverThePole() {
+        for (Point p : new Point[]{Geodetic.latLong(-16.5, 179.999), Geodetic.latLong(89, 0), Geodetic.latLong(-85, 10)}) {
+            for (double distance : new double[]{500, 1500, 3000}) {
+                assertThat(FINE.withinDistance(p, distance).toList().toBlocking().single())
+                        .containsExactlyInAnyOrderElementsOf(TREE.withinDistance(p, distance).toList().toBlocking().single());
+            }
+            assertThat(FINE.nearest(p, Double.POSITIVE_INFINITY, 5).toList().toBlocking().single())
+                    .containsExactlyElementsOf(TREE.nearest(p, Double.POSITIVE_INFINITY, 5).toList().toBlocking().single());
+        }
+    }
+
+    @Example
+    public void everything() {
+        assertThat(GRID.nearest(SEA_OFFICE, Double.POSITIVE_INFINITY, Integer.MAX_VALUE).count().toBlocking().single())
+                .isEqualTo(AIRPORTS.size());
+        assertThat(GRID.withinDistance(SEA_OFFICE, Earth.circumference()).count().toBlocking().single())
+                .isEqualTo(AIRPORTS.size());
+    }
+
+    @Example
+    public void cellsAreSizedForLatitude() {
+        GridAirportIndex grid = GridAirportIndex.create(ImmutableList.of(), 100);
+        // about 200 rows, and a full band at the equator would have 400 columns; banding by cos(latitude)
+        // leaves roughly 2/pi of the cells a plain lat/lon grid would need
+        assertThat(grid.cellCount()).isBetween(50_000, 52_000);
+        assertThat(grid.size()).isZero();
+        assertThat(grid.nearest(SEA_OFFICE, 100, 1).toList().toBlocking().single()).isEmpty();
+    }
+
+    @Example
+    public void cellSizeIsBounded() {
+        assertThatThrownBy(() -> GridAirportIndex.create(AIRPORTS, 1)).isInstanceOf(IllegalArgumentException.class);
+        assertThat(GridAirportIndex.create(AIRPORTS.subList(0, 1)).size()).isEqualTo(1);
+    }
+
+    private static List<Double> distances(Point p, List<Airport> airports) {
+        return airports.stream()
+                       .map(a -> Earth.distance(p.y(), p.x(), a.point().y(), a.point().x()))
+                       .collect(Collectors.toList());
+    }
+
+    @Provide
+    Arbitrary<Double> distances() {
+        return Arbitraries.doubles().between(0, 5000);
+    }
+}
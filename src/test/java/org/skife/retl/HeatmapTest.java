@@ -0,0 +1,142 @@
+package org.skife.retl;
+
+import com.github.davidmoten.rtree.geometry.Point;
+import com.google.common.collect.ImmutableList;
+import net.jqwik.api.Example;
+import net.jqwik.api.ForAll;
+import net.jqwik.api.Property;
+import net.jqwik.api.constraints.IntRange;
+import net.jqwik.api.constraints.Size;
+import rx.Observable;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+
+public class HeatmapTest {
+
+    private static final List<Airport> AIRPORTS = ImmutableList.copyOf(Airport.loadKnownAirports()
+                                                                              .toBlocking()
+                                                                              .getIterator());
+
+    private static final AirportIndex INDEX = AirportIndex.bulkLoad(AIRPORTS);
+
+    @Example
+    public void airportsPerCell() {
+        Heatmap heatmap = Heatmap.aggregate(Airport.loadKnownAirports(), 1, Airport::point, a -> 1)
+                                 .toBlocking()
+                                 .single();
+        assertThat(heatmap.rows()).isEqualTo(180);
+        assertThat(heatmap.columns()).isEqualTo(360);
+        assertThat(heatmap.total()).isEqualTo(AIRPORTS.size());
+
+        int seattle = heatmap.cell(47.6, -122.3);
+        long expected = AIRPORTS.stream()
+                                .filter(a -> a.latitude() >= 47 && a.latitude() < 48)
+                                .filter(a -> a.longitude() >= -123 && a.longitude() < -122)
+                                .count();
+        assertThat(heatmap.count(seattle)).isEqualTo(expected).isGreaterThanOrEqualTo(3);
+        assertThat(heatmap.mean(seattle)).isEqualTo(1.0);
+        assertThat(heatmap.latitude(seattle)).isEqualTo(47.5);
+        assertThat(heatmap.longitude(seattle)).isEqualTo(-122.5);
+        assertThat(heatmap.mean(heatmap.cell(-89.5, 0))).isNaN();
+    }
+
+    @Property
+    public void mergedPartialsMatchOneHeatmap(@ForAll @Size(max = 300) List<Point> points,
+                                              @ForAll @IntRange(min = 1, max = 5) int partials) {
+        Heatmap whole = Heatmap.create(5);
+        Heatmap[] parts = new Heatmap[partials];
+        for (int i = 0; i < partials; i++) {
+            parts[i] = Heatmap.create(5);
+        }
+        for (int i = 0; i < points.size(); i++) {
+            whole.add(points.get(i), i);
+            parts[i % partials].add(points.get(i), i);
+        }
+        Heatmap merged = Heatmap.create(5);
+        for (Heatmap part : parts) {
+            merged.merge(part);
+        }
+        assertThat(merged.total()).isEqualTo(points.size());
+        for (int c = 0; c < whole.rows() * whole.columns(); c++) {
+            assertThat(merged.count(c)).isEqualTo(whole.count(c));
+            assertThat(merged.sum(c)).isCloseTo(whole.sum(c), within(1e-6));
+        }
+    }
+
+    @Example
+    public void coverageFromParallelSink() throws Exception {
+        List<Point> points = TestPoints.jittered(AIRPORTS, 20_000, 3.0);
+        HeatmapAccumulator<NearestAirport> coverage = new HeatmapAccumulator<>(0.5, NearestAirport::point,
+                                                                               NearestAirport::distance);
+        Pipeline.from("points", Observable.from(points))
+                .map("nearest", 2, false, p -> {
+                    AirportIndex.Candidate c = INDEX.nearestEntries(p, Double.POSITIVE_INFINITY, 1).get(0);
+                    return ImmutableNearestAirport.of(p, c.airport(), c.distance());
+                })
+                .sink("coverage", 4, 64, coverage)
+                .run();
+        Heatmap parallel = coverage.result();
+        assertThat(coverage.partials()).isBetween(1, 4);
+
+        Heatmap sequential = Heatmap.aggregate(Observable.from(points), 0.5, p -> p,
+                                               p -> INDEX.nearestEntries(p, Double.POSITIVE_INFINITY, 1)
+                                                         .get(0).distance())
+                                    .toBlocking()
+                                    .single();
+        assertThat(parallel.total()).isEqualTo(points.size());
+        assertThat(parallel.occupied()).isEqualTo(sequential.occupied());
+        for (int c = 0; c < parallel.rows() * parallel.columns(); c++) {
+            assertThat(parallel.count(c)).isEqualTo(sequential.count(c));
+            assertThat(parallel.sum(c)).isCloseTo(sequential.sum(c), within(1e-6));
+        }
+    }
+
+    @Example
+    public void writesAndReads() throws Exception {
+        Heatmap heatmap = Heatmap.aggregate(Airport.loadKnownAirports(), 2, Airport::point, Airport::latitude)
+                                 .toBlocking()
+                                 .single();
+
+        Path file = Files.createTempDirectory("heatmap").resolve("airports.heat");
+        heatmap.write(file);
+        assertThat(Files.size(file)).isEqualTo(32 + 20L * heatmap.occupied());
+        Heatmap read = Heatmap.read(file);
+        assertThat(read.cellDegrees()).isEqualTo(2);
+        for (int c = 0; c < heatmap.rows() * heatmap.columns(); c++) {
+            assertThat(read.count(c)).isEqualTo(heatmap.count(c));
+            assertThat(read.sum(c)).isEqualTo(heatmap.sum(c));
+        }
+
+        StringBuilder csv = new StringBuilder();
+        heatmap.writeCsv(csv);
+        String[] lines = csv.toString().split("\n");
+        assertThat(lines).hasSize(heatmap.occupied() + 1);
+        assertThat(lines[0]).isEqualTo("lat,lon,count,sum,mean");
+        String[] first = lines[1].split(",");
+        int cell = heatmap.cell(Double.parseDouble(first[0]), Double.parseDouble(first[1]));
+        assertThat(Long.parseLong(first[2])).isEqualTo(heatmap.count(cell));
+        assertThat(Double.parseDouble(first[4])).isEqualTo(heatmap.mean(cell));
+
+        assertThatThrownBy(() -> Heatmap.read(Files.write(file, new byte[32])))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Example
+    public void edges() {
+        Heatmap heatmap = Heatmap.create(45);
+        assertThat(heatmap.cell(-90, -180)).isZero();
+        assertThat(heatmap.cell(90, 180)).isEqualTo(4 * 8 - 1);
+        assertThat(heatmap.cell(0, 0)).isEqualTo(2 * 8 + 4);
+        assertThatThrownBy(() -> heatmap.add(91, 0, 1)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> heatmap.add(0, Double.NaN, 1)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> Heatmap.create(0.7)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> Heatmap.create(0)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> heatmap.merge(Heatmap.create(90))).isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,107 @@
+package org.skife.retl;
+
+import com.google.common.collect.ImmutableList;
+import net.jqwik.api.Example;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class IataIndexTest {
+
+    private static final String CODE_CHARS = "ABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
+
+    private static final List<Airport> AIRPORTS = ImmutableList.copyOf(Airport.loadKnownAirports()
+                                                                              .toBlocking()
+                                                                              .getIterator());
+
+    private static final IataIndex INDEX = IataIndex.of(AIRPORTS);
+
+    @Example
+    public void seattle() {
+        assertThat(INDEX.get("SEA")).extracting("name", "city").containsExactly("Seattle Tacoma International Airport", "Seattle");
+    }
+
+    @Example
+    public void everyAirport() {
+        assertThat(INDEX.size()).isEqualTo(AIRPORTS.size());
+        for (int i = 0; i < AIRPORTS.size(); i++) {
+            assertThat(INDEX.indexOf(AIRPORTS.get(i).iata())).isEqualTo(i);
+        }
+    }
+
+    @Example
+    public void missingAndMalformed() {
+        assertThat(INDEX.get("QQQ")).isNull();
+        assertThat(INDEX.get("sea")).isNull();
+        assertThat(INDEX.get("SEAT")).isNull();
+        assertThat(INDEX.get("")).isNull();
+        assertThat(INDEX.indexOf(IataIndex.MALFORMED)).isEqualTo(-1);
+        assertThat(INDEX.indexOf(0)).isEqualTo(-1);
+    }
+
+    @Example
+    public void batch() {
+        int[] codes = {IataIndex.pack("BFI"), IataIndex.pack("QQQ"), IataIndex.pack("BLR"), IataIndex.pack("b?r")};
+        int[] resolved = INDEX.resolve(codes);
+        assertThat(AIRPORTS.get(resolved[0]).iata()).isEqualTo("BFI");
+        assertThat(resolved[1]).isEqualTo(-1);
+        assertThat(AIRPORTS.get(resolved[2]).iata()).isEqualTo("BLR");
+        assertThat(resolved[3]).isEqualTo(-1);
+    }
+
+    @Example
+    public void packsEveryCodeDistinctly() {
+        Set<Integer> seen = new HashSet<>();
+        for (char a : CODE_CHARS.toCharArray()) {
+            for (char b : CODE_CHARS.toCharArray()) {
+                for (char c : CODE_CHARS.toCharArray()) {
+                    String code = new String(new char[]{a, b, c});
+                    int packed = IataIndex.pack(code);
+                    assertThat(packed).isPositive();
+                    assertThat(IataIndex.unpack(packed)).isEqualTo(code);
+                    seen.add(packed);
+                }
+            }
+        }
+        assertThat(seen).hasSize(36 * 36 * 36);
+    }
+
+    @Example
+    public void reportsDuplicates() {
+        List<Airport> airports = ImmutableList.of(airport("First", "ABC"), airport("Second", "XYZ"), airport("Third", "ABC"));
+        assertThatThrownBy(() -> IataIndex.of(airports))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("duplicate code ABC for First and Third");
+    }
+
+    @Example
+    public void reportsMalformed() {
+        List<Airport> airports = ImmutableList.of(airport("Lower", "abc"), airport("Short", "AB"), airport("Fine", "ABC"));
+        assertThatThrownBy(() -> IataIndex.of(airports))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageStartingWith("2 bad IATA codes")
+                .hasMessageContaining("malformed code 'abc' for Lower")
+                .hasMessageContaining("malformed code 'AB' for Short");
+    }
+
+    @Example
+    public void empty() {
+        IataIndex empty = IataIndex.of(ImmutableList.of());
+        assertThat(empty.get("SEA")).isNull();
+    }
+
+    private static Airport airport(String name, String iata) {
+        return ImmutableAirport.builder()
+                               .name(name)
+                               .iata(iata)
+                               .city("City")
+                               .country("Country")
+                               .latitude(0)
+                               .longitude(0)
+                               .build();
+    }
+}
@@ -0,0 +1,161 @@
+package org.skife.retl;
+
+import com.github.davidmoten.rtree.geometry.Point;
+import com.google.common.collect.ImmutableList;
+import net.jqwik.api.Example;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class LiveAirportIndexTest {
+
+    private static final Point SEA_OFFICE = Geodetic.latLong(47.607148, -122.3381338);
+    private static final Point NOWHERE = Geodetic.latLong(-48.876667, -123.393333);
+
+    private static final List<Airport> AIRPORTS = ImmutableList.copyOf(Airport.loadKnownAirports()
+                                                                              .toBlocking()
+                                                                              .getIterator());
+
+    @Example
+    public void appliesDiff() {
+        LiveAirportIndex live = LiveAirportIndex.create(AIRPORTS);
+        AirportIndex before = live.index();
+
+        List<Airport> changed = AIRPORTS.stream()
+                                        .filter(a -> !a.iata().equals("SEA"))
+                                        .map(a -> a.iata().equals("BFI")
+                                                  ? ImmutableAirport.copyOf(a).withLatitude(10).withLongitude(10)
+                                                  : a)
+                                        .collect(Collectors.toList());
+        changed.add(airport("ZZZ", NOWHERE));
+
+        IndexReload reload = live.reload(changed);
+        assertThat(reload.version()).isEqualTo(1);
+        assertThat(reload.inserted()).isEqualTo(1);
+        assertThat(reload.deleted()).isEqualTo(1);
+        assertThat(reload.updated()).isEqualTo(1);
+        assertThat(reload.changed()).isEqualTo(3);
+        assertThat(reload.latency().toNanos()).isPositive();
+
+        assertThat(live.version()).isEqualTo(1);
+        assertThat(live.get("SEA")).isNull();
+        assertThat(live.get("ZZZ")).isNotNull();
+        assertThat(live.get("BFI").latitude()).isEqualTo(10);
+        assertThat(live.index().size()).isEqualTo(AIRPORTS.size());
+        assertThat(live.nearest(SEA_OFFICE, 30, 2).toList().toBlocking().single())
+                .extracting("iata")
+                .containsExactly("RNT");
+        assertThat(live.nearest(NOWHERE, 1, 1).toBlocking().single().iata()).isEqualTo("ZZZ");
+
+        // a reader still holding the old index sees the old data
+        assertThat(before.nearest(SEA_OFFICE, 10, 1).toBlocking().single().iata()).isEqualTo("BFI");
+        assertThat(before.nearest(NOWHERE, 1, 1).toList().toBlocking().single()).isEmpty();
+    }
+
+    @Example
+    public void rebuildsLargeDiffs() {
+        LiveAirportIndex live = LiveAirportIndex.create(AIRPORTS);
+        List<Airport> shifted = AIRPORTS.stream()
+                                        .map(a -> ImmutableAirport.copyOf(a).withLatitude(-a.latitude()))
+                                        .collect(Collectors.toList());
+
+        IndexReload reload = live.reload(shifted);
+        assertThat(reload.updated()).isGreaterThan(AIRPORTS.size() / LiveAirportIndex.REBUILD_DIVISOR);
+        assertThat(live.index().size()).isEqualTo(AIRPORTS.size());
+        assertThat(live.nearest(Geodetic.latLong(-47.607148, -122.3381338), 30, 1).toBlocking().single().iata())
+                .isEqualTo("BFI");
+    }
+
+    @Example
+    public void nothingToDo() {
+        LiveAirportIndex live = LiveAirportIndex.create(AIRPORTS);
+        AirportIndex before = live.index();
+        IndexReload reload = live.reload(AIRPORTS.stream().map(ImmutableAirport::copyOf).collect(Collectors.toList()));
+        assertThat(reload.changed()).isZero();
+        assertThat(reload.version()).isZero();
+        assertThat(live.index()).isSameAs(before);
+    }
+
+    @Example
+    public void keepsIndexOnBadData() {
+        LiveAirportIndex live = LiveAirportIndex.create(AIRPORTS);
+        List<Airport> duplicated = new ArrayList<>(AIRPORTS);
+        duplicated.add(airport("SEA", NOWHERE));
+        assertThatThrownBy(() -> live.reload(duplicated)).isInstanceOf(IllegalArgumentException.class)
+                                                         .hasMessageContaining("duplicate code SEA");
+        assertThat(live.version()).isZero();
+        assertThat(live.get("SEA").city()).isEqualTo("Seattle");
+    }
+
+    @Example
+    public void reloadsCsv() throws Exception {
+        LiveAirportIndex live = LiveAirportIndex.create(AIRPORTS);
+        Path dir = Files.createTempDirectory("live");
+        Path csv = dir.resolve("airports.csv");
+        Files.copy(Paths.get(LiveAirportIndexTest.class.getResource("/airports.csv").toURI()), csv);
+        Files.write(csv, "Nowhere Airport,Nowhere,Nowhere,ZZZ,-48.876667,-123.393333\n".getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.APPEND);
+
+        IndexReload reload = live.reload(csv);
+        assertThat(reload.inserted()).isEqualTo(1);
+        assertThat(reload.changed()).isEqualTo(1);
+        assertThat(live.get("ZZZ").name()).isEqualTo("Nowhere Airport");
+    }
+
+    @Example
+    public void readersSeeWholeVersions() throws Exception {
+        List<Airport> withExtra = new ArrayList<>(AIRPORTS);
+        withExtra.add(airport("ZZZ", NOWHERE));
+        LiveAirportIndex live = LiveAirportIndex.create(AIRPORTS);
+
+        AtomicBoolean done = new AtomicBoolean();
+        ExecutorService readers = Executors.newFixedThreadPool(3);
+        List<Future<Integer>> checks = new ArrayList<>();
+        for (int r = 0; r < 3; r++) {
+            checks.add(readers.submit(() -> {
+                int reads = 0;
+                while (!done.get() || reads == 0) {
+                    AirportIndex index = live.index();
+                    boolean found = !index.nearest(NOWHERE, 1, 1).toList().toBlocking().single().isEmpty();
+                    assertThat(found).isEqualTo(index.size() == AIRPORTS.size() + 1);
+                    reads++;
+                }
+                return reads;
+            }));
+        }
+        for (int i = 0; i < 50; i++) {
+            live.reload(i % 2 == 0 ? withExtra : AIRPORTS);
+        }
+        done.set(true);
+        for (Future<Integer> check : checks) {
+            assertThat(check.get(30, TimeUnit.SECONDS)).isPositive();
+        }
+        readers.shutdown();
+        assertThat(live.version()).isEqualTo(50);
+    }
+
+    private static Airport airport(String iata, Point p) {
+        return ImmutableAirport.builder()
+                               .name("Nowhere Airport")
+                               .iata(iata)
+                               .city("Nowhere")
+                               .country("Nowhere")
+                               .latitude((float) p.y())
+                               .longitude((float) p.x())
+                               .build();
+    }
+}
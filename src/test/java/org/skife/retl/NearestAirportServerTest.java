@@ -0,0 +1,151 @@
+package org.skife.retl;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.davidmoten.rtree.geometry.Point;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import net.jqwik.api.Example;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class NearestAirportServerTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final List<Airport> AIRPORTS = ImmutableList.copyOf(Airport.loadKnownAirports()
+                                                                              .toBlocking()
+                                                                              .getIterator());
+
+    private static final AirportIndex INDEX = AirportIndex.bulkLoad(AIRPORTS);
+
+    private static final NearestServerConfig DEFAULTS = ImmutableNearestServerConfig.builder().build();
+
+    @Example
+    public void answersNearest() throws Exception {
+        try (NearestAirportServer server = NearestAirportServer.start(INDEX, DEFAULTS)) {
+            Response seattle = get(server, "/nearest?lat=47.607148&lon=-122.3381338");
+            assertThat(seattle.status).isEqualTo(200);
+            JsonNode body = MAPPER.readTree(seattle.body);
+            assertThat(body.path("airport").path("iata").asText()).isEqualTo("BFI");
+            assertThat(body.path("distance").asDouble()).isBetween(8.9, 9.5);
+
+            assertThat(get(server, "/nearest?lat=47.607148&lon=-122.3381338&within=5").status).isEqualTo(404);
+            assertThat(get(server, "/nearest?lat=47.6").status).isEqualTo(400);
+            assertThat(get(server, "/nearest?lat=91&lon=0").status).isEqualTo(400);
+            assertThat(get(server, "/nearest?lat=0&lon=0&within=-1").status).isEqualTo(400);
+
+            assertThat(server.served()).isEqualTo(2);
+            assertThat(server.shed()).isZero();
+            JsonNode stats = MAPPER.readTree(get(server, "/stats").body);
+            assertThat(stats.path("served").asLong()).isEqualTo(2);
+        }
+    }
+
+    @Example
+    public void coalescesConcurrentRequests() throws Exception {
+        List<Point> points = TestPoints.jittered(AIRPORTS, 1000, 1.0);
+        ExecutorService clients = Executors.newFixedThreadPool(16);
+        try (NearestAirportServer server = NearestAirportServer.start(INDEX, DEFAULTS)) {
+            List<Future<Integer>> answered = new ArrayList<>();
+            for (int c = 0; c < 16; c++) {
+                int first = c * 50;
+                answered.add(clients.submit(() -> {
+                    for (int i = first; i < first + 50; i++) {
+                        Point p = points.get(i);
+                        assertThat(get(server, "/nearest?lat=" + p.y() + "&lon=" + p.x()).status).isIn(200, 404);
+                    }
+                    return 50;
+                }));
+            }
+            int total = 0;
+            for (Future<Integer> f : answered) {
+                total += f.get();
+            }
+            assertThat(server.served()).isEqualTo(total);
+            assertThat(server.shed()).isZero();
+            // sixteen clients waiting at once leave more than one request queued for most batches
+            assertThat(server.batches()).isLessThan(server.served());
+        }
+        finally {
+            clients.shutdownNow();
+        }
+    }
+
+    @Example
+    public void shedsRequestsWhichWaitTooLong() throws Exception {
+        NearestServerConfig impatient = ImmutableNearestServerConfig.builder()
+                                                                     .maxQueueDelay(Duration.ZERO)
+                                                                     .build();
+        try (NearestAirportServer server = NearestAirportServer.start(INDEX, impatient)) {
+            Response shed = get(server, "/nearest?lat=47.607148&lon=-122.3381338");
+            assertThat(shed.status).isEqualTo(503);
+            assertThat(shed.retryAfter).isEqualTo("1");
+            assertThat(server.shed()).isEqualTo(1);
+            assertThat(server.served()).isZero();
+        }
+    }
+
+    @Example
+    public void survivesAFailingIndex() throws Exception {
+        AtomicBoolean failed = new AtomicBoolean();
+        Supplier<AirportIndex> reloading = () -> {
+            if (failed.compareAndSet(false, true)) {
+                throw new IllegalStateException("index is reloading");
+            }
+            return INDEX;
+        };
+        try (NearestAirportServer server = NearestAirportServer.start(reloading, DEFAULTS)) {
+            assertThat(get(server, "/nearest?lat=47.607148&lon=-122.3381338").status).isEqualTo(500);
+            Response seattle = get(server, "/nearest?lat=47.607148&lon=-122.3381338");
+            assertThat(seattle.status).isEqualTo(200);
+            assertThat(MAPPER.readTree(seattle.body).path("airport").path("iata").asText()).isEqualTo("BFI");
+            assertThat(server.served()).isEqualTo(1);
+        }
+    }
+
+    @Example
+    public void rejectsBadConfig() {
+        assertThatThrownBy(() -> ImmutableNearestServerConfig.builder().queueLimit(0).build())
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> ImmutableNearestServerConfig.builder().maxQueueDelay(Duration.ofMillis(-1)).build())
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static Response get(NearestAirportServer server, String path) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + server.port() + path)
+                .openConnection();
+        // a request the server never answers fails the test rather than hanging it
+        connection.setReadTimeout(10_000);
+        int status = connection.getResponseCode();
+        try (InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+            return new Response(status, connection.getHeaderField("Retry-After"), ByteStreams.toByteArray(in));
+        }
+    }
+
+    private static final class Response {
+        private final int status;
+        private final String retryAfter;
+        private final byte[] body;
+
+        private Response(int status, String retryAfter, byte[] body) {
+            this.status = status;
+            this.retryAfter = retryAfter;
+            this.body = body;
+        }
+    }
+}
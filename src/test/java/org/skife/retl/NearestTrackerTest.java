@@ -0,0 +1,95 @@
+package org.skife.retl;
+
+import com.github.davidmoten.rtree.geometry.Point;
+import com.google.common.collect.ImmutableList;
+import net.jqwik.api.Example;
+import net.jqwik.api.ForAll;
+import net.jqwik.api.Property;
+import net.jqwik.api.constraints.DoubleRange;
+import net.jqwik.api.constraints.LongRange;
+import rx.Observable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import static org.skife.retl.Geodetic.Earth;
+
+public class NearestTrackerTest {
+
+    private static final Point SEA_OFFICE = Geodetic.latLong(47.607148, -122.3381338);
+
+    private static final List<Airport> AIRPORTS = ImmutableList.copyOf(Airport.loadKnownAirports()
+                                                                              .toBlocking()
+                                                                              .getIterator());
+
+    private static final AirportIndex INDEX = AirportIndex.bulkLoad(AIRPORTS);
+
+    @Property
+    public void matchesFullQueries(@ForAll Point start,
+                                   @ForAll @DoubleRange(min = 0.01, max = 1) double step,
+                                   @ForAll @LongRange(min = 0, max = Long.MAX_VALUE) long seed) {
+        NearestTracker tracker = INDEX.tracker(Double.POSITIVE_INFINITY);
+        for (Point p : walk(start, step, 200, seed)) {
+            Airport tracked = tracker.nearest(p);
+            AirportIndex.Candidate expected = INDEX.nearestEntries(p, Double.POSITIVE_INFINITY, 1).get(0);
+            // another airport at the same distance is as good an answer
+            assertThat(tracker.distance()).isCloseTo(expected.distance(), within(1e-9));
+            assertThat(Earth.distance(p, tracked.point())).isCloseTo(expected.distance(), within(1e-9));
+        }
+    }
+
+    @Example
+    public void slowTracesRarelyWalk() {
+        NearestTracker tracker = INDEX.tracker(Double.POSITIVE_INFINITY);
+        // a kilometre and a bit east along a street in downtown Seattle, in ten metre steps
+        for (int i = 0; i < 100; i++) {
+            Point p = Geodetic.latLong(SEA_OFFICE.y(), SEA_OFFICE.x() + i * 0.00013);
+            assertThat(tracker.nearest(p).iata()).isEqualTo("BFI");
+        }
+        assertThat(tracker.walks()).isLessThan(10);
+    }
+
+    @Example
+    public void answersOnlyWithinMaxDistance() {
+        NearestTracker tracker = INDEX.tracker(5);
+        assertThat(tracker.nearest(SEA_OFFICE)).isNull();
+        assertThat(tracker.distance()).isEqualTo(Double.POSITIVE_INFINITY);
+        Point boeingField = AIRPORTS.stream().filter(a -> a.iata().equals("BFI")).findFirst().get().point();
+        assertThat(tracker.nearest(boeingField).iata()).isEqualTo("BFI");
+        assertThat(tracker.distance()).isCloseTo(0, within(1e-6));
+        assertThat(tracker.nearest(SEA_OFFICE)).isNull();
+
+        assertThat(AirportIndex.bulkLoad(ImmutableList.of()).tracker(100).nearest(SEA_OFFICE)).isNull();
+    }
+
+    @Example
+    public void snapsTraces() {
+        List<Point> trace = walk(SEA_OFFICE, 0.01, 500, 22);
+        List<NearestAirport> snapped = INDEX.snap(Observable.from(trace), 50).toList().toBlocking().single();
+        assertThat(snapped).hasSize(trace.size());
+        for (NearestAirport n : snapped) {
+            assertThat(n.distance()).isCloseTo(INDEX.nearestEntries(n.point(), 50, 1).get(0).distance(), within(1e-9));
+        }
+        assertThat(INDEX.snap(Observable.from(trace), 0.001).isEmpty().toBlocking().single()).isTrue();
+    }
+
+    /**
+     * A random walk of {@code count} points from {@code start}, each up to {@code step} degrees on from the
+     * last in each direction, kept off the poles and the antimeridian.
+     */
+    private static List<Point> walk(Point start, double step, int count, long seed) {
+        Random random = new Random(seed);
+        List<Point> points = new ArrayList<>(count);
+        double lat = start.y();
+        double lon = start.x();
+        for (int i = 0; i < count; i++) {
+            points.add(Geodetic.latLong(lat, lon));
+            lat = Math.max(-89, Math.min(89, lat + (random.nextDouble() * 2 - 1) * step));
+            lon = Math.max(-179, Math.min(179, lon + (random.nextDouble() * 2 - 1) * step));
+        }
+        return points;
+    }
+}
@@ -0,0 +1,107 @@
+package org.skife.retl;
+
+import com.google.common.collect.ImmutableList;
+import net.jqwik.api.Example;
+import net.jqwik.api.ForAll;
+import net.jqwik.api.Property;
+import org.assertj.core.util.Lists;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ParallelAirportCsvTest {
+
+    private static final List<Airport> AIRPORTS = ImmutableList.copyOf(Airport.loadKnownAirports()
+                                                                              .toBlocking()
+                                                                              .getIterator());
+
+    @Example
+    public void orderedMatchesJackson() throws Exception {
+        List<Airport> loaded = Lists.newArrayList(ParallelAirportCsv.load(csv(), true)
+                                                                    .toBlocking()
+                                                                    .toIterable());
+        assertThat(loaded).containsExactlyElementsOf(AIRPORTS);
+    }
+
+    @Example
+    public void unorderedMatchesJackson() throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            List<Airport> loaded = Lists.newArrayList(ParallelAirportCsv.load(csv(), false, pool)
+                                                                        .toBlocking()
+                                                                        .toIterable());
+            assertThat(loaded).containsExactlyInAnyOrderElementsOf(AIRPORTS);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Example
+    public void manySmallChunks() throws Exception {
+        // enough bytes for the buffer to be split many ways, so chunk boundaries land mid record
+        StringBuilder csv = new StringBuilder("latitude,iata,ignored,name,longitude,city,country\r\n");
+        for (int i = 0; i < 20000; i++) {
+            csv.append(i % 90).append(".25,A").append(i % 10).append("Z,x,\"Name, \"\"").append(i)
+               .append("\"\"\",").append(-(i % 180)).append(".5,City,Country\r\n");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(csv.toString().getBytes(StandardCharsets.UTF_8));
+        ForkJoinPool pool = new ForkJoinPool(8);
+        try {
+            List<Airport> loaded = Lists.newArrayList(ParallelAirportCsv.load(buffer, true, pool)
+                                                                        .toBlocking()
+                                                                        .toIterable());
+            assertThat(loaded).hasSize(20000);
+            assertThat(loaded.get(12345)).isEqualTo(ImmutableAirport.builder()
+                                                                    .name("Name, \"12345\"")
+                                                                    .iata("A5Z")
+                                                                    .city("City")
+                                                                    .country("Country")
+                                                                    .latitude(15.25f)
+                                                                    .longitude(-105.5f)
+                                                                    .build());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Property
+    public void parsesFloatsExactly(@ForAll float f) {
+        assertParses(Float.toString(f));
+        assertParses(Double.toString(f));
+        assertParses(String.format("%.12f", f));
+    }
+
+    @Property
+    public void parsesDecimalsExactly(@ForAll double d) {
+        assertParses(Double.toString(d));
+        assertParses(String.format("%.17f", d));
+    }
+
+    @Example
+    public void parsesOddities() {
+        assertParses("0");
+        assertParses("-0.0");
+        assertParses("0.000001");
+        assertParses("1e10");
+        assertParses("123456789012345678901234567890");
+        assertParses("NaN");
+        assertParses(".5");
+        assertParses("+7.");
+    }
+
+    private static void assertParses(String s) {
+        ByteBuffer b = ByteBuffer.wrap(s.getBytes(StandardCharsets.US_ASCII));
+        assertThat(ParallelAirportCsv.parseFloat(b, 0, b.limit())).isEqualTo(Float.parseFloat(s));
+    }
+
+    private static Path csv() throws Exception {
+        return Paths.get(ParallelAirportCsvTest.class.getResource("/airports.csv").toURI());
+    }
+}
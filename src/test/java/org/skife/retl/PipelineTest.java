@@ -0,0 +1,198 @@
+package org.skife.retl;
+
+import com.github.davidmoten.rtree.geometry.Point;
+import com.google.common.collect.ImmutableList;
+import net.jqwik.api.Example;
+import net.jqwik.api.ForAll;
+import net.jqwik.api.Property;
+import net.jqwik.api.constraints.IntRange;
+import rx.Observable;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class PipelineTest {
+
+    private static final List<Airport> AIRPORTS = ImmutableList.copyOf(Airport.loadKnownAirports()
+                                                                              .toBlocking()
+                                                                              .getIterator());
+
+    private static final AirportIndex INDEX = AirportIndex.bulkLoad(AIRPORTS);
+
+    private static final PipelineConfig SMALL_QUEUES = ImmutablePipelineConfig.builder().queueCapacity(16).build();
+
+    @Example
+    public void enrichesWithNearestAirport() throws Exception {
+        List<Point> points = TestPoints.jittered(AIRPORTS, 5000, 1.0);
+        List<NearestAirport> written = Collections.synchronizedList(new ArrayList<>());
+        List<StageStats> stats = Pipeline.from("points", Observable.from(points))
+                                         .map("enrich", 4, true, p -> nearest(p, 100))
+                                         .sink("store", 1, 100, written::addAll)
+                                         .run();
+
+        List<NearestAirport> expected = points.stream()
+                                              .map(p -> nearest(p, 100))
+                                              .filter(n -> n != null)
+                                              .collect(Collectors.toList());
+        assertThat(written).isEqualTo(expected);
+
+        assertThat(stats).extracting("name").containsExactly("points", "enrich", "store");
+        assertThat(stats).extracting("parallelism").containsExactly(1, 4, 1);
+        assertThat(stats.get(0).items()).isEqualTo(points.size());
+        assertThat(stats.get(1).items()).isEqualTo(expected.size());
+        assertThat(stats.get(2).items()).isEqualTo(expected.size());
+        assertThat(stats.get(2).batches()).isBetween((long) (expected.size() + 99) / 100, (long) expected.size());
+        assertThat(stats.get(0).capacity()).isZero();
+        for (StageStats s : stats.subList(1, 3)) {
+            assertThat(s.queued()).isZero();
+            assertThat(s.maxQueued()).isBetween(0, s.capacity());
+            assertThat(s.utilization()).isBetween(0.0, 1.0);
+            assertThat(s.throughput()).isPositive();
+        }
+    }
+
+    @Property(tries = 50)
+    public void keepsOrderOrEveryItem(@ForAll @IntRange(min = 1, max = 8) int parallelism,
+                                      @ForAll @IntRange(min = 1, max = 4) int sinks,
+                                      @ForAll @IntRange(min = 1, max = 64) int batchSize,
+                                      @ForAll boolean ordered) throws Exception {
+        List<Integer> written = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger largest = new AtomicInteger();
+        Pipeline.from("range", Observable.range(0, 2000), SMALL_QUEUES)
+                .map("odd", parallelism, ordered, i -> i % 2 == 0 ? null : i)
+                .map("square", parallelism, ordered, i -> (long) i * i)
+                .sink("collect", sinks, batchSize, batch -> {
+                    largest.accumulateAndGet(batch.size(), Math::max);
+                    batch.forEach(l -> written.add((int) Math.sqrt(l)));
+                })
+                .run();
+
+        List<Integer> expected = IntStream.range(0, 2000).filter(i -> i % 2 == 1).boxed().collect(Collectors.toList());
+        if (ordered && sinks == 1) {
+            assertThat(written).isEqualTo(expected);
+        }
+        else {
+            assertThat(written).containsExactlyInAnyOrderElementsOf(expected);
+        }
+        assertThat(largest.get()).isLessThanOrEqualTo(batchSize);
+    }
+
+    @Example
+    public void slowSinkHoldsBackTheSource() throws Exception {
+        AtomicInteger emitted = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        List<Integer> written = Collections.synchronizedList(new ArrayList<>());
+        PipelineJob job = Pipeline.from("range", Observable.range(0, 100_000).doOnNext(i -> emitted.incrementAndGet()),
+                                        SMALL_QUEUES)
+                                  .map("identity", 2, true, i -> i)
+                                  .sink("blocked", 1, 16, batch -> {
+                                      awaitUninterruptibly(release);
+                                      written.addAll(batch);
+                                  })
+                                  .start();
+
+        while (job.snapshot().get(1).queued() < 16 || job.snapshot().get(2).queued() < 16) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(100);
+        // two full queues, a batch, one item in each worker's hands, and what Rx prefetches
+        assertThat(emitted.get()).isLessThan(16 + 16 + 16 + 3 + 128 + 1);
+        assertThat(job.snapshot().get(2).maxQueued()).isEqualTo(16);
+
+        release.countDown();
+        List<StageStats> stats = job.await();
+        assertThat(stats.get(2).busy()).isGreaterThanOrEqualTo(Duration.ofMillis(100));
+        assertThat(written).isEqualTo(IntStream.range(0, 100_000).boxed().collect(Collectors.toList()));
+    }
+
+    @Example
+    public void failureStopsTheJob() throws Exception {
+        AtomicBoolean unsubscribed = new AtomicBoolean();
+        PipelineJob job = Pipeline.from("forever", Observable.range(0, Integer.MAX_VALUE)
+                                                              .doOnUnsubscribe(() -> unsubscribed.set(true)))
+                                  .map("fragile", 3, false, i -> {
+                                      if (i == 5000) {
+                                          throw new IllegalStateException("bad record " + i);
+                                      }
+                                      return i;
+                                  })
+                                  .sink("discard", 2, 10, batch -> { })
+                                  .start();
+        assertThatThrownBy(job::await).isInstanceOf(IllegalStateException.class).hasMessage("bad record 5000");
+        assertThat(unsubscribed.get()).isTrue();
+    }
+
+    @Example
+    public void closeCancels() throws Exception {
+        PipelineJob job = Pipeline.from("forever", Observable.range(0, Integer.MAX_VALUE))
+                                  .sink("slow", 1, 10, batch -> sleepUninterruptibly())
+                                  .start();
+        Thread.sleep(50);
+        job.close();
+        assertThatThrownBy(job::await).isInstanceOf(CancellationException.class);
+        assertThat(job.snapshot().get(1).items()).isLessThan(Integer.MAX_VALUE);
+
+        PipelineJob finished = Pipeline.from("one", Observable.just(1)).sink("drop", 1, 1, batch -> { });
+        finished.run();
+        finished.close();
+        assertThat(finished.await()).hasSize(2);
+    }
+
+    @Example
+    public void virtualThreadsWhenAvailable() throws Exception {
+        PipelineConfig config = ImmutablePipelineConfig.builder().virtualThreads(true).build();
+        PipelineJob job = Pipeline.from("range", Observable.range(0, 1000), config)
+                                  .map("double", 100, true, i -> i * 2)
+                                  .sink("sum", 10, 50, batch -> { });
+        assertThat(job.virtualThreads()).isEqualTo(PipelineJob.virtualThreadFactory() != null);
+        assertThat(job.run().get(2).items()).isEqualTo(1000);
+
+        assertThat(Pipeline.from("none", Observable.empty()).sink("drop", 1, 1, batch -> { }).virtualThreads())
+                .isFalse();
+    }
+
+    @Example
+    public void rejectsBadArguments() {
+        Pipeline<Integer> p = Pipeline.from("range", Observable.range(0, 10));
+        assertThatThrownBy(() -> p.map("x", 0, true, i -> i)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> p.sink("x", 1, 0, batch -> { })).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> ImmutablePipelineConfig.builder().queueCapacity(0).build())
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> p.sink("x", 1, 1, batch -> { }).await()).isInstanceOf(IllegalStateException.class);
+    }
+
+    private static NearestAirport nearest(Point p, double maxDistance) {
+        List<AirportIndex.Candidate> found = INDEX.nearestEntries(p, maxDistance, 1);
+        return found.isEmpty() ? null : ImmutableNearestAirport.of(p, found.get(0).airport(), found.get(0).distance());
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        try {
+            latch.await();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleepUninterruptibly() {
+        try {
+            TimeUnit.MILLISECONDS.sleep(1);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package org.skife.retl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.davidmoten.rtree.geometry.Point;
+import com.google.common.collect.ImmutableList;
+import net.jqwik.api.Example;
+import net.jqwik.api.ForAll;
+import net.jqwik.api.Property;
+import net.jqwik.api.constraints.IntRange;
+import net.jqwik.api.constraints.LongRange;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class PolygonTest {
+
+    private static final List<Airport> AIRPORTS = ImmutableList.copyOf(Airport.loadKnownAirports()
+                                                                              .toBlocking()
+                                                                              .getIterator());
+
+    private static final AirportIndex INDEX = AirportIndex.bulkLoad(AIRPORTS);
+
+    @Property(tries = 200)
+    public void matchesRayCasting(@ForAll @IntRange(min = 3, max = 400) int vertices,
+                                  @ForAll @LongRange(min = 0, max = Long.MAX_VALUE) long seed) {
+        Random random = new Random(seed);
+        List<Point> ring = blob(random.nextDouble() * 120 - 60, random.nextDouble() * 300 - 150, 20, vertices,
+                                random);
+        Polygon polygon = Polygon.of(ring);
+        for (int i = 0; i < 500; i++) {
+            Point p = Geodetic.latLong(ring.get(0).y() + random.nextDouble() * 60 - 30,
+                                       Math.max(-180, Math.min(180, ring.get(0).x() + random.nextDouble() * 60 - 30)));
+            assertThat(polygon.contains(p)).as("%s", p).isEqualTo(rayCast(ring, p.y(), p.x()));
+        }
+    }
+
+    @Property(tries = 100)
+    public void crossesTheAntimeridian(@ForAll @IntRange(min = 3, max = 400) int vertices,
+                                       @ForAll @LongRange(min = 0, max = Long.MAX_VALUE) long seed) {
+        Random random = new Random(seed);
+        double lat = random.nextDouble() * 120 - 60;
+        double lon = 170 + random.nextDouble() * 20;
+        List<Point> ring = blob(lat, lon, 15, vertices, random);
+        // the same shape away from the antimeridian, where plain ray casting works
+        List<Point> shifted = ring.stream()
+                                  .map(p -> Geodetic.latLong(p.y(), wrap(p.x() - 40)))
+                                  .collect(Collectors.toList());
+        Polygon polygon = Polygon.of(ring);
+        for (int i = 0; i < 500; i++) {
+            double pLat = Math.max(-90, Math.min(90, lat + random.nextDouble() * 40 - 20));
+            double pLon = wrap(lon + random.nextDouble() * 40 - 20);
+            assertThat(polygon.contains(pLat, pLon)).as("%s, %s", pLat, pLon)
+                                                   .isEqualTo(rayCast(shifted, pLat, wrap(pLon - 40)));
+        }
+    }
+
+    @Example
+    public void holesAndParts() {
+        List<Point> outer = square(0, 0, 10);
+        List<Point> hole = square(3, 3, 4);
+        List<Point> island = square(20, 20, 2);
+        Polygon polygon = Polygon.of(ImmutableList.of(hole, island, outer));
+        assertThat(polygon.rings()).isEqualTo(3);
+        assertThat(polygon.vertices()).isEqualTo(12);
+        assertThat(polygon.contains(1, 1)).isTrue();
+        assertThat(polygon.contains(5, 5)).isFalse();
+        assertThat(polygon.contains(21, 21)).isTrue();
+        assertThat(polygon.contains(15, 15)).isFalse();
+        assertThat(polygon.contains(-1, 5)).isFalse();
+
+        // a hole written starting on the other side of the antimeridian from its polygon
+        Polygon fiji = Polygon.of(ImmutableList.of(
+                ImmutableList.of(Geodetic.latLong(-20, 175), Geodetic.latLong(-20, -175),
+                                 Geodetic.latLong(-15, -175), Geodetic.latLong(-15, 175)),
+                ImmutableList.of(Geodetic.latLong(-18, -179), Geodetic.latLong(-18, 179),
+                                 Geodetic.latLong(-17, 179), Geodetic.latLong(-17, -179))));
+        assertThat(fiji.contains(-16, 177)).isTrue();
+        assertThat(fiji.contains(-16, -177)).isTrue();
+        assertThat(fiji.contains(-17.5, 180)).isFalse();
+        assertThat(fiji.contains(-17.5, -180)).isFalse();
+        assertThat(fiji.contains(-17.5, 179.5)).isFalse();
+        assertThat(fiji.contains(-17.5, 178.5)).isTrue();
+        assertThat(fiji.contains(-16, 170)).isFalse();
+        assertThat(fiji.contains(-16, -170)).isFalse();
+    }
+
+    @Example
+    public void aroundAPole() {
+        List<Point> ring = new ArrayList<>();
+        for (int lon = -180; lon < 180; lon += 10) {
+            ring.add(Geodetic.latLong(-70 + (lon % 20 == 0 ? 2 : -2), lon));
+        }
+        Polygon antarctic = Polygon.of(ring);
+        for (int lon = -180; lon <= 180; lon += 7) {
+            assertThat(antarctic.contains(-80, lon)).isTrue();
+            assertThat(antarctic.contains(-90, lon)).isTrue();
+            assertThat(antarctic.contains(-60, lon)).isFalse();
+            assertThat(antarctic.contains(80, lon)).isFalse();
+        }
+    }
+
+    @Example
+    public void airportsInPolygons() {
+        Random random = new Random(25);
+        List<Polygon> polygons = ImmutableList.of(
+                Polygon.of(blob(47, -120, 8, 2000, random)),
+                Polygon.of(blob(-20, 178, 12, 3000, random)),
+                Polygon.of(ImmutableList.of(blob(50, 10, 10, 1000, random), blob(50, 10, 3, 500, random))));
+        for (Polygon polygon : polygons) {
+            List<Airport> expected = AIRPORTS.stream()
+                                             .filter(a -> polygon.contains(a.point()))
+                                             .collect(Collectors.toList());
+            assertThat(expected).isNotEmpty();
+            assertThat(INDEX.withinPolygon(polygon).toList().toBlocking().single())
+                    .containsExactlyInAnyOrderElementsOf(expected);
+            assertThat(polygon.boundaryFraction()).isLessThan(0.5);
+        }
+
+        Polygon washington = Polygon.of(ImmutableList.of(
+                Geodetic.latLong(49, -124.8), Geodetic.latLong(49, -117), Geodetic.latLong(46, -117),
+                Geodetic.latLong(46, -124.8)));
+        assertThat(INDEX.withinPolygon(washington).toList().toBlocking().single())
+                .extracting("iata").contains("SEA", "BFI", "GEG").doesNotContain("PDX", "YVR");
+    }
+
+    @Example
+    public void readsGeoJson() throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        Polygon donut = Polygon.fromGeoJson(mapper.readTree(
+                "{\"type\":\"Feature\",\"properties\":{},\"geometry\":{\"type\":\"Polygon\",\"coordinates\":"
+                + "[[[0,0],[10,0],[10,10],[0,10],[0,0]],[[3,3],[7,3],[7,7],[3,7],[3,3]]]}}"));
+        assertThat(donut.rings()).isEqualTo(2);
+        assertThat(donut.contains(1, 1)).isTrue();
+        assertThat(donut.contains(5, 5)).isFalse();
+
+        Polygon parts = Polygon.fromGeoJson(mapper.readTree(
+                "{\"type\":\"MultiPolygon\",\"coordinates\":"
+                + "[[[[0,0],[1,0],[1,1],[0,0]]],[[[179,-1],[-179,-1],[-179,1],[179,1],[179,-1]]]]}"));
+        assertThat(parts.rings()).isEqualTo(2);
+        assertThat(parts.contains(0, 180)).isTrue();
+        assertThat(parts.contains(0.25, 0.75)).isTrue();
+        assertThat(parts.contains(0.75, 0.25)).isFalse();
+
+        assertThatThrownBy(() -> Polygon.fromGeoJson(mapper.readTree("{\"type\":\"Point\",\"coordinates\":[0,0]}")))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> Polygon.of(square(0, 0, 1).subList(0, 2)))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    /**
+     * A star shaped ring with {@code n} vertices, jagged the way real boundaries are.
+     */
+    static List<Point> blob(double lat, double lon, double radius, int n, Random random) {
+        List<Point> ring = new ArrayList<>(n);
+        double lobes = 2 + random.nextInt(6);
+        for (int i = 0; i < n; i++) {
+            double angle = 2 * Math.PI * i / n;
+            double r = radius * (0.6 + 0.3 * Math.sin(lobes * angle) + 0.1 * random.nextDouble());
+            ring.add(Geodetic.latLong(Math.max(-90, Math.min(90, lat + r * Math.sin(angle))),
+                                      wrap(lon + r * Math.cos(angle))));
+        }
+        return ring;
+    }
+
+    private static List<Point> square(double lat, double lon, double side) {
+        return ImmutableList.of(Geodetic.latLong(lat, lon), Geodetic.latLong(lat, lon + side),
+                                Geodetic.latLong(lat + side, lon + side), Geodetic.latLong(lat + side, lon));
+    }
+
+    private static double wrap(double lon) {
+        return lon > 180 ? lon - 360 : lon < -180 ? lon + 360 : lon;
+    }
+
+    /**
+     * Plain ray casting over every edge.
+     */
+    private static boolean rayCast(List<Point> ring, double lat, double lon) {
+        boolean inside = false;
+        for (int i = 0, j = ring.size() - 1; i < ring.size(); j = i++) {
+            double yi = ring.get(i).y();
+            double xi = ring.get(i).x();
+            double yj = ring.get(j).y();
+            double xj = ring.get(j).x();
+            if ((yi > lat) != (yj > lat) && lon < xi + (lat - yi) * (xj - xi) / (yj - yi)) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+}
@@ -0,0 +1,159 @@
+package org.skife.retl;
+
+import com.github.davidmoten.rtree.geometry.Point;
+import com.google.common.collect.ImmutableList;
+import net.jqwik.api.Arbitraries;
+import net.jqwik.api.Arbitrary;
+import net.jqwik.api.Example;
+import net.jqwik.api.ForAll;
+import net.jqwik.api.Property;
+import net.jqwik.api.Provide;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class QueryMetricsTest {
+
+    private static final Point SEA_OFFICE = Geodetic.latLong(47.607148, -122.3381338);
+
+    private static final Point BLR_OFFICE = Geodetic.latLong(12.9796, 77.7277);
+
+    private static final List<Airport> AIRPORTS = ImmutableList.copyOf(Airport.loadKnownAirports()
+                                                                              .toBlocking()
+                                                                              .getIterator());
+
+    private static final AirportIndex INDEX = AirportIndex.bulkLoad(AIRPORTS);
+
+    @Example
+    public void disabledByDefault() {
+        INDEX.nearest(SEA_OFFICE, 30, 3).toBlocking().last();
+        INDEX.withinDistance(SEA_OFFICE, 20).toBlocking().last();
+
+        assertThat(INDEX.metrics()).isSameAs(QueryMetrics.DISABLED);
+        QueryStats stats = QueryMetrics.DISABLED.snapshot();
+        assertThat(stats.queries()).isZero();
+        assertThat(stats.p999()).isEqualTo(Duration.ZERO);
+        assertThat(stats.costliestPoint()).isEmpty();
+    }
+
+    @Example
+    public void countsNearest() {
+        QueryMetrics metrics = QueryMetrics.create();
+        AirportIndex index = INDEX.withMetrics(metrics);
+        assertThat(index.nearest(SEA_OFFICE, 30, 3).toList().toBlocking().single()).hasSize(3);
+
+        QueryStats stats = metrics.snapshot();
+        assertThat(stats.queries()).isEqualTo(1);
+        assertThat(stats.results()).isEqualTo(3);
+        assertThat(stats.nodesVisited()).isPositive().isLessThan(index.nodeCount());
+        assertThat(stats.distanceEvaluations()).isGreaterThan(stats.nodesVisited());
+        assertThat(stats.p50().toNanos()).isPositive();
+        assertThat(stats.max()).isGreaterThanOrEqualTo(stats.p999());
+        assertThat(stats.costliestNodes()).isEqualTo(stats.nodesVisited());
+        assertThat(stats.costliestPoint()).hasValueSatisfying(p -> {
+            assertThat(p.y()).isEqualTo(SEA_OFFICE.y());
+            assertThat(p.x()).isEqualTo(SEA_OFFICE.x());
+        });
+    }
+
+    @Example
+    public void countsRadiusQueriesWhenDoneOrUnsubscribed() {
+        QueryMetrics metrics = QueryMetrics.create();
+        AirportIndex index = INDEX.withMetrics(metrics);
+        assertThat(index.withinDistance(SEA_OFFICE, 20).toList().toBlocking().single()).hasSize(3);
+        assertThat(metrics.snapshot().queries()).isEqualTo(1);
+        assertThat(metrics.snapshot().results()).isEqualTo(3);
+        assertThat(metrics.snapshot().distanceEvaluations()).isGreaterThanOrEqualTo(3);
+
+        index.withinBox(-90, -180, 90, 180).take(5).toBlocking().last();
+        assertThat(metrics.snapshot().queries()).isEqualTo(2);
+        assertThat(metrics.snapshot().results()).isEqualTo(8);
+    }
+
+    @Example
+    public void countsCorridorQueries() {
+        QueryMetrics metrics = QueryMetrics.create();
+        AirportIndex index = INDEX.withMetrics(metrics);
+        int found = index.corridor(SEA_OFFICE, BLR_OFFICE, 100).count().toBlocking().single();
+
+        QueryStats stats = metrics.snapshot();
+        assertThat(stats.queries()).isEqualTo(1);
+        assertThat(stats.results()).isEqualTo(found);
+        // each stretch of the route walks the tree afresh, so nodes may be counted more than once
+        assertThat(stats.nodesVisited()).isPositive();
+        assertThat(stats.distanceEvaluations()).isGreaterThanOrEqualTo(found);
+        assertThat(stats.costliestPoint()).contains(SEA_OFFICE);
+
+        // taking the first few stops the search after the first stretch, and the tally shows it
+        index.corridor(SEA_OFFICE, BLR_OFFICE, 100).take(2).toBlocking().last();
+        assertThat(metrics.snapshot().queries()).isEqualTo(2);
+        assertThat(metrics.snapshot().results()).isEqualTo(found + 2);
+        assertThat(metrics.snapshot().nodesVisited() - stats.nodesVisited()).isLessThan(stats.nodesVisited() / 4);
+    }
+
+    @Example
+    public void countsPolygonQueries() {
+        QueryMetrics metrics = QueryMetrics.create();
+        AirportIndex index = INDEX.withMetrics(metrics);
+        Polygon washington = Polygon.of(ImmutableList.of(Geodetic.latLong(49, -124.8), Geodetic.latLong(49, -117),
+                                                         Geodetic.latLong(46, -117), Geodetic.latLong(45.6, -124)));
+        int found = index.withinPolygon(washington).count().toBlocking().single();
+        assertThat(found).isPositive();
+
+        QueryStats stats = metrics.snapshot();
+        assertThat(stats.queries()).isEqualTo(1);
+        assertThat(stats.results()).isEqualTo(found);
+        assertThat(stats.distanceEvaluations()).isGreaterThanOrEqualTo(found);
+        assertThat(stats.p50().toNanos()).isPositive();
+    }
+
+    @Example
+    public void countsEveryPointInABatch() {
+        QueryMetrics metrics = QueryMetrics.create();
+        Random random = new Random(16);
+        double[] lats = new double[500];
+        double[] lons = new double[500];
+        for (int i = 0; i < lats.length; i++) {
+            lats[i] = random.nextDouble() * 180 - 90;
+            lons[i] = random.nextDouble() * 360 - 180;
+        }
+        Airport[] found = INDEX.withMetrics(metrics).nearest(lats, lons, 500, new double[lats.length]);
+
+        QueryStats stats = metrics.snapshot();
+        assertThat(stats.queries()).isEqualTo(lats.length);
+        assertThat(stats.results()).isEqualTo(Arrays.stream(found).filter(a -> a != null).count());
+        assertThat(stats.nodesPerQuery()).isPositive();
+    }
+
+    @Property
+    public void quantilesAreWithinABucket(@ForAll("latencies") List<Long> latencies) {
+        LatencyHistogram histogram = new LatencyHistogram();
+        latencies.forEach(histogram::record);
+        long[] sorted = latencies.stream().mapToLong(Long::longValue).sorted().toArray();
+
+        for (double q : new double[]{0.5, 0.99, 0.999}) {
+            long exact = sorted[(int) Math.max(0, Math.ceil(q * sorted.length) - 1)];
+            assertThat(histogram.quantile(q)).isBetween(exact, exact + exact / 8);
+        }
+        assertThat(histogram.max()).isEqualTo(sorted[sorted.length - 1]);
+    }
+
+    @Property
+    public void bucketsCoverEveryValue(@ForAll long value) {
+        long v = Math.abs(value == Long.MIN_VALUE ? Long.MAX_VALUE : value);
+        int bucket = LatencyHistogram.bucket(v);
+        assertThat(LatencyHistogram.upperBound(bucket)).isGreaterThanOrEqualTo(v);
+        if (bucket > 0) {
+            assertThat(LatencyHistogram.upperBound(bucket - 1)).isLessThan(v);
+        }
+    }
+
+    @Provide
+    Arbitrary<List<Long>> latencies() {
+        return Arbitraries.longs().between(0, 10_000_000_000L).list().ofMinSize(1).ofMaxSize(2000);
+    }
+}
@@ -0,0 +1,175 @@
+package org.skife.retl;
+
+import com.github.davidmoten.rtree.geometry.Point;
+import com.google.common.collect.ImmutableList;
+import net.jqwik.api.Arbitraries;
+import net.jqwik.api.Arbitrary;
+import net.jqwik.api.Example;
+import net.jqwik.api.ForAll;
+import net.jqwik.api.Property;
+import net.jqwik.api.Provide;
+import net.jqwik.api.constraints.IntRange;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.skife.retl.Geodetic.Earth;
+
+public class ShardedAirportIndexTest {
+
+    private static final Point SEA_OFFICE = Geodetic.latLong(47.607148, -122.3381338);
+
+    private static final List<Airport> AIRPORTS = ImmutableList.copyOf(Airport.loadKnownAirports()
+                                                                              .toBlocking()
+                                                                              .getIterator());
+
+    private static final AirportIndex TREE = AirportIndex.bulkLoad(AIRPORTS);
+    private static final ShardedAirportIndex LOCAL = ShardedAirportIndex.create(AIRPORTS, 7);
+    private static final ShardServer SERVER = startServer();
+    private static final ShardedAirportIndex REMOTE = ShardedAirportIndex.create(AIRPORTS, 4,
+                                                                                 RemoteShard.roundRobin(SERVER.port()),
+                                                                                 ForkJoinPool.commonPool());
+
+    @Example
+    public void seattle() {
+        for (ShardedAirportIndex index : new ShardedAirportIndex[]{LOCAL, REMOTE}) {
+            List<NearestAirport> nearest = index.nearestAirports(SEA_OFFICE, 100, 3);
+            assertThat(nearest).extracting("airport.iata").containsExactly("BFI", "RNT", "SEA");
+            assertThat(nearest.get(0).point()).isSameAs(SEA_OFFICE);
+            assertThat(index.withinDistance(SEA_OFFICE, 20).toList().toBlocking().single())
+                    .extracting("iata").containsExactlyInAnyOrder("BFI", "RNT", "SEA");
+            assertThat(index.nearest(SEA_OFFICE, 8.9, 1).toList().toBlocking().single()).isEmpty();
+            assertThat(index.size()).isEqualTo(AIRPORTS.size());
+        }
+    }
+
+    @Property
+    public void nearestMatchesTree(@ForAll Point p,
+                                   @ForAll("distances") double maxDistance,
+                                   @ForAll @IntRange(min = 1, max = 20) int count) {
+        List<Double> expected = distances(p, TREE.nearest(p, maxDistance, count).toList().toBlocking().single());
+        assertThat(distances(p, LOCAL.nearest(p, maxDistance, count).toList().toBlocking().single()))
+                .isEqualTo(expected);
+        assertThat(distances(p, REMOTE.nearest(p, maxDistance, count).toList().toBlocking().single()))
+                .isEqualTo(expected);
+    }
+
+    @Property
+    public void withinDistanceMatchesTree(@ForAll Point p, @ForAll("distances") double distance) {
+        List<Airport> expected = TREE.withinDistance(p, distance).toList().toBlocking().single();
+        assertThat(LOCAL.withinDistance(p, distance).toList().toBlocking().single())
+                .containsExactlyInAnyOrderElementsOf(expected);
+        assertThat(REMOTE.withinDistance(p, distance).toList().toBlocking().single())
+                .containsExactlyInAnyOrderElementsOf(expected);
+    }
+
+    @Example
+    public void everything() {
+        assertThat(LOCAL.nearest(SEA_OFFICE, Double.POSITIVE_INFINITY, Integer.MAX_VALUE).count().toBlocking().single())
+                .isEqualTo(AIRPORTS.size());
+        assertThat(REMOTE.withinDistance(SEA_OFFICE, Earth.circumference()).count().toBlocking().single())
+                .isEqualTo(AIRPORTS.size());
+    }
+
+    @Example
+    public void moreShardsThanAirports() {
+        ShardedAirportIndex index = ShardedAirportIndex.create(AIRPORTS.subList(0, 3), 10);
+        assertThat(index.shardCount()).isEqualTo(3);
+        assertThat(index.nearest(SEA_OFFICE, Double.POSITIVE_INFINITY, 5).count().toBlocking().single()).isEqualTo(3);
+        assertThat(ShardedAirportIndex.create(ImmutableList.of(), 4).nearest(SEA_OFFICE, 100, 1).isEmpty()
+                                      .toBlocking().single()).isTrue();
+        assertThatThrownBy(() -> ShardedAirportIndex.create(AIRPORTS, 0)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Example
+    public void countsFailedConnections() throws Exception {
+        long before = SERVER.failedConnections();
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), SERVER.port())) {
+            socket.getOutputStream().write(99);
+            assertThat(socket.getInputStream().read()).isEqualTo(-1);
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (SERVER.failedConnections() == before && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(SERVER.failedConnections()).isEqualTo(before + 1);
+    }
+
+    @Example
+    public void shardsInOtherProcesses() throws Exception {
+        List<Process> servers = new ArrayList<>();
+        try {
+            int[] ports = new int[2];
+            for (int i = 0; i < ports.length; i++) {
+                Process server = new ProcessBuilder(System.getProperty("java.home") + File.separator + "bin"
+                                                    + File.separator + "java",
+                                                    "-cp", System.getProperty("java.class.path"),
+                                                    ShardServer.class.getName())
+                        .redirectError(ProcessBuilder.Redirect.INHERIT)
+                        .start();
+                servers.add(server);
+                BufferedReader out = new BufferedReader(new InputStreamReader(server.getInputStream(),
+                                                                              StandardCharsets.UTF_8));
+                String line = out.readLine();
+                assertThat(line).startsWith("listening on ");
+                ports[i] = Integer.parseInt(line.substring("listening on ".length()));
+            }
+
+            try (ShardedAirportIndex index = ShardedAirportIndex.create(AIRPORTS, 6, RemoteShard.roundRobin(ports),
+                                                                        ForkJoinPool.commonPool())) {
+                for (Point p : new Point[]{SEA_OFFICE, Geodetic.latLong(-16.5, 179.999), Geodetic.latLong(89, 0)}) {
+                    assertThat(index.nearest(p, Double.POSITIVE_INFINITY, 10).toList().toBlocking().single())
+                            .containsExactlyElementsOf(TREE.nearest(p, Double.POSITIVE_INFINITY, 10)
+                                                           .toList().toBlocking().single());
+                    assertThat(index.withinDistance(p, 1500).toList().toBlocking().single())
+                            .containsExactlyInAnyOrderElementsOf(TREE.withinDistance(p, 1500)
+                                                                     .toList().toBlocking().single());
+                }
+            }
+
+            // a server going away fails the queries sent to it
+            servers.get(0).destroy();
+            servers.get(0).waitFor();
+            RemoteShard orphan = RemoteShard.connect(ports[1], AIRPORTS.subList(0, 10));
+            servers.get(1).getOutputStream().close();
+            servers.get(1).waitFor();
+            assertThatThrownBy(() -> orphan.nearest(SEA_OFFICE, 100, 1)).isInstanceOf(UncheckedIOException.class);
+        }
+        finally {
+            servers.forEach(Process::destroy);
+        }
+    }
+
+    private static ShardServer startServer() {
+        try {
+            return ShardServer.start(0);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static List<Double> distances(Point p, List<Airport> airports) {
+        return airports.stream()
+                       .map(a -> Earth.distance(p.y(), p.x(), a.point().y(), a.point().x()))
+                       .collect(Collectors.toList());
+    }
+
+    @Provide
+    Arbitrary<Double> distances() {
+        return Arbitraries.doubles().between(0, 5000);
+    }
+}
@@ -0,0 +1,32 @@
+package org.skife.retl;
+
+import com.github.davidmoten.rtree.geometry.Point;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Points for tests which want realistic rather than uniform positions.
+ */
+final class TestPoints {
+
+    private TestPoints() {
+    }
+
+    /**
+     * {@code count} points scattered up to {@code degrees} around randomly chosen airports, so they fall
+     * where airports are, as real queries would.
+     */
+    static List<Point> jittered(List<Airport> airports, int count, double degrees) {
+        Random random = new Random(20);
+        List<Point> points = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Airport a = airports.get(random.nextInt(airports.size()));
+            double lat = Math.max(-90, Math.min(90, a.latitude() + (random.nextDouble() * 2 - 1) * degrees));
+            double lon = Math.max(-180, Math.min(180, a.longitude() + (random.nextDouble() * 2 - 1) * degrees));
+            points.add(Geodetic.latLong(lat, lon));
+        }
+        return points;
+    }
+}